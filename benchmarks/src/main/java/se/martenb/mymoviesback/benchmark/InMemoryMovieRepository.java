@@ -0,0 +1,106 @@
+package se.martenb.mymoviesback.benchmark;
+
+import se.martenb.mymoviesback.dao.MovieRepository;
+import se.martenb.mymoviesback.model.Movie;
+import se.martenb.mymoviesback.model.MovieUpsertResult;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * A movie repository backed by a map, so that the service can be measured without a database. It holds the collection
+ * of a single owner, which is all the benchmarks use. Only the methods the benchmarked service methods use are
+ * implemented, everything else throws.
+ */
+final class InMemoryMovieRepository {
+    private final String owner;
+    private final Map<String, Movie> movies = new LinkedHashMap<>();
+    private long nextId;
+
+    private InMemoryMovieRepository(String owner, List<Movie> movies) {
+        this.owner = owner;
+        for (Movie movie : movies) {
+            this.movies.put(movie.getImdbId(), new Movie(movie));
+            nextId = Math.max(nextId, movie.getId() + 1);
+        }
+    }
+
+    /**
+     * Create a repository holding copies of the given movies as the collection of the given owner.
+     *
+     * @param owner The owner of the movies.
+     * @param movies The initial movies.
+     * @return The repository.
+     */
+    static MovieRepository of(String owner, List<Movie> movies) {
+        InMemoryMovieRepository repository = new InMemoryMovieRepository(owner, movies);
+        return (MovieRepository) Proxy.newProxyInstance(MovieRepository.class.getClassLoader(),
+                new Class<?>[] {MovieRepository.class}, (proxy, method, args) -> repository.invoke(method, args));
+    }
+
+    private Object invoke(Method method, Object[] args) {
+        switch (method.getName()) {
+            case "findByOwner":
+                return owner.equals(args[0]) ? new ArrayList<>(movies.values()) : new ArrayList<>();
+            case "findOneByOwnerAndImdbId":
+                return owner.equals(args[0]) ? movies.get((String) args[1]) : null;
+            case "findByOwnerAndNameContaining":
+                return movies.values().stream()
+                        .filter(movie -> owner.equals(args[0]) && movie.getName().contains((String) args[1]))
+                        .collect(Collectors.toList());
+            case "insertIfAbsent":
+                return insertIfAbsent((Movie) args[0]);
+            case "upsert":
+                return upsert((Movie) args[0]);
+            case "updateRating":
+                return updateRating((String) args[0], (String) args[1], (Integer) args[2]);
+            case "hashCode":
+                return System.identityHashCode(this);
+            case "equals":
+                return false;
+            case "toString":
+                return "InMemoryMovieRepository";
+            default:
+                break;
+        }
+        throw new UnsupportedOperationException(method.toString());
+    }
+
+    private Optional<Movie> insertIfAbsent(Movie movie) {
+        checkOwner(movie.getOwner());
+        if (movies.containsKey(movie.getImdbId()))
+            return Optional.empty();
+        return Optional.of(store(new Movie(nextId++, owner, movie.getImdbId(), movie.getName(), movie.isSeen(),
+                movie.getRating(), 0)));
+    }
+
+    private MovieUpsertResult upsert(Movie movie) {
+        checkOwner(movie.getOwner());
+        Movie existing = movies.get(movie.getImdbId());
+        if (existing == null)
+            return new MovieUpsertResult(insertIfAbsent(movie).orElseThrow(), true);
+        return new MovieUpsertResult(store(new Movie(existing.getId(), owner, movie.getImdbId(), movie.getName(),
+                movie.isSeen(), movie.getRating(), existing.getVersion() + 1)), false);
+    }
+
+    private Optional<Movie> updateRating(String owner, String imdbId, int rating) {
+        checkOwner(owner);
+        Movie existing = movies.get(imdbId);
+        if (existing == null || !(existing.isSeen() ? rating >= 1 && rating <= 10 : rating == 0))
+            return Optional.empty();
+        return Optional.of(store(new Movie(existing.getId(), owner, existing.getImdbId(), existing.getName(),
+                existing.isSeen(), rating, existing.getVersion() + 1)));
+    }
+
+    private void checkOwner(String owner) {
+        if (!this.owner.equals(owner))
+            throw new UnsupportedOperationException("Only the movies of " + this.owner + " are held");
+    }
+
+    private Movie store(Movie movie) {
+        movies.put(movie.getImdbId(), movie);
+        return new Movie(movie);
+    }
+}
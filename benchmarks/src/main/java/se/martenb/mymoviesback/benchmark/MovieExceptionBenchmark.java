@@ -0,0 +1,56 @@
+package se.martenb.mymoviesback.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.ResponseEntity;
+import se.martenb.mymoviesback.controller.MovieAlreadyExistsException;
+import se.martenb.mymoviesback.controller.MovieExceptionController;
+import se.martenb.mymoviesback.controller.MovieNotFoundException;
+
+import javax.validation.ConstraintViolationException;
+import javax.validation.Validation;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the error responses, both from an exception that has already been thrown and including creating the
+ * exception, since filling in the stack trace usually dominates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MovieExceptionBenchmark {
+    private MovieExceptionController exceptionController;
+    private MovieNotFoundException notFoundException;
+    private ConstraintViolationException constraintViolationException;
+
+    @Setup
+    public void setUp() {
+        exceptionController = new MovieExceptionController(new SimpleMeterRegistry());
+        notFoundException = new MovieNotFoundException();
+        constraintViolationException = new ConstraintViolationException(
+                Validation.buildDefaultValidatorFactory().getValidator().validate(Movies.invalidMovie()));
+    }
+
+    @Benchmark
+    public ResponseEntity<Object> notFound() {
+        return exceptionController.exception(notFoundException);
+    }
+
+    @Benchmark
+    public ResponseEntity<Object> notFoundIncludingException() {
+        return exceptionController.exception(new MovieNotFoundException());
+    }
+
+    @Benchmark
+    public ResponseEntity<Object> alreadyExistsIncludingException() {
+        return exceptionController.exception(new MovieAlreadyExistsException());
+    }
+
+    @Benchmark
+    public ResponseEntity<Object> constraintViolation() {
+        return exceptionController.exception(constraintViolationException);
+    }
+}
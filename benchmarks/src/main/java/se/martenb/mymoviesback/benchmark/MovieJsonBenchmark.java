@@ -0,0 +1,67 @@
+package se.martenb.mymoviesback.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.*;
+import se.martenb.mymoviesback.model.Movie;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing movies to JSON and back, the way the controller does for requests and responses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MovieJsonBenchmark {
+    private ObjectWriter movieWriter;
+    private ObjectWriter moviesWriter;
+    private ObjectReader movieReader;
+    private ObjectReader moviesReader;
+    private Movie movie;
+    private List<Movie> movies;
+    private String movieJson;
+    private String moviesJson;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        movieWriter = objectMapper.writerFor(Movie.class);
+        moviesWriter = objectMapper.writerFor(new TypeReference<List<Movie>>() {});
+        movieReader = objectMapper.readerFor(Movie.class);
+        moviesReader = objectMapper.readerFor(new TypeReference<List<Movie>>() {});
+        movie = Movies.movie();
+        movies = Movies.collection();
+        movieJson = movieWriter.writeValueAsString(movie);
+        moviesJson = moviesWriter.writeValueAsString(movies);
+    }
+
+    @Benchmark
+    public byte[] serializeMovie() throws JsonProcessingException {
+        return movieWriter.writeValueAsBytes(movie);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] serializeMovies() throws JsonProcessingException {
+        return moviesWriter.writeValueAsBytes(movies);
+    }
+
+    @Benchmark
+    public Movie deserializeMovie() throws JsonProcessingException {
+        return movieReader.readValue(movieJson);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<Movie> deserializeMovies() throws JsonProcessingException {
+        return moviesReader.readValue(moviesJson);
+    }
+}
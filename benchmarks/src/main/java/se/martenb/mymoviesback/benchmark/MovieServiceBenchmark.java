@@ -0,0 +1,69 @@
+package se.martenb.mymoviesback.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import se.martenb.mymoviesback.dao.MovieRepository;
+import se.martenb.mymoviesback.model.Movie;
+import se.martenb.mymoviesback.service.ContainingMovieSearch;
+import se.martenb.mymoviesback.service.MovieService;
+import se.martenb.mymoviesback.service.MovieServiceImpl;
+
+import javax.validation.Validation;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The service methods on top of an in-memory repository, which measures what the service itself adds to a request:
+ * validation, copying and publishing change events. Transactions and caching are not applied, since the service is
+ * not created by Spring.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MovieServiceBenchmark {
+    private static final String OWNER = Movie.DEFAULT_OWNER;
+
+    private MovieService movieService;
+    private Movie movie;
+    private String imdbId;
+    private int rating;
+
+    @Setup
+    public void setUp() {
+        MovieRepository movieRepository = InMemoryMovieRepository.of(OWNER, Movies.collection());
+        movieService = new MovieServiceImpl(movieRepository, new ContainingMovieSearch(movieRepository),
+                Validation.buildDefaultValidatorFactory().getValidator(), event -> {});
+        imdbId = Movies.imdbId(Movies.COLLECTION_SIZE / 2);
+        movie = new Movie(imdbId, "Spider-Man: No Way Home", true, 10);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<Movie> getAllMovies() {
+        return movieService.getAllMovies(OWNER, null);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<Movie> searchMovies() {
+        return movieService.getAllMovies(OWNER, "Spider-Man");
+    }
+
+    @Benchmark
+    public Movie getMovieByImdbId() {
+        return movieService.getMovieByImdbId(OWNER, imdbId);
+    }
+
+    @Benchmark
+    public boolean upsertMovie() {
+        return movieService.upsertMovie(OWNER, imdbId, movie);
+    }
+
+    @Benchmark
+    public void updateRating() {
+        rating = rating % 10 + 1;
+        movieService.updateRating(OWNER, imdbId, rating);
+    }
+}
@@ -0,0 +1,55 @@
+package se.martenb.mymoviesback.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import se.martenb.mymoviesback.model.Movie;
+import se.martenb.mymoviesback.model.SeenAndRatingValidator;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The seen and rating rule on its own, and validation of a whole movie with all of its constraints.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MovieValidationBenchmark {
+    private SeenAndRatingValidator seenAndRatingValidator;
+    private Validator validator;
+    private Movie movie;
+    private Movie invalidMovie;
+
+    @Setup
+    public void setUp() {
+        seenAndRatingValidator = new SeenAndRatingValidator();
+        validator = Validation.buildDefaultValidatorFactory().getValidator();
+        movie = Movies.movie();
+        invalidMovie = Movies.invalidMovie();
+    }
+
+    @Benchmark
+    public boolean seenAndRatingValid() {
+        return seenAndRatingValidator.isValid(movie, null);
+    }
+
+    @Benchmark
+    public boolean seenAndRatingInvalid() {
+        return seenAndRatingValidator.isValid(invalidMovie, null);
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<Movie>> validateValidMovie() {
+        return validator.validate(movie);
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<Movie>> validateInvalidMovie() {
+        return validator.validate(invalidMovie);
+    }
+}
@@ -0,0 +1,45 @@
+package se.martenb.mymoviesback.benchmark;
+
+import se.martenb.mymoviesback.model.Movie;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test data shared by the benchmarks.
+ */
+final class Movies {
+    static final int COLLECTION_SIZE = 1000;
+
+    private Movies() {}
+
+    /**
+     * A stored movie that passes validation.
+     */
+    static Movie movie() {
+        return new Movie(1L, "tt10872600", "Spider-Man: No Way Home", true, 10);
+    }
+
+    /**
+     * A movie that breaks every rule, so validation reports as many violations as possible.
+     */
+    static Movie invalidMovie() {
+        return new Movie("", "", false, 11);
+    }
+
+    /**
+     * A collection of stored movies, every tenth of them named "Spider-Man".
+     */
+    static List<Movie> collection() {
+        List<Movie> movies = new ArrayList<>(COLLECTION_SIZE);
+        for (int i = 1; i <= COLLECTION_SIZE; i++) {
+            String name = (i % 10 == 0 ? "Spider-Man " : "Movie ") + i;
+            movies.add(new Movie(i, imdbId(i), name, i % 2 == 0, i % 2 == 0 ? i % 10 + 1 : 0));
+        }
+        return movies;
+    }
+
+    static String imdbId(int i) {
+        return String.format("tt%07d", i);
+    }
+}
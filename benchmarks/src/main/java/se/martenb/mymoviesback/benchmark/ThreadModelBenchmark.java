@@ -0,0 +1,62 @@
+package se.martenb.mymoviesback.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import se.martenb.mymoviesback.config.VirtualThreads;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many concurrent requests that each spend most of their time waiting, like a request waiting on the database, run on
+ * a pool of platform threads the size of Tomcat's default pool and on one virtual thread per request. The score is
+ * the time until all requests have completed. The virtual variant requires running the benchmarks on Java 21 or
+ * later.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThreadModelBenchmark {
+    private static final int PLATFORM_THREADS = 200;
+    private static final long WAIT_MILLIS = 20;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"1000", "10000"})
+    public int requests;
+
+    private ExecutorService executor;
+
+    @Setup
+    public void setUp() {
+        executor = threads.equals("virtual")
+                ? VirtualThreads.newVirtualThreadPerTaskExecutor("benchmark-")
+                : Executors.newFixedThreadPool(PLATFORM_THREADS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void concurrentSlowRequests() throws InterruptedException {
+        CountDownLatch completed = new CountDownLatch(requests);
+        for (int i = 0; i < requests; i++) {
+            executor.execute(() -> {
+                try {
+                    Thread.sleep(WAIT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                completed.countDown();
+            });
+        }
+        completed.await();
+    }
+}
@@ -0,0 +1,14 @@
+package se.martenb.mymoviesback.config;
+
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Enables caching, the caches themselves are configured with the spring.cache properties.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+    public static final String MOVIES_BY_IMDB_ID = "moviesByImdbId";
+    public static final String MOVIE_STATS = "movieStats";
+}
@@ -0,0 +1,28 @@
+package se.martenb.mymoviesback.config;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Times the methods annotated with @Timed. Repository queries, HTTP requests and the connection pool are measured by
+ * Spring Boot itself, and their histograms are enabled with the management.metrics properties.
+ */
+@Configuration
+public class MetricsConfig {
+    public static final String SERVICE_TIMER = "movies.service";
+    public static final String EXCEPTION_COUNTER = "movies.exceptions";
+    public static final String WRITE_BEHIND_PENDING_GAUGE = "movies.write-behind.pending";
+    public static final String CONCURRENCY_LIMIT_GAUGE = "movies.concurrency.limit";
+    public static final String CONCURRENCY_IN_FLIGHT_GAUGE = "movies.concurrency.in-flight";
+    public static final String CONCURRENCY_REJECTED_COUNTER = "movies.concurrency.rejected";
+    public static final String CHANGES_SUBSCRIBERS_GAUGE = "movies.changes.subscribers";
+    public static final String CHANGES_RESYNC_COUNTER = "movies.changes.resyncs";
+    public static final String CHANGES_WATERMARK_LAG_GAUGE = "movies.changes.watermark-lag";
+
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry registry) {
+        return new TimedAspect(registry);
+    }
+}
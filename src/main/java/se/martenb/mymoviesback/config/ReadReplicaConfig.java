@@ -0,0 +1,94 @@
+package se.martenb.mymoviesback.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.scheduling.annotation.Scheduled;
+import se.martenb.mymoviesback.dao.ReplicaRoutingDataSource;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends read-only transactions to replica databases and everything else to the primary database configured with the
+ * spring.datasource properties. The replicas use the same credentials and pool settings as the primary, but give up
+ * quickly when they cannot be connected to, so that reads can go elsewhere.
+ */
+@Configuration
+@Profile("!reactive")
+@ConditionalOnProperty(name = "movies.datasource.read-replicas.enabled", havingValue = "true")
+@EnableConfigurationProperties(DataSourceProperties.class)
+public class ReadReplicaConfig {
+    private final List<HikariDataSource> replicaPools = new ArrayList<>();
+    private ReplicaRoutingDataSource routingDataSource;
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(HikariDataSource primaryDataSource, DataSourceProperties properties,
+                                 Environment environment,
+                                 @Value("${movies.datasource.read-replicas.urls}") List<String> urls,
+                                 @Value("${movies.datasource.read-replicas.connection-timeout}")
+                                 Duration connectionTimeout,
+                                 @Value("${movies.datasource.read-replicas.max-lag}") Duration maxLag) {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (String url : urls) {
+            HikariDataSource replica = properties.initializeDataSourceBuilder().type(HikariDataSource.class)
+                    .url(url).build();
+            Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(replica));
+            replica.setPoolName("replica-" + (replicaPools.size() + 1));
+            replica.setConnectionTimeout(connectionTimeout.toMillis());
+            // Start even if the replica is down, it is left out until it can be connected to
+            replica.setInitializationFailTimeout(-1);
+            replicaPools.add(replica);
+            replicas.put(replica.getPoolName(), replica);
+        }
+
+        routingDataSource = new ReplicaRoutingDataSource(primaryDataSource, replicas, maxLag);
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    /**
+     * Pool metrics for the replicas. They are added once the meter registry has been created, since the registry
+     * itself depends on the data source.
+     */
+    @Bean
+    public MeterBinder replicaPoolMetrics() {
+        return registry -> replicaPools.forEach(replica ->
+                replica.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(registry)));
+    }
+
+    @Scheduled(fixedDelayString = "${movies.datasource.read-replicas.health-check-interval}")
+    public void checkReplicas() {
+        if (routingDataSource != null)
+            routingDataSource.checkReplicas();
+    }
+
+    @PreDestroy
+    public void closeReplicas() {
+        replicaPools.forEach(HikariDataSource::close);
+    }
+}
@@ -0,0 +1,12 @@
+package se.martenb.mymoviesback.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enables scheduled tasks, the intervals are configured with the movies properties.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -0,0 +1,56 @@
+package se.martenb.mymoviesback.config;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads through reflection, so that the application still builds and runs on Java 17 as long as
+ * virtual threads are not enabled.
+ */
+public final class VirtualThreads {
+    private VirtualThreads() {}
+
+    /**
+     * Create an executor that starts a new virtual thread for every task.
+     *
+     * @param namePrefix The prefix of the thread names, followed by a sequence number.
+     * @return The executor.
+     * @throws IllegalStateException If virtual threads are not available in the running Java version.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor(String namePrefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+            throw unavailable(e);
+        } catch (InvocationTargetException e) {
+            // Java 19 and 20 have the methods, but they throw unless preview features are enabled
+            throw unavailable(e.getCause());
+        }
+    }
+
+    /**
+     * Check if a thread is a virtual thread.
+     *
+     * @param thread The thread to check.
+     * @return True if the thread is virtual, always false before Java 21.
+     */
+    public static boolean isVirtual(Thread thread) {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    private static IllegalStateException unavailable(Throwable cause) {
+        return new IllegalStateException("Virtual threads require Java 21 or later, running on Java " +
+                Runtime.version().feature(), cause);
+    }
+}
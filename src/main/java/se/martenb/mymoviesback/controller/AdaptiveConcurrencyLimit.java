@@ -0,0 +1,124 @@
+package se.martenb.mymoviesback.controller;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A limit on the number of requests in progress that adapts to their latency. The long term average latency is taken
+ * as the latency of the service when it is not overloaded. While recent requests are about as fast as that, the limit
+ * grows, and when they get slower the limit shrinks in proportion, so that fewer requests are let in and those that are
+ * do not have to queue for the database. A failed request is taken as a sign of overload and cuts the limit. Reads may
+ * only use part of the limit, so that changes can still be made when the service is busy with reads.
+ */
+public class AdaptiveConcurrencyLimit {
+    private static final double SHORT_WINDOW = 10;
+    private static final double LONG_WINDOW = 500;
+    private static final double TOLERANCE = 1.5;
+    private static final double MIN_GRADIENT = 0.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double BACKOFF = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double readShare;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double limit;
+    private double shortLatency;
+    private double longLatency;
+
+    /**
+     * A limit that starts at the given number of requests.
+     *
+     * @param initialLimit The number of requests allowed in progress before any latency has been measured.
+     * @param minLimit The lowest the limit can go.
+     * @param maxLimit The highest the limit can go.
+     * @param readShare The share of the limit that reads may use, between 0 and 1.
+     */
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double readShare) {
+        if (minLimit < 1 || minLimit > maxLimit || initialLimit < minLimit || initialLimit > maxLimit)
+            throw new IllegalArgumentException("Limits must satisfy 1 <= min <= initial <= max");
+        if (readShare <= 0 || readShare > 1)
+            throw new IllegalArgumentException("Read share must be above 0 and at most 1");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.readShare = readShare;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Let a request in if the limit for its kind has not been reached. A request that is let in must be released.
+     *
+     * @param write True if the request changes something, false if it only reads.
+     * @return True if the request may go ahead, false if it should be rejected.
+     */
+    public boolean tryAcquire(boolean write) {
+        int allowed = write ? (int) limit : Math.max(1, (int) (limit * readShare));
+        while (true) {
+            int current = inFlight.get();
+            if (current >= allowed)
+                return false;
+            if (inFlight.compareAndSet(current, current + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Release a request that is done, and adapt the limit to how long it took.
+     *
+     * @param latencyNanos How long the request took.
+     * @param failed True if the request failed in a way that suggests the service is overloaded.
+     */
+    public void release(long latencyNanos, boolean failed) {
+        int inFlightWhenDone = inFlight.getAndDecrement();
+        update(latencyNanos, failed, inFlightWhenDone);
+    }
+
+    /**
+     * Release a request without adapting the limit, for requests whose duration depends on something other than how
+     * loaded the service is, such as streamed responses.
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Get the current limit.
+     *
+     * @return The number of requests allowed in progress.
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Get the number of requests in progress.
+     *
+     * @return The number of requests that have been let in and not released.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private synchronized void update(long latencyNanos, boolean failed, int inFlightWhenDone) {
+        if (failed) {
+            limit = Math.max(minLimit, limit * BACKOFF);
+            return;
+        }
+        if (longLatency == 0) {
+            shortLatency = latencyNanos;
+            longLatency = latencyNanos;
+            return;
+        }
+
+        shortLatency += (latencyNanos - shortLatency) / SHORT_WINDOW;
+        longLatency += (shortLatency - longLatency) / LONG_WINDOW;
+        // Let the long term average come down quickly once the service has recovered, so the limit can grow back
+        if (longLatency > 2 * shortLatency)
+            longLatency *= 0.95;
+
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, TOLERANCE * longLatency / shortLatency));
+        // Only grow while the limit is in use, a service that is mostly idle says nothing about a higher limit
+        double headroom = inFlightWhenDone * 2 >= limit ? Math.sqrt(limit) : 0;
+        double newLimit = limit * gradient + headroom;
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+    }
+}
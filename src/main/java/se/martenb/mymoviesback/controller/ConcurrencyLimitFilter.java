@@ -0,0 +1,148 @@
+package se.martenb.mymoviesback.controller;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import se.martenb.mymoviesback.config.MetricsConfig;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * Limits the number of requests to the movies API that are in progress at once, using an
+ * {@link AdaptiveConcurrencyLimit}. Requests over the limit are rejected at once with 503 Service Unavailable and a
+ * Retry-After header, instead of waiting for a thread and a database connection, so that the requests that are let in
+ * keep their latency when the database slows down. The change feed is left out, since its connections stay open and
+ * idle for as long as clients follow the changes.
+ */
+@Component
+@Profile("!reactive")
+@ConditionalOnProperty(name = "movies.concurrency-limit.enabled", havingValue = "true")
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class ConcurrencyLimitFilter extends OncePerRequestFilter {
+    private static final String PATH = "/api/movies";
+    private static final String CHANGES_PATH = PATH + "/changes";
+    private static final String LOOKUP_PATH = PATH + "/lookup";
+    private static final Set<String> READ_METHODS = Set.of("GET", "HEAD", "OPTIONS");
+
+    private final AdaptiveConcurrencyLimit limit;
+    private final String retryAfter;
+    private final Counter rejectedReads;
+    private final Counter rejectedWrites;
+
+    @Autowired
+    public ConcurrencyLimitFilter(MeterRegistry meterRegistry,
+                                  @Value("${movies.concurrency-limit.initial-limit}") int initialLimit,
+                                  @Value("${movies.concurrency-limit.min-limit}") int minLimit,
+                                  @Value("${movies.concurrency-limit.max-limit}") int maxLimit,
+                                  @Value("${movies.concurrency-limit.read-share}") double readShare,
+                                  @Value("${movies.concurrency-limit.retry-after}") Duration retryAfter) {
+        this.limit = new AdaptiveConcurrencyLimit(initialLimit, minLimit, maxLimit, readShare);
+        this.retryAfter = String.valueOf(Math.max(1, retryAfter.toSeconds()));
+        Gauge.builder(MetricsConfig.CONCURRENCY_LIMIT_GAUGE, limit, AdaptiveConcurrencyLimit::getLimit)
+                .description("Requests allowed in progress at once")
+                .register(meterRegistry);
+        Gauge.builder(MetricsConfig.CONCURRENCY_IN_FLIGHT_GAUGE, limit, AdaptiveConcurrencyLimit::getInFlight)
+                .description("Requests in progress")
+                .register(meterRegistry);
+        this.rejectedReads = rejectedCounter(meterRegistry, "read");
+        this.rejectedWrites = rejectedCounter(meterRegistry, "write");
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        return !uri.startsWith(request.getContextPath() + PATH) || uri.equals(request.getContextPath() + CHANGES_PATH);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        boolean write = !READ_METHODS.contains(request.getMethod())
+                && !request.getRequestURI().equals(request.getContextPath() + LOOKUP_PATH);
+        if (!limit.tryAcquire(write)) {
+            (write ? rejectedWrites : rejectedReads).increment();
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, retryAfter);
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.getWriter().write("Too many requests in progress, try again later");
+            return;
+        }
+
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            chain.doFilter(request, response);
+            failed = response.getStatus() >= HttpStatus.INTERNAL_SERVER_ERROR.value();
+        } finally {
+            if (request.isAsyncStarted())
+                request.getAsyncContext().addListener(new ReleaseListener());
+            else
+                limit.release(System.nanoTime() - start, failed);
+        }
+    }
+
+    AdaptiveConcurrencyLimit getLimit() {
+        return limit;
+    }
+
+    private static Counter rejectedCounter(MeterRegistry meterRegistry, String priority) {
+        return Counter.builder(MetricsConfig.CONCURRENCY_REJECTED_COUNTER)
+                .description("Requests rejected because too many were in progress")
+                .tag("priority", priority)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Releases a streamed response once it is done. Its duration depends on the size of the response rather than on
+     * how loaded the service is, so it does not change the limit.
+     */
+    private class ReleaseListener implements AsyncListener {
+        private boolean released;
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+
+        private synchronized void release() {
+            if (!released) {
+                released = true;
+                limit.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package se.martenb.mymoviesback.controller;
+
+public class MovieDeltaExpiredException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+}
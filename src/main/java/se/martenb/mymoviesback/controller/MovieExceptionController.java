@@ -1,13 +1,16 @@
 package se.martenb.mymoviesback.controller;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import se.martenb.mymoviesback.MyMoviesApplication;
+import se.martenb.mymoviesback.config.MetricsConfig;
 
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
@@ -18,18 +21,35 @@ import java.util.Set;
 public class MovieExceptionController {
     private static final Logger logger = LoggerFactory.getLogger(MyMoviesApplication.class);
 
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public MovieExceptionController(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
     @ExceptionHandler(value = MovieNotFoundException.class)
     public ResponseEntity<Object> exception(MovieNotFoundException exception) {
+        count(exception);
         return new ResponseEntity<>("Movie not found", HttpStatus.NOT_FOUND);
     }
 
     @ExceptionHandler(value = MovieAlreadyExistsException.class)
     public ResponseEntity<Object> exception(MovieAlreadyExistsException exception) {
+        count(exception);
         return new ResponseEntity<>("Movie already exists", HttpStatus.CONFLICT);
     }
 
+    @ExceptionHandler(value = MovieDeltaExpiredException.class)
+    public ResponseEntity<Object> exception(MovieDeltaExpiredException exception) {
+        count(exception);
+        return new ResponseEntity<>("Changes since the cursor are no longer kept, get the whole collection again",
+                HttpStatus.GONE);
+    }
+
     @ExceptionHandler(value = ConstraintViolationException.class)
     public ResponseEntity<Object> exception(ConstraintViolationException exception) {
+        count(exception);
         StringBuilder ruleViolations = new StringBuilder();
         Set<ConstraintViolation<?>> violations = exception.getConstraintViolations();
         Iterator<ConstraintViolation<?>> iterator = violations.iterator();
@@ -45,7 +65,16 @@ public class MovieExceptionController {
 
     @ExceptionHandler(value = DataIntegrityViolationException.class)
     public ResponseEntity<Object> exception(DataIntegrityViolationException exception) {
+        count(exception);
         logger.warn("Potentially malicious action detected by user.");
         return new ResponseEntity<>("Potentially malicious action detected", HttpStatus.FORBIDDEN);
     }
+
+    /**
+     * Count a handled exception by its type.
+     */
+    private void count(Exception exception) {
+        meterRegistry.counter(MetricsConfig.EXCEPTION_COUNTER, "exception", exception.getClass().getSimpleName())
+                .increment();
+    }
 }
@@ -1,70 +1,381 @@
 package se.martenb.mymoviesback.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriComponentsBuilder;
 import se.martenb.mymoviesback.model.Movie;
+import se.martenb.mymoviesback.model.MovieBatchUpdate;
+import se.martenb.mymoviesback.model.MovieDelta;
+import se.martenb.mymoviesback.model.MoviePage;
+import se.martenb.mymoviesback.model.MovieSort;
+import se.martenb.mymoviesback.model.MovieStats;
+import se.martenb.mymoviesback.service.MovieChangeCounter;
+import se.martenb.mymoviesback.service.MovieChangeFeed;
 import se.martenb.mymoviesback.service.MovieService;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
 
 @CrossOrigin(origins = {"http://localhost:3000", "http://localhost:4173"}, maxAge = 3600)
 @RestController
+@Profile("!reactive")
 @RequestMapping("/api/movies")
 public class MovieServiceController {
+    static final String HEADER_ESTIMATED_TOTAL_COUNT = "X-Estimated-Total-Count";
+    static final String HEADER_OWNER = "X-Owner";
+    static final String HEADER_LAST_EVENT_ID = "Last-Event-ID";
+    private static final int PAGE_LIMIT_DEFAULT = 100;
+    private static final int PAGE_LIMIT_MAX = 1000;
+    private static final int BATCH_SIZE_MAX = 10000;
+    private static final int DELTA_LIMIT_DEFAULT = 1000;
+    private static final int DELTA_LIMIT_MAX = 10000;
+    private static final int LOOKUP_SIZE_MAX = 1000;
+    private static final ObjectWriter MOVIE_WRITER = new ObjectMapper()
+            .writerFor(Movie.class)
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
     private final MovieService movieService;
+    private final MovieChangeCounter changeCounter;
+    private final PrecompressedMovieListing movieListing;
+    private final MovieChangeFeed changeFeed;
+    private final Duration changesTimeout;
+    private final String cacheControl;
 
     @Autowired
-    public MovieServiceController(MovieService movieService) {
+    public MovieServiceController(MovieService movieService, MovieChangeCounter changeCounter,
+                                  PrecompressedMovieListing movieListing, MovieChangeFeed changeFeed,
+                                  @Value("${movies.changes.timeout}") Duration changesTimeout,
+                                  @Value("${movies.cache-control.max-age:0s}") Duration maxAge,
+                                  @Value("${movies.cache-control.stale-while-revalidate:0s}")
+                                  Duration staleWhileRevalidate) {
         this.movieService = movieService;
+        this.changeCounter = changeCounter;
+        this.movieListing = movieListing;
+        this.changeFeed = changeFeed;
+        this.changesTimeout = changesTimeout;
+        CacheControl control = CacheControl.maxAge(maxAge);
+        if (!staleWhileRevalidate.isZero())
+            control = control.staleWhileRevalidate(staleWhileRevalidate);
+        this.cacheControl = control.getHeaderValue();
     }
 
     @GetMapping(value = "")
-    public ResponseEntity<List<Movie>> getAll(@RequestParam(required = false) String name) {
-        List<Movie> foundMovies = movieService.getAllMovies(name);
+    public ResponseEntity<Object> getAll(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @RequestParam(required = false) String name, @RequestParam(required = false) Long after,
+            @RequestParam(required = false) String afterName, @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String sort, @RequestParam(defaultValue = "false") boolean count,
+            WebRequest webRequest) {
+        if (after != null || limit != null || sort != null)
+            return getPage(owner, name, after, afterName, limit, sort, count, webRequest);
+        if (name == null)
+            return getListing(owner, webRequest);
+
+        // The version is read before the movies, so the ETag can never be newer than the movies it is sent with
+        if (webRequest.checkNotModified(collectionETag(owner)))
+            return new ResponseEntity<>(cacheHeaders(), HttpStatus.NOT_MODIFIED);
+
+        List<Movie> foundMovies = movieService.getAllMovies(owner, name);
         if (foundMovies.isEmpty())
-            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+            return new ResponseEntity<>(cacheHeaders(), HttpStatus.NO_CONTENT);
+        else
+            return new ResponseEntity<>(foundMovies, cacheHeaders(), HttpStatus.OK);
+    }
+
+    /**
+     * Serve the list of all the owner's movies from the precompressed listing, gzip compressed if the client accepts
+     * it. The compressed variant has its own ETag, since it is a different representation of the same collection.
+     */
+    private ResponseEntity<Object> getListing(String owner, WebRequest webRequest) {
+        PrecompressedMovieListing.Snapshot listing = movieListing.get(owner);
+        boolean gzip = listing.getGzip() != null && acceptsGzip(webRequest.getHeader(HttpHeaders.ACCEPT_ENCODING));
+
+        HttpHeaders headers = cacheHeaders();
+        headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (webRequest.checkNotModified("\"" + listing.getVersion() + (gzip ? "-gzip" : "") + "\""))
+            return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+        if (listing.isEmpty())
+            return new ResponseEntity<>(headers, HttpStatus.NO_CONTENT);
+
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        if (gzip)
+            headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+        return new ResponseEntity<>(gzip ? listing.getGzip() : listing.getJson(), headers, HttpStatus.OK);
+    }
+
+    /**
+     * Check if an Accept-Encoding header allows gzip, either by name or by a wildcard, with a non-zero quality.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null)
+            return false;
+
+        Boolean wildcard = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String token = parts[0].trim().toLowerCase();
+            boolean accepted = true;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim().toLowerCase();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        accepted = Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            if (token.equals("gzip") || token.equals("x-gzip"))
+                return accepted;
+            if (token.equals("*"))
+                wildcard = accepted;
+        }
+        return wildcard != null && wildcard;
+    }
+
+    @GetMapping(value = "", params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> getAllStreamed(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner) {
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = MOVIE_WRITER.getFactory().createGenerator(outputStream)) {
+                generator.writeStartArray();
+                movieService.streamAllMovies(owner, movie -> {
+                    try {
+                        MOVIE_WRITER.writeValue(generator, movie);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                generator.writeEndArray();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    private ResponseEntity<Object> getPage(String owner, String name, Long after, String afterName, Integer limit,
+                                           String sort, boolean count, WebRequest webRequest) {
+        if (name != null)
+            return new ResponseEntity<>("Pagination cannot be combined with filtering by name",
+                    HttpStatus.BAD_REQUEST);
+
+        int pageLimit = limit == null ? PAGE_LIMIT_DEFAULT : limit;
+        if (pageLimit < 1 || pageLimit > PAGE_LIMIT_MAX)
+            return new ResponseEntity<>("Limit must be between 1 and " + PAGE_LIMIT_MAX, HttpStatus.BAD_REQUEST);
+
+        MovieSort movieSort = sort == null ? MovieSort.ID : MovieSort.fromValue(sort);
+        if (movieSort == null)
+            return new ResponseEntity<>("Sort must be either 'id' or 'name'", HttpStatus.BAD_REQUEST);
+
+        if (webRequest.checkNotModified(collectionETag(owner)))
+            return new ResponseEntity<>(cacheHeaders(), HttpStatus.NOT_MODIFIED);
+
+        MoviePage page = movieService.getMoviePage(owner, after, afterName, pageLimit, movieSort);
+
+        HttpHeaders headers = cacheHeaders();
+        if (page.hasNext()) {
+            Movie last = page.getLast();
+            UriComponentsBuilder next = ServletUriComponentsBuilder.fromCurrentRequestUri()
+                    .queryParam("after", last.getId())
+                    .queryParam("limit", pageLimit)
+                    .queryParam("sort", movieSort.name().toLowerCase());
+            if (movieSort == MovieSort.NAME)
+                next.queryParam("afterName", "{afterName}");
+            if (count)
+                next.queryParam("count", true);
+            String nextUri = next.encode().buildAndExpand(Map.of("afterName", last.getName())).toUriString();
+            headers.add(HttpHeaders.LINK, "<" + nextUri + ">; rel=\"next\"");
+        }
+        if (count)
+            headers.add(HEADER_ESTIMATED_TOTAL_COUNT, String.valueOf(movieService.getEstimatedMovieCount(owner)));
+
+        if (page.getMovies().isEmpty())
+            return new ResponseEntity<>(headers, HttpStatus.NO_CONTENT);
         else
-            return new ResponseEntity<>(foundMovies, HttpStatus.OK);
+            return new ResponseEntity<>(page.getMovies(), headers, HttpStatus.OK);
+    }
+
+    /**
+     * Get statistics for the owner's whole collection, they are read without scanning the movies. Like the list, the
+     * response carries the collection's ETag.
+     */
+    @GetMapping(value = "stats")
+    public ResponseEntity<MovieStats> getStats(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            WebRequest webRequest) {
+        if (webRequest.checkNotModified(collectionETag(owner)))
+            return new ResponseEntity<>(cacheHeaders(), HttpStatus.NOT_MODIFIED);
+
+        return new ResponseEntity<>(movieService.getMovieStats(owner), cacheHeaders(), HttpStatus.OK);
+    }
+
+    /**
+     * Get the changes to the owner's collection after a cursor, to bring a copy of the collection up to date without
+     * getting all of it. Starting from 0 gets the whole collection, and the cursor in each response is the one to
+     * continue from.
+     */
+    @GetMapping(value = "delta")
+    public ResponseEntity<Object> getDelta(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @RequestParam(defaultValue = "0") long since, @RequestParam(required = false) Integer limit) {
+        if (since < 0)
+            return new ResponseEntity<>("Since must be 0 or more", HttpStatus.BAD_REQUEST);
+        int deltaLimit = limit == null ? DELTA_LIMIT_DEFAULT : limit;
+        if (deltaLimit < 1 || deltaLimit > DELTA_LIMIT_MAX)
+            return new ResponseEntity<>("Limit must be between 1 and " + DELTA_LIMIT_MAX, HttpStatus.BAD_REQUEST);
+
+        MovieDelta delta = movieService.getMovieDelta(owner, since, deltaLimit);
+        return new ResponseEntity<>(delta, cacheHeaders(), HttpStatus.OK);
+    }
+
+    /**
+     * Follow the changes to the owner's collection as server-sent events, named after the type of change, with the
+     * previous IMDB id and the movie as data. A client that reconnects with the Last-Event-ID header is sent the
+     * changes it missed, or a resync event if they are no longer kept, after which it should get the whole collection
+     * again.
+     */
+    @GetMapping(value = "changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter getChanges(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @RequestHeader(value = HEADER_LAST_EVENT_ID, required = false) String lastEventId) {
+        SseEmitter emitter = new SseEmitter(changesTimeout.toMillis());
+        MovieChangeFeed.Subscription subscription = changeFeed.subscribe(owner, lastEventId, new ChangeSender(emitter));
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(e -> subscription.cancel());
+        return emitter;
     }
 
     @GetMapping(value = "{imdbId}")
-    public ResponseEntity<Movie> getByImdbId(@PathVariable("imdbId") String imdbId) {
-        Movie foundMovie = movieService.getMovieByImdbId(imdbId);
+    public ResponseEntity<Movie> getByImdbId(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @PathVariable("imdbId") String imdbId, WebRequest webRequest) {
+        Movie foundMovie = movieService.getMovieByImdbId(owner, imdbId);
         if (imdbId == null)
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        else if (foundMovie != null && webRequest.checkNotModified(movieETag(foundMovie)))
+            return new ResponseEntity<>(cacheHeaders(), HttpStatus.NOT_MODIFIED);
         else
-            return new ResponseEntity<>(foundMovie, HttpStatus.OK);
+            return new ResponseEntity<>(foundMovie, cacheHeaders(), HttpStatus.OK);
+    }
+
+    /**
+     * Get the movies with the given comma separated IMDB ids in one request, in the order they are given, with the
+     * IMDB ids that have no movie listed as missing.
+     */
+    @GetMapping(value = "", params = "imdbIds")
+    public ResponseEntity<Object> getByImdbIds(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @RequestParam List<String> imdbIds, WebRequest webRequest) {
+        if (imdbIds.isEmpty() || imdbIds.size() > LOOKUP_SIZE_MAX)
+            return new ResponseEntity<>("Between 1 and " + LOOKUP_SIZE_MAX + " IMDB ids can be looked up at a time",
+                    HttpStatus.BAD_REQUEST);
+        if (webRequest.checkNotModified(collectionETag(owner)))
+            return new ResponseEntity<>(cacheHeaders(), HttpStatus.NOT_MODIFIED);
+
+        return new ResponseEntity<>(movieService.getMoviesByImdbIds(owner, imdbIds), cacheHeaders(), HttpStatus.OK);
+    }
+
+    /**
+     * Get the movies with the IMDB ids in the body, for lists too long to fit in a URL.
+     */
+    @PostMapping(value = "lookup")
+    public ResponseEntity<Object> lookup(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @RequestBody List<String> imdbIds) {
+        if (imdbIds.isEmpty() || imdbIds.size() > LOOKUP_SIZE_MAX)
+            return new ResponseEntity<>("Between 1 and " + LOOKUP_SIZE_MAX + " IMDB ids can be looked up at a time",
+                    HttpStatus.BAD_REQUEST);
+        return new ResponseEntity<>(movieService.getMoviesByImdbIds(owner, imdbIds), HttpStatus.OK);
     }
 
     @PostMapping(value = "")
-    public ResponseEntity<Object> add(@RequestBody Movie movie) {
-        movieService.addMovie(movie);
+    public ResponseEntity<Object> add(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @RequestBody Movie movie) {
+        movieService.addMovie(owner, movie);
         return new ResponseEntity<>("Movie is saved successfully", HttpStatus.CREATED);
     }
 
+    @PostMapping(value = "batch")
+    public ResponseEntity<Object> addBatch(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @RequestBody List<Movie> movies) {
+        if (movies.size() > BATCH_SIZE_MAX)
+            return new ResponseEntity<>("A batch can contain at most " + BATCH_SIZE_MAX + " movies",
+                    HttpStatus.BAD_REQUEST);
+        return new ResponseEntity<>(movieService.addMovies(owner, movies), HttpStatus.OK);
+    }
+
+    /**
+     * Make several changes to existing movies in one transaction, with the outcome of each change in the same order.
+     */
+    @PatchMapping(value = "batch")
+    public ResponseEntity<Object> updateBatch(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @RequestBody List<MovieBatchUpdate> updates) {
+        if (updates.size() > BATCH_SIZE_MAX)
+            return new ResponseEntity<>("A batch can contain at most " + BATCH_SIZE_MAX + " updates",
+                    HttpStatus.BAD_REQUEST);
+        return new ResponseEntity<>(movieService.updateMovies(owner, updates), HttpStatus.OK);
+    }
+
     @PutMapping(value = "{imdbId}")
-    public ResponseEntity<Object> update(@PathVariable("imdbId") String imdbId, @RequestBody Movie movie) {
-        movieService.updateMovie(imdbId, movie);
+    public ResponseEntity<Object> update(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @PathVariable("imdbId") String imdbId, @RequestBody Movie movie) {
+        movieService.updateMovie(owner, imdbId, movie);
         return new ResponseEntity<>("Movie was updated successfully", HttpStatus.OK);
     }
 
+    @PutMapping(value = "{imdbId}", params = "upsert=true")
+    public ResponseEntity<Object> upsert(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @PathVariable("imdbId") String imdbId, @RequestBody Movie movie) {
+        if (movie.getImdbId() != null && !movie.getImdbId().equals(imdbId))
+            return new ResponseEntity<>("The IMDB id of the movie must match the one in the path",
+                    HttpStatus.BAD_REQUEST);
+        if (movieService.upsertMovie(owner, imdbId, movie))
+            return new ResponseEntity<>("Movie is saved successfully", HttpStatus.CREATED);
+        else
+            return new ResponseEntity<>("Movie was updated successfully", HttpStatus.OK);
+    }
+
     @PutMapping(value = "{imdbId}/rating")
-    public ResponseEntity<Object> updateRating(@PathVariable("imdbId") String imdbId, @RequestBody int rating) {
-        movieService.updateRating(imdbId, rating);
+    public ResponseEntity<Object> updateRating(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @PathVariable("imdbId") String imdbId, @RequestBody int rating) {
+        movieService.updateRating(owner, imdbId, rating);
         return new ResponseEntity<>("Movie rating was updated successfully", HttpStatus.OK);
     }
 
     @PutMapping(value = "{imdbId}/name")
-    public ResponseEntity<Object> updateName(@PathVariable("imdbId") String imdbId, @RequestBody String name) {
+    public ResponseEntity<Object> updateName(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @PathVariable("imdbId") String imdbId, @RequestBody String name) {
         String nameValue;
         try {
             nameValue = new ObjectMapper().readValue(name, String.class);
-            movieService.updateName(imdbId, nameValue);
+            movieService.updateName(owner, imdbId, nameValue);
             return new ResponseEntity<>("Movie name was updated successfully", HttpStatus.OK);
         } catch (JsonProcessingException e) {
             return new ResponseEntity<>("There was an error trying to process the JSON data", HttpStatus.BAD_REQUEST);
@@ -72,11 +383,13 @@ public class MovieServiceController {
     }
 
     @PutMapping(value = "{imdbId}/imdbid")
-    public ResponseEntity<Object> updateImdbId(@PathVariable("imdbId") String imdbId, @RequestBody String newImdbId) {
+    public ResponseEntity<Object> updateImdbId(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @PathVariable("imdbId") String imdbId, @RequestBody String newImdbId) {
         String newImdbIdValue;
         try {
             newImdbIdValue = new ObjectMapper().readValue(newImdbId, String.class);
-            movieService.updateImdbId(imdbId, newImdbIdValue);
+            movieService.updateImdbId(owner, imdbId, newImdbIdValue);
             return new ResponseEntity<>("Movie IMDB id was updated successfully", HttpStatus.OK);
         } catch (JsonProcessingException e) {
             return new ResponseEntity<>("There was an error trying to process the JSON data", HttpStatus.BAD_REQUEST);
@@ -84,20 +397,80 @@ public class MovieServiceController {
     }
 
     @PutMapping(value = "{imdbId}/seen")
-    public ResponseEntity<Object> updateSetSeen(@PathVariable("imdbId") String imdbId, @RequestBody int rating) {
-        movieService.setMovieSeen(imdbId, rating);
+    public ResponseEntity<Object> updateSetSeen(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @PathVariable("imdbId") String imdbId, @RequestBody int rating) {
+        movieService.setMovieSeen(owner, imdbId, rating);
         return new ResponseEntity<>("Movie seen status and rating updated successfully", HttpStatus.OK);
     }
 
     @PutMapping(value = "{imdbId}/unseen")
-    public ResponseEntity<Object> updateSetUnseen(@PathVariable("imdbId") String imdbId) {
-        movieService.setMovieUnseen(imdbId);
+    public ResponseEntity<Object> updateSetUnseen(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @PathVariable("imdbId") String imdbId) {
+        movieService.setMovieUnseen(owner, imdbId);
         return new ResponseEntity<>("Movie seen status and rating removed successfully", HttpStatus.OK);
     }
 
     @DeleteMapping(value = "{imdbId}")
-    public ResponseEntity<Object> delete(@PathVariable("imdbId") String imdbId) {
-        movieService.deleteMovie(imdbId);
+    public ResponseEntity<Object> delete(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @PathVariable("imdbId") String imdbId) {
+        movieService.deleteMovie(owner, imdbId);
         return new ResponseEntity<>("Movie is deleted successfully", HttpStatus.OK);
     }
+
+    /**
+     * The ETag of an owner's collection, it changes whenever a movie is added, updated or deleted in it.
+     */
+    private String collectionETag(String owner) {
+        return "\"" + changeCounter.getVersion(owner) + "\"";
+    }
+
+    /**
+     * The ETag of a single movie, it changes whenever the movie is updated.
+     */
+    private static String movieETag(Movie movie) {
+        return "\"" + movie.getId() + "-" + movie.getVersion() + "\"";
+    }
+
+    /**
+     * The caching headers for a movie resource, the ETag itself is added when checking for a match. The resource
+     * depends on the owner, so caches must keep the owners apart.
+     */
+    private HttpHeaders cacheHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setCacheControl(cacheControl);
+        headers.add(HttpHeaders.VARY, HEADER_OWNER);
+        return headers;
+    }
+
+    /**
+     * Sends the changes to a collection to a client as server-sent events.
+     */
+    private static class ChangeSender implements MovieChangeFeed.Listener {
+        private final SseEmitter emitter;
+
+        ChangeSender(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void onChange(MovieChangeFeed.Change change) throws IOException {
+            emitter.send(SseEmitter.event()
+                    .id(change.getId())
+                    .name(change.getType().name().toLowerCase())
+                    .data(change, MediaType.APPLICATION_JSON));
+        }
+
+        @Override
+        public void onResync(String lastChangeId) throws IOException {
+            emitter.send(SseEmitter.event().id(lastChangeId).name("resync").data(""));
+        }
+
+        @Override
+        public void onHeartbeat() throws IOException {
+            emitter.send(SseEmitter.event().comment("heartbeat"));
+        }
+    }
 }
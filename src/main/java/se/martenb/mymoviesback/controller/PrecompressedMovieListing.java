@@ -0,0 +1,164 @@
+package se.martenb.mymoviesback.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import se.martenb.mymoviesback.dao.ReplicaRoutingDataSource;
+import se.martenb.mymoviesback.model.Movie;
+import se.martenb.mymoviesback.service.MovieChangeCounter;
+import se.martenb.mymoviesback.service.MovieService;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The serialized list of all movies in each owner's collection, kept both as plain JSON and gzip compressed. A list is
+ * only serialized and compressed again when the version of its collection kept by the database has changed, so
+ * serving it costs neither serialization nor compression. The lists of the owners whose collections were read most
+ * recently are kept, and no list is kept for longer than a few minutes, in case the movies were changed in a way that
+ * did not move the version, like with triggers disabled.
+ */
+@Component
+@Profile("!reactive")
+public class PrecompressedMovieListing {
+    private static final int MAX_OWNERS = 1000;
+    private static final Duration MAX_AGE = Duration.ofMinutes(10);
+
+    private final MovieService movieService;
+    private final MovieChangeCounter changeCounter;
+    private final ObjectMapper objectMapper;
+    private final Cache<String, OwnerListing> listings = Caffeine.newBuilder()
+            .maximumSize(MAX_OWNERS)
+            .expireAfterWrite(MAX_AGE)
+            .build();
+
+    @Autowired
+    public PrecompressedMovieListing(MovieService movieService, MovieChangeCounter changeCounter,
+                                     ObjectMapper objectMapper) {
+        this.movieService = movieService;
+        this.changeCounter = changeCounter;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Get the listing for the current version of an owner's collection, building it if the collection has changed.
+     *
+     * @param owner The owner of the collection.
+     * @return The listing.
+     */
+    public Snapshot get(String owner) {
+        OwnerListing listing = listings.get(owner, key -> new OwnerListing());
+        Snapshot current = listing.snapshot;
+        if (current != null && current.getVersion().equals(changeCounter.getVersion(owner)))
+            return current;
+
+        // A lock per owner, so that rebuilding one owner's listing does not hold up the others, and a lock rather than
+        // a synchronized block, so that a virtual thread waiting on the database does not pin its carrier thread
+        listing.rebuildLock.lock();
+        try {
+            // The version is read before the movies, so it can never be newer than the movies it is stored with
+            String version = changeCounter.getVersion(owner);
+            current = listing.snapshot;
+            if (current != null && current.getVersion().equals(version))
+                return current;
+
+            // The listing is served as this version until the collection changes again, so it must not be read from a
+            // replica that may not have caught up with the version yet
+            List<Movie> movies = ReplicaRoutingDataSource.readFromPrimary(() -> movieService.getAllMovies(owner, null));
+            try {
+                byte[] json = objectMapper.writeValueAsBytes(movies);
+                byte[] gzip = gzip(json);
+                current = new Snapshot(version, movies.isEmpty(), json, gzip.length < json.length ? gzip : null);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            listing.snapshot = current;
+            return current;
+        } finally {
+            listing.rebuildLock.unlock();
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(data);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * The latest listing of one owner's collection.
+     */
+    private static class OwnerListing {
+        private final Lock rebuildLock = new ReentrantLock();
+        private volatile Snapshot snapshot;
+    }
+
+    /**
+     * The listing for one version of the collection.
+     */
+    public static class Snapshot {
+        private final String version;
+        private final boolean empty;
+        private final byte[] json;
+        private final byte[] gzip;
+
+        Snapshot(String version, boolean empty, byte[] json, byte[] gzip) {
+            this.version = version;
+            this.empty = empty;
+            this.json = json;
+            this.gzip = gzip;
+        }
+
+        /**
+         * Get the version of the collection the listing was built from.
+         *
+         * @return The version.
+         */
+        public String getVersion() {
+            return version;
+        }
+
+        /**
+         * Get whether there were no movies in the collection.
+         *
+         * @return True if the listing is empty.
+         */
+        public boolean isEmpty() {
+            return empty;
+        }
+
+        /**
+         * Get the listing as plain JSON.
+         *
+         * @return The JSON bytes, which must not be modified.
+         */
+        public byte[] getJson() {
+            return json;
+        }
+
+        /**
+         * Get the listing as gzip compressed JSON.
+         *
+         * @return The compressed bytes, which must not be modified, or null if compressing did not make it smaller.
+         */
+        public byte[] getGzip() {
+            return gzip;
+        }
+    }
+}
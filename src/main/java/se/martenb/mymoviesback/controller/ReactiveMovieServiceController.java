@@ -0,0 +1,168 @@
+package se.martenb.mymoviesback.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import se.martenb.mymoviesback.model.Movie;
+import se.martenb.mymoviesback.service.ReactiveMovieService;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The movie API on WebFlux, for the reactive profile. It has the same paths, status codes and messages as the servlet
+ * controller for listing, searching, reading, adding, updating and deleting movies.
+ */
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:4173"}, maxAge = 3600)
+@RestController
+@RequestMapping("/api/movies")
+@Profile("reactive")
+public class ReactiveMovieServiceController {
+    private static final String HEADER_OWNER = MovieServiceController.HEADER_OWNER;
+    private static final byte[] ARRAY_START = "[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ARRAY_END = "]".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR = ",".getBytes(StandardCharsets.UTF_8);
+
+    private final ReactiveMovieService movieService;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter movieWriter;
+
+    @Autowired
+    public ReactiveMovieServiceController(ReactiveMovieService movieService, ObjectMapper objectMapper) {
+        this.movieService = movieService;
+        this.objectMapper = objectMapper;
+        this.movieWriter = objectMapper.writerFor(Movie.class);
+    }
+
+    /**
+     * List all movies, or the movies whose name contains the given text, as a JSON array that is written one movie at
+     * a time. Movies are only read from the database as fast as the client receives them.
+     */
+    @GetMapping(value = "")
+    public Mono<ResponseEntity<Flux<DataBuffer>>> getAll(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @RequestParam(required = false) String name) {
+        return movieService.hasMovies(owner, name).map(found -> found
+                ? ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+                        .body(jsonArray(movieService.getAllMovies(owner, name)))
+                : ResponseEntity.noContent().build());
+    }
+
+    @GetMapping(value = "{imdbId}")
+    public Mono<ResponseEntity<Movie>> getByImdbId(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @PathVariable("imdbId") String imdbId) {
+        return movieService.getMovieByImdbId(owner, imdbId)
+                .map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.ok().build());
+    }
+
+    @PostMapping(value = "")
+    public Mono<ResponseEntity<Object>> add(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @RequestBody Movie movie) {
+        return movieService.addMovie(owner, movie)
+                .thenReturn(new ResponseEntity<>("Movie is saved successfully", HttpStatus.CREATED));
+    }
+
+    @PutMapping(value = "{imdbId}")
+    public Mono<ResponseEntity<Object>> update(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @PathVariable("imdbId") String imdbId, @RequestBody Movie movie) {
+        return movieService.updateMovie(owner, imdbId, movie)
+                .thenReturn(new ResponseEntity<>("Movie was updated successfully", HttpStatus.OK));
+    }
+
+    @PutMapping(value = "{imdbId}/rating")
+    public Mono<ResponseEntity<Object>> updateRating(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @PathVariable("imdbId") String imdbId, @RequestBody int rating) {
+        return movieService.updateRating(owner, imdbId, rating)
+                .thenReturn(new ResponseEntity<>("Movie rating was updated successfully", HttpStatus.OK));
+    }
+
+    @PutMapping(value = "{imdbId}/name")
+    public Mono<ResponseEntity<Object>> updateName(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @PathVariable("imdbId") String imdbId, @RequestBody String name) {
+        String nameValue;
+        try {
+            nameValue = objectMapper.readValue(name, String.class);
+        } catch (JsonProcessingException e) {
+            return Mono.just(new ResponseEntity<>("There was an error trying to process the JSON data",
+                    HttpStatus.BAD_REQUEST));
+        }
+        return movieService.updateName(owner, imdbId, nameValue)
+                .thenReturn(new ResponseEntity<>("Movie name was updated successfully", HttpStatus.OK));
+    }
+
+    @PutMapping(value = "{imdbId}/imdbid")
+    public Mono<ResponseEntity<Object>> updateImdbId(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @PathVariable("imdbId") String imdbId, @RequestBody String newImdbId) {
+        String newImdbIdValue;
+        try {
+            newImdbIdValue = objectMapper.readValue(newImdbId, String.class);
+        } catch (JsonProcessingException e) {
+            return Mono.just(new ResponseEntity<>("There was an error trying to process the JSON data",
+                    HttpStatus.BAD_REQUEST));
+        }
+        return movieService.updateImdbId(owner, imdbId, newImdbIdValue)
+                .thenReturn(new ResponseEntity<>("Movie IMDB id was updated successfully", HttpStatus.OK));
+    }
+
+    @PutMapping(value = "{imdbId}/seen")
+    public Mono<ResponseEntity<Object>> updateSetSeen(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @PathVariable("imdbId") String imdbId, @RequestBody int rating) {
+        return movieService.setMovieSeen(owner, imdbId, rating)
+                .thenReturn(new ResponseEntity<>("Movie seen status and rating updated successfully", HttpStatus.OK));
+    }
+
+    @PutMapping(value = "{imdbId}/unseen")
+    public Mono<ResponseEntity<Object>> updateSetUnseen(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @PathVariable("imdbId") String imdbId) {
+        return movieService.setMovieUnseen(owner, imdbId)
+                .thenReturn(new ResponseEntity<>("Movie seen status and rating removed successfully", HttpStatus.OK));
+    }
+
+    @DeleteMapping(value = "{imdbId}")
+    public Mono<ResponseEntity<Object>> delete(
+            @RequestHeader(value = HEADER_OWNER, defaultValue = Movie.DEFAULT_OWNER) String owner,
+            @PathVariable("imdbId") String imdbId) {
+        return movieService.deleteMovie(owner, imdbId)
+                .thenReturn(new ResponseEntity<>("Movie is deleted successfully", HttpStatus.OK));
+    }
+
+    /**
+     * Write movies as a JSON array, one buffer per movie, so that the array is never held in memory as a whole.
+     */
+    private Flux<DataBuffer> jsonArray(Flux<Movie> movies) {
+        DataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
+        Flux<DataBuffer> elements = movies.index().map(indexed -> {
+            try {
+                byte[] json = movieWriter.writeValueAsBytes(indexed.getT2());
+                DataBuffer buffer = bufferFactory.allocateBuffer(json.length + 1);
+                if (indexed.getT1() > 0)
+                    buffer.write(SEPARATOR);
+                return buffer.write(json);
+            } catch (JsonProcessingException e) {
+                throw Exceptions.propagate(e);
+            }
+        });
+        return Flux.concat(Mono.fromSupplier(() -> bufferFactory.wrap(ARRAY_START)), elements,
+                Mono.fromSupplier(() -> bufferFactory.wrap(ARRAY_END)));
+    }
+}
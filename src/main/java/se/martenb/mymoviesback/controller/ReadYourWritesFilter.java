@@ -0,0 +1,69 @@
+package se.martenb.mymoviesback.controller;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import se.martenb.mymoviesback.dao.ReplicaRoutingDataSource;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * Sends a client's reads to the primary database for a while after the client has changed something, so that it sees
+ * its own changes even if they have not reached the replicas yet. Clients are told apart by the X-Client-Id header,
+ * or by their address if they do not send one.
+ */
+@Component
+@Profile("!reactive")
+@ConditionalOnProperty(name = "movies.datasource.read-replicas.enabled", havingValue = "true")
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+    static final String HEADER_CLIENT_ID = "X-Client-Id";
+    private static final Set<String> READ_METHODS = Set.of("GET", "HEAD", "OPTIONS");
+    private static final String LOOKUP_PATH = "/api/movies/lookup";
+    private static final int MAX_CLIENTS = 100_000;
+
+    private final Cache<String, Boolean> recentWriters;
+
+    @Autowired
+    public ReadYourWritesFilter(@Value("${movies.datasource.read-replicas.read-your-writes}") Duration window) {
+        this.recentWriters = window.isZero()
+                ? null
+                : Caffeine.newBuilder().expireAfterWrite(window).maximumSize(MAX_CLIENTS).build();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (recentWriters == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        String client = clientOf(request);
+        boolean write = !READ_METHODS.contains(request.getMethod())
+                && !request.getRequestURI().equals(request.getContextPath() + LOOKUP_PATH);
+        ReplicaRoutingDataSource.setPrimaryRequired(write || recentWriters.getIfPresent(client) != null);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            ReplicaRoutingDataSource.setPrimaryRequired(false);
+            if (write)
+                recentWriters.put(client, Boolean.TRUE);
+        }
+    }
+
+    private static String clientOf(HttpServletRequest request) {
+        String clientId = request.getHeader(HEADER_CLIENT_ID);
+        return clientId != null && !clientId.isBlank() ? clientId : request.getRemoteAddr();
+    }
+}
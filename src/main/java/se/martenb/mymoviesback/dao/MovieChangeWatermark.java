@@ -0,0 +1,59 @@
+package se.martenb.mymoviesback.dao;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * The highest change sequence number that no running transaction can still be holding a lower number than. Change
+ * numbers are taken without a lock, so a transaction can commit a number while a lower one is still held by a
+ * transaction that has not committed yet, and a client that moved its cursor past the higher number would never see
+ * the lower one.
+ * <p>
+ * A transaction is given its id before it takes a number, so every transaction holding a number up to the last one
+ * taken has an id below the first id not yet given out when the last number was read. Once the oldest running
+ * transaction is at or past that id, all of them have ended and the last number can be handed out as a cursor.
+ * <p>
+ * The oldest running transaction is the oldest in the whole database cluster, not only among those that change
+ * movies. Any transaction that holds on to its id for long, such as a long report, a forgotten open transaction in a
+ * console or a replication slot with hot_standby_feedback, therefore stops the watermark for every owner until it
+ * ends, and no delta returns newer changes meanwhile. How far the watermark is behind the last number taken is
+ * measured by the movies.changes.watermark-lag gauge.
+ */
+class MovieChangeWatermark {
+    private static final int MAX_PENDING = 100;
+
+    // The last numbers taken that some transaction may still be holding lower numbers than, as {first id not given
+    // out when the number was read, number}, oldest first
+    private final Deque<long[]> pending = new ArrayDeque<>();
+    private long watermark;
+    private long lastChangeSeq;
+
+    /**
+     * Record the last number taken from the change sequence and move the watermark past the numbers that no running
+     * transaction can be holding anymore.
+     *
+     * @param changeSeq The last number taken from the change sequence, read before the snapshot.
+     * @param xmin The id of the oldest transaction that was running when the snapshot was taken.
+     * @param xmax The first transaction id that had not been given out when the snapshot was taken.
+     * @return The highest number that every lower number has been committed or rolled back below.
+     */
+    synchronized long advance(long changeSeq, long xmin, long xmax) {
+        lastChangeSeq = Math.max(lastChangeSeq, changeSeq);
+        // Leaving out a number only holds the watermark back until a later one can be used
+        if (pending.size() == MAX_PENDING)
+            pending.removeLast();
+        pending.addLast(new long[] {xmax, changeSeq});
+        while (!pending.isEmpty() && pending.peekFirst()[0] <= xmin)
+            watermark = Math.max(watermark, pending.removeFirst()[1]);
+        return watermark;
+    }
+
+    /**
+     * Get how many numbers the watermark is behind the last number taken, as of the last time it was moved.
+     *
+     * @return The number of changes that deltas are holding back.
+     */
+    synchronized long getLag() {
+        return lastChangeSeq - watermark;
+    }
+}
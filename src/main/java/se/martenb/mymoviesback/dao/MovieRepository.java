@@ -1,11 +1,87 @@
 package se.martenb.mymoviesback.dao;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import se.martenb.mymoviesback.model.Movie;
 
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
-public interface MovieRepository extends JpaRepository<Movie, Long> {
-    List<Movie> findByNameContaining(String name);
-    Movie findOneByImdbId(String imdbId);
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+/**
+ * Every query except the ones used to build in-memory views of all collections is limited to a single owner, so it
+ * only reads that owner's partition of the movies.
+ *
+ * <p>The queries behind listing, searching and getting a single movie build their movies from the selected columns,
+ * so the movies are not managed by the persistence context and no copy is kept to check them for changes. Movies that
+ * are locked to be changed together are locked in the order of their IMDB ids, so that two batches cannot wait for
+ * each other, and are then changed by owner and IMDB id rather than through the persistence context, whose statements
+ * find a movie by id alone and so have to look in every partition.
+ */
+public interface MovieRepository extends JpaRepository<Movie, Long>, MovieRepositoryCustom {
+    int STREAM_FETCH_SIZE = 500;
+
+    // The row comparison lets the scan of the (owner, name, id) index start at the cursor, so a deep page costs the
+    // same as the first one
+    String AFTER_NAME_QUERY = "SELECT * FROM movies WHERE owner = :owner AND (name, id) > (:name, :id) " +
+            "ORDER BY name ASC, id ASC";
+    String MOVIE_PROJECTION =
+            "new se.martenb.mymoviesback.model.Movie(m.id, m.owner, m.imdbId, m.name, m.seen, m.rating, m.version)";
+
+    @Query("SELECT " + MOVIE_PROJECTION + " FROM Movie m WHERE m.owner = :owner")
+    List<Movie> findByOwner(@Param("owner") String owner);
+
+    @Query("SELECT " + MOVIE_PROJECTION + " FROM Movie m " +
+            "WHERE m.owner = ?1 AND m.name LIKE %?#{escape([1])}% ESCAPE ?#{escapeCharacter()}")
+    List<Movie> findByOwnerAndNameContaining(String owner, String name);
+
+    @Query("SELECT " + MOVIE_PROJECTION + " FROM Movie m WHERE m.owner = :owner AND m.imdbId = :imdbId")
+    Movie findOneByOwnerAndImdbId(@Param("owner") String owner, @Param("imdbId") String imdbId);
+
+    @Query("SELECT " + MOVIE_PROJECTION + " FROM Movie m WHERE m.owner = :owner AND m.imdbId IN :imdbIds")
+    List<Movie> findByOwnerAndImdbIdIn(@Param("owner") String owner, @Param("imdbIds") Collection<String> imdbIds);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    List<Movie> findForUpdateByOwnerAndImdbIdInOrderByImdbId(String owner, Collection<String> imdbIds);
+
+    Movie findOneByOwnerAndId(String owner, long id);
+    List<Movie> findByOwnerAndIdGreaterThanOrderByIdAsc(String owner, long id, Pageable pageable);
+    List<Movie> findByOwnerOrderByNameAscIdAsc(String owner, Pageable pageable);
+
+    @Query(value = AFTER_NAME_QUERY, nativeQuery = true)
+    List<Movie> findAfterOrderByNameAsc(@Param("owner") String owner, @Param("name") String name,
+                                        @Param("id") long id, Pageable pageable);
+
+    @QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
+    @Query(value = "SELECT * FROM movies " +
+            "WHERE owner = :owner AND name_search LIKE '%' || movies_normalize(:pattern) || '%' " +
+            "ORDER BY similarity(name_search, movies_normalize(:name)) DESC, id ASC",
+            nativeQuery = true)
+    List<Movie> searchByNormalizedName(@Param("owner") String owner, @Param("name") String name,
+                                       @Param("pattern") String pattern);
+
+    @Query("SELECT m.imdbId FROM Movie m WHERE m.owner = :owner AND m.imdbId IN :imdbIds")
+    List<String> findImdbIdsByOwnerAndImdbIdIn(@Param("owner") String owner,
+                                               @Param("imdbIds") Collection<String> imdbIds);
+
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE),
+            @QueryHint(name = HINT_READONLY, value = "true")})
+    @Query("SELECT m FROM Movie m WHERE m.owner = :owner ORDER BY m.id ASC")
+    Stream<Movie> streamByOwnerOrderByIdAsc(@Param("owner") String owner);
+
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE),
+            @QueryHint(name = HINT_READONLY, value = "true")})
+    @Query("SELECT m FROM Movie m ORDER BY m.id ASC")
+    Stream<Movie> streamAllByOrderByIdAsc();
 }
@@ -0,0 +1,54 @@
+package se.martenb.mymoviesback.dao;
+
+import se.martenb.mymoviesback.model.Movie;
+import se.martenb.mymoviesback.model.MovieDelta;
+import se.martenb.mymoviesback.model.MovieUpsertResult;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface MovieRepositoryCustom {
+    void detach(Movie movie);
+
+    Optional<Movie> insertIfAbsent(Movie movie);
+
+    MovieUpsertResult upsert(Movie movie);
+
+    Optional<Movie> update(String imdbId, Movie movie);
+
+    Optional<Movie> updateRating(String owner, String imdbId, int rating);
+
+    Optional<Movie> updateName(String owner, String imdbId, String name);
+
+    Optional<Movie> updateImdbId(String owner, String imdbId, String newImdbId);
+
+    Optional<Movie> updateSeen(String owner, String imdbId, int rating);
+
+    Optional<Movie> updateUnseen(String owner, String imdbId);
+
+    Optional<Movie> updateSeenAndRating(Movie movie);
+
+    Optional<Movie> delete(String owner, String imdbId);
+
+    void updateMovies(String owner, Collection<Movie> movies);
+
+    int deleteMovies(String owner, Collection<String> imdbIds);
+
+    long[] countByRating(String owner);
+
+    long findCollectionVersion(String owner);
+
+    List<String> findAllOwners();
+
+    long[] countByRatingOfMovies(String owner);
+
+    void addRatingCounts(String owner, long[] ratingCounts);
+
+    MovieDelta findChangesSince(String owner, long since, int limit);
+
+    long findDeltaHorizon();
+
+    long pruneTombstones(Instant deletedBefore);
+}
@@ -0,0 +1,521 @@
+package se.martenb.mymoviesback.dao;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.Session;
+import org.springframework.beans.factory.ObjectProvider;
+import se.martenb.mymoviesback.config.MetricsConfig;
+import se.martenb.mymoviesback.model.Movie;
+import se.martenb.mymoviesback.model.MovieDelta;
+import se.martenb.mymoviesback.model.MovieStats;
+import se.martenb.mymoviesback.model.MovieUpsertResult;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Repository operations that need direct access to the persistence context. Every statement on a single movie is
+ * limited to the movie's owner, so it only touches the owner's partition of the movies.
+ */
+public class MovieRepositoryCustomImpl implements MovieRepositoryCustom {
+    private static final String RETURNING_MOVIE = " RETURNING id, owner, imdb_id, name, seen, rating, version";
+    // The triggers that keep the counts of movies by rating spread them over stripes 0 - 15 by movie id
+    private static final int CORRECTION_STRIPE = -1;
+    // The movies are found by owner and IMDB id rather than by id, since only the owner picks out the partition
+    static final String UPDATE_MOVIE_SQL = "UPDATE movies SET name = ?, seen = ?, rating = ?, version = version + 1 " +
+            "WHERE owner = ? AND imdb_id = ?";
+
+    private final MovieChangeWatermark changeWatermark = new MovieChangeWatermark();
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public MovieRepositoryCustomImpl(ObjectProvider<MeterRegistry> meterRegistry) {
+        // Repository tests run without metrics
+        meterRegistry.ifAvailable(registry ->
+                Gauge.builder(MetricsConfig.CHANGES_WATERMARK_LAG_GAUGE, changeWatermark, MovieChangeWatermark::getLag)
+                        .description("Changes that are committed or running but held back from deltas")
+                        .register(registry));
+    }
+
+    /**
+     * Remove a movie from the persistence context so that it can be garbage collected while a large result is still
+     * being read.
+     *
+     * @param movie The movie to detach.
+     */
+    @Override
+    public void detach(Movie movie) {
+        entityManager.detach(movie);
+    }
+
+    /**
+     * Add a movie in a single statement, unless the owner already has a movie with the same IMDB id. The movie must
+     * already have been validated.
+     *
+     * @param movie The movie to add, its id is ignored.
+     * @return The added movie, or empty if a movie with the same IMDB id already exists.
+     */
+    @Override
+    public Optional<Movie> insertIfAbsent(Movie movie) {
+        return updateReturningMovie("INSERT INTO movies (owner, id, imdb_id, name, seen, rating) " +
+                        "VALUES (:owner, nextval('movies_id_seq'), :imdbId, :name, :seen, :rating) " +
+                        "ON CONFLICT (owner, imdb_id) DO NOTHING",
+                movieParameters(movie));
+    }
+
+    /**
+     * Add a movie, or replace the name, seen status and rating of the owner's movie with the same IMDB id if it
+     * already exists, in a single statement. The movie must already have been validated.
+     *
+     * @param movie The movie to store, its id is ignored.
+     * @return The stored movie and whether it was added.
+     */
+    @Override
+    public MovieUpsertResult upsert(Movie movie) {
+        entityManager.flush();
+        Query query = entityManager.createNativeQuery("INSERT INTO movies (owner, id, imdb_id, name, seen, rating) " +
+                "VALUES (:owner, nextval('movies_id_seq'), :imdbId, :name, :seen, :rating) " +
+                "ON CONFLICT (owner, imdb_id) DO UPDATE SET name = EXCLUDED.name, seen = EXCLUDED.seen, " +
+                "rating = EXCLUDED.rating, version = movies.version + 1" +
+                RETURNING_MOVIE);
+        movieParameters(movie).forEach(query::setParameter);
+        Movie stored = toMovie((Object[]) query.getSingleResult());
+        entityManager.clear();
+
+        // Added movies start at version 0 and every update raises it, the system columns that would tell the two
+        // apart cannot be read from a partitioned table
+        return new MovieUpsertResult(stored, stored.getVersion() == 0);
+    }
+
+    /**
+     * Replace the IMDB id, name, seen status and rating of a movie in a single statement. The new values must already
+     * have been validated.
+     *
+     * @param imdbId The current IMDB id of the movie to update.
+     * @param movie The new values, found by the movie's owner and the current IMDB id.
+     * @return The updated movie, or empty if there is no such movie.
+     */
+    @Override
+    public Optional<Movie> update(String imdbId, Movie movie) {
+        Map<String, Object> parameters = new HashMap<>(movieParameters(movie));
+        parameters.put("currentImdbId", imdbId);
+        return updateReturningMovie("UPDATE movies SET imdb_id = :imdbId, name = :name, seen = :seen, " +
+                        "rating = :rating, version = version + 1 WHERE owner = :owner AND imdb_id = :currentImdbId",
+                parameters);
+    }
+
+    /**
+     * Set the rating of a movie in a single statement, as long as the rating is allowed for the movie's seen status.
+     *
+     * @param owner The owner of the movie.
+     * @param imdbId The IMDB id of the movie to update.
+     * @param rating The new rating.
+     * @return The updated movie, or empty if there is no such movie or the rating is not allowed.
+     */
+    @Override
+    public Optional<Movie> updateRating(String owner, String imdbId, int rating) {
+        return updateReturningMovie("UPDATE movies SET rating = :rating, version = version + 1 " +
+                        "WHERE owner = :owner AND imdb_id = :imdbId " +
+                        "AND CASE WHEN seen THEN :rating BETWEEN 1 AND 10 ELSE :rating = 0 END",
+                Map.of("owner", owner, "imdbId", imdbId, "rating", rating));
+    }
+
+    /**
+     * Set the name of a movie in a single statement. The name must already have been validated.
+     *
+     * @param owner The owner of the movie.
+     * @param imdbId The IMDB id of the movie to update.
+     * @param name The new name.
+     * @return The updated movie, or empty if there is no such movie.
+     */
+    @Override
+    public Optional<Movie> updateName(String owner, String imdbId, String name) {
+        return updateReturningMovie("UPDATE movies SET name = :name, version = version + 1 " +
+                        "WHERE owner = :owner AND imdb_id = :imdbId",
+                Map.of("owner", owner, "imdbId", imdbId, "name", name));
+    }
+
+    /**
+     * Set the IMDB id of a movie in a single statement. The new IMDB id must already have been validated.
+     *
+     * @param owner The owner of the movie.
+     * @param imdbId The current IMDB id of the movie to update.
+     * @param newImdbId The new IMDB id.
+     * @return The updated movie, or empty if there is no such movie.
+     */
+    @Override
+    public Optional<Movie> updateImdbId(String owner, String imdbId, String newImdbId) {
+        return updateReturningMovie("UPDATE movies SET imdb_id = :newImdbId, version = version + 1 " +
+                        "WHERE owner = :owner AND imdb_id = :imdbId",
+                Map.of("owner", owner, "imdbId", imdbId, "newImdbId", newImdbId));
+    }
+
+    /**
+     * Mark a movie as seen with a rating in a single statement, as long as the rating is allowed for a seen movie.
+     *
+     * @param owner The owner of the movie.
+     * @param imdbId The IMDB id of the movie to update.
+     * @param rating The new rating.
+     * @return The updated movie, or empty if there is no such movie or the rating is not allowed.
+     */
+    @Override
+    public Optional<Movie> updateSeen(String owner, String imdbId, int rating) {
+        return updateReturningMovie("UPDATE movies SET seen = TRUE, rating = :rating, version = version + 1 " +
+                        "WHERE owner = :owner AND imdb_id = :imdbId AND :rating BETWEEN 1 AND 10",
+                Map.of("owner", owner, "imdbId", imdbId, "rating", rating));
+    }
+
+    /**
+     * Mark a movie as not seen and remove its rating in a single statement.
+     *
+     * @param owner The owner of the movie.
+     * @param imdbId The IMDB id of the movie to update.
+     * @return The updated movie, or empty if there is no such movie.
+     */
+    @Override
+    public Optional<Movie> updateUnseen(String owner, String imdbId) {
+        return updateReturningMovie("UPDATE movies SET seen = FALSE, rating = 0, version = version + 1 " +
+                        "WHERE owner = :owner AND imdb_id = :imdbId",
+                Map.of("owner", owner, "imdbId", imdbId));
+    }
+
+    /**
+     * Set the seen status and rating of a movie in a single statement, and move its version forward to the version of
+     * the given movie. The combination must already have been validated.
+     *
+     * @param movie The movie to update, found by its owner and IMDB id, with its new seen status, rating and version.
+     * @return The updated movie, or empty if there is no such movie.
+     */
+    @Override
+    public Optional<Movie> updateSeenAndRating(Movie movie) {
+        return updateReturningMovie("UPDATE movies SET seen = :seen, rating = :rating, " +
+                        "version = GREATEST(version + 1, :version) WHERE owner = :owner AND imdb_id = :imdbId",
+                Map.of("owner", movie.getOwner(), "imdbId", movie.getImdbId(), "seen", movie.isSeen(),
+                        "rating", movie.getRating(), "version", movie.getVersion()));
+    }
+
+    /**
+     * Delete a movie in a single statement.
+     *
+     * @param owner The owner of the movie.
+     * @param imdbId The IMDB id of the movie to delete.
+     * @return The deleted movie, or empty if there is no such movie.
+     */
+    @Override
+    public Optional<Movie> delete(String owner, String imdbId) {
+        return updateReturningMovie("DELETE FROM movies WHERE owner = :owner AND imdb_id = :imdbId",
+                Map.of("owner", owner, "imdbId", imdbId));
+    }
+
+    /**
+     * Write the name, seen status and rating of several of an owner's movies with one batch of statements. The movies
+     * should be locked by the current transaction, so that each is written as one version after the one read.
+     *
+     * @param owner The owner of the movies.
+     * @param movies The movies as they are to be stored, found by their IMDB ids.
+     */
+    @Override
+    public void updateMovies(String owner, Collection<Movie> movies) {
+        if (movies.isEmpty())
+            return;
+        entityManager.flush();
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(UPDATE_MOVIE_SQL)) {
+                for (Movie movie : movies) {
+                    statement.setString(1, movie.getName());
+                    statement.setBoolean(2, movie.isSeen());
+                    statement.setInt(3, movie.getRating());
+                    statement.setString(4, owner);
+                    statement.setString(5, movie.getImdbId());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        });
+    }
+
+    /**
+     * Remove several of an owner's movies with a single statement.
+     *
+     * @param owner The owner of the movies.
+     * @param imdbIds The IMDB ids of the movies to remove.
+     * @return The number of movies removed.
+     */
+    @Override
+    public int deleteMovies(String owner, Collection<String> imdbIds) {
+        if (imdbIds.isEmpty())
+            return 0;
+        return entityManager.createNativeQuery("DELETE FROM movies WHERE owner = :owner AND imdb_id IN :imdbIds")
+                .setParameter("owner", owner)
+                .setParameter("imdbIds", imdbIds)
+                .executeUpdate();
+    }
+
+    /**
+     * Get the number of an owner's movies with each rating from the counts that are kept up to date by the database,
+     * without scanning the movies.
+     *
+     * @param owner The owner of the movies.
+     * @return The number of movies indexed by rating, where rating 0 is the number of movies that have not been seen.
+     */
+    @Override
+    public long[] countByRating(String owner) {
+        long[] ratingCounts = toRatingCounts(entityManager.createNativeQuery(
+                        "SELECT owner, rating, sum(movies) FROM movie_rating_counts WHERE owner = :owner " +
+                                "GROUP BY owner, rating")
+                .setParameter("owner", owner)
+                .getResultList()).get(owner);
+        return ratingCounts == null ? new long[MovieStats.MAX_RATING + 1] : ratingCounts;
+    }
+
+    /**
+     * Get the version of an owner's collection that is kept up to date by the database. It moves forward with every
+     * committed change to the collection, whoever made it.
+     *
+     * @param owner The owner of the collection.
+     * @return The version, 0 if the collection has never been changed.
+     */
+    @Override
+    public long findCollectionVersion(String owner) {
+        return ((Number) entityManager.createNativeQuery(
+                        "SELECT COALESCE(sum(version), 0) FROM movie_collection_versions WHERE owner = :owner")
+                .setParameter("owner", owner)
+                .getSingleResult()).longValue();
+    }
+
+    /**
+     * Find every owner that has movies or counts of movies kept by the database. The owners of the movies are found by
+     * skipping from one owner to the next in the index that leads with the owner, rather than reading every movie.
+     *
+     * @return The owners, in order.
+     */
+    @Override
+    public List<String> findAllOwners() {
+        List<?> owners = entityManager.createNativeQuery(
+                "WITH RECURSIVE owners (owner) AS (" +
+                        "(SELECT owner FROM movies ORDER BY owner LIMIT 1) " +
+                        "UNION ALL " +
+                        "SELECT (SELECT owner FROM movies WHERE owner > owners.owner ORDER BY owner LIMIT 1) " +
+                        "FROM owners WHERE owners.owner IS NOT NULL) " +
+                        "SELECT owner FROM owners WHERE owner IS NOT NULL " +
+                        "UNION SELECT owner FROM movie_rating_counts " +
+                        "ORDER BY owner")
+                .getResultList();
+        return owners.stream().map(String.class::cast).toList();
+    }
+
+    /**
+     * Count an owner's movies with each rating by scanning the movies. Only the owner's partition is read, and changes
+     * to the movies are not waited for, so the counts are those of the snapshot the transaction reads from.
+     *
+     * @param owner The owner of the movies.
+     * @return The number of movies indexed by rating, where rating 0 is the number of movies that have not been seen.
+     */
+    @Override
+    public long[] countByRatingOfMovies(String owner) {
+        entityManager.flush();
+        long[] ratingCounts = toRatingCounts(entityManager.createNativeQuery(
+                        "SELECT owner, CASE WHEN seen THEN rating ELSE 0 END, count(*) FROM movies " +
+                                "WHERE owner = :owner GROUP BY 1, 2")
+                .setParameter("owner", owner)
+                .getResultList()).get(owner);
+        return ratingCounts == null ? new long[MovieStats.MAX_RATING + 1] : ratingCounts;
+    }
+
+    /**
+     * Add to the counts of an owner's movies with each rating that are kept up to date by the database. The numbers
+     * are added to a row of their own that no change to the movies writes to, so they never wait for the changes
+     * and the changes never wait for them.
+     *
+     * @param owner The owner of the movies.
+     * @param ratingCounts The number of movies to add, or subtract if negative, indexed by rating.
+     */
+    @Override
+    public void addRatingCounts(String owner, long[] ratingCounts) {
+        for (int rating = 0; rating < ratingCounts.length; rating++) {
+            if (ratingCounts[rating] == 0)
+                continue;
+            entityManager.createNativeQuery("INSERT INTO movie_rating_counts (owner, rating, stripe, movies) " +
+                            "VALUES (:owner, :rating, :stripe, :movies) ON CONFLICT (owner, rating, stripe) " +
+                            "DO UPDATE SET movies = movie_rating_counts.movies + EXCLUDED.movies")
+                    .setParameter("owner", owner)
+                    .setParameter("rating", rating)
+                    .setParameter("stripe", CORRECTION_STRIPE)
+                    .setParameter("movies", ratingCounts[rating])
+                    .executeUpdate();
+        }
+    }
+
+    /**
+     * Find the changes to an owner's collection after a change sequence number, in the order they were made. Both the
+     * movies and the tombstones of deleted movies are read from indexes that lead with the owner and the sequence
+     * number, so the cost follows the number of changes rather than the size of the collection. Only changes up to the
+     * watermark are returned, so a transaction that is still running can never commit a change behind the cursor. The
+     * sequence is read on the primary database, so this must not run on a replica.
+     *
+     * @param owner The owner of the collection.
+     * @param since The sequence number of the last change the client has, 0 for all of the collection.
+     * @param limit The maximum number of changes to return.
+     * @return The changes, with the sequence number of the last of them as the cursor.
+     */
+    @Override
+    public MovieDelta findChangesSince(String owner, long since, int limit) {
+        entityManager.flush();
+        long until = findChangeWatermark();
+        // Fetch one extra change of each kind to find out if there are more
+        List<?> movieRows = entityManager.createNativeQuery(
+                        "SELECT id, owner, imdb_id, name, seen, rating, version, change_seq FROM movies " +
+                                "WHERE owner = :owner AND change_seq > :since AND change_seq <= :until " +
+                                "ORDER BY change_seq LIMIT :limit")
+                .setParameter("owner", owner)
+                .setParameter("since", since)
+                .setParameter("until", until)
+                .setParameter("limit", limit + 1)
+                .getResultList();
+        List<?> tombstoneRows = entityManager.createNativeQuery(
+                        "SELECT imdb_id, change_seq FROM movie_tombstones " +
+                                "WHERE owner = :owner AND change_seq > :since AND change_seq <= :until " +
+                                "ORDER BY change_seq LIMIT :limit")
+                .setParameter("owner", owner)
+                .setParameter("since", since)
+                .setParameter("until", until)
+                .setParameter("limit", limit + 1)
+                .getResultList();
+
+        List<Movie> movies = new ArrayList<>();
+        Set<String> deleted = new LinkedHashSet<>();
+        long cursor = since;
+        int nextMovie = 0;
+        int nextTombstone = 0;
+        while (nextMovie + nextTombstone < limit) {
+            long movieSeq = nextMovie < movieRows.size() ? changeSeqOf(movieRows.get(nextMovie), 7) : Long.MAX_VALUE;
+            long tombstoneSeq = nextTombstone < tombstoneRows.size()
+                    ? changeSeqOf(tombstoneRows.get(nextTombstone), 1)
+                    : Long.MAX_VALUE;
+            if (movieSeq == Long.MAX_VALUE && tombstoneSeq == Long.MAX_VALUE)
+                break;
+            if (movieSeq < tombstoneSeq) {
+                movies.add(toMovie((Object[]) movieRows.get(nextMovie++)));
+                cursor = movieSeq;
+            } else {
+                deleted.add((String) ((Object[]) tombstoneRows.get(nextTombstone++))[0]);
+                cursor = tombstoneSeq;
+            }
+        }
+        boolean more = nextMovie < movieRows.size() || nextTombstone < tombstoneRows.size();
+
+        // A movie that is added again after it was deleted is only among the movies
+        movies.forEach(movie -> deleted.remove(movie.getImdbId()));
+        return new MovieDelta(movies, new ArrayList<>(deleted), cursor, more);
+    }
+
+    /**
+     * Read the last number taken from the change sequence and then the transactions running after it, in two
+     * statements so that the snapshot is taken after the number is read, and move the watermark with them.
+     */
+    private long findChangeWatermark() {
+        Object[] sequence = (Object[]) entityManager.createNativeQuery(
+                        "SELECT last_value, is_called FROM movies_change_seq")
+                .getSingleResult();
+        long changeSeq = (Boolean) sequence[1] ? ((Number) sequence[0]).longValue() : 0;
+        Object[] snapshot = (Object[]) entityManager.createNativeQuery(
+                        "SELECT CAST(CAST(pg_snapshot_xmin(pg_current_snapshot()) AS TEXT) AS BIGINT), " +
+                                "CAST(CAST(pg_snapshot_xmax(pg_current_snapshot()) AS TEXT) AS BIGINT)")
+                .getSingleResult();
+        return changeWatermark.advance(changeSeq, ((Number) snapshot[0]).longValue(),
+                ((Number) snapshot[1]).longValue());
+    }
+
+    /**
+     * Get the highest sequence number of the tombstones that have been pruned. Deletes since before it may no longer
+     * be known.
+     *
+     * @return The sequence number, 0 if no tombstone has been pruned.
+     */
+    @Override
+    public long findDeltaHorizon() {
+        return ((Number) entityManager.createNativeQuery("SELECT change_seq FROM movie_delta_horizon")
+                .getSingleResult()).longValue();
+    }
+
+    /**
+     * Remove the tombstones of movies deleted before a point in time, and move the horizon past them.
+     *
+     * @param deletedBefore The time before which the tombstones are removed.
+     * @return The number of tombstones removed.
+     */
+    @Override
+    public long pruneTombstones(Instant deletedBefore) {
+        return ((Number) entityManager.createNativeQuery(
+                        "WITH pruned AS (DELETE FROM movie_tombstones WHERE deleted_at < :deletedBefore " +
+                                "RETURNING change_seq), " +
+                                "horizon AS (UPDATE movie_delta_horizon " +
+                                "SET change_seq = GREATEST(change_seq, (SELECT max(change_seq) FROM pruned)) " +
+                                "WHERE EXISTS (SELECT 1 FROM pruned) RETURNING change_seq) " +
+                                "SELECT count(*) FROM pruned")
+                .setParameter("deletedBefore", Timestamp.from(deletedBefore))
+                .getSingleResult()).longValue();
+    }
+
+    /**
+     * Run an insert or update and read back the stored movie in the same round trip. The movie is built from the
+     * returned row and is not managed by the persistence context. Like a modifying query, pending changes are flushed
+     * first and the persistence context is cleared afterwards, so no stale copy of the movie is left in it.
+     */
+    private Optional<Movie> updateReturningMovie(String sql, Map<String, Object> parameters) {
+        entityManager.flush();
+        Query query = entityManager.createNativeQuery(sql + RETURNING_MOVIE);
+        parameters.forEach(query::setParameter);
+        List<?> rows = query.getResultList();
+        entityManager.clear();
+        if (rows.isEmpty())
+            return Optional.empty();
+
+        return Optional.of(toMovie((Object[]) rows.get(0)));
+    }
+
+    private static Map<String, Object> movieParameters(Movie movie) {
+        return Map.of("owner", movie.getOwner(), "imdbId", movie.getImdbId(), "name", movie.getName(),
+                "seen", movie.isSeen(), "rating", movie.getRating());
+    }
+
+    /**
+     * Collect rows of owner, rating and number of movies into the number of movies indexed by rating for each owner.
+     */
+    private static Map<String, long[]> toRatingCounts(List<?> rows) {
+        Map<String, long[]> ratingCounts = new LinkedHashMap<>();
+        for (Object row : rows) {
+            Object[] columns = (Object[]) row;
+            int rating = ((Number) columns[1]).intValue();
+            if (rating < 0 || rating > MovieStats.MAX_RATING)
+                continue;
+            long[] counts = ratingCounts.computeIfAbsent((String) columns[0],
+                    owner -> new long[MovieStats.MAX_RATING + 1]);
+            counts[rating] += ((Number) columns[2]).longValue();
+        }
+        return ratingCounts;
+    }
+
+    private static long changeSeqOf(Object row, int column) {
+        return ((Number) ((Object[]) row)[column]).longValue();
+    }
+
+    private static Movie toMovie(Object[] row) {
+        return new Movie(((Number) row[0]).longValue(), (String) row[1], (String) row[2], (String) row[3],
+                (Boolean) row[4], ((Number) row[5]).intValue(), ((Number) row[6]).longValue());
+    }
+}
@@ -0,0 +1,153 @@
+package se.martenb.mymoviesback.dao;
+
+import io.r2dbc.spi.Row;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import se.martenb.mymoviesback.model.Movie;
+
+/**
+ * Non-blocking access to the movies table over R2DBC, for the reactive profile. Rows are read as they are requested,
+ * so a slow consumer of a large result holds back the database instead of buffering the result in memory.
+ */
+@Repository
+@Profile("reactive")
+public class ReactiveMovieRepository {
+    private static final String SELECT_MOVIE = "SELECT id, owner, imdb_id, name, seen, rating, version FROM movies";
+
+    private final DatabaseClient databaseClient;
+
+    @Autowired
+    public ReactiveMovieRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    /**
+     * Get all movies in an owner's collection, ordered by id.
+     *
+     * @param owner The owner of the collection.
+     * @return The movies.
+     */
+    public Flux<Movie> findByOwner(String owner) {
+        return databaseClient.sql(SELECT_MOVIE + " WHERE owner = :owner ORDER BY id")
+                .bind("owner", owner)
+                .map(ReactiveMovieRepository::toMovie)
+                .all();
+    }
+
+    /**
+     * Get all movies in an owner's collection whose name contains the given text, ordered by id.
+     *
+     * @param owner The owner of the collection.
+     * @param name The text to search for.
+     * @return The movies.
+     */
+    public Flux<Movie> findByOwnerAndNameContaining(String owner, String name) {
+        return databaseClient.sql(SELECT_MOVIE + " WHERE owner = :owner AND name LIKE :pattern ORDER BY id")
+                .bind("owner", owner)
+                .bind("pattern", "%" + escapeLike(name) + "%")
+                .map(ReactiveMovieRepository::toMovie)
+                .all();
+    }
+
+    /**
+     * Check if there is any movie in an owner's collection, or any movie whose name contains the given text.
+     *
+     * @param owner The owner of the collection.
+     * @param name The text to search for, or null for any movie.
+     * @return True if there is a matching movie.
+     */
+    public Mono<Boolean> existsByOwnerAndNameContaining(String owner, String name) {
+        DatabaseClient.GenericExecuteSpec spec = name == null
+                ? databaseClient.sql("SELECT 1 FROM movies WHERE owner = :owner LIMIT 1")
+                : databaseClient.sql("SELECT 1 FROM movies WHERE owner = :owner AND name LIKE :pattern LIMIT 1")
+                        .bind("pattern", "%" + escapeLike(name) + "%");
+        spec = spec.bind("owner", owner);
+        return spec.map(row -> true).first().defaultIfEmpty(false);
+    }
+
+    /**
+     * Get a movie in an owner's collection by its IMDB id.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbId The IMDB id.
+     * @return The movie, or empty if there is no such movie.
+     */
+    public Mono<Movie> findOneByOwnerAndImdbId(String owner, String imdbId) {
+        return databaseClient.sql(SELECT_MOVIE + " WHERE owner = :owner AND imdb_id = :imdbId")
+                .bind("owner", owner)
+                .bind("imdbId", imdbId)
+                .map(ReactiveMovieRepository::toMovie)
+                .one();
+    }
+
+    /**
+     * Add a movie to its owner's collection. The movie must already have been validated.
+     *
+     * @param movie The movie to add, its id is ignored.
+     * @return The number of added rows, a movie with the same IMDB id in the same collection fails with a
+     *         DataIntegrityViolationException.
+     */
+    public Mono<Integer> insert(Movie movie) {
+        return databaseClient.sql("INSERT INTO movies (owner, id, imdb_id, name, seen, rating) " +
+                        "VALUES (:owner, nextval('movies_id_seq'), :imdbId, :name, :seen, :rating)")
+                .bind("owner", movie.getOwner())
+                .bind("imdbId", movie.getImdbId())
+                .bind("name", movie.getName())
+                .bind("seen", movie.isSeen())
+                .bind("rating", movie.getRating())
+                .fetch()
+                .rowsUpdated();
+    }
+
+    /**
+     * Replace all values of a movie, as long as it has not been changed since it was read. The movie must already
+     * have been validated.
+     *
+     * @param imdbId The IMDB id of the movie to update.
+     * @param movie The new values, with the owner of the collection and the version that was read.
+     * @return The number of updated rows, 0 if there is no such movie or it has been changed since it was read.
+     */
+    public Mono<Integer> update(String imdbId, Movie movie) {
+        return databaseClient.sql("UPDATE movies SET imdb_id = :newImdbId, name = :name, seen = :seen, " +
+                        "rating = :rating, version = version + 1 " +
+                        "WHERE owner = :owner AND imdb_id = :imdbId AND version = :version")
+                .bind("owner", movie.getOwner())
+                .bind("imdbId", imdbId)
+                .bind("newImdbId", movie.getImdbId())
+                .bind("name", movie.getName())
+                .bind("seen", movie.isSeen())
+                .bind("rating", movie.getRating())
+                .bind("version", movie.getVersion())
+                .fetch()
+                .rowsUpdated();
+    }
+
+    /**
+     * Delete a movie in an owner's collection by its IMDB id.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbId The IMDB id.
+     * @return The number of deleted rows.
+     */
+    public Mono<Integer> deleteByOwnerAndImdbId(String owner, String imdbId) {
+        return databaseClient.sql("DELETE FROM movies WHERE owner = :owner AND imdb_id = :imdbId")
+                .bind("owner", owner)
+                .bind("imdbId", imdbId)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    private static String escapeLike(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private static Movie toMovie(Row row) {
+        return new Movie(row.get("id", Long.class), row.get("owner", String.class), row.get("imdb_id", String.class),
+                row.get("name", String.class), row.get("seen", Boolean.class), row.get("rating", Integer.class),
+                row.get("version", Long.class));
+    }
+}
@@ -0,0 +1,164 @@
+package se.martenb.mymoviesback.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Sends read-only transactions to one of the replica databases, taking turns, and everything else to the primary
+ * database. A replica that cannot be connected to, or that lags too far behind the primary, is left out until a
+ * health check finds it working again, and reads go to the primary if no replica is healthy.
+ *
+ * <p>Connections must be taken lazily, after the transaction has started, for the transaction's read-only flag to be
+ * known, so this data source is meant to be wrapped in a LazyConnectionDataSourceProxy.</p>
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource {
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+    private static final ThreadLocal<Boolean> primaryRequired = new ThreadLocal<>();
+    private static final String REPLICATION_LAG_SQL = "SELECT CASE " +
+            "WHEN NOT pg_is_in_recovery() OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+            "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0) END";
+
+    private final DataSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final Duration maxLag;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * A data source that routes between a primary database and its replicas.
+     *
+     * @param primary The primary database, for writes and for reads that cannot go to a replica.
+     * @param replicas The replica databases by name, used in log messages.
+     * @param maxLag How far behind the primary a replica may be and still be used.
+     */
+    public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicas, Duration maxLag) {
+        this.primary = primary;
+        replicas.forEach((name, dataSource) -> this.replicas.add(new Replica(name, dataSource)));
+        this.maxLag = maxLag;
+    }
+
+    /**
+     * Require that connections taken on the current thread go to the primary database, even for read-only
+     * transactions, for example to let a client read its own writes before they have reached the replicas.
+     *
+     * @param required True to require the primary, false to route as usual.
+     */
+    public static void setPrimaryRequired(boolean required) {
+        if (required)
+            primaryRequired.set(Boolean.TRUE);
+        else
+            primaryRequired.remove();
+    }
+
+    /**
+     * Get whether connections taken on the current thread are required to go to the primary database.
+     *
+     * @return True if the primary is required.
+     */
+    public static boolean isPrimaryRequired() {
+        return primaryRequired.get() != null;
+    }
+
+    /**
+     * Run a read on the primary database, even in a read-only transaction, and then route connections as before. This
+     * is for reads whose results are cached as the current version of the data, which a replica that has not caught up
+     * with the primary could otherwise fill with data older than that version.
+     *
+     * @param read The read, which must take its connection when it is run.
+     * @param <T> The type of the result.
+     * @return The result of the read.
+     */
+    public static <T> T readFromPrimary(Supplier<T> read) {
+        boolean required = isPrimaryRequired();
+        setPrimaryRequired(true);
+        try {
+            return read.get();
+        } finally {
+            setPrimaryRequired(required);
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly() || isPrimaryRequired())
+            return primary.getConnection();
+
+        for (int attempt = 0; attempt < replicas.size(); attempt++) {
+            Replica replica = replicas.get(Math.floorMod(next.getAndIncrement(), replicas.size()));
+            if (!replica.healthy)
+                continue;
+            try {
+                return replica.dataSource.getConnection();
+            } catch (SQLException e) {
+                replica.healthy = false;
+                logger.warn("Replica {} is unavailable, reading from the other databases: {}", replica.name,
+                        e.getMessage());
+            }
+        }
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return primary.getConnection(username, password);
+    }
+
+    /**
+     * Check each replica, it is healthy if it can be connected to and is not lagging too far behind the primary.
+     */
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            boolean healthy;
+            try (Connection connection = replica.dataSource.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(REPLICATION_LAG_SQL)) {
+                double lagSeconds = resultSet.next() ? resultSet.getDouble(1) : 0;
+                healthy = lagSeconds * 1000 <= maxLag.toMillis();
+                if (!healthy && replica.healthy)
+                    logger.warn("Replica {} is {} seconds behind, reading from the other databases", replica.name,
+                            lagSeconds);
+            } catch (SQLException e) {
+                healthy = false;
+                if (replica.healthy)
+                    logger.warn("Replica {} is unavailable, reading from the other databases: {}", replica.name,
+                            e.getMessage());
+            }
+            if (healthy && !replica.healthy)
+                logger.info("Replica {} is available again", replica.name);
+            replica.healthy = healthy;
+        }
+    }
+
+    /**
+     * Get the number of replicas that reads are currently sent to.
+     *
+     * @return The number of healthy replicas.
+     */
+    public int getHealthyReplicaCount() {
+        return (int) replicas.stream().filter(replica -> replica.healthy).count();
+    }
+
+    private static final class Replica {
+        private final String name;
+        private final DataSource dataSource;
+        private volatile boolean healthy = true;
+
+        private Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+    }
+}
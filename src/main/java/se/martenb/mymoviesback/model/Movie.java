@@ -1,5 +1,7 @@
 package se.martenb.mymoviesback.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import javax.persistence.*;
 import javax.validation.constraints.*;
 
@@ -11,9 +13,16 @@ import javax.validation.constraints.*;
         "must be between 1 and 10")
 @Table(name = "movies")
 public class Movie {
+    public static final String DEFAULT_OWNER = "default";
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "movies_id_generator")
+    @SequenceGenerator(name = "movies_id_generator", sequenceName = "movies_id_seq", allocationSize = 50)
     private long id;
+    @NotBlank(message = "Owner cannot be null or blank")
+    @Size(min = 1, max = 50, message = "Owner must be between 1 and 50 characters")
+    @Column(name = "owner")
+    private String owner = DEFAULT_OWNER;
     @NotBlank(message = "IMDB id cannot be null or blank")
     @Size(min = 1, max = 20, message = "IMDB id must be between 1 and 20 characters")
     @Column(name = "imdb_id")
@@ -26,6 +35,9 @@ public class Movie {
     private boolean seen;
     @Column(name = "rating")
     private int rating;
+    @Version
+    @Column(name = "version")
+    private long version;
 
     public Movie() {}
 
@@ -44,6 +56,65 @@ public class Movie {
         this.rating = rating;
     }
 
+    /**
+     * A representation of a movie entry that has already been stored, with its unique id. The movie is not managed by
+     * the persistence context.
+     *
+     * @param id The unique ID for the movie entry.
+     * @param imdbId The IMDB id for the movie.
+     * @param name The name of the movie.
+     * @param seen If the moves has been seen or not.
+     * @param rating Rating of the movie if it has been seen.
+     */
+    public Movie(long id, String imdbId, String name, boolean seen, int rating) {
+        this(id, imdbId, name, seen, rating, 0);
+    }
+
+    /**
+     * A representation of a movie entry that has already been stored, with its unique id and row version. The movie
+     * is not managed by the persistence context.
+     *
+     * @param id The unique ID for the movie entry.
+     * @param imdbId The IMDB id for the movie.
+     * @param name The name of the movie.
+     * @param seen If the moves has been seen or not.
+     * @param rating Rating of the movie if it has been seen.
+     * @param version The version of the stored movie entry.
+     */
+    public Movie(long id, String imdbId, String name, boolean seen, int rating, long version) {
+        this(imdbId, name, seen, rating);
+        this.id = id;
+        this.version = version;
+    }
+
+    /**
+     * A representation of a movie entry in an owner's collection that has already been stored, with its unique id and
+     * row version. The movie is not managed by the persistence context.
+     *
+     * @param id The unique ID for the movie entry.
+     * @param owner The owner of the collection the movie is in.
+     * @param imdbId The IMDB id for the movie.
+     * @param name The name of the movie.
+     * @param seen If the moves has been seen or not.
+     * @param rating Rating of the movie if it has been seen.
+     * @param version The version of the stored movie entry.
+     */
+    public Movie(long id, String owner, String imdbId, String name, boolean seen, int rating, long version) {
+        this(id, imdbId, name, seen, rating, version);
+        this.owner = owner;
+    }
+
+    /**
+     * A copy of another movie entry, including its id, owner and version. The copy is not managed by the persistence
+     * context.
+     *
+     * @param movie The movie entry to copy.
+     */
+    public Movie(Movie movie) {
+        this(movie.getId(), movie.getOwner(), movie.getImdbId(), movie.getName(), movie.isSeen(), movie.getRating(),
+                movie.getVersion());
+    }
+
     /**
      * Get the unique ID for the movie entry.
      *
@@ -53,6 +124,17 @@ public class Movie {
         return id;
     }
 
+    /**
+     * Get the owner of the collection the movie entry is in. The owner is given by the request rather than by the
+     * movie's JSON.
+     *
+     * @return The owner.
+     */
+    @JsonIgnore
+    public String getOwner() {
+        return owner;
+    }
+
     /**
      * Get the unique IMDB id for the movie entry.
      *
@@ -89,6 +171,26 @@ public class Movie {
         return rating;
     }
 
+    /**
+     * Get the version of the movie entry, which is incremented every time the entry is updated.
+     *
+     * @return The version.
+     */
+    @JsonIgnore
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Set the owner of the collection the movie entry is in.
+     *
+     * @param owner The owner.
+     */
+    @JsonIgnore
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
     /**
      * Set the IMDB id for the movie entry.
      *
@@ -127,7 +229,7 @@ public class Movie {
 
     /**
      * Update the current movie entry using another movie entry. All values will be transferred except the other
-     * entry's id.
+     * entry's id and owner.
      *
      * @param movie The movie entry to get data from.
      */
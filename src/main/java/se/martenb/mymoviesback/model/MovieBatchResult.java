@@ -0,0 +1,63 @@
+package se.martenb.mymoviesback.model;
+
+/**
+ * The outcome for a single movie in a batch operation.
+ */
+public class MovieBatchResult {
+    /**
+     * The possible outcomes for a movie in a batch operation.
+     */
+    public enum Status {
+        CREATED,
+        ALREADY_EXISTS,
+        DUPLICATE,
+        INVALID,
+        UPDATED,
+        DELETED,
+        NOT_FOUND
+    }
+
+    private final String imdbId;
+    private final Status status;
+    private final String message;
+
+    /**
+     * The outcome for a movie in a batch operation.
+     *
+     * @param imdbId The IMDB id of the movie.
+     * @param status The outcome of the operation.
+     * @param message A description of the outcome.
+     */
+    public MovieBatchResult(String imdbId, Status status, String message) {
+        this.imdbId = imdbId;
+        this.status = status;
+        this.message = message;
+    }
+
+    /**
+     * Get the IMDB id of the movie.
+     *
+     * @return The IMDB id.
+     */
+    public String getImdbId() {
+        return imdbId;
+    }
+
+    /**
+     * Get the outcome of the operation.
+     *
+     * @return The status.
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Get a description of the outcome.
+     *
+     * @return The message.
+     */
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,128 @@
+package se.martenb.mymoviesback.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+/**
+ * A single change to an existing movie in a batch update, found by its IMDB id.
+ */
+public class MovieBatchUpdate {
+    /**
+     * The changes that can be made to a movie in a batch update.
+     */
+    public enum Operation {
+        RATING,
+        NAME,
+        SEEN,
+        UNSEEN,
+        DELETE;
+
+        /**
+         * Get the operation matching the given value, ignoring case.
+         *
+         * @param value The name of the operation, for example "seen" or "delete".
+         * @return The matching operation, or null if there is none.
+         */
+        @JsonCreator
+        public static Operation fromValue(String value) {
+            for (Operation operation : values()) {
+                if (operation.name().equalsIgnoreCase(value))
+                    return operation;
+            }
+            return null;
+        }
+    }
+
+    private Operation operation;
+    private String imdbId;
+    private String name;
+    private Integer rating;
+
+    public MovieBatchUpdate() {}
+
+    /**
+     * A change to a movie in a batch update.
+     *
+     * @param operation The change to make.
+     * @param imdbId The IMDB id of the movie to change.
+     * @param name The new name, for the NAME operation.
+     * @param rating The new rating, for the RATING and SEEN operations.
+     */
+    public MovieBatchUpdate(Operation operation, String imdbId, String name, Integer rating) {
+        this.operation = operation;
+        this.imdbId = imdbId;
+        this.name = name;
+        this.rating = rating;
+    }
+
+    /**
+     * Get the change to make.
+     *
+     * @return The operation.
+     */
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Set the change to make.
+     *
+     * @param operation The operation.
+     */
+    public void setOperation(Operation operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * Get the IMDB id of the movie to change.
+     *
+     * @return The IMDB id.
+     */
+    public String getImdbId() {
+        return imdbId;
+    }
+
+    /**
+     * Set the IMDB id of the movie to change.
+     *
+     * @param imdbId The IMDB id.
+     */
+    public void setImdbId(String imdbId) {
+        this.imdbId = imdbId;
+    }
+
+    /**
+     * Get the new name, for the NAME operation.
+     *
+     * @return The name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Set the new name, for the NAME operation.
+     *
+     * @param name The name.
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Get the new rating, for the RATING and SEEN operations.
+     *
+     * @return The rating.
+     */
+    public Integer getRating() {
+        return rating;
+    }
+
+    /**
+     * Set the new rating, for the RATING and SEEN operations.
+     *
+     * @param rating The rating.
+     */
+    public void setRating(Integer rating) {
+        this.rating = rating;
+    }
+}
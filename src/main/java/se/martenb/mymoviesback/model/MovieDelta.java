@@ -0,0 +1,66 @@
+package se.martenb.mymoviesback.model;
+
+import java.util.List;
+
+/**
+ * The changes to a collection after a cursor: the movies that have been added or updated, and the IMDB ids of the
+ * movies that have been deleted or have got a new IMDB id.
+ */
+public class MovieDelta {
+    private final List<Movie> movies;
+    private final List<String> deleted;
+    private final long cursor;
+    private final boolean more;
+
+    /**
+     * The changes after a cursor and the cursor to ask for the next changes with.
+     *
+     * @param movies The added and updated movies, as they are now.
+     * @param deleted The IMDB ids that no longer have a movie.
+     * @param cursor The cursor after these changes.
+     * @param more True if there are more changes after the cursor, otherwise false.
+     */
+    public MovieDelta(List<Movie> movies, List<String> deleted, long cursor, boolean more) {
+        this.movies = movies;
+        this.deleted = deleted;
+        this.cursor = cursor;
+        this.more = more;
+    }
+
+    /**
+     * Get the movies that have been added or updated.
+     *
+     * @return The movies, as they are now.
+     */
+    public List<Movie> getMovies() {
+        return movies;
+    }
+
+    /**
+     * Get the IMDB ids of the movies that have been deleted or have got a new IMDB id. An IMDB id that has a movie
+     * again is only among the movies.
+     *
+     * @return The IMDB ids.
+     */
+    public List<String> getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * Get the cursor to ask for the next changes with.
+     *
+     * @return The cursor.
+     */
+    public long getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Get whether there are more changes after the cursor, which can be asked for at once.
+     *
+     * @return True if there are more changes, otherwise false.
+     */
+    public boolean isMore() {
+        return more;
+    }
+}
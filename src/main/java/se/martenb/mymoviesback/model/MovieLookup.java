@@ -0,0 +1,40 @@
+package se.martenb.mymoviesback.model;
+
+import java.util.List;
+
+/**
+ * The movies found for a list of IMDB ids, in the order they were asked for, and the IMDB ids that have no movie.
+ */
+public class MovieLookup {
+    private final List<Movie> movies;
+    private final List<String> missing;
+
+    /**
+     * The movies found for a list of IMDB ids.
+     *
+     * @param movies The movies found, in the order their IMDB ids were asked for.
+     * @param missing The IMDB ids that have no movie, in the order they were asked for.
+     */
+    public MovieLookup(List<Movie> movies, List<String> missing) {
+        this.movies = movies;
+        this.missing = missing;
+    }
+
+    /**
+     * Get the movies found.
+     *
+     * @return The movies, in the order their IMDB ids were asked for.
+     */
+    public List<Movie> getMovies() {
+        return movies;
+    }
+
+    /**
+     * Get the IMDB ids that have no movie.
+     *
+     * @return The IMDB ids, in the order they were asked for.
+     */
+    public List<String> getMissing() {
+        return missing;
+    }
+}
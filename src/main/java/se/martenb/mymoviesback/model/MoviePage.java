@@ -0,0 +1,49 @@
+package se.martenb.mymoviesback.model;
+
+import java.util.List;
+
+/**
+ * A single page of movies retrieved using keyset pagination.
+ */
+public class MoviePage {
+    private final List<Movie> movies;
+    private final boolean hasNext;
+
+    /**
+     * A page of movies and whether there are more movies after it.
+     *
+     * @param movies The movies on the page.
+     * @param hasNext True if there are more movies after the last movie on the page, otherwise false.
+     */
+    public MoviePage(List<Movie> movies, boolean hasNext) {
+        this.movies = movies;
+        this.hasNext = hasNext;
+    }
+
+    /**
+     * Get the movies on the page.
+     *
+     * @return The movies.
+     */
+    public List<Movie> getMovies() {
+        return movies;
+    }
+
+    /**
+     * Get whether there are more movies after this page.
+     *
+     * @return True if there is a next page, otherwise false.
+     */
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    /**
+     * Get the last movie on the page, which is used as the cursor for the next page.
+     *
+     * @return The last movie, or null if the page is empty.
+     */
+    public Movie getLast() {
+        return movies.isEmpty() ? null : movies.get(movies.size() - 1);
+    }
+}
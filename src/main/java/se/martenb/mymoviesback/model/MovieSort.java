@@ -0,0 +1,23 @@
+package se.martenb.mymoviesback.model;
+
+/**
+ * The stable orderings that can be used when paging through the movie collection.
+ */
+public enum MovieSort {
+    ID,
+    NAME;
+
+    /**
+     * Get the sort order matching the given value, ignoring case.
+     *
+     * @param value The name of the sort order, for example "id" or "name".
+     * @return The matching sort order, or null if there is none.
+     */
+    public static MovieSort fromValue(String value) {
+        for (MovieSort sort : values()) {
+            if (sort.name().equalsIgnoreCase(value))
+                return sort;
+        }
+        return null;
+    }
+}
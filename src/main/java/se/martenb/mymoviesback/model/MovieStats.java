@@ -0,0 +1,112 @@
+package se.martenb.mymoviesback.model;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Statistics for the whole collection, derived from the number of movies with each rating.
+ */
+public class MovieStats {
+    public static final int MAX_RATING = 10;
+
+    private final long total;
+    private final long seen;
+    private final long unseen;
+    private final Map<Integer, Long> ratings;
+    private final Double mean;
+    private final Double median;
+
+    /**
+     * Statistics for a collection with the given number of movies per rating.
+     *
+     * @param ratingCounts The number of movies with each rating, indexed by rating, where rating 0 is the number of
+     *                     movies that have not been seen.
+     */
+    public MovieStats(long[] ratingCounts) {
+        Map<Integer, Long> ratings = new LinkedHashMap<>();
+        long seen = 0;
+        long ratingSum = 0;
+        for (int rating = 1; rating <= MAX_RATING; rating++) {
+            ratings.put(rating, ratingCounts[rating]);
+            seen += ratingCounts[rating];
+            ratingSum += rating * ratingCounts[rating];
+        }
+
+        this.unseen = ratingCounts[0];
+        this.seen = seen;
+        this.total = seen + unseen;
+        this.ratings = Collections.unmodifiableMap(ratings);
+        this.mean = seen == 0 ? null : (double) ratingSum / seen;
+        this.median = seen == 0
+                ? null
+                : (ratingAt(ratingCounts, (seen - 1) / 2) + ratingAt(ratingCounts, seen / 2)) / 2.0;
+    }
+
+    /**
+     * Get the number of movies in the collection.
+     *
+     * @return The number of movies.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Get the number of movies that have been seen.
+     *
+     * @return The number of seen movies.
+     */
+    public long getSeen() {
+        return seen;
+    }
+
+    /**
+     * Get the number of movies that have not been seen.
+     *
+     * @return The number of unseen movies.
+     */
+    public long getUnseen() {
+        return unseen;
+    }
+
+    /**
+     * Get the number of seen movies with each rating from 1 to 10.
+     *
+     * @return The number of movies by rating.
+     */
+    public Map<Integer, Long> getRatings() {
+        return ratings;
+    }
+
+    /**
+     * Get the mean rating of the seen movies.
+     *
+     * @return The mean rating, or null if no movie has been seen.
+     */
+    public Double getMean() {
+        return mean;
+    }
+
+    /**
+     * Get the median rating of the seen movies.
+     *
+     * @return The median rating, or null if no movie has been seen.
+     */
+    public Double getMedian() {
+        return median;
+    }
+
+    /**
+     * Get the rating at a position among the seen movies ordered by rating.
+     */
+    private static int ratingAt(long[] ratingCounts, long position) {
+        long movies = 0;
+        for (int rating = 1; rating < MAX_RATING; rating++) {
+            movies += ratingCounts[rating];
+            if (position < movies)
+                return rating;
+        }
+        return MAX_RATING;
+    }
+}
@@ -0,0 +1,38 @@
+package se.martenb.mymoviesback.model;
+
+/**
+ * The outcome of storing a movie that is added if it does not exist and replaced if it does.
+ */
+public class MovieUpsertResult {
+    private final Movie movie;
+    private final boolean created;
+
+    /**
+     * The outcome of an upsert.
+     *
+     * @param movie The movie as it was stored.
+     * @param created True if the movie was added, false if an existing movie was replaced.
+     */
+    public MovieUpsertResult(Movie movie, boolean created) {
+        this.movie = movie;
+        this.created = created;
+    }
+
+    /**
+     * Get the movie as it was stored.
+     *
+     * @return The movie.
+     */
+    public Movie getMovie() {
+        return movie;
+    }
+
+    /**
+     * Get whether the movie was added or an existing movie was replaced.
+     *
+     * @return True if the movie was added, false if it replaced an existing movie.
+     */
+    public boolean isCreated() {
+        return created;
+    }
+}
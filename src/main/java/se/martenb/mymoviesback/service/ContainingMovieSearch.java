@@ -0,0 +1,35 @@
+package se.martenb.mymoviesback.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import se.martenb.mymoviesback.dao.MovieRepository;
+import se.martenb.mymoviesback.model.Movie;
+
+import java.util.List;
+
+/**
+ * Finds movies whose name contains the search text exactly, including case.
+ */
+@Component
+@ConditionalOnProperty(name = "movies.search.strategy", havingValue = "contains", matchIfMissing = true)
+public class ContainingMovieSearch implements MovieSearchStrategy {
+    private final MovieRepository movieRepository;
+
+    @Autowired
+    public ContainingMovieSearch(MovieRepository movieRepository) {
+        this.movieRepository = movieRepository;
+    }
+
+    /**
+     * Retrieve all movies in the owner's collection whose name contains the given text.
+     *
+     * @param owner The owner of the collection.
+     * @param name The text to search for.
+     * @return A list of matching movies, otherwise an empty list.
+     */
+    @Override
+    public List<Movie> search(String owner, String name) {
+        return movieRepository.findByOwnerAndNameContaining(owner, name);
+    }
+}
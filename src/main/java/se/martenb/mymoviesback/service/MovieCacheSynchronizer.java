@@ -0,0 +1,128 @@
+package se.martenb.mymoviesback.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import se.martenb.mymoviesback.config.CacheConfig;
+import se.martenb.mymoviesback.model.Movie;
+
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the cache of movies looked up by IMDB id in sync with the changes made through the movie service, so a
+ * changed movie is served from the cache with its new values instead of being read again from the database.
+ *
+ * <p>Lookups and changes can reach the cache in any order, for example a lookup that read a movie just before a change
+ * was committed can finish after the change has been applied. Every write to the cache therefore keeps whichever copy
+ * of a movie has the higher version, and a movie that is deleted or gets a new IMDB id leaves a marker with its last
+ * version behind, so that an older copy read before the change cannot be cached again.
+ */
+@Component
+public class MovieCacheSynchronizer {
+    private final CacheManager cacheManager;
+
+    @Autowired
+    public MovieCacheSynchronizer(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    /**
+     * Get a cached movie.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbId The IMDB id of the movie.
+     * @return The movie, or null if it is not cached.
+     */
+    public Movie get(String owner, String imdbId) {
+        Cache cache = cacheManager.getCache(CacheConfig.MOVIES_BY_IMDB_ID);
+        Cache.ValueWrapper cached = cache == null ? null : cache.get(new SimpleKey(owner, imdbId));
+        return cached != null && cached.get() instanceof Movie movie ? movie : null;
+    }
+
+    /**
+     * Cache a movie that has been read from the database, unless a newer copy of it has been cached or it has been
+     * changed away from this IMDB id since.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbId The IMDB id the movie was looked up by.
+     * @param movie The movie.
+     */
+    public void put(String owner, String imdbId, Movie movie) {
+        ConcurrentMap<Object, Object> cache = cache();
+        if (cache != null)
+            cache.compute(new SimpleKey(owner, imdbId), (key, cached) -> newer(cached, movie));
+    }
+
+    /**
+     * Apply a change to the cache once it has been committed. The entry for the previous IMDB id is replaced by a
+     * marker and, unless the movie was deleted, the movie is cached under its current IMDB id. Movies are cached by
+     * owner and IMDB id, the same key the movie service's lookups are cached with.
+     *
+     * @param event The change.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMovieChange(MovieChangeEvent event) {
+        ConcurrentMap<Object, Object> cache = cache();
+        if (cache == null)
+            return;
+
+        Movie movie = event.getMovie();
+        if (event.getType() == MovieChangeEvent.Type.DELETED || !event.getImdbId().equals(movie.getImdbId())) {
+            Removed removed = new Removed(movie.getId(), movie.getVersion());
+            cache.compute(new SimpleKey(event.getOwner(), event.getImdbId()), (key, cached) -> newer(cached, removed));
+        }
+        if (event.getType() != MovieChangeEvent.Type.DELETED)
+            cache.compute(new SimpleKey(event.getOwner(), movie.getImdbId()), (key, cached) -> newer(cached, movie));
+    }
+
+    private ConcurrentMap<Object, Object> cache() {
+        Cache cache = cacheManager.getCache(CacheConfig.MOVIES_BY_IMDB_ID);
+        if (cache == null)
+            return null;
+        Object nativeCache = cache.getNativeCache();
+        if (nativeCache instanceof com.github.benmanes.caffeine.cache.Cache<?, ?> caffeineCache)
+            return castMap(caffeineCache.asMap());
+        if (nativeCache instanceof ConcurrentMap<?, ?> map)
+            return castMap(map);
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentMap<Object, Object> castMap(ConcurrentMap<?, ?> map) {
+        return (ConcurrentMap<Object, Object>) map;
+    }
+
+    /**
+     * Choose between what is cached and a new entry. A movie that is added again after it was deleted gets a new id,
+     * so entries for different movies are always replaced, only an older version of the same movie is kept out.
+     */
+    private static Object newer(Object cached, Object entry) {
+        long cachedId;
+        long cachedVersion;
+        if (cached instanceof Movie movie) {
+            cachedId = movie.getId();
+            cachedVersion = movie.getVersion();
+        } else if (cached instanceof Removed removed) {
+            cachedId = removed.id;
+            cachedVersion = removed.version;
+        } else {
+            return entry;
+        }
+        long id = entry instanceof Movie movie ? movie.getId() : ((Removed) entry).id;
+        long version = entry instanceof Movie movie ? movie.getVersion() : ((Removed) entry).version;
+        if (id != cachedId)
+            return entry;
+        if (version > cachedVersion || version == cachedVersion && entry instanceof Removed)
+            return entry;
+        return cached;
+    }
+
+    /**
+     * A movie that is no longer found by the IMDB id it is cached under, as of its last version.
+     */
+    private record Removed(long id, long version) {
+    }
+}
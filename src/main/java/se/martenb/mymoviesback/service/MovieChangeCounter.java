@@ -0,0 +1,58 @@
+package se.martenb.mymoviesback.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import se.martenb.mymoviesback.dao.MovieRepository;
+import se.martenb.mymoviesback.dao.ReplicaRoutingDataSource;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads the number of committed changes to each owner's collection, which the database counts in the same transaction
+ * as every change to the movies. The count identifies the current state of a collection, so anything derived from the
+ * whole collection can be reused for as long as the version stays the same, also when the collection is changed by
+ * another application instance or directly in the database. Changes to one owner's collection do not change the
+ * version of any other collection.
+ *
+ * <p>Changes that this application has accepted but not written yet, see {@link WriteBehindMovieService}, are counted
+ * here as well. Together with the time the application started they are part of the version, so it changes as soon
+ * as such a change is accepted.</p>
+ */
+@Component
+public class MovieChangeCounter {
+    private final MovieRepository movieRepository;
+    private final String epoch = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+    private final Map<String, AtomicLong> pendingChanges = new ConcurrentHashMap<>();
+
+    @Autowired
+    public MovieChangeCounter(MovieRepository movieRepository) {
+        this.movieRepository = movieRepository;
+    }
+
+    /**
+     * Count a change that has been accepted but is written to the database later.
+     *
+     * @param owner The owner of the collection.
+     */
+    public void countPendingChange(String owner) {
+        pendingChanges.computeIfAbsent(owner, key -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Get the version of an owner's collection. It changes with every committed change to the collection and every
+     * change accepted to be written later, and is never reused after a restart. The committed changes are read from
+     * the primary database, so that a replica that has not caught up yet cannot give out a version for a collection
+     * it has older movies of.
+     *
+     * @param owner The owner of the collection.
+     * @return The version.
+     */
+    public String getVersion(String owner) {
+        long changes = ReplicaRoutingDataSource.readFromPrimary(() -> movieRepository.findCollectionVersion(owner));
+        AtomicLong ownerPendingChanges = pendingChanges.get(owner);
+        return ownerPendingChanges == null ? Long.toString(changes)
+                : changes + "-" + epoch + "-" + ownerPendingChanges.get();
+    }
+}
@@ -0,0 +1,99 @@
+package se.martenb.mymoviesback.service;
+
+import se.martenb.mymoviesback.model.Movie;
+
+/**
+ * Published by the movie service whenever a movie is added, updated or deleted, so that in-memory views of the
+ * collection can be kept in sync without going back to the database.
+ */
+public class MovieChangeEvent {
+    public enum Type {
+        ADDED,
+        UPDATED,
+        DELETED
+    }
+
+    private final Type type;
+    private final String imdbId;
+    private final Movie movie;
+
+    /**
+     * A change to a single movie.
+     *
+     * @param type What kind of change it was.
+     * @param imdbId The IMDB id the movie had before the change.
+     * @param movie A copy of the movie after the change, or of the deleted movie.
+     */
+    public MovieChangeEvent(Type type, String imdbId, Movie movie) {
+        this.type = type;
+        this.imdbId = imdbId;
+        this.movie = new Movie(movie);
+    }
+
+    /**
+     * A movie that has been added.
+     *
+     * @param movie The added movie.
+     * @return The change event.
+     */
+    public static MovieChangeEvent added(Movie movie) {
+        return new MovieChangeEvent(Type.ADDED, movie.getImdbId(), movie);
+    }
+
+    /**
+     * A movie that has been updated, possibly getting a new IMDB id.
+     *
+     * @param imdbId The IMDB id the movie had before the update.
+     * @param movie The updated movie.
+     * @return The change event.
+     */
+    public static MovieChangeEvent updated(String imdbId, Movie movie) {
+        return new MovieChangeEvent(Type.UPDATED, imdbId, movie);
+    }
+
+    /**
+     * A movie that has been deleted.
+     *
+     * @param movie The deleted movie.
+     * @return The change event.
+     */
+    public static MovieChangeEvent deleted(Movie movie) {
+        return new MovieChangeEvent(Type.DELETED, movie.getImdbId(), movie);
+    }
+
+    /**
+     * Get what kind of change it was.
+     *
+     * @return The type of change.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get the owner of the collection the movie is in.
+     *
+     * @return The owner.
+     */
+    public String getOwner() {
+        return movie.getOwner();
+    }
+
+    /**
+     * Get the IMDB id the movie had before the change.
+     *
+     * @return The previous IMDB id.
+     */
+    public String getImdbId() {
+        return imdbId;
+    }
+
+    /**
+     * Get a copy of the movie after the change, or of the movie as it was before it was deleted.
+     *
+     * @return The movie.
+     */
+    public Movie getMovie() {
+        return movie;
+    }
+}
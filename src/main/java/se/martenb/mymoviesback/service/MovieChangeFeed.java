@@ -0,0 +1,460 @@
+package se.martenb.mymoviesback.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import se.martenb.mymoviesback.config.MetricsConfig;
+import se.martenb.mymoviesback.model.Movie;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Feeds the committed changes to each owner's collection to the clients that follow them, so that they do not have to
+ * poll the whole collection. Every change gets an id, and the most recent changes to each owner's collection are kept
+ * in a ring buffer of its own, so that a client that reconnects is sent the changes it missed however busy the other
+ * collections are. The buffers of the owners whose collections changed most recently are kept, and changes to
+ * different owners' collections seldom wait for each other.
+ *
+ * <p>Changes are put in a bounded queue for each subscriber and sent from a small pool of threads, so a change is never
+ * held up by a slow client. A subscriber that falls so far behind that its queue is full, or that resumes from a
+ * change that is no longer in the buffer, is told to resync instead: to get the whole collection again and follow the
+ * changes from there.
+ */
+@Component
+@Profile("!reactive")
+public class MovieChangeFeed {
+    private static final Object HEARTBEAT = new Object();
+    private static final int LOCK_STRIPES = 64;
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+    private final int bufferSize;
+    private final Cache<String, OwnerChanges> buffers;
+    // Changes to the same owner's collection are numbered, kept and queued under the same lock
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+    private final AtomicLong lastSequence = new AtomicLong();
+    // The last change that may have been in a buffer that is no longer kept
+    private final AtomicLong evictedSequence = new AtomicLong();
+    private final int queueSize;
+    private final Executor sender;
+    private final ExecutorService ownSender;
+    private final Map<String, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final Counter resyncs;
+
+    @Autowired
+    public MovieChangeFeed(MeterRegistry meterRegistry,
+                           @Value("${movies.changes.buffer-size}") int bufferSize,
+                           @Value("${movies.changes.buffer-owners}") int bufferOwners,
+                           @Value("${movies.changes.queue-size}") int queueSize,
+                           @Value("${movies.changes.sender-threads}") int senderThreads) {
+        this(meterRegistry, bufferSize, bufferOwners, queueSize,
+                Executors.newFixedThreadPool(senderThreads, new CustomizableThreadFactory("change-feed-")));
+    }
+
+    MovieChangeFeed(MeterRegistry meterRegistry, int bufferSize, int bufferOwners, int queueSize, Executor sender) {
+        if (bufferSize < 1 || bufferOwners < 1 || queueSize < 1)
+            throw new IllegalArgumentException("Buffer sizes and queue size must be at least 1");
+        this.bufferSize = bufferSize;
+        this.buffers = Caffeine.newBuilder()
+                .maximumSize(bufferOwners)
+                .executor(Runnable::run)
+                .<String, OwnerChanges>evictionListener((owner, changes, cause) -> changes.evict())
+                .build();
+        for (int i = 0; i < locks.length; i++)
+            locks[i] = new ReentrantLock();
+        this.queueSize = queueSize;
+        this.sender = sender;
+        this.ownSender = sender instanceof ExecutorService ? (ExecutorService) sender : null;
+        Gauge.builder(MetricsConfig.CHANGES_SUBSCRIBERS_GAUGE, subscribers, AtomicInteger::get)
+                .description("Clients following the changes to a collection")
+                .register(meterRegistry);
+        this.resyncs = Counter.builder(MetricsConfig.CHANGES_RESYNC_COUNTER)
+                .description("Clients told to get the whole collection again")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Stop sending changes. By the time this is called the web server has stopped taking requests.
+     */
+    @PreDestroy
+    public void stop() {
+        if (ownSender != null)
+            ownSender.shutdownNow();
+    }
+
+    /**
+     * Give a change an id and pass it on to the subscribers of the owner's collection once it has been committed.
+     *
+     * @param event The change.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMovieChange(MovieChangeEvent event) {
+        String owner = event.getOwner();
+        ReentrantLock lock = lockFor(owner);
+        lock.lock();
+        try {
+            long sequence = lastSequence.incrementAndGet();
+            Change change = new Change(idOf(sequence), sequence, event);
+            OwnerChanges changes = buffers.get(owner, key -> new OwnerChanges(evictedSequence.get()));
+            changes.add(change);
+
+            Set<Subscription> ownerSubscriptions = subscriptions.get(owner);
+            if (ownerSubscriptions != null)
+                ownerSubscriptions.forEach(subscription -> subscription.offer(change));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Follow the changes to an owner's collection. If the id of the last change the client got is given, the changes
+     * after it are sent first, or a resync if they are no longer kept.
+     *
+     * @param owner The owner of the collection.
+     * @param lastChangeId The id of the last change the client got, or null to only follow new changes.
+     * @param listener The listener that is sent the changes, from one thread at a time.
+     * @return The subscription, which must be cancelled once the client has gone.
+     */
+    public Subscription subscribe(String owner, String lastChangeId, Listener listener) {
+        Subscription subscription = new Subscription(owner, listener);
+        ReentrantLock lock = lockFor(owner);
+        lock.lock();
+        try {
+            if (lastChangeId != null) {
+                List<Change> missed = changesAfter(owner, lastChangeId);
+                if (missed == null)
+                    subscription.offerResync(idOf(lastSequence.get()));
+                else
+                    missed.forEach(subscription::offer);
+            }
+            subscriptions.computeIfAbsent(owner, key -> ConcurrentHashMap.newKeySet()).add(subscription);
+        } finally {
+            lock.unlock();
+        }
+        subscribers.incrementAndGet();
+        return subscription;
+    }
+
+    /**
+     * Send a heartbeat to every subscriber that has nothing else to send, so that idle connections are kept open by
+     * proxies and clients that have gone are noticed.
+     */
+    @Scheduled(fixedDelayString = "${movies.changes.heartbeat-interval}",
+            initialDelayString = "${movies.changes.heartbeat-interval}")
+    public void sendHeartbeats() {
+        subscriptions.values().forEach(ownerSubscriptions ->
+                ownerSubscriptions.forEach(Subscription::offerHeartbeat));
+    }
+
+    /**
+     * Get the number of subscribers.
+     *
+     * @return The number of clients following the changes to a collection.
+     */
+    public int getSubscribers() {
+        return subscribers.get();
+    }
+
+    private String idOf(long sequence) {
+        return epoch + "-" + sequence;
+    }
+
+    private ReentrantLock lockFor(String owner) {
+        return locks[Math.floorMod(owner.hashCode(), locks.length)];
+    }
+
+    /**
+     * Find the kept changes to an owner's collection after the one with the given id, or null if some of them are no
+     * longer kept or the id was not given out since the application started.
+     */
+    private List<Change> changesAfter(String owner, String changeId) {
+        int separator = changeId.lastIndexOf('-');
+        if (separator < 0 || !changeId.substring(0, separator).equals(epoch))
+            return null;
+        long sequence;
+        try {
+            sequence = Long.parseLong(changeId.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (sequence < 0 || sequence > lastSequence.get())
+            return null;
+
+        OwnerChanges changes = buffers.getIfPresent(owner);
+        if (changes == null)
+            return sequence < evictedSequence.get() ? null : List.of();
+        return changes.after(sequence);
+    }
+
+    /**
+     * The most recent changes to one owner's collection, oldest first.
+     */
+    private final class OwnerChanges {
+        private final ArrayDeque<Change> changes = new ArrayDeque<>();
+        // Every change to the collection after this one is kept
+        private long keptAfter;
+        private boolean evicted;
+
+        private OwnerChanges(long keptAfter) {
+            this.keptAfter = keptAfter;
+        }
+
+        private synchronized void add(Change change) {
+            if (changes.size() == bufferSize)
+                keptAfter = changes.removeFirst().sequence;
+            changes.addLast(change);
+            // A change that is added while the buffer is let go of is not kept either
+            if (evicted)
+                evictedSequence.accumulateAndGet(change.sequence, Math::max);
+        }
+
+        /**
+         * Let go of the buffer to make room for other owners' changes, so that no change up to the last one in it can
+         * be resumed from unless the owner's buffer that replaces it has kept it.
+         */
+        private synchronized void evict() {
+            evicted = true;
+            if (!changes.isEmpty())
+                evictedSequence.accumulateAndGet(changes.getLast().sequence, Math::max);
+        }
+
+        private synchronized List<Change> after(long sequence) {
+            if (sequence < keptAfter)
+                return null;
+            List<Change> after = new ArrayList<>();
+            for (Change change : changes) {
+                if (change.sequence > sequence)
+                    after.add(change);
+            }
+            return after;
+        }
+    }
+
+    /**
+     * Receives the changes to a collection. Only one method is called at a time, and a method that throws ends the
+     * subscription.
+     */
+    public interface Listener {
+        /**
+         * A movie in the collection has been changed.
+         *
+         * @param change The change.
+         */
+        void onChange(Change change) throws IOException;
+
+        /**
+         * Changes have been missed, so the whole collection must be fetched again.
+         *
+         * @param lastChangeId The id of the last change made before the resync, to resume from once the collection has
+         *                     been fetched.
+         */
+        void onResync(String lastChangeId) throws IOException;
+
+        /**
+         * Nothing has changed for a while.
+         */
+        void onHeartbeat() throws IOException;
+    }
+
+    /**
+     * A committed change to a movie, serialized to JSON as the IMDB id the movie had before the change and the movie
+     * after it, which is left out for deleted movies.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static final class Change {
+        private final String id;
+        private final long sequence;
+        private final MovieChangeEvent.Type type;
+        private final String imdbId;
+        private final Movie movie;
+
+        Change(String id, long sequence, MovieChangeEvent event) {
+            this.id = id;
+            this.sequence = sequence;
+            this.type = event.getType();
+            this.imdbId = event.getImdbId();
+            this.movie = event.getType() == MovieChangeEvent.Type.DELETED ? null : event.getMovie();
+        }
+
+        /**
+         * Get the id of the change, which a client can resume from.
+         *
+         * @return The id.
+         */
+        @JsonIgnore
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Get what kind of change it was.
+         *
+         * @return The type of change.
+         */
+        @JsonIgnore
+        public MovieChangeEvent.Type getType() {
+            return type;
+        }
+
+        /**
+         * Get the IMDB id the movie had before the change.
+         *
+         * @return The previous IMDB id.
+         */
+        public String getImdbId() {
+            return imdbId;
+        }
+
+        /**
+         * Get the movie after the change.
+         *
+         * @return The movie, or null if it was deleted.
+         */
+        public Movie getMovie() {
+            return movie;
+        }
+    }
+
+    /**
+     * A client following the changes to a collection, with the changes that are yet to be sent to it.
+     */
+    public final class Subscription {
+        private final String owner;
+        private final Listener listener;
+        private final ArrayDeque<Object> queue = new ArrayDeque<>();
+        private boolean sending;
+        private boolean cancelled;
+
+        private Subscription(String owner, Listener listener) {
+            this.owner = owner;
+            this.listener = listener;
+        }
+
+        /**
+         * Stop sending changes. Changes that have not been sent yet are dropped.
+         */
+        public void cancel() {
+            synchronized (this) {
+                if (cancelled)
+                    return;
+                cancelled = true;
+                queue.clear();
+            }
+            subscriptions.computeIfPresent(owner, (key, ownerSubscriptions) -> {
+                ownerSubscriptions.remove(this);
+                return ownerSubscriptions.isEmpty() ? null : ownerSubscriptions;
+            });
+            subscribers.decrementAndGet();
+        }
+
+        /**
+         * Queue a change, or replace everything queued with a resync if the queue is full.
+         */
+        private void offer(Change change) {
+            synchronized (this) {
+                if (queue.size() >= queueSize) {
+                    queue.clear();
+                    queue.add(new Resync(change.id));
+                    resyncs.increment();
+                } else {
+                    queue.add(change);
+                }
+            }
+            startSending();
+        }
+
+        private void offerResync(String lastChangeId) {
+            synchronized (this) {
+                queue.clear();
+                queue.add(new Resync(lastChangeId));
+                resyncs.increment();
+            }
+            startSending();
+        }
+
+        private void offerHeartbeat() {
+            synchronized (this) {
+                if (!queue.isEmpty() || sending)
+                    return;
+                queue.add(HEARTBEAT);
+            }
+            startSending();
+        }
+
+        private void startSending() {
+            synchronized (this) {
+                if (sending || cancelled || queue.isEmpty())
+                    return;
+                sending = true;
+            }
+            sender.execute(this::send);
+        }
+
+        /**
+         * Send what is queued, at most a queue full at a time so that one busy subscriber cannot hold on to a sender
+         * thread while others wait.
+         */
+        private void send() {
+            for (int sent = 0; sent < queueSize; sent++) {
+                Object next;
+                synchronized (this) {
+                    next = cancelled ? null : queue.poll();
+                    if (next == null) {
+                        sending = false;
+                        return;
+                    }
+                }
+                try {
+                    if (next instanceof Change)
+                        listener.onChange((Change) next);
+                    else if (next instanceof Resync)
+                        listener.onResync(((Resync) next).lastChangeId);
+                    else
+                        listener.onHeartbeat();
+                } catch (Exception e) {
+                    cancel();
+                    synchronized (this) {
+                        sending = false;
+                    }
+                    return;
+                }
+            }
+            synchronized (this) {
+                sending = false;
+            }
+            startSending();
+        }
+    }
+
+    private static final class Resync {
+        private final String lastChangeId;
+
+        private Resync(String lastChangeId) {
+            this.lastChangeId = lastChangeId;
+        }
+    }
+}
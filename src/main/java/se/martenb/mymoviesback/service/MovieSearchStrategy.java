@@ -0,0 +1,12 @@
+package se.martenb.mymoviesback.service;
+
+import se.martenb.mymoviesback.model.Movie;
+
+import java.util.List;
+
+/**
+ * A way of finding movies by name in an owner's collection, selected with the property movies.search.strategy.
+ */
+public interface MovieSearchStrategy {
+    List<Movie> search(String owner, String name);
+}
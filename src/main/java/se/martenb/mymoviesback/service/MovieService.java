@@ -1,18 +1,38 @@
 package se.martenb.mymoviesback.service;
 
 import se.martenb.mymoviesback.model.Movie;
+import se.martenb.mymoviesback.model.MovieDelta;
+import se.martenb.mymoviesback.model.MovieBatchResult;
+import se.martenb.mymoviesback.model.MovieBatchUpdate;
+import se.martenb.mymoviesback.model.MovieLookup;
+import se.martenb.mymoviesback.model.MoviePage;
+import se.martenb.mymoviesback.model.MovieSort;
+import se.martenb.mymoviesback.model.MovieStats;
 
 import java.util.List;
+import java.util.function.Consumer;
 
+/**
+ * Every operation works on the collection of a single owner, and only sees and changes that owner's movies.
+ */
 public interface MovieService {
-    public abstract List<Movie> getAllMovies(String name);
-    public abstract Movie getMovieByImdbId(String imdbId);
-    public abstract void addMovie(Movie movie);
-    public abstract void updateMovie(String imdbId, Movie movie);
-    public abstract void updateRating(String imdbId, int rating);
-    public abstract void updateName(String imdbId, String name);
-    public abstract void updateImdbId(String imdbId, String imdbIdNew);
-    public abstract void setMovieSeen(String imdbId, int rating);
-    public abstract void setMovieUnseen(String imdbId);
-    public abstract void deleteMovie(String imdbId);
+    public abstract List<Movie> getAllMovies(String owner, String name);
+    public abstract void streamAllMovies(String owner, Consumer<Movie> consumer);
+    public abstract MoviePage getMoviePage(String owner, Long afterId, String afterName, int limit, MovieSort sort);
+    public abstract long getEstimatedMovieCount(String owner);
+    public abstract MovieStats getMovieStats(String owner);
+    public abstract MovieDelta getMovieDelta(String owner, long since, int limit);
+    public abstract Movie getMovieByImdbId(String owner, String imdbId);
+    public abstract MovieLookup getMoviesByImdbIds(String owner, List<String> imdbIds);
+    public abstract void addMovie(String owner, Movie movie);
+    public abstract boolean upsertMovie(String owner, String imdbId, Movie movie);
+    public abstract List<MovieBatchResult> addMovies(String owner, List<Movie> movies);
+    public abstract List<MovieBatchResult> updateMovies(String owner, List<MovieBatchUpdate> updates);
+    public abstract void updateMovie(String owner, String imdbId, Movie movie);
+    public abstract void updateRating(String owner, String imdbId, int rating);
+    public abstract void updateName(String owner, String imdbId, String name);
+    public abstract void updateImdbId(String owner, String imdbId, String imdbIdNew);
+    public abstract void setMovieSeen(String owner, String imdbId, int rating);
+    public abstract void setMovieUnseen(String owner, String imdbId);
+    public abstract void deleteMovie(String owner, String imdbId);
 }
@@ -1,162 +1,632 @@
 package se.martenb.mymoviesback.service;
 
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import se.martenb.mymoviesback.config.CacheConfig;
+import se.martenb.mymoviesback.config.MetricsConfig;
 import se.martenb.mymoviesback.controller.MovieAlreadyExistsException;
+import se.martenb.mymoviesback.controller.MovieDeltaExpiredException;
 import se.martenb.mymoviesback.controller.MovieNotFoundException;
 import se.martenb.mymoviesback.dao.MovieRepository;
+import se.martenb.mymoviesback.dao.ReplicaRoutingDataSource;
 import se.martenb.mymoviesback.model.Movie;
+import se.martenb.mymoviesback.model.MovieBatchResult;
+import se.martenb.mymoviesback.model.MovieBatchUpdate;
+import se.martenb.mymoviesback.model.MovieDelta;
+import se.martenb.mymoviesback.model.MovieLookup;
+import se.martenb.mymoviesback.model.MoviePage;
+import se.martenb.mymoviesback.model.MovieSort;
+import se.martenb.mymoviesback.model.MovieStats;
+import se.martenb.mymoviesback.model.MovieUpsertResult;
 
-import java.util.ArrayList;
-import java.util.List;
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
+import javax.validation.Validator;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 
 @Service
 public class MovieServiceImpl implements MovieService {
     private final MovieRepository movieRepository;
+    private final MovieSearchStrategy movieSearch;
+    private final Validator validator;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MovieCacheSynchronizer movieCache;
 
     @Autowired
-    public MovieServiceImpl(MovieRepository movieRepository) {
+    public MovieServiceImpl(MovieRepository movieRepository, MovieSearchStrategy movieSearch, Validator validator,
+                            ApplicationEventPublisher eventPublisher, MovieCacheSynchronizer movieCache) {
         this.movieRepository = movieRepository;
+        this.movieSearch = movieSearch;
+        this.validator = validator;
+        this.eventPublisher = eventPublisher;
+        this.movieCache = movieCache;
     }
 
     /**
      * Retrieve a list of all movies, if name is set, then all movies containing the requested name will be returned.
+     * How the name is matched depends on the configured search strategy.
      *
+     * @param owner The owner of the collection.
      * @return A list of movies if found, otherwise an empty list is returned.
      */
     @Override
-    public List<Movie> getAllMovies(String name) {
+    @Timed(MetricsConfig.SERVICE_TIMER)
+    @Transactional(readOnly = true)
+    public List<Movie> getAllMovies(String owner, String name) {
         List<Movie> movies = new ArrayList<Movie>();
         if (name == null)
-            movies.addAll(movieRepository.findAll());
+            movies.addAll(movieRepository.findByOwner(owner));
         else
-            movies.addAll(movieRepository.findByNameContaining(name));
+            movies.addAll(movieSearch.search(owner, name));
         return movies;
     }
 
     /**
-     * Retrieve a movie by its IMDB id
+     * Stream all movies, ordered by id, to the given consumer. The movies are read from a database cursor with a fixed
+     * fetch size and are detached once consumed, so memory use does not grow with the size of the collection.
      *
+     * @param owner The owner of the collection.
+     * @param consumer The consumer that receives each movie.
+     */
+    @Override
+    @Timed(MetricsConfig.SERVICE_TIMER)
+    @Transactional(readOnly = true)
+    public void streamAllMovies(String owner, Consumer<Movie> consumer) {
+        try (Stream<Movie> movies = movieRepository.streamByOwnerOrderByIdAsc(owner)) {
+            movies.forEach(movie -> {
+                consumer.accept(movie);
+                movieRepository.detach(movie);
+            });
+        }
+    }
+
+    /**
+     * Retrieve a page of movies using keyset pagination. The page starts right after the movie given by the cursor,
+     * so the cost of a page does not depend on how far into the collection it is.
+     *
+     * @param owner The owner of the collection.
+     * @param afterId The id of the last movie on the previous page, or null for the first page.
+     * @param afterName The name of the last movie on the previous page when sorting by name, if null it will be
+     *                  looked up using afterId.
+     * @param limit The maximum number of movies on the page.
+     * @param sort The order to page through the movies in.
+     * @return The page of movies.
+     */
+    @Override
+    @Timed(MetricsConfig.SERVICE_TIMER)
+    @Transactional(readOnly = true)
+    public MoviePage getMoviePage(String owner, Long afterId, String afterName, int limit, MovieSort sort) {
+        // Fetch one extra movie to find out if there is a next page
+        Pageable pageable = PageRequest.of(0, limit + 1);
+        List<Movie> movies;
+        if (sort == MovieSort.NAME) {
+            if (afterId == null) {
+                movies = movieRepository.findByOwnerOrderByNameAscIdAsc(owner, pageable);
+            } else {
+                if (afterName == null) {
+                    Movie cursorMovie = movieRepository.findOneByOwnerAndId(owner, afterId);
+                    if (cursorMovie == null) throw new MovieNotFoundException();
+                    afterName = cursorMovie.getName();
+                }
+                movies = movieRepository.findAfterOrderByNameAsc(owner, afterName, afterId, pageable);
+            }
+        } else {
+            movies = movieRepository.findByOwnerAndIdGreaterThanOrderByIdAsc(owner, afterId == null ? 0 : afterId,
+                    pageable);
+        }
+
+        boolean hasNext = movies.size() > limit;
+        return new MoviePage(hasNext ? movies.subList(0, limit) : movies, hasNext);
+    }
+
+    /**
+     * Retrieve the number of movies in the collection. It is the sum of the number of movies with each rating, which
+     * the database keeps up to date with every change, so the movies do not have to be counted.
+     *
+     * @param owner The owner of the collection.
+     * @return The number of movies.
+     */
+    @Override
+    @Timed(MetricsConfig.SERVICE_TIMER)
+    @Transactional(readOnly = true)
+    public long getEstimatedMovieCount(String owner) {
+        return Arrays.stream(movieRepository.countByRating(owner)).sum();
+    }
+
+    /**
+     * Retrieve statistics for the whole collection. They are derived from the number of movies with each rating,
+     * which the database keeps up to date with every change, so the time it takes does not depend on the size of the
+     * collection. The statistics are cached for the current version of the collection, which the database moves
+     * forward with every change whoever makes it, so they are read from the primary database, as a replica may not
+     * have caught up with that version yet.
+     *
+     * @param owner The owner of the collection.
+     * @return The statistics.
+     */
+    @Override
+    @Timed(MetricsConfig.SERVICE_TIMER)
+    @Transactional(readOnly = true)
+    @Cacheable(cacheNames = CacheConfig.MOVIE_STATS, key = "{#owner, @movieChangeCounter.getVersion(#owner)}")
+    public MovieStats getMovieStats(String owner) {
+        return ReplicaRoutingDataSource.readFromPrimary(() -> new MovieStats(movieRepository.countByRating(owner)));
+    }
+
+    /**
+     * Retrieve the changes to the collection after a cursor, as the movies that have been added or updated and the IMDB
+     * ids that have been deleted. The time it takes depends on the number of changes, not the size of the collection.
+     *
+     * @param owner The owner of the collection.
+     * @param since The cursor of the last changes the client has, 0 for the whole collection.
+     * @param limit The maximum number of changes to return.
+     * @return The changes and the cursor after them.
+     * @throws MovieDeltaExpiredException If deletes since a cursor other than 0 are no longer kept.
+     */
+    @Override
+    @Timed(MetricsConfig.SERVICE_TIMER)
+    @Transactional(readOnly = true)
+    public MovieDelta getMovieDelta(String owner, long since, int limit) {
+        // The changes that no running transaction can commit behind are only known to the primary database
+        MovieDelta delta = ReplicaRoutingDataSource.readFromPrimary(
+                () -> movieRepository.findChangesSince(owner, since, limit));
+        // The horizon is read after the changes, so tombstones pruned in between are not missed. A client starting
+        // from 0 has nothing to delete, so it does not need the pruned tombstones.
+        if (since > 0 && since < movieRepository.findDeltaHorizon())
+            throw new MovieDeltaExpiredException();
+        return delta;
+    }
+
+    /**
+     * Retrieve a movie by its IMDB id. Found movies are cached by owner and IMDB id, and the cache is kept up to date
+     * by the change events published by this service. The movie is read from the primary database, so that a replica
+     * that has not caught up yet cannot put a movie that has been changed or deleted back in the cache, and a movie
+     * read just before a change was committed is only cached if the change has not been applied to the cache already.
+     *
+     * @param owner The owner of the collection.
      * @param imdbId The IMDB id of the movie to retrieve.
      * @return If the movie exists it is returned, otherwise null.
      */
     @Override
-    public Movie getMovieByImdbId(String imdbId) {
-        return movieRepository.findOneByImdbId(imdbId);
+    @Timed(MetricsConfig.SERVICE_TIMER)
+    @Transactional(readOnly = true)
+    public Movie getMovieByImdbId(String owner, String imdbId) {
+        Movie movie = movieCache.get(owner, imdbId);
+        if (movie != null)
+            return movie;
+
+        movie = ReplicaRoutingDataSource.readFromPrimary(() -> movieRepository.findOneByOwnerAndImdbId(owner, imdbId));
+        if (movie != null)
+            movieCache.put(owner, imdbId, movie);
+        return movie;
+    }
+
+    /**
+     * Retrieve the movies with the given IMDB ids with a single query, in the order the IMDB ids are given. An IMDB id
+     * that is given more than once is only looked up once.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbIds The IMDB ids of the movies to retrieve.
+     * @return The movies found and the IMDB ids that have no movie.
+     */
+    @Override
+    @Timed(MetricsConfig.SERVICE_TIMER)
+    @Transactional(readOnly = true)
+    public MovieLookup getMoviesByImdbIds(String owner, List<String> imdbIds) {
+        Set<String> uniqueImdbIds = new LinkedHashSet<>(imdbIds);
+        Map<String, Movie> foundMovies = new HashMap<>();
+        for (Movie movie : movieRepository.findByOwnerAndImdbIdIn(owner, uniqueImdbIds))
+            foundMovies.put(movie.getImdbId(), movie);
+
+        List<Movie> movies = new ArrayList<>(foundMovies.size());
+        List<String> missing = new ArrayList<>();
+        for (String imdbId : uniqueImdbIds) {
+            Movie movie = foundMovies.get(imdbId);
+            if (movie == null)
+                missing.add(imdbId);
+            else
+                movies.add(movie);
+        }
+        return new MovieLookup(movies, missing);
     }
 
     /**
-     * Add a movie to the personal collection.
+     * Add a movie to the personal collection. The movie is validated first and then inserted with a single statement
+     * that does nothing if the IMDB id is already taken, so concurrent adds of the same movie cannot both succeed.
      *
+     * @param owner The owner of the collection.
      * @param movie The movie to add.
      */
     @Override
-    public void addMovie(Movie movie) {
-        if(movieRepository.findOneByImdbId(movie.getImdbId()) != null) throw new MovieAlreadyExistsException();
-        movieRepository.save(movie);
+    @Timed(MetricsConfig.SERVICE_TIMER)
+    @Transactional
+    public void addMovie(String owner, Movie movie) {
+        Movie movieToAdd = ownedMovie(owner, movie.getImdbId(), movie);
+        validateMovie(movieToAdd);
+        Movie addedMovie = movieRepository.insertIfAbsent(movieToAdd).orElseThrow(MovieAlreadyExistsException::new);
+        eventPublisher.publishEvent(MovieChangeEvent.added(addedMovie));
     }
 
     /**
-     * Update a movie given by the specified IMDB id.
+     * Add a movie with the given IMDB id, or replace it if it already exists, with a single statement.
      *
+     * @param owner The owner of the collection.
+     * @param imdbId The IMDB id of the movie to add or replace.
+     * @param movie The details for the movie.
+     * @return True if the movie was added, false if an existing movie was replaced.
+     */
+    @Override
+    @Timed(MetricsConfig.SERVICE_TIMER)
+    @Transactional
+    public boolean upsertMovie(String owner, String imdbId, Movie movie) {
+        Movie movieToStore = ownedMovie(owner, imdbId, movie);
+        validateMovie(movieToStore);
+        MovieUpsertResult result = movieRepository.upsert(movieToStore);
+        eventPublisher.publishEvent(result.isCreated()
+                ? MovieChangeEvent.added(result.getMovie())
+                : MovieChangeEvent.updated(imdbId, result.getMovie()));
+        return result.isCreated();
+    }
+
+    /**
+     * Add several movies to the personal collection at once. All movies are validated first, then the ones that
+     * already exist are found with a single query and the rest are inserted using batched statements.
+     *
+     * @param owner The owner of the collection.
+     * @param movies The movies to add.
+     * @return The outcome for each movie, in the same order as the given movies.
+     */
+    @Override
+    @Timed(MetricsConfig.SERVICE_TIMER)
+    @Transactional
+    public List<MovieBatchResult> addMovies(String owner, List<Movie> movies) {
+        MovieBatchResult[] results = new MovieBatchResult[movies.size()];
+        Map<String, Integer> candidates = new LinkedHashMap<>();
+        for (int i = 0; i < movies.size(); i++) {
+            Movie movie = movies.get(i);
+            if (movie == null) {
+                results[i] = new MovieBatchResult(null, MovieBatchResult.Status.INVALID, "Movie cannot be null");
+                continue;
+            }
+
+            Set<ConstraintViolation<Movie>> violations =
+                    validator.validate(ownedMovie(owner, movie.getImdbId(), movie));
+            if (!violations.isEmpty()) {
+                StringJoiner ruleViolations = new StringJoiner(", ");
+                violations.forEach(violation -> ruleViolations.add(violation.getMessage()));
+                results[i] = new MovieBatchResult(movie.getImdbId(), MovieBatchResult.Status.INVALID,
+                        "Movie violated the following rule(s): " + ruleViolations);
+            } else if (candidates.putIfAbsent(movie.getImdbId(), i) != null) {
+                results[i] = new MovieBatchResult(movie.getImdbId(), MovieBatchResult.Status.DUPLICATE,
+                        "Movie appears more than once in the batch");
+            }
+        }
+
+        Set<String> existingImdbIds = candidates.isEmpty()
+                ? Collections.emptySet()
+                : new HashSet<>(movieRepository.findImdbIdsByOwnerAndImdbIdIn(owner, candidates.keySet()));
+
+        List<Movie> moviesToSave = new ArrayList<>(candidates.size());
+        candidates.forEach((imdbId, index) -> {
+            if (existingImdbIds.contains(imdbId)) {
+                results[index] = new MovieBatchResult(imdbId, MovieBatchResult.Status.ALREADY_EXISTS,
+                        "Movie already exists");
+            } else {
+                moviesToSave.add(ownedMovie(owner, imdbId, movies.get(index)));
+                results[index] = new MovieBatchResult(imdbId, MovieBatchResult.Status.CREATED,
+                        "Movie is saved successfully");
+            }
+        });
+        movieRepository.saveAll(moviesToSave);
+        moviesToSave.forEach(movie -> eventPublisher.publishEvent(MovieChangeEvent.added(movie)));
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Make several changes to existing movies at once. The movies are read and locked with a single query, then every
+     * change is made to a copy and validated, in order, before anything is written. A change that is invalid or
+     * whose movie does not exist is left out, and the other changes to the same movie still see the ones before it.
+     * The changed movies are then written with one batch of statements and the deleted ones removed with a single
+     * statement, all of them limited to the owner's partition.
+     *
+     * @param owner The owner of the collection.
+     * @param updates The changes to make.
+     * @return The outcome for each change, in the same order as the given changes.
+     */
+    @Override
+    @Timed(MetricsConfig.SERVICE_TIMER)
+    @Transactional
+    public List<MovieBatchResult> updateMovies(String owner, List<MovieBatchUpdate> updates) {
+        Set<String> imdbIds = new HashSet<>();
+        for (MovieBatchUpdate update : updates) {
+            if (update != null && update.getImdbId() != null)
+                imdbIds.add(update.getImdbId());
+        }
+        Map<String, Movie> storedMovies = new HashMap<>();
+        if (!imdbIds.isEmpty()) {
+            // The movies are only read, changes are written with statements of their own, so they are not kept in the
+            // persistence context to be checked for changes
+            for (Movie movie : movieRepository.findForUpdateByOwnerAndImdbIdInOrderByImdbId(owner, imdbIds)) {
+                movieRepository.detach(movie);
+                storedMovies.put(movie.getImdbId(), movie);
+            }
+        }
+
+        // The latest copy of each changed movie, or null once it has been deleted
+        Map<String, Movie> changedMovies = new LinkedHashMap<>();
+        MovieBatchResult[] results = new MovieBatchResult[updates.size()];
+        for (int i = 0; i < updates.size(); i++) {
+            MovieBatchUpdate update = updates.get(i);
+            if (update == null) {
+                results[i] = new MovieBatchResult(null, MovieBatchResult.Status.INVALID, "Update cannot be null");
+                continue;
+            }
+
+            String imdbId = update.getImdbId();
+            Movie movie = changedMovies.containsKey(imdbId) ? changedMovies.get(imdbId) : storedMovies.get(imdbId);
+            if (update.getOperation() == null) {
+                results[i] = new MovieBatchResult(imdbId, MovieBatchResult.Status.INVALID,
+                        "Operation must be one of " + Arrays.toString(MovieBatchUpdate.Operation.values()));
+            } else if (movie == null) {
+                results[i] = new MovieBatchResult(imdbId, MovieBatchResult.Status.NOT_FOUND, "Movie not found");
+            } else if (update.getOperation() == MovieBatchUpdate.Operation.DELETE) {
+                changedMovies.put(imdbId, null);
+                results[i] = new MovieBatchResult(imdbId, MovieBatchResult.Status.DELETED,
+                        "Movie is deleted successfully");
+            } else {
+                Movie updatedMovie = new Movie(movie);
+                results[i] = applyUpdate(update, updatedMovie);
+                if (results[i].getStatus() == MovieBatchResult.Status.UPDATED)
+                    changedMovies.put(imdbId, updatedMovie);
+            }
+        }
+
+        List<Movie> deletedMovies = new ArrayList<>();
+        List<Movie> updatedMovies = new ArrayList<>();
+        changedMovies.forEach((imdbId, changedMovie) -> {
+            Movie storedMovie = storedMovies.get(imdbId);
+            if (changedMovie == null) {
+                deletedMovies.add(storedMovie);
+            } else if (!changedMovie.getName().equals(storedMovie.getName())
+                    || changedMovie.isSeen() != storedMovie.isSeen()
+                    || changedMovie.getRating() != storedMovie.getRating()) {
+                // The movie is locked, so it is written as the version after the one read
+                updatedMovies.add(new Movie(storedMovie.getId(), owner, imdbId, changedMovie.getName(),
+                        changedMovie.isSeen(), changedMovie.getRating(), storedMovie.getVersion() + 1));
+            }
+        });
+        movieRepository.updateMovies(owner, updatedMovies);
+        movieRepository.deleteMovies(owner, deletedMovies.stream().map(Movie::getImdbId).toList());
+
+        deletedMovies.forEach(movie -> eventPublisher.publishEvent(MovieChangeEvent.deleted(movie)));
+        updatedMovies.forEach(movie -> eventPublisher.publishEvent(MovieChangeEvent.updated(movie.getImdbId(), movie)));
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Apply a change from a batch update to a copy of a movie and validate the result.
+     *
+     * @return The outcome of the change, UPDATED if the changed movie is valid.
+     */
+    private MovieBatchResult applyUpdate(MovieBatchUpdate update, Movie movie) {
+        switch (update.getOperation()) {
+            case NAME:
+                movie.setName(update.getName());
+                break;
+            case UNSEEN:
+                movie.setSeen(false);
+                movie.setRating(0);
+                break;
+            default:
+                if (update.getRating() == null)
+                    return new MovieBatchResult(movie.getImdbId(), MovieBatchResult.Status.INVALID,
+                            "Rating cannot be null");
+                if (update.getOperation() == MovieBatchUpdate.Operation.SEEN)
+                    movie.setSeen(true);
+                movie.setRating(update.getRating());
+        }
+
+        Set<ConstraintViolation<Movie>> violations = validator.validate(movie);
+        if (violations.isEmpty())
+            return new MovieBatchResult(movie.getImdbId(), MovieBatchResult.Status.UPDATED,
+                    "Movie was updated successfully");
+        StringJoiner ruleViolations = new StringJoiner(", ");
+        violations.forEach(violation -> ruleViolations.add(violation.getMessage()));
+        return new MovieBatchResult(movie.getImdbId(), MovieBatchResult.Status.INVALID,
+                "Movie violated the following rule(s): " + ruleViolations);
+    }
+
+    /**
+     * Update a movie given by the specified IMDB id. The new details are validated first and then set with a single
+     * statement. The IMDB id can be changed as well, but not to one that another movie in the collection already has.
+     *
+     * @param owner The owner of the collection.
      * @param imdbId The IMDB id of the movie to update.
      * @param movie The new details for the updated movie.
      */
     @Override
-    public void updateMovie(String imdbId, Movie movie) {
-        Movie movieToUpdate = movieRepository.findOneByImdbId(imdbId);
-        if(movieToUpdate == null) throw new MovieNotFoundException();
-
-        movieToUpdate.updateMovie(movie);
-        movieRepository.save(movieToUpdate);
+    @Timed(MetricsConfig.SERVICE_TIMER)
+    @Transactional
+    public void updateMovie(String owner, String imdbId, Movie movie) {
+        Movie movieToStore = ownedMovie(owner, movie.getImdbId(), movie);
+        validateMovie(movieToStore);
+        Movie updatedMovie;
+        try {
+            updatedMovie = movieRepository.update(imdbId, movieToStore).orElseThrow(MovieNotFoundException::new);
+        } catch (DataIntegrityViolationException e) {
+            throw new MovieAlreadyExistsException();
+        }
+        eventPublisher.publishEvent(MovieChangeEvent.updated(imdbId, updatedMovie));
     }
 
     /**
-     * Update a movie's rating given by its IMDB id.
+     * Update a movie's rating given by its IMDB id. The rating is set with a single statement that only matches if
+     * the rating is allowed for the movie's seen status, otherwise the movie is loaded to find out why.
      *
+     * @param owner The owner of the collection.
      * @param imdbId The IMDB id of the movie to update.
      * @param rating The new rating for the updated movie.
      */
-    public void updateRating(String imdbId, int rating) {
-        Movie movieToUpdate = movieRepository.findOneByImdbId(imdbId);
-        if(movieToUpdate == null) throw new MovieNotFoundException();
-
-        movieToUpdate.setRating(rating);
-        movieRepository.save(movieToUpdate);
+    @Override
+    @Timed(MetricsConfig.SERVICE_TIMER)
+    @Transactional
+    public void updateRating(String owner, String imdbId, int rating) {
+        Movie updatedMovie = movieRepository.updateRating(owner, imdbId, rating)
+                .orElseGet(() -> updateLoadedMovie(owner, imdbId, movie -> movie.setRating(rating)));
+        eventPublisher.publishEvent(MovieChangeEvent.updated(imdbId, updatedMovie));
     }
 
     /**
-     * Update a movie's name given by its IMDB id.
+     * Update a movie's name given by its IMDB id. The name is validated first and then set with a single statement.
      *
+     * @param owner The owner of the collection.
      * @param imdbId The IMDB id of the movie to update.
      * @param name The new name for the updated movie.
      */
     @Override
-    public void updateName(String imdbId, String name) {
-        Movie movieToUpdate = movieRepository.findOneByImdbId(imdbId);
-        if(movieToUpdate == null) throw new MovieNotFoundException();
-
-        movieToUpdate.setName(name);
-        movieRepository.save(movieToUpdate);
+    @Timed(MetricsConfig.SERVICE_TIMER)
+    @Transactional
+    public void updateName(String owner, String imdbId, String name) {
+        validateValue("name", name);
+        Movie updatedMovie = movieRepository.updateName(owner, imdbId, name).orElseThrow(MovieNotFoundException::new);
+        eventPublisher.publishEvent(MovieChangeEvent.updated(imdbId, updatedMovie));
     }
 
     /**
-     * Update a movie's IMDB id given by its current IMDB id.
+     * Update a movie's IMDB id given by its current IMDB id. The new IMDB id is validated first and then set with a
+     * single statement.
      *
+     * @param owner The owner of the collection.
      * @param imdbId The IMDB id of the movie to update.
      * @param imdbIdNew The new IMDB id for the updated movie.
      */
     @Override
-    public void updateImdbId(String imdbId, String imdbIdNew) {
-        Movie movieToUpdate = movieRepository.findOneByImdbId(imdbId);
-        if(movieToUpdate == null) throw new MovieNotFoundException();
-
-        movieToUpdate.setImdbId(imdbIdNew);
-        movieRepository.save(movieToUpdate);
+    @Timed(MetricsConfig.SERVICE_TIMER)
+    @Transactional
+    public void updateImdbId(String owner, String imdbId, String imdbIdNew) {
+        validateValue("imdbId", imdbIdNew);
+        Movie updatedMovie;
+        try {
+            updatedMovie = movieRepository.updateImdbId(owner, imdbId, imdbIdNew)
+                    .orElseThrow(MovieNotFoundException::new);
+        } catch (DataIntegrityViolationException e) {
+            throw new MovieAlreadyExistsException();
+        }
+        eventPublisher.publishEvent(MovieChangeEvent.updated(imdbId, updatedMovie));
     }
 
     /**
-     * Update a movie's status as having been seen and give the movie a rating.
+     * Update a movie's status as having been seen and give the movie a rating. The change is made with a single
+     * statement that only matches if the rating is allowed, otherwise the movie is loaded to find out why.
      *
+     * @param owner The owner of the collection.
      * @param imdbId The IMDB id of the movie to update.
      * @param rating The new rating for the updated movie.
      */
     @Override
-    public void setMovieSeen(String imdbId, int rating) {
-        Movie movieToUpdate = movieRepository.findOneByImdbId(imdbId);
-        if(movieToUpdate == null) throw new MovieNotFoundException();
-
-        movieToUpdate.setSeen(true);
-        movieToUpdate.setRating(rating);
-        movieRepository.save(movieToUpdate);
+    @Timed(MetricsConfig.SERVICE_TIMER)
+    @Transactional
+    public void setMovieSeen(String owner, String imdbId, int rating) {
+        Movie updatedMovie = movieRepository.updateSeen(owner, imdbId, rating)
+                .orElseGet(() -> updateLoadedMovie(owner, imdbId, movie -> {
+                    movie.setSeen(true);
+                    movie.setRating(rating);
+                }));
+        eventPublisher.publishEvent(MovieChangeEvent.updated(imdbId, updatedMovie));
     }
 
     /**
-     * Update a movie's status as not having been seen and reset any previous rating on the movie.
+     * Update a movie's status as not having been seen and reset any previous rating on the movie. The change is made
+     * with a single statement.
      *
+     * @param owner The owner of the collection.
      * @param imdbId The IMDB id of the movie to update.
      */
     @Override
-    public void setMovieUnseen(String imdbId) {
-        Movie movieToUpdate = movieRepository.findOneByImdbId(imdbId);
-        if(movieToUpdate == null) throw new MovieNotFoundException();
-
-        movieToUpdate.setSeen(false);
-        movieToUpdate.setRating(0);
-        movieRepository.save(movieToUpdate);
+    @Timed(MetricsConfig.SERVICE_TIMER)
+    @Transactional
+    public void setMovieUnseen(String owner, String imdbId) {
+        Movie updatedMovie = movieRepository.updateUnseen(owner, imdbId).orElseThrow(MovieNotFoundException::new);
+        eventPublisher.publishEvent(MovieChangeEvent.updated(imdbId, updatedMovie));
     }
 
     /**
-     * Delete a movie from the personal collection.
+     * Delete a movie from the personal collection with a single statement.
      *
+     * @param owner The owner of the collection.
      * @param imdbId The IMDB id of the movie to delete.
      */
     @Override
-    public void deleteMovie(String imdbId) {
-        Movie movieToDelete = movieRepository.findOneByImdbId(imdbId);
-        if(movieToDelete == null) throw new MovieNotFoundException();
+    @Timed(MetricsConfig.SERVICE_TIMER)
+    @Transactional
+    public void deleteMovie(String owner, String imdbId) {
+        Movie deletedMovie = movieRepository.delete(owner, imdbId).orElseThrow(MovieNotFoundException::new);
+        eventPublisher.publishEvent(MovieChangeEvent.deleted(deletedMovie));
+    }
+
+    /**
+     * Load a movie and apply a change to its seen status and rating, for when a single statement update did not
+     * match. The change is validated before it is applied, so the reason it did not match is reported the same way as
+     * for other updates.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbId The IMDB id of the movie to update.
+     * @param change The change to apply.
+     * @return The updated movie.
+     */
+    private Movie updateLoadedMovie(String owner, String imdbId, Consumer<Movie> change) {
+        Movie movieToUpdate = movieRepository.findOneByOwnerAndImdbId(owner, imdbId);
+        if(movieToUpdate == null) throw new MovieNotFoundException();
+
+        Movie updatedMovie = new Movie(movieToUpdate);
+        change.accept(updatedMovie);
+        Set<ConstraintViolation<Movie>> violations = validator.validate(updatedMovie);
+        if (!violations.isEmpty()) throw new ConstraintViolationException(violations);
+
+        return movieRepository.updateSeenAndRating(updatedMovie).orElseThrow(MovieNotFoundException::new);
+    }
 
-        movieRepository.deleteById(movieToDelete.getId());
+    /**
+     * Copy the details of a movie given in a request into a new movie in the owner's collection.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbId The IMDB id of the new movie.
+     * @param movie The details of the movie.
+     * @return The new movie.
+     */
+    private static Movie ownedMovie(String owner, String imdbId, Movie movie) {
+        Movie ownedMovie = new Movie(imdbId, movie.getName(), movie.isSeen(), movie.getRating());
+        ownedMovie.setOwner(owner);
+        return ownedMovie;
+    }
+
+    /**
+     * Validate a movie before it is stored with a statement that bypasses the persistence context's validation.
+     *
+     * @param movie The movie to validate.
+     */
+    private void validateMovie(Movie movie) {
+        Set<ConstraintViolation<Movie>> violations = validator.validate(movie);
+        if (!violations.isEmpty()) throw new ConstraintViolationException(violations);
+    }
+
+    /**
+     * Validate a new value for a single property of a movie.
+     *
+     * @param propertyName The name of the property.
+     * @param value The new value.
+     */
+    private void validateValue(String propertyName, Object value) {
+        Set<ConstraintViolation<Movie>> violations = validator.validateValue(Movie.class, propertyName, value);
+        if (!violations.isEmpty()) throw new ConstraintViolationException(violations);
     }
 }
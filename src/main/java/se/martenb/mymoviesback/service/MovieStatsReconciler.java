@@ -0,0 +1,91 @@
+package se.martenb.mymoviesback.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import se.martenb.mymoviesback.config.CacheConfig;
+import se.martenb.mymoviesback.dao.MovieRepository;
+
+import java.util.Arrays;
+
+/**
+ * Compares the number of movies with each rating in every owner's collection, as kept up to date by the database, to a
+ * full count of the movies and corrects them if they differ. The counts can only drift if they are changed by hand or
+ * the triggers that keep them are disabled.
+ * <p>
+ * Each owner is reconciled in a transaction of its own that reads both the movies and the kept counts from the same
+ * snapshot, so neither the movies nor the counts have to be locked. Any difference is added to the kept counts rather
+ * than replacing them, which leaves the changes made after the snapshot was taken in place. If another instance
+ * corrects the same owner at the same time, one of the transactions fails and that owner is left to the other.
+ */
+@Component
+public class MovieStatsReconciler {
+    private static final Logger logger = LoggerFactory.getLogger(MovieStatsReconciler.class);
+
+    private final MovieRepository movieRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final CacheManager cacheManager;
+
+    @Autowired
+    public MovieStatsReconciler(MovieRepository movieRepository, PlatformTransactionManager transactionManager,
+                                CacheManager cacheManager) {
+        this.movieRepository = movieRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.cacheManager = cacheManager;
+    }
+
+    /**
+     * Count the movies of each owner and correct the kept counts if they differ. Changes to the movies do not wait
+     * while they are counted.
+     *
+     * @return True if the counts of any owner were corrected.
+     */
+    @Scheduled(fixedDelayString = "${movies.stats.reconcile-interval}",
+            initialDelayString = "${movies.stats.reconcile-interval}")
+    public boolean reconcile() {
+        boolean corrected = false;
+        for (String owner : movieRepository.findAllOwners()) {
+            try {
+                corrected |= reconcile(owner);
+            } catch (ConcurrencyFailureException e) {
+                logger.info("The number of movies by rating of {} was changed while being reconciled", owner);
+            }
+        }
+        if (!corrected)
+            return false;
+
+        Cache cache = cacheManager.getCache(CacheConfig.MOVIE_STATS);
+        if (cache != null)
+            cache.clear();
+        return true;
+    }
+
+    private boolean reconcile(String owner) {
+        long[][] counts = transactionTemplate.execute(status -> {
+            long[] actual = movieRepository.countByRatingOfMovies(owner);
+            long[] kept = movieRepository.countByRating(owner);
+            if (!Arrays.equals(actual, kept)) {
+                long[] difference = new long[actual.length];
+                for (int rating = 0; rating < actual.length; rating++)
+                    difference[rating] = actual[rating] - kept[rating];
+                movieRepository.addRatingCounts(owner, difference);
+            }
+            return new long[][] {kept, actual};
+        });
+        if (Arrays.equals(counts[0], counts[1]))
+            return false;
+
+        logger.warn("Corrected the number of movies by rating of {} from {} to {}", owner,
+                Arrays.toString(counts[0]), Arrays.toString(counts[1]));
+        return true;
+    }
+}
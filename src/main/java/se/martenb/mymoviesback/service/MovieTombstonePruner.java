@@ -0,0 +1,50 @@
+package se.martenb.mymoviesback.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import se.martenb.mymoviesback.dao.MovieRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Removes the tombstones that record deleted movies for the delta sync once they are older than the retention. A
+ * client asking for the changes since before the newest removed tombstone is told to get the whole collection again.
+ */
+@Component
+public class MovieTombstonePruner {
+    private static final Logger logger = LoggerFactory.getLogger(MovieTombstonePruner.class);
+
+    private final MovieRepository movieRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration retention;
+
+    @Autowired
+    public MovieTombstonePruner(MovieRepository movieRepository, PlatformTransactionManager transactionManager,
+                                @Value("${movies.delta.tombstone-retention}") Duration retention) {
+        this.movieRepository = movieRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.retention = retention;
+    }
+
+    /**
+     * Remove the tombstones older than the retention.
+     *
+     * @return The number of tombstones removed.
+     */
+    @Scheduled(fixedDelayString = "${movies.delta.prune-interval}",
+            initialDelayString = "${movies.delta.prune-interval}")
+    public long prune() {
+        Long pruned = transactionTemplate.execute(status ->
+                movieRepository.pruneTombstones(Instant.now().minus(retention)));
+        if (pruned != null && pruned > 0)
+            logger.info("Removed {} tombstones of movies deleted more than {} ago", pruned, retention);
+        return pruned == null ? 0 : pruned;
+    }
+}
@@ -0,0 +1,304 @@
+package se.martenb.mymoviesback.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+import se.martenb.mymoviesback.dao.MovieRepository;
+import se.martenb.mymoviesback.model.Movie;
+
+import javax.annotation.PostConstruct;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Finds movies whose name contains the search text, ignoring case and accents, without going to the database. The
+ * movies are kept in memory together with an inverted index from each n-gram of the normalized names to the sorted
+ * document ids of the movies containing it. Each owner's collection has its own index, so a search only looks at the
+ * owner's movies. The indexes are built when the application starts and are kept in sync by the change events
+ * published by the movie service.
+ */
+@Component
+@ConditionalOnProperty(name = "movies.search.strategy", havingValue = "ngram")
+public class NgramMovieSearch implements MovieSearchStrategy {
+    static final int GRAM_LENGTH = 3;
+    // How many deleted movies each index remembers, to leave out changes to them that are applied after the delete
+    static final int MAX_REMOVED = 1000;
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    private final MovieRepository movieRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Index> indexes = new HashMap<>();
+
+    @Autowired
+    public NgramMovieSearch(MovieRepository movieRepository, PlatformTransactionManager transactionManager) {
+        this.movieRepository = movieRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * Build the indexes from all movies in the database.
+     */
+    @PostConstruct
+    public void buildIndex() {
+        lock.writeLock().lock();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                try (Stream<Movie> stream = movieRepository.streamAllByOrderByIdAsc()) {
+                    stream.forEach(movie -> {
+                        indexFor(movie.getOwner()).add(new Movie(movie));
+                        movieRepository.detach(movie);
+                    });
+                }
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieve all movies in the owner's collection whose normalized name contains the given text, ordered by id.
+     *
+     * @param owner The owner of the collection.
+     * @param name The text to search for.
+     * @return A list of matching movies, otherwise an empty list.
+     */
+    @Override
+    public List<Movie> search(String owner, String name) {
+        String text = normalize(name);
+        List<Movie> found = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Index index = indexes.get(owner);
+            if (index != null)
+                index.search(text, found);
+        } finally {
+            lock.readLock().unlock();
+        }
+        found.sort(Comparator.comparingLong(Movie::getId));
+        return found;
+    }
+
+    /**
+     * Apply a change to the collection once it has been committed. Changes that are committed close together can be
+     * applied in another order, so a change is left out if the same or a later version of the movie has already been
+     * applied, and the movie is found by its id, since an earlier change to its IMDB id may not have been applied yet.
+     *
+     * @param event The change.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMovieChange(MovieChangeEvent event) {
+        Movie movie = event.getMovie();
+        boolean deleted = event.getType() == MovieChangeEvent.Type.DELETED;
+        lock.writeLock().lock();
+        try {
+            Index index = indexFor(event.getOwner());
+            if (index.isApplied(movie.getId(), movie.getVersion(), deleted))
+                return;
+            index.remove(movie.getId());
+            if (deleted)
+                index.removed(movie.getId(), movie.getVersion());
+            else
+                index.add(movie);
+            if (index.isEmpty())
+                indexes.remove(event.getOwner());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Normalize text the way the names are indexed, lower case without accents.
+     *
+     * @param text The text to normalize.
+     * @return The normalized text.
+     */
+    static String normalize(String text) {
+        return DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+    }
+
+    private Index indexFor(String owner) {
+        return indexes.computeIfAbsent(owner, key -> new Index());
+    }
+
+    private static boolean containedInAll(PostingList[] lists, int docId) {
+        for (int i = 1; i < lists.length; i++) {
+            if (!lists[i].contains(docId))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Pack the n-gram starting at the given position into a single key, 16 bits per character.
+     */
+    private static long gram(String text, int start) {
+        long key = 0;
+        for (int i = start; i < start + GRAM_LENGTH; i++)
+            key = (key << Character.SIZE) | text.charAt(i);
+        return key;
+    }
+
+    /**
+     * The movies of one owner's collection and the inverted index of their names.
+     */
+    private static final class Index {
+        private final List<Movie> movies = new ArrayList<>();
+        private final List<String> names = new ArrayList<>();
+        private final Deque<Integer> freeDocIds = new ArrayDeque<>();
+        private final Map<Long, Integer> docIdsByMovieId = new HashMap<>();
+        private final Map<Long, PostingList> postings = new HashMap<>();
+        // The last version of each of the most recently deleted movies
+        private final Map<Long, Long> removedVersions = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                return size() > MAX_REMOVED;
+            }
+        };
+
+        void search(String text, List<Movie> found) {
+            if (text.length() < GRAM_LENGTH) {
+                // Too short to have any n-grams, but scanning the names in memory is still cheap
+                for (int docId = 0; docId < names.size(); docId++) {
+                    if (names.get(docId) != null && names.get(docId).contains(text))
+                        found.add(new Movie(movies.get(docId)));
+                }
+            } else {
+                PostingList[] lists = postingListsFor(text);
+                if (lists != null) {
+                    PostingList shortest = lists[0];
+                    for (int i = 0; i < shortest.size; i++) {
+                        int docId = shortest.ids[i];
+                        if (containedInAll(lists, docId) && names.get(docId).contains(text))
+                            found.add(new Movie(movies.get(docId)));
+                    }
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return docIdsByMovieId.isEmpty() && removedVersions.isEmpty();
+        }
+
+        /**
+         * Check if a change to a movie is older than what the index already has. A delete of the version that is
+         * indexed is still applied, since deleting a movie does not change its version.
+         */
+        boolean isApplied(long movieId, long version, boolean deleted) {
+            Long removedVersion = removedVersions.get(movieId);
+            if (removedVersion != null)
+                return removedVersion >= version;
+            Integer docId = docIdsByMovieId.get(movieId);
+            if (docId == null)
+                return false;
+            long indexedVersion = movies.get(docId).getVersion();
+            return indexedVersion > version || indexedVersion == version && !deleted;
+        }
+
+        void removed(long movieId, long version) {
+            removedVersions.put(movieId, version);
+        }
+
+        void add(Movie movie) {
+            String name = normalize(movie.getName());
+            int docId;
+            if (freeDocIds.isEmpty()) {
+                docId = movies.size();
+                movies.add(movie);
+                names.add(name);
+            } else {
+                docId = freeDocIds.pop();
+                movies.set(docId, movie);
+                names.set(docId, name);
+            }
+            docIdsByMovieId.put(movie.getId(), docId);
+            for (int i = 0; i + GRAM_LENGTH <= name.length(); i++)
+                postings.computeIfAbsent(gram(name, i), key -> new PostingList()).add(docId);
+        }
+
+        void remove(long movieId) {
+            Integer docId = docIdsByMovieId.remove(movieId);
+            if (docId != null)
+                remove(docId);
+        }
+
+        private void remove(int docId) {
+            String name = names.get(docId);
+            for (int i = 0; i + GRAM_LENGTH <= name.length(); i++) {
+                long key = gram(name, i);
+                PostingList list = postings.get(key);
+                if (list != null && list.remove(docId) && list.size == 0)
+                    postings.remove(key);
+            }
+            movies.set(docId, null);
+            names.set(docId, null);
+            freeDocIds.push(docId);
+        }
+
+        /**
+         * Get the posting lists for all n-grams in the text, shortest first.
+         *
+         * @return The posting lists, or null if some n-gram is not in the index.
+         */
+        private PostingList[] postingListsFor(String text) {
+            Set<Long> keys = new HashSet<>();
+            for (int i = 0; i + GRAM_LENGTH <= text.length(); i++)
+                keys.add(gram(text, i));
+
+            PostingList[] lists = new PostingList[keys.size()];
+            int i = 0;
+            for (long key : keys) {
+                PostingList list = postings.get(key);
+                if (list == null)
+                    return null;
+                lists[i++] = list;
+            }
+            Arrays.sort(lists, Comparator.comparingInt(list -> list.size));
+            return lists;
+        }
+    }
+
+    /**
+     * A sorted set of document ids backed by a primitive array.
+     */
+    static final class PostingList {
+        private int[] ids = new int[4];
+        private int size;
+
+        boolean add(int docId) {
+            int index = Arrays.binarySearch(ids, 0, size, docId);
+            if (index >= 0)
+                return false;
+            index = -index - 1;
+            if (size == ids.length)
+                ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = docId;
+            size++;
+            return true;
+        }
+
+        boolean remove(int docId) {
+            int index = Arrays.binarySearch(ids, 0, size, docId);
+            if (index < 0)
+                return false;
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+            return true;
+        }
+
+        boolean contains(int docId) {
+            return Arrays.binarySearch(ids, 0, size, docId) >= 0;
+        }
+    }
+}
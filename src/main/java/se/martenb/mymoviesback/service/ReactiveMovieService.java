@@ -0,0 +1,22 @@
+package se.martenb.mymoviesback.service;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import se.martenb.mymoviesback.model.Movie;
+
+/**
+ * Every operation works on the collection of a single owner, and only sees and changes that owner's movies.
+ */
+public interface ReactiveMovieService {
+    public abstract Mono<Boolean> hasMovies(String owner, String name);
+    public abstract Flux<Movie> getAllMovies(String owner, String name);
+    public abstract Mono<Movie> getMovieByImdbId(String owner, String imdbId);
+    public abstract Mono<Void> addMovie(String owner, Movie movie);
+    public abstract Mono<Void> updateMovie(String owner, String imdbId, Movie movie);
+    public abstract Mono<Void> updateRating(String owner, String imdbId, int rating);
+    public abstract Mono<Void> updateName(String owner, String imdbId, String name);
+    public abstract Mono<Void> updateImdbId(String owner, String imdbId, String imdbIdNew);
+    public abstract Mono<Void> setMovieSeen(String owner, String imdbId, int rating);
+    public abstract Mono<Void> setMovieUnseen(String owner, String imdbId);
+    public abstract Mono<Void> deleteMovie(String owner, String imdbId);
+}
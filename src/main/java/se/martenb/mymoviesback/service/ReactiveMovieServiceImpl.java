@@ -0,0 +1,232 @@
+package se.martenb.mymoviesback.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import se.martenb.mymoviesback.controller.MovieAlreadyExistsException;
+import se.martenb.mymoviesback.controller.MovieNotFoundException;
+import se.martenb.mymoviesback.dao.ReactiveMovieRepository;
+import se.martenb.mymoviesback.model.Movie;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
+import javax.validation.Validator;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * The reactive counterpart of the movie service, for the reactive profile. Updates read the movie, apply and validate
+ * the change, and write it back only if the movie's version has not changed in between, trying again if it has. No
+ * update needs a transaction, so no connection is held between the statements.
+ */
+@Service
+@Profile("reactive")
+public class ReactiveMovieServiceImpl implements ReactiveMovieService {
+    private static final int UPDATE_ATTEMPTS = 5;
+
+    private final ReactiveMovieRepository movieRepository;
+    private final Validator validator;
+
+    @Autowired
+    public ReactiveMovieServiceImpl(ReactiveMovieRepository movieRepository, Validator validator) {
+        this.movieRepository = movieRepository;
+        this.validator = validator;
+    }
+
+    /**
+     * Check if there are any movies, if name is set, then if there are any movies containing the requested name.
+     *
+     * @param owner The owner of the collection.
+     * @param name The text to search for, or null for any movie.
+     * @return True if there is a matching movie.
+     */
+    @Override
+    public Mono<Boolean> hasMovies(String owner, String name) {
+        return movieRepository.existsByOwnerAndNameContaining(owner, name);
+    }
+
+    /**
+     * Retrieve all movies, if name is set, then all movies containing the requested name, ordered by id. The movies
+     * are read from the database as they are requested.
+     *
+     * @param owner The owner of the collection.
+     * @param name The text to search for, or null for all movies.
+     * @return The movies.
+     */
+    @Override
+    public Flux<Movie> getAllMovies(String owner, String name) {
+        return name == null
+                ? movieRepository.findByOwner(owner)
+                : movieRepository.findByOwnerAndNameContaining(owner, name);
+    }
+
+    /**
+     * Retrieve a single movie using the specified IMDB id.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbId The IMDB id of the movie.
+     * @return The movie, or empty if it is not found.
+     */
+    @Override
+    public Mono<Movie> getMovieByImdbId(String owner, String imdbId) {
+        return movieRepository.findOneByOwnerAndImdbId(owner, imdbId);
+    }
+
+    /**
+     * Add a movie to the personal collection.
+     *
+     * @param owner The owner of the collection.
+     * @param movie The movie to add.
+     * @return Completes when the movie has been added, or fails if a movie with the same IMDB id already exists.
+     */
+    @Override
+    public Mono<Void> addMovie(String owner, Movie movie) {
+        return Mono.fromRunnable(() -> {
+                    movie.setOwner(owner);
+                    validateMovie(movie);
+                })
+                .then(movieRepository.insert(movie))
+                .onErrorMap(DataIntegrityViolationException.class, e -> new MovieAlreadyExistsException())
+                .then();
+    }
+
+    /**
+     * Update a movie given by the specified IMDB id.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbId The IMDB id of the movie to update.
+     * @param movie The new details for the updated movie.
+     * @return Completes when the movie has been updated.
+     */
+    @Override
+    public Mono<Void> updateMovie(String owner, String imdbId, Movie movie) {
+        return updateLoadedMovie(owner, imdbId, movieToUpdate -> movieToUpdate.updateMovie(movie));
+    }
+
+    /**
+     * Update a movie's rating given by its IMDB id.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbId The IMDB id of the movie to update.
+     * @param rating The new rating for the updated movie.
+     * @return Completes when the movie has been updated.
+     */
+    @Override
+    public Mono<Void> updateRating(String owner, String imdbId, int rating) {
+        return updateLoadedMovie(owner, imdbId, movie -> movie.setRating(rating));
+    }
+
+    /**
+     * Update a movie's name given by its IMDB id.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbId The IMDB id of the movie to update.
+     * @param name The new name for the updated movie.
+     * @return Completes when the movie has been updated.
+     */
+    @Override
+    public Mono<Void> updateName(String owner, String imdbId, String name) {
+        return Mono.fromRunnable(() -> validateValue("name", name))
+                .then(updateLoadedMovie(owner, imdbId, movie -> movie.setName(name)));
+    }
+
+    /**
+     * Update a movie's IMDB id given by its current IMDB id.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbId The IMDB id of the movie to update.
+     * @param imdbIdNew The new IMDB id for the updated movie.
+     * @return Completes when the movie has been updated, or fails if the new IMDB id is already taken.
+     */
+    @Override
+    public Mono<Void> updateImdbId(String owner, String imdbId, String imdbIdNew) {
+        return Mono.fromRunnable(() -> validateValue("imdbId", imdbIdNew))
+                .then(updateLoadedMovie(owner, imdbId, movie -> movie.setImdbId(imdbIdNew)));
+    }
+
+    /**
+     * Update a movie's status as having been seen and give the movie a rating.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbId The IMDB id of the movie to update.
+     * @param rating The new rating for the updated movie.
+     * @return Completes when the movie has been updated.
+     */
+    @Override
+    public Mono<Void> setMovieSeen(String owner, String imdbId, int rating) {
+        return updateLoadedMovie(owner, imdbId, movie -> {
+            movie.setSeen(true);
+            movie.setRating(rating);
+        });
+    }
+
+    /**
+     * Update a movie's status as not having been seen and reset any previous rating on the movie.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbId The IMDB id of the movie to update.
+     * @return Completes when the movie has been updated.
+     */
+    @Override
+    public Mono<Void> setMovieUnseen(String owner, String imdbId) {
+        return updateLoadedMovie(owner, imdbId, movie -> {
+            movie.setSeen(false);
+            movie.setRating(0);
+        });
+    }
+
+    /**
+     * Delete a movie from the personal collection.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbId The IMDB id of the movie to delete.
+     * @return Completes when the movie has been deleted.
+     */
+    @Override
+    public Mono<Void> deleteMovie(String owner, String imdbId) {
+        return movieRepository.deleteByOwnerAndImdbId(owner, imdbId)
+                .flatMap(rows -> rows == 0 ? Mono.<Void>error(new MovieNotFoundException()) : Mono.<Void>empty());
+    }
+
+    /**
+     * Load a movie, apply and validate a change, and store it as long as the movie has not been changed since it was
+     * loaded. A movie that was changed in between is loaded again and the change is applied to the new version.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbId The IMDB id of the movie to update.
+     * @param change The change to apply.
+     * @return Completes when the movie has been updated.
+     */
+    private Mono<Void> updateLoadedMovie(String owner, String imdbId, Consumer<Movie> change) {
+        return movieRepository.findOneByOwnerAndImdbId(owner, imdbId)
+                .switchIfEmpty(Mono.error(MovieNotFoundException::new))
+                .flatMap(movie -> {
+                    change.accept(movie);
+                    validateMovie(movie);
+                    return movieRepository.update(imdbId, movie);
+                })
+                .flatMap(rows -> rows == 0
+                        ? Mono.error(new OptimisticLockingFailureException("Movie was changed while updating it"))
+                        : Mono.empty())
+                .retryWhen(Retry.max(UPDATE_ATTEMPTS - 1)
+                        .filter(OptimisticLockingFailureException.class::isInstance)
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()))
+                .onErrorMap(DataIntegrityViolationException.class, e -> new MovieAlreadyExistsException())
+                .then();
+    }
+
+    private void validateMovie(Movie movie) {
+        Set<ConstraintViolation<Movie>> violations = validator.validate(movie);
+        if (!violations.isEmpty()) throw new ConstraintViolationException(violations);
+    }
+
+    private void validateValue(String propertyName, Object value) {
+        Set<ConstraintViolation<Movie>> violations = validator.validateValue(Movie.class, propertyName, value);
+        if (!violations.isEmpty()) throw new ConstraintViolationException(violations);
+    }
+}
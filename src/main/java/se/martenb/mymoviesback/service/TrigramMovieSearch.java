@@ -0,0 +1,47 @@
+package se.martenb.mymoviesback.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import se.martenb.mymoviesback.dao.MovieRepository;
+import se.martenb.mymoviesback.model.Movie;
+
+import java.util.List;
+
+/**
+ * Finds movies whose name contains the search text, ignoring case and accents. The search uses a trigram index on the
+ * normalized name, so it does not need to scan the whole table, and the results are ranked by similarity.
+ */
+@Component
+@ConditionalOnProperty(name = "movies.search.strategy", havingValue = "trigram")
+public class TrigramMovieSearch implements MovieSearchStrategy {
+    private final MovieRepository movieRepository;
+
+    @Autowired
+    public TrigramMovieSearch(MovieRepository movieRepository) {
+        this.movieRepository = movieRepository;
+    }
+
+    /**
+     * Retrieve all movies in the owner's collection whose normalized name contains the given text, the most similar
+     * first.
+     *
+     * @param owner The owner of the collection.
+     * @param name The text to search for.
+     * @return A list of matching movies, otherwise an empty list.
+     */
+    @Override
+    public List<Movie> search(String owner, String name) {
+        return movieRepository.searchByNormalizedName(owner, name, escapeLikePattern(name));
+    }
+
+    /**
+     * Escape the characters that have a special meaning in a LIKE pattern.
+     *
+     * @param text The text to escape.
+     * @return The text, matching only itself when used in a LIKE pattern.
+     */
+    static String escapeLikePattern(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
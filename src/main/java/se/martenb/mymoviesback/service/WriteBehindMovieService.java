@@ -0,0 +1,453 @@
+package se.martenb.mymoviesback.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Primary;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import se.martenb.mymoviesback.config.MetricsConfig;
+import se.martenb.mymoviesback.controller.MovieNotFoundException;
+import se.martenb.mymoviesback.dao.MovieRepository;
+import se.martenb.mymoviesback.model.Movie;
+import se.martenb.mymoviesback.model.MovieDelta;
+import se.martenb.mymoviesback.model.MovieLookup;
+import se.martenb.mymoviesback.model.MovieBatchResult;
+import se.martenb.mymoviesback.model.MovieBatchUpdate;
+import se.martenb.mymoviesback.model.MoviePage;
+import se.martenb.mymoviesback.model.MovieSort;
+import se.martenb.mymoviesback.model.MovieStats;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
+import javax.validation.Validator;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Accepts changes to a movie's rating and seen status at once and writes them to the database in the background. The
+ * changes are kept per owner and IMDB id, so when a movie is changed several times before it is written only its last
+ * values are stored. Pending changes are written in batches, one transaction per batch, at most a configured delay
+ * after they were accepted, and before the application shuts down.
+ *
+ * <p>A change is validated against the movie as it looks with any pending change applied, and a change event is
+ * published and counted as soon as it is accepted, so the cache, the search index and the ETags see it at once.
+ * Movies read through this service also have their pending change applied. Any other change to a movie first writes
+ * the movie's pending change, so changes are stored in the order they were made.</p>
+ */
+@Service
+@Primary
+@ConditionalOnProperty(name = "movies.write-behind.enabled", havingValue = "true")
+public class WriteBehindMovieService implements MovieService {
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindMovieService.class);
+    private static final int ACCEPT_LOCK_STRIPES = 64;
+
+    private final MovieService movieService;
+    private final MovieRepository movieRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Validator validator;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MovieChangeCounter changeCounter;
+    private final Duration maxDelay;
+    private final int batchSize;
+
+    private final Map<SimpleKey, Movie> pending = new ConcurrentHashMap<>();
+    // Changes to the same movie are accepted and removed once written under the same lock, changes to other movies
+    // seldom wait for each other
+    private final ReentrantLock[] acceptLocks = new ReentrantLock[ACCEPT_LOCK_STRIPES];
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private ScheduledExecutorService flusher;
+
+    @Autowired
+    public WriteBehindMovieService(@Qualifier("movieServiceImpl") MovieService movieService,
+                                   MovieRepository movieRepository, PlatformTransactionManager transactionManager,
+                                   Validator validator, ApplicationEventPublisher eventPublisher,
+                                   MovieChangeCounter changeCounter, MeterRegistry meterRegistry,
+                                   @Value("${movies.write-behind.max-delay}") Duration maxDelay,
+                                   @Value("${movies.write-behind.batch-size}") int batchSize) {
+        this.movieService = movieService;
+        this.movieRepository = movieRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.validator = validator;
+        this.eventPublisher = eventPublisher;
+        this.changeCounter = changeCounter;
+        this.maxDelay = maxDelay;
+        this.batchSize = batchSize;
+        for (int i = 0; i < acceptLocks.length; i++)
+            acceptLocks[i] = new ReentrantLock();
+        Gauge.builder(MetricsConfig.WRITE_BEHIND_PENDING_GAUGE, pending, Map::size)
+                .description("Movies with a rating or seen change that has not been written yet")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Start writing pending changes in the background.
+     */
+    @PostConstruct
+    public void start() {
+        flusher = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("write-behind-"));
+        flusher.scheduleWithFixedDelay(this::flushLogged, maxDelay.toMillis(), maxDelay.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop writing in the background and write all changes that are still pending. By the time this is called the
+     * web server has stopped taking requests.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(maxDelay.toMillis() + 10_000, TimeUnit.MILLISECONDS);
+        flush();
+    }
+
+    /**
+     * Retrieve a list of all movies, if name is set, then all movies containing the requested name, with any pending
+     * changes applied.
+     *
+     * @return A list of movies if found, otherwise an empty list is returned.
+     */
+    @Override
+    public List<Movie> getAllMovies(String owner, String name) {
+        List<Movie> movies = movieService.getAllMovies(owner, name);
+        return pending.isEmpty() ? movies : movies.stream().map(this::withPending).collect(Collectors.toList());
+    }
+
+    /**
+     * Stream all movies, ordered by id, with any pending changes applied.
+     *
+     * @param owner The owner of the collection.
+     * @param consumer The consumer that receives each movie.
+     */
+    @Override
+    public void streamAllMovies(String owner, Consumer<Movie> consumer) {
+        movieService.streamAllMovies(owner, movie -> consumer.accept(withPending(movie)));
+    }
+
+    /**
+     * Retrieve a page of movies, with any pending changes applied.
+     *
+     * @return The page of movies.
+     */
+    @Override
+    public MoviePage getMoviePage(String owner, Long afterId, String afterName, int limit, MovieSort sort) {
+        MoviePage page = movieService.getMoviePage(owner, afterId, afterName, limit, sort);
+        if (pending.isEmpty())
+            return page;
+
+        return new MoviePage(page.getMovies().stream().map(this::withPending).collect(Collectors.toList()),
+                page.hasNext());
+    }
+
+    @Override
+    public long getEstimatedMovieCount(String owner) {
+        return movieService.getEstimatedMovieCount(owner);
+    }
+
+    /**
+     * Retrieve statistics for the whole collection. Pending changes are only counted once they have been written.
+     *
+     * @return The statistics.
+     */
+    @Override
+    public MovieStats getMovieStats(String owner) {
+        return movieService.getMovieStats(owner);
+    }
+
+    /**
+     * Retrieve the changes to the collection after a cursor. Pending changes are only included once they have been
+     * written, with a cursor after the one the client already has.
+     *
+     * @return The changes and the cursor after them.
+     */
+    @Override
+    public MovieDelta getMovieDelta(String owner, long since, int limit) {
+        return movieService.getMovieDelta(owner, since, limit);
+    }
+
+    /**
+     * Retrieve a movie by its IMDB id, with any pending change applied.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbId The IMDB id of the movie to retrieve.
+     * @return If the movie exists it is returned, otherwise null.
+     */
+    @Override
+    public Movie getMovieByImdbId(String owner, String imdbId) {
+        Movie movie = movieService.getMovieByImdbId(owner, imdbId);
+        return movie == null ? null : withPending(movie);
+    }
+
+    /**
+     * Retrieve the movies with the given IMDB ids, with any pending changes applied.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbIds The IMDB ids of the movies to retrieve.
+     * @return The movies found and the IMDB ids that have no movie.
+     */
+    @Override
+    public MovieLookup getMoviesByImdbIds(String owner, List<String> imdbIds) {
+        MovieLookup lookup = movieService.getMoviesByImdbIds(owner, imdbIds);
+        if (pending.isEmpty())
+            return lookup;
+        return new MovieLookup(lookup.getMovies().stream().map(this::withPending).collect(Collectors.toList()),
+                lookup.getMissing());
+    }
+
+    @Override
+    public void addMovie(String owner, Movie movie) {
+        movieService.addMovie(owner, movie);
+    }
+
+    @Override
+    public boolean upsertMovie(String owner, String imdbId, Movie movie) {
+        flush(owner, imdbId);
+        return movieService.upsertMovie(owner, imdbId, movie);
+    }
+
+    @Override
+    public List<MovieBatchResult> addMovies(String owner, List<Movie> movies) {
+        return movieService.addMovies(owner, movies);
+    }
+
+    /**
+     * Make several changes to existing movies at once, after writing the pending changes of the movies they are made
+     * to.
+     *
+     * @param owner The owner of the collection.
+     * @param updates The changes to make.
+     * @return The outcome for each change, in the same order as the given changes.
+     */
+    @Override
+    public List<MovieBatchResult> updateMovies(String owner, List<MovieBatchUpdate> updates) {
+        for (MovieBatchUpdate update : updates) {
+            if (update != null)
+                flush(owner, update.getImdbId());
+        }
+        return movieService.updateMovies(owner, updates);
+    }
+
+    @Override
+    public void updateMovie(String owner, String imdbId, Movie movie) {
+        flush(owner, imdbId);
+        movieService.updateMovie(owner, imdbId, movie);
+    }
+
+    /**
+     * Accept a new rating for a movie, it is written to the database later.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbId The IMDB id of the movie to update.
+     * @param rating The new rating for the updated movie.
+     */
+    @Override
+    public void updateRating(String owner, String imdbId, int rating) {
+        accept(owner, imdbId, movie -> movie.setRating(rating));
+    }
+
+    @Override
+    public void updateName(String owner, String imdbId, String name) {
+        flush(owner, imdbId);
+        movieService.updateName(owner, imdbId, name);
+    }
+
+    @Override
+    public void updateImdbId(String owner, String imdbId, String imdbIdNew) {
+        flush(owner, imdbId);
+        movieService.updateImdbId(owner, imdbId, imdbIdNew);
+    }
+
+    /**
+     * Accept that a movie has been seen with a rating, it is written to the database later.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbId The IMDB id of the movie to update.
+     * @param rating The new rating for the updated movie.
+     */
+    @Override
+    public void setMovieSeen(String owner, String imdbId, int rating) {
+        accept(owner, imdbId, movie -> {
+            movie.setSeen(true);
+            movie.setRating(rating);
+        });
+    }
+
+    /**
+     * Accept that a movie has not been seen and has no rating, it is written to the database later.
+     *
+     * @param owner The owner of the collection.
+     * @param imdbId The IMDB id of the movie to update.
+     */
+    @Override
+    public void setMovieUnseen(String owner, String imdbId) {
+        accept(owner, imdbId, movie -> {
+            movie.setSeen(false);
+            movie.setRating(0);
+        });
+    }
+
+    @Override
+    public void deleteMovie(String owner, String imdbId) {
+        flush(owner, imdbId);
+        movieService.deleteMovie(owner, imdbId);
+    }
+
+    /**
+     * Write all pending changes, in batches of at most the configured size.
+     */
+    void flush() {
+        flushLock.lock();
+        try {
+            List<Movie> batch = new ArrayList<>(batchSize);
+            for (Movie movie : pending.values()) {
+                batch.add(movie);
+                if (batch.size() == batchSize) {
+                    write(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty())
+                write(batch);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Write the pending change of a single movie, if there is one.
+     *
+     * @param owner The owner of the movie.
+     * @param imdbId The IMDB id of the movie.
+     */
+    void flush(String owner, String imdbId) {
+        SimpleKey key = new SimpleKey(owner, imdbId);
+        if (!pending.containsKey(key))
+            return;
+
+        flushLock.lock();
+        try {
+            Movie movie = pending.get(key);
+            if (movie != null)
+                write(List.of(movie));
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of movies with a change that has not been written yet.
+     *
+     * @return The number of pending changes.
+     */
+    int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Apply a change to a movie as it looks with any pending change, validate it and keep it as the movie's pending
+     * change. The version is moved forward so that the movie's ETag changes at once, and it is stored with that
+     * version when it is written.
+     */
+    private void accept(String owner, String imdbId, Consumer<Movie> change) {
+        SimpleKey key = new SimpleKey(owner, imdbId);
+        ReentrantLock acceptLock = acceptLockFor(key);
+        acceptLock.lock();
+        try {
+            Movie movie = getMovieByImdbId(owner, imdbId);
+            if (movie == null) throw new MovieNotFoundException();
+
+            Movie changedMovie = new Movie(movie.getId(), owner, movie.getImdbId(), movie.getName(), movie.isSeen(),
+                    movie.getRating(), movie.getVersion() + 1);
+            change.accept(changedMovie);
+            Set<ConstraintViolation<Movie>> violations = validator.validate(changedMovie);
+            if (!violations.isEmpty()) throw new ConstraintViolationException(violations);
+
+            pending.put(key, changedMovie);
+            changeCounter.countPendingChange(owner);
+            eventPublisher.publishEvent(MovieChangeEvent.updated(imdbId, changedMovie));
+        } finally {
+            acceptLock.unlock();
+        }
+
+        if (pending.size() >= batchSize && flusher != null)
+            flusher.execute(this::flushLogged);
+    }
+
+    /**
+     * Write a batch of pending changes in one transaction. A change is only removed once it has been written, and
+     * only if no newer change to the same movie has been accepted in the meantime, in which case that change is left
+     * to be written next. A movie that is no longer there, because it was deleted some other way than through this
+     * service, cannot be written, and since its change has already been published it is published as deleted.
+     */
+    private void write(List<Movie> batch) {
+        List<Movie> storedMovies = transactionTemplate.execute(status -> {
+            List<Movie> movies = new ArrayList<>(batch.size());
+            for (Movie movie : batch)
+                movies.add(movieRepository.updateSeenAndRating(movie).orElse(null));
+            return movies;
+        });
+
+        for (int i = 0; i < batch.size(); i++) {
+            Movie movie = batch.get(i);
+            Movie storedMovie = storedMovies.get(i);
+            SimpleKey key = new SimpleKey(movie.getOwner(), movie.getImdbId());
+            ReentrantLock acceptLock = acceptLockFor(key);
+            acceptLock.lock();
+            try {
+                if (!pending.remove(key, movie))
+                    continue;
+                if (storedMovie != null)
+                    eventPublisher.publishEvent(MovieChangeEvent.updated(movie.getImdbId(), storedMovie));
+                else
+                    eventPublisher.publishEvent(MovieChangeEvent.deleted(movie));
+            } finally {
+                acceptLock.unlock();
+            }
+        }
+    }
+
+    private ReentrantLock acceptLockFor(SimpleKey key) {
+        return acceptLocks[Math.floorMod(key.hashCode(), acceptLocks.length)];
+    }
+
+    private void flushLogged() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.error("Could not write {} pending movie changes, trying again later", pending.size(), e);
+        }
+    }
+
+    /**
+     * Get a movie with its pending change applied, or the movie itself if it has none.
+     */
+    private Movie withPending(Movie movie) {
+        Movie pendingMovie = pending.get(new SimpleKey(movie.getOwner(), movie.getImdbId()));
+        if (pendingMovie == null)
+            return movie;
+
+        return new Movie(movie.getId(), movie.getOwner(), movie.getImdbId(), movie.getName(), pendingMovie.isSeen(),
+                pendingMovie.getRating(), pendingMovie.getVersion());
+    }
+}
@@ -0,0 +1,13 @@
+-- Change sequence numbers are taken without the per-owner lock, which made every change to an owner's collection wait
+-- for the transaction before it to end and could deadlock transactions that changed several owners. The transaction
+-- is given its id before it takes a number instead, which lets a delta leave out the numbers that a running
+-- transaction may still commit below, see MovieChangeWatermark. The sequence must keep a cache of 1, so that the last
+-- number taken is the last one any session holds.
+CREATE OR REPLACE FUNCTION movies_next_change_seq(VARCHAR) RETURNS BIGINT
+    LANGUAGE plpgsql
+AS $$
+BEGIN
+    PERFORM pg_current_xact_id();
+    RETURN nextval('movies_change_seq');
+END
+$$;
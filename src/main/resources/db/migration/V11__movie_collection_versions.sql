@@ -0,0 +1,49 @@
+-- Version of each owner's collection, moved forward by triggers in the same transaction as every change to the movies,
+-- so that anything derived from a whole collection can be reused until the collection changes, whichever application
+-- instance or database session changed it. Like the rating counts, the version is spread over several rows chosen by
+-- movie id, so that concurrent changes to different movies seldom wait for the same row. Every change adds one to a
+-- row, so the version of a collection is the sum of its rows and no two states of a collection have the same version.
+CREATE TABLE movie_collection_versions (
+    owner   VARCHAR(50) NOT NULL,
+    stripe  INTEGER     NOT NULL,
+    version BIGINT      NOT NULL,
+    PRIMARY KEY (owner, stripe)
+);
+
+CREATE OR REPLACE FUNCTION movie_collection_versions_add(VARCHAR, INTEGER) RETURNS void
+    LANGUAGE sql
+AS $$
+    INSERT INTO movie_collection_versions (owner, stripe, version) VALUES ($1, $2, 1)
+    ON CONFLICT (owner, stripe) DO UPDATE SET version = movie_collection_versions.version + 1
+$$;
+
+CREATE OR REPLACE FUNCTION movies_add_collection_version() RETURNS trigger
+    LANGUAGE plpgsql
+AS $$
+BEGIN
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        PERFORM movie_collection_versions_add(OLD.owner, (OLD.id % 16)::INTEGER);
+    END IF;
+    IF TG_OP = 'INSERT' OR TG_OP = 'UPDATE' AND NEW.owner <> OLD.owner THEN
+        PERFORM movie_collection_versions_add(NEW.owner, (NEW.id % 16)::INTEGER);
+    END IF;
+    RETURN NULL;
+END
+$$;
+
+CREATE OR REPLACE FUNCTION movies_truncate_collection_versions() RETURNS trigger
+    LANGUAGE plpgsql
+AS $$
+BEGIN
+    UPDATE movie_collection_versions SET version = version + 1;
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER movies_add_collection_version
+    AFTER INSERT OR UPDATE OR DELETE ON movies
+    FOR EACH ROW EXECUTE FUNCTION movies_add_collection_version();
+
+CREATE TRIGGER movies_truncate_collection_versions
+    AFTER TRUNCATE ON movies
+    FOR EACH STATEMENT EXECUTE FUNCTION movies_truncate_collection_versions();
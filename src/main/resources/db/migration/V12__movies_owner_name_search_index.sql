@@ -0,0 +1,7 @@
+-- The trigram index on the names left out the owner, so a search read the index entries of every owner's movies that
+-- match the text and only then left out the other owners' movies. With btree_gin the owner can lead the index, so a
+-- search only reads the entries of the owner's movies.
+CREATE EXTENSION IF NOT EXISTS btree_gin;
+
+DROP INDEX movies_name_search_trgm_idx;
+CREATE INDEX movies_owner_name_search_trgm_idx ON movies USING gin (owner, name_search gin_trgm_ops);
@@ -0,0 +1,8 @@
+-- Baseline schema, only applied to empty databases. Existing databases are baselined at this version.
+CREATE TABLE IF NOT EXISTS movies (
+    id      BIGSERIAL    PRIMARY KEY,
+    imdb_id VARCHAR(20)  NOT NULL,
+    name    VARCHAR(255) NOT NULL,
+    seen    BOOLEAN      NOT NULL DEFAULT FALSE,
+    rating  INTEGER      NOT NULL DEFAULT 0
+);
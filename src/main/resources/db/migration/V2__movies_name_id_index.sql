@@ -0,0 +1,2 @@
+-- Supports keyset pagination ordered by name (ties broken by id).
+CREATE INDEX IF NOT EXISTS movies_name_id_idx ON movies (name, id);
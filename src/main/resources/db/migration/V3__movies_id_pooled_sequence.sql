@@ -0,0 +1,2 @@
+-- Movie ids are allocated by Hibernate in blocks of 50 (pooled optimizer) so that inserts can be batched.
+ALTER SEQUENCE movies_id_seq INCREMENT BY 50;
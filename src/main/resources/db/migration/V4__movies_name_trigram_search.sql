@@ -0,0 +1,12 @@
+-- Case and accent insensitive substring search on movie names, backed by a trigram index.
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE EXTENSION IF NOT EXISTS unaccent;
+
+-- unaccent() is only STABLE, so it is wrapped with a fixed dictionary to be usable in a generated column and index.
+CREATE OR REPLACE FUNCTION movies_normalize(text) RETURNS text
+    LANGUAGE sql IMMUTABLE PARALLEL SAFE STRICT
+AS $$ SELECT lower(public.unaccent('public.unaccent'::regdictionary, $1)) $$;
+
+ALTER TABLE movies ADD COLUMN name_search TEXT GENERATED ALWAYS AS (movies_normalize(name)) STORED;
+
+CREATE INDEX movies_name_search_trgm_idx ON movies USING gin (name_search gin_trgm_ops);
@@ -0,0 +1,16 @@
+-- Each IMDB id can only be added once. Lookups by IMDB id already fail for movies that were added more than once by
+-- concurrent requests, so only the first copy of such movies is kept in movies. The other copies are moved to
+-- movies_imdb_id_duplicates, where they can be looked at and merged by hand if they differ from the copy kept.
+CREATE TABLE movies_imdb_id_duplicates (LIKE movies);
+
+WITH duplicates AS (
+    DELETE FROM movies duplicate
+        USING movies original
+        WHERE duplicate.imdb_id = original.imdb_id
+          AND duplicate.id > original.id
+        RETURNING duplicate.*
+)
+INSERT INTO movies_imdb_id_duplicates
+    SELECT * FROM duplicates;
+
+CREATE UNIQUE INDEX movies_imdb_id_key ON movies (imdb_id);
@@ -0,0 +1,2 @@
+-- Row version, incremented on every update, used for optimistic locking and as the ETag of a movie.
+ALTER TABLE movies ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
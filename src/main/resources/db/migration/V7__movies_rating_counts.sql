@@ -0,0 +1,57 @@
+-- Number of movies per rating, kept up to date by triggers in the same transaction as every change to the movies, so
+-- that collection statistics can be read without scanning the movies. Rating 0 counts the movies that have not been
+-- seen. Each rating is spread over several rows, chosen by movie id, so that concurrent changes to different movies
+-- seldom wait for the same row. The count for a rating is the sum of its rows.
+CREATE TABLE movie_rating_counts (
+    rating INTEGER NOT NULL,
+    stripe INTEGER NOT NULL,
+    movies BIGINT  NOT NULL,
+    PRIMARY KEY (rating, stripe)
+);
+
+INSERT INTO movie_rating_counts (rating, stripe, movies)
+    SELECT CASE WHEN seen THEN rating ELSE 0 END, 0, count(*) FROM movies GROUP BY 1;
+
+CREATE OR REPLACE FUNCTION movie_rating_counts_add(INTEGER, INTEGER, BIGINT) RETURNS void
+    LANGUAGE sql
+AS $$
+    INSERT INTO movie_rating_counts (rating, stripe, movies) VALUES ($1, $2, $3)
+    ON CONFLICT (rating, stripe) DO UPDATE SET movies = movie_rating_counts.movies + EXCLUDED.movies
+$$;
+
+CREATE OR REPLACE FUNCTION movies_count_rating() RETURNS trigger
+    LANGUAGE plpgsql
+AS $$
+BEGIN
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        PERFORM movie_rating_counts_add(CASE WHEN OLD.seen THEN OLD.rating ELSE 0 END, (OLD.id % 16)::INTEGER, -1);
+    END IF;
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        PERFORM movie_rating_counts_add(CASE WHEN NEW.seen THEN NEW.rating ELSE 0 END, (NEW.id % 16)::INTEGER, 1);
+    END IF;
+    RETURN NULL;
+END
+$$;
+
+CREATE OR REPLACE FUNCTION movies_truncate_rating_counts() RETURNS trigger
+    LANGUAGE plpgsql
+AS $$
+BEGIN
+    DELETE FROM movie_rating_counts;
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER movies_count_rating_insert_delete
+    AFTER INSERT OR DELETE ON movies
+    FOR EACH ROW EXECUTE FUNCTION movies_count_rating();
+
+-- Most updates leave the seen status and rating as they were and do not touch the counts
+CREATE TRIGGER movies_count_rating_update
+    AFTER UPDATE OF seen, rating ON movies
+    FOR EACH ROW WHEN (OLD.seen IS DISTINCT FROM NEW.seen OR OLD.rating IS DISTINCT FROM NEW.rating)
+    EXECUTE FUNCTION movies_count_rating();
+
+CREATE TRIGGER movies_truncate_rating_counts
+    AFTER TRUNCATE ON movies
+    FOR EACH STATEMENT EXECUTE FUNCTION movies_truncate_rating_counts();
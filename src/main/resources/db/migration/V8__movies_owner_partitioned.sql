@@ -0,0 +1,92 @@
+-- Movies belong to an owner, each owner has its own collection where every IMDB id can be added once. The movies are
+-- hash partitioned by owner, and every index leads with the owner or is local to a partition, so the queries for one
+-- owner only read that owner's partition and index entries however many owners there are. Existing movies are moved to
+-- the default owner.
+ALTER TABLE movies RENAME TO movies_unpartitioned;
+ALTER INDEX movies_pkey RENAME TO movies_unpartitioned_pkey;
+ALTER INDEX movies_name_id_idx RENAME TO movies_unpartitioned_name_id_idx;
+ALTER INDEX movies_name_search_trgm_idx RENAME TO movies_unpartitioned_name_search_trgm_idx;
+ALTER INDEX movies_imdb_id_key RENAME TO movies_unpartitioned_imdb_id_key;
+
+CREATE TABLE movies (
+    owner       VARCHAR(50)  NOT NULL,
+    id          BIGINT       NOT NULL DEFAULT nextval('movies_id_seq'),
+    imdb_id     VARCHAR(20)  NOT NULL,
+    name        VARCHAR(255) NOT NULL,
+    seen        BOOLEAN      NOT NULL DEFAULT FALSE,
+    rating      INTEGER      NOT NULL DEFAULT 0,
+    version     BIGINT       NOT NULL DEFAULT 0,
+    name_search TEXT GENERATED ALWAYS AS (movies_normalize(name)) STORED,
+    PRIMARY KEY (owner, id),
+    CONSTRAINT movies_owner_imdb_id_key UNIQUE (owner, imdb_id)
+) PARTITION BY HASH (owner);
+
+DO $$
+BEGIN
+    FOR remainder IN 0..15 LOOP
+        EXECUTE format('CREATE TABLE movies_p%s PARTITION OF movies FOR VALUES WITH (MODULUS 16, REMAINDER %s)',
+                       remainder, remainder);
+    END LOOP;
+END
+$$;
+
+CREATE INDEX movies_owner_name_id_idx ON movies (owner, name, id);
+CREATE INDEX movies_name_search_trgm_idx ON movies USING gin (name_search gin_trgm_ops);
+
+INSERT INTO movies (owner, id, imdb_id, name, seen, rating, version)
+    SELECT 'default', id, imdb_id, name, seen, rating, version FROM movies_unpartitioned;
+
+ALTER SEQUENCE movies_id_seq OWNED BY movies.id;
+DROP TABLE movies_unpartitioned;
+
+-- The number of movies per rating is kept for each owner
+DROP TABLE movie_rating_counts;
+DROP FUNCTION movie_rating_counts_add(INTEGER, INTEGER, BIGINT);
+
+CREATE TABLE movie_rating_counts (
+    owner  VARCHAR(50) NOT NULL,
+    rating INTEGER     NOT NULL,
+    stripe INTEGER     NOT NULL,
+    movies BIGINT      NOT NULL,
+    PRIMARY KEY (owner, rating, stripe)
+);
+
+INSERT INTO movie_rating_counts (owner, rating, stripe, movies)
+    SELECT owner, CASE WHEN seen THEN rating ELSE 0 END, 0, count(*) FROM movies GROUP BY 1, 2;
+
+CREATE OR REPLACE FUNCTION movie_rating_counts_add(VARCHAR, INTEGER, INTEGER, BIGINT) RETURNS void
+    LANGUAGE sql
+AS $$
+    INSERT INTO movie_rating_counts (owner, rating, stripe, movies) VALUES ($1, $2, $3, $4)
+    ON CONFLICT (owner, rating, stripe) DO UPDATE SET movies = movie_rating_counts.movies + EXCLUDED.movies
+$$;
+
+CREATE OR REPLACE FUNCTION movies_count_rating() RETURNS trigger
+    LANGUAGE plpgsql
+AS $$
+BEGIN
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        PERFORM movie_rating_counts_add(OLD.owner, CASE WHEN OLD.seen THEN OLD.rating ELSE 0 END,
+                                        (OLD.id % 16)::INTEGER, -1);
+    END IF;
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        PERFORM movie_rating_counts_add(NEW.owner, CASE WHEN NEW.seen THEN NEW.rating ELSE 0 END,
+                                        (NEW.id % 16)::INTEGER, 1);
+    END IF;
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER movies_count_rating_insert_delete
+    AFTER INSERT OR DELETE ON movies
+    FOR EACH ROW EXECUTE FUNCTION movies_count_rating();
+
+-- Most updates leave the seen status and rating as they were and do not touch the counts
+CREATE TRIGGER movies_count_rating_update
+    AFTER UPDATE OF seen, rating ON movies
+    FOR EACH ROW WHEN (OLD.seen IS DISTINCT FROM NEW.seen OR OLD.rating IS DISTINCT FROM NEW.rating)
+    EXECUTE FUNCTION movies_count_rating();
+
+CREATE TRIGGER movies_truncate_rating_counts
+    AFTER TRUNCATE ON movies
+    FOR EACH STATEMENT EXECUTE FUNCTION movies_truncate_rating_counts();
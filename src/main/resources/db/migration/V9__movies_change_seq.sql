@@ -0,0 +1,64 @@
+-- Every insert, update and delete of a movie takes the next number from a sequence, kept on the movie or, for deletes,
+-- on a tombstone, so that a client can ask for only the changes after the last number it has seen. The numbers of one
+-- owner's changes are taken while holding a per-owner lock until the transaction ends, so they become visible in the
+-- order they were taken and a change can never appear behind a number a client has already seen.
+CREATE SEQUENCE movies_change_seq;
+
+ALTER TABLE movies ADD COLUMN change_seq BIGINT NOT NULL DEFAULT 0;
+UPDATE movies SET change_seq = nextval('movies_change_seq');
+CREATE INDEX movies_owner_change_seq_idx ON movies (owner, change_seq);
+
+CREATE TABLE movie_tombstones (
+    owner      VARCHAR(50)  NOT NULL,
+    change_seq BIGINT       NOT NULL,
+    imdb_id    VARCHAR(20)  NOT NULL,
+    deleted_at TIMESTAMPTZ  NOT NULL DEFAULT now(),
+    PRIMARY KEY (owner, change_seq)
+);
+
+-- Tombstones are pruned after a while, changes since before the highest pruned number can no longer be told apart
+CREATE TABLE movie_delta_horizon (
+    change_seq BIGINT NOT NULL
+);
+INSERT INTO movie_delta_horizon (change_seq) VALUES (0);
+
+CREATE OR REPLACE FUNCTION movies_next_change_seq(VARCHAR) RETURNS BIGINT
+    LANGUAGE plpgsql
+AS $$
+BEGIN
+    PERFORM pg_advisory_xact_lock(hashtext('movies_change_seq'), hashtext($1));
+    RETURN nextval('movies_change_seq');
+END
+$$;
+
+CREATE OR REPLACE FUNCTION movies_set_change_seq() RETURNS trigger
+    LANGUAGE plpgsql
+AS $$
+BEGIN
+    -- A movie that gets a new IMDB id is gone from the old one
+    IF TG_OP = 'UPDATE' AND NEW.imdb_id <> OLD.imdb_id THEN
+        INSERT INTO movie_tombstones (owner, change_seq, imdb_id)
+            VALUES (OLD.owner, movies_next_change_seq(OLD.owner), OLD.imdb_id);
+    END IF;
+    NEW.change_seq := movies_next_change_seq(NEW.owner);
+    RETURN NEW;
+END
+$$;
+
+CREATE OR REPLACE FUNCTION movies_add_tombstone() RETURNS trigger
+    LANGUAGE plpgsql
+AS $$
+BEGIN
+    INSERT INTO movie_tombstones (owner, change_seq, imdb_id)
+        VALUES (OLD.owner, movies_next_change_seq(OLD.owner), OLD.imdb_id);
+    RETURN NULL;
+END
+$$;
+
+CREATE TRIGGER movies_set_change_seq
+    BEFORE INSERT OR UPDATE ON movies
+    FOR EACH ROW EXECUTE FUNCTION movies_set_change_seq();
+
+CREATE TRIGGER movies_add_tombstone
+    AFTER DELETE ON movies
+    FOR EACH ROW EXECUTE FUNCTION movies_add_tombstone();
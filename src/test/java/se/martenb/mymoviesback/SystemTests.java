@@ -1,5 +1,6 @@
 package se.martenb.mymoviesback;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.AfterEach;
@@ -8,21 +9,31 @@ import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.server.LocalServerPort;
 import org.springframework.http.*;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
 import se.martenb.mymoviesback.model.Movie;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 @EnabledIfEnvironmentVariable(named = "SPRING_TESTING_PROFILES_ACTIVE", matches = ".*systemtest.*")
 @ExtendWith(SpringExtension.class)
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureMetrics
 class SystemTests {
 
     @LocalServerPort
@@ -194,6 +205,65 @@ class SystemTests {
         Assertions.assertThat(restTemplate.getForObject(urlBase, Movie[].class)).isNull();
     }
 
+    @Test
+    public void testAddBatchAndDelete() {
+        RestTemplate restTemplate = new RestTemplate();
+
+        Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        Movie movieSpiderFar = new Movie("tt6320628", "Spider-Man: Far from Home", true, 9);
+        Movie movieInvalid = new Movie("tt4154756", "Avengers: Infinity War", false, 5);
+        Movie[] movies = {movieSpiderNo, movieSpiderFar, movieInvalid, movieSpiderNo};
+
+        JsonNode results = restTemplate.postForObject(urlBase + "batch", movies, JsonNode.class);
+        Assertions.assertThat(results).extracting(result -> result.get("status").asText()).containsExactly(
+                "CREATED", "CREATED", "INVALID", "DUPLICATE");
+
+        results = restTemplate.postForObject(urlBase + "batch", new Movie[]{movieSpiderFar}, JsonNode.class);
+        Assertions.assertThat(results).extracting(result -> result.get("status").asText())
+                .containsExactly("ALREADY_EXISTS");
+
+        Movie[] savedMovies = restTemplate.getForObject(urlBase, Movie[].class);
+        Assertions.assertThat(savedMovies).extracting(Movie::getImdbId)
+                .containsOnly(movieSpiderNo.getImdbId(), movieSpiderFar.getImdbId());
+
+        restTemplate.delete(urlBase + movieSpiderNo.getImdbId());
+        restTemplate.delete(urlBase + movieSpiderFar.getImdbId());
+        Assertions.assertThat(restTemplate.getForObject(urlBase, Movie[].class)).isNull();
+    }
+
+    @Test
+    public void testOwnersHaveSeparateCollections() {
+        RestTemplate restTemplate = new RestTemplate();
+        HttpHeaders aliceHeaders = new HttpHeaders();
+        aliceHeaders.add("X-Owner", "alice");
+        HttpHeaders bobHeaders = new HttpHeaders();
+        bobHeaders.add("X-Owner", "bob");
+
+        Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        restTemplate.exchange(urlBase, HttpMethod.POST, new HttpEntity<>(movie, aliceHeaders), String.class);
+        Movie bobsMovie = new Movie("tt10872600", "Spider-Man: No Way Home", false, 0);
+        restTemplate.exchange(urlBase, HttpMethod.POST, new HttpEntity<>(bobsMovie, bobHeaders), String.class);
+
+        Movie alicesStored = restTemplate.exchange(urlBase + movie.getImdbId(), HttpMethod.GET,
+                new HttpEntity<>(aliceHeaders), Movie.class).getBody();
+        Movie bobsStored = restTemplate.exchange(urlBase + movie.getImdbId(), HttpMethod.GET,
+                new HttpEntity<>(bobHeaders), Movie.class).getBody();
+        assert alicesStored != null && bobsStored != null;
+        Assertions.assertThat(alicesStored.getRating()).isEqualTo(10);
+        Assertions.assertThat(bobsStored.isSeen()).isFalse();
+        Assertions.assertThat(restTemplate.getForObject(urlBase, Movie[].class)).isNull();
+
+        restTemplate.exchange(urlBase + movie.getImdbId(), HttpMethod.DELETE, new HttpEntity<>(aliceHeaders),
+                String.class);
+        Assertions.assertThat(restTemplate.exchange(urlBase, HttpMethod.GET, new HttpEntity<>(aliceHeaders),
+                Movie[].class).getBody()).isNull();
+        Assertions.assertThat(restTemplate.exchange(urlBase, HttpMethod.GET, new HttpEntity<>(bobHeaders),
+                Movie[].class).getBody()).extracting(Movie::getImdbId).containsOnly(movie.getImdbId());
+
+        restTemplate.exchange(urlBase + movie.getImdbId(), HttpMethod.DELETE, new HttpEntity<>(bobHeaders),
+                String.class);
+    }
+
     @Nested
     class TestsWithMovies{
         private final RestTemplate restTemplate = new RestTemplate();
@@ -245,6 +315,38 @@ class SystemTests {
                             movieAvengerInf.getImdbId()));
         }
 
+        @Test
+        public void testGetAllMoviesStreamed() {
+            Movie[] movies = restTemplate.getForObject(urlBase + "?stream=true", Movie[].class);
+            Assertions.assertThat(movies).extracting(Movie::getImdbId).containsExactly(
+                    movieSpiderNo.getImdbId(),
+                    movieSpiderFar.getImdbId(),
+                    movieSpiderHome.getImdbId(),
+                    movieAvengerEnd.getImdbId(),
+                    movieAvengerInf.getImdbId());
+        }
+
+        @Test
+        public void testGetMoviePages() {
+            ResponseEntity<Movie[]> firstPage =
+                    restTemplate.getForEntity(urlBase + "?limit=3&sort=name&count=true", Movie[].class);
+            Assertions.assertThat(firstPage.getBody()).extracting(Movie::getImdbId).containsExactly(
+                    movieAvengerEnd.getImdbId(),
+                    movieAvengerInf.getImdbId(),
+                    movieSpiderFar.getImdbId());
+            Assertions.assertThat(firstPage.getHeaders().getFirst("X-Estimated-Total-Count")).isNotNull();
+
+            String nextLink = firstPage.getHeaders().getFirst(HttpHeaders.LINK);
+            Assertions.assertThat(nextLink).endsWith("; rel=\"next\"");
+            String nextUrl = nextLink.substring(1, nextLink.indexOf('>'));
+
+            ResponseEntity<Movie[]> secondPage = restTemplate.getForEntity(URI.create(nextUrl), Movie[].class);
+            Assertions.assertThat(secondPage.getBody()).extracting(Movie::getImdbId).containsExactly(
+                    movieSpiderHome.getImdbId(),
+                    movieSpiderNo.getImdbId());
+            Assertions.assertThat(secondPage.getHeaders().getFirst(HttpHeaders.LINK)).isNull();
+        }
+
         @Test
         public void testUpdateMovie() {
             String movieImdbIdToUpdate = "tt10872600";
@@ -367,6 +469,181 @@ class SystemTests {
                     .hasMessageContaining("Bad Request");
         }
 
+        @Test
+        public void testGetMovieCacheStatistics() {
+            restTemplate.getForObject(urlBase + "/" + movieSpiderNo.getImdbId(), Movie.class);
+            Movie movie = restTemplate.getForObject(urlBase + "/" + movieSpiderNo.getImdbId(), Movie.class);
+            assert movie != null;
+            Assertions.assertThat(movie.getName()).isEqualTo(movieSpiderNo.getName());
+
+            JsonNode hits = restTemplate.getForObject("http://localhost:" + port +
+                    "/actuator/metrics/cache.gets?tag=cache:moviesByImdbId&tag=result:hit", JsonNode.class);
+            assert hits != null;
+            Assertions.assertThat(hits.get("measurements").get(0).get("value").asDouble()).isGreaterThan(0);
+        }
+
+        @Test
+        public void testGetMovieStats() {
+            JsonNode stats = restTemplate.getForObject(urlBase + "stats", JsonNode.class);
+            assert stats != null;
+            Assertions.assertThat(stats.get("total").asLong()).isEqualTo(5);
+            Assertions.assertThat(stats.get("seen").asLong()).isEqualTo(4);
+            Assertions.assertThat(stats.get("unseen").asLong()).isEqualTo(1);
+            Assertions.assertThat(stats.get("ratings").get("9").asLong()).isEqualTo(2);
+            Assertions.assertThat(stats.get("mean").asDouble()).isEqualTo(9.0);
+            Assertions.assertThat(stats.get("median").asDouble()).isEqualTo(9.0);
+
+            restTemplate.put(urlBase + movieSpiderNo.getImdbId() + "/unseen", null);
+            stats = restTemplate.getForObject(urlBase + "stats", JsonNode.class);
+            assert stats != null;
+            Assertions.assertThat(stats.get("unseen").asLong()).isEqualTo(2);
+            Assertions.assertThat(stats.get("ratings").get("10").asLong()).isEqualTo(0);
+            Assertions.assertThat(stats.get("median").asDouble()).isEqualTo(9.0);
+        }
+
+        @Test
+        public void testUpdateBatch() {
+            List<Map<String, Object>> updates = List.of(
+                    Map.of("operation", "unseen", "imdbId", movieSpiderNo.getImdbId()),
+                    Map.of("operation", "seen", "imdbId", movieAvengerInf.getImdbId(), "rating", 7),
+                    Map.of("operation", "rating", "imdbId", movieSpiderNo.getImdbId(), "rating", 5),
+                    Map.of("operation", "name", "imdbId", movieSpiderFar.getImdbId(), "name", "Far from Home"),
+                    Map.of("operation", "delete", "imdbId", movieAvengerEnd.getImdbId()),
+                    Map.of("operation", "rating", "imdbId", movieAvengerEnd.getImdbId(), "rating", 5));
+
+            JsonNode results = WebClient.create(urlBase).patch().uri("batch").bodyValue(updates)
+                    .retrieve().bodyToMono(JsonNode.class).block();
+            Assertions.assertThat(results).extracting(result -> result.get("status").asText()).containsExactly(
+                    "UPDATED", "UPDATED", "INVALID", "UPDATED", "DELETED", "NOT_FOUND");
+
+            Assertions.assertThat(restTemplate.getForObject(urlBase + movieSpiderNo.getImdbId(), Movie.class))
+                    .extracting(Movie::isSeen, Movie::getRating).containsExactly(false, 0);
+            Assertions.assertThat(restTemplate.getForObject(urlBase + movieAvengerInf.getImdbId(), Movie.class))
+                    .extracting(Movie::isSeen, Movie::getRating).containsExactly(true, 7);
+            Assertions.assertThat(restTemplate.getForObject(urlBase + movieSpiderFar.getImdbId(), Movie.class))
+                    .extracting(Movie::getName).isEqualTo("Far from Home");
+            Assertions.assertThat(restTemplate.getForObject(urlBase + "?imdbIds=" + movieAvengerEnd.getImdbId(),
+                    JsonNode.class).get("missing")).extracting(JsonNode::asText)
+                    .containsExactly(movieAvengerEnd.getImdbId());
+            restTemplate.postForEntity(urlBase, movieAvengerEnd, String.class);
+        }
+
+        @Test
+        public void testGetMoviesByImdbIds() {
+            JsonNode lookup = restTemplate.getForObject(
+                    urlBase + "?imdbIds=tt4154796,tt99999999,tt10872600,tt4154796", JsonNode.class);
+            assert lookup != null;
+            Assertions.assertThat(lookup.get("movies")).extracting(movie -> movie.get("imdbId").asText())
+                    .containsExactly(movieAvengerEnd.getImdbId(), movieSpiderNo.getImdbId());
+            Assertions.assertThat(lookup.get("missing")).extracting(JsonNode::asText).containsExactly("tt99999999");
+
+            lookup = restTemplate.postForObject(urlBase + "lookup",
+                    List.of(movieSpiderHome.getImdbId(), movieSpiderFar.getImdbId()), JsonNode.class);
+            assert lookup != null;
+            Assertions.assertThat(lookup.get("movies")).extracting(movie -> movie.get("imdbId").asText())
+                    .containsExactly(movieSpiderHome.getImdbId(), movieSpiderFar.getImdbId());
+            Assertions.assertThat(lookup.get("missing")).isEmpty();
+        }
+
+        @Test
+        public void testGetPrometheusMetrics() {
+            restTemplate.getForObject(urlBase + "/" + movieSpiderNo.getImdbId(), Movie.class);
+            assertThatThrownBy(() -> restTemplate.delete(urlBase + "/tt0000000"))
+                    .isInstanceOf(HttpClientErrorException.NotFound.class);
+
+            String metrics = restTemplate.getForObject("http://localhost:" + port + "/actuator/prometheus",
+                    String.class);
+            Assertions.assertThat(metrics)
+                    .contains("movies_service_seconds_bucket{class=\"se.martenb.mymoviesback.service.MovieServiceImpl\"")
+                    .contains("spring_data_repository_invocations_seconds_bucket{")
+                    .contains("http_server_requests_seconds_bucket{")
+                    .contains("hikaricp_connections_acquire_seconds_bucket{")
+                    .contains("hikaricp_connections_usage_seconds_bucket{")
+                    .contains("movies_exceptions_total{exception=\"MovieNotFoundException\",}");
+        }
+
+        @Test
+        public void testUpsertMovie() {
+            Movie movie = new Movie("tt0145487", "Spider-Man", true, 7);
+            HttpEntity<Movie> request = new HttpEntity<>(movie);
+
+            ResponseEntity<String> created = restTemplate.exchange(urlBase + movie.getImdbId() + "?upsert=true",
+                    HttpMethod.PUT, request, String.class);
+            Assertions.assertThat(created.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+
+            movie.setRating(8);
+            ResponseEntity<String> replaced = restTemplate.exchange(urlBase + movie.getImdbId() + "?upsert=true",
+                    HttpMethod.PUT, request, String.class);
+            Assertions.assertThat(replaced.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+            Movie storedMovie = restTemplate.getForObject(urlBase + movie.getImdbId(), Movie.class);
+            assert storedMovie != null;
+            Assertions.assertThat(storedMovie.getRating()).isEqualTo(8);
+
+            restTemplate.delete(urlBase + movie.getImdbId());
+        }
+
+        @Test
+        public void testAddMovieAlreadyExisting() {
+            assertThatThrownBy(() -> restTemplate.postForEntity(urlBase, movieSpiderNo, String.class))
+                    .isInstanceOf(HttpClientErrorException.class)
+                    .hasMessageContaining("Movie already exists");
+        }
+
+        @Test
+        public void testGetMovieNotModifiedUntilUpdated() {
+            String url = urlBase + movieSpiderNo.getImdbId();
+            ResponseEntity<Movie> first = restTemplate.getForEntity(url, Movie.class);
+            String eTag = first.getHeaders().getETag();
+            Assertions.assertThat(eTag).isNotNull();
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setIfNoneMatch(eTag);
+            ResponseEntity<Movie> notModified =
+                    restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers), Movie.class);
+            Assertions.assertThat(notModified.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+
+            HttpHeaders jsonHeaders = new HttpHeaders();
+            jsonHeaders.setContentType(MediaType.APPLICATION_JSON);
+            restTemplate.exchange(url + "/rating", HttpMethod.PUT, new HttpEntity<>("7", jsonHeaders), String.class);
+
+            ResponseEntity<Movie> modified =
+                    restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers), Movie.class);
+            Assertions.assertThat(modified.getStatusCode()).isEqualTo(HttpStatus.OK);
+            Assertions.assertThat(modified.getHeaders().getETag()).isNotEqualTo(eTag);
+            assert modified.getBody() != null;
+            Assertions.assertThat(modified.getBody().getRating()).isEqualTo(7);
+        }
+
+        @Test
+        public void testGetAllMoviesNotModifiedUntilChanged() {
+            String eTag = restTemplate.getForEntity(urlBase, Movie[].class).getHeaders().getETag();
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setIfNoneMatch(eTag);
+            Assertions.assertThat(restTemplate.exchange(urlBase, HttpMethod.GET, new HttpEntity<>(headers),
+                    Movie[].class).getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+
+            restTemplate.put(urlBase + movieAvengerInf.getImdbId() + "/unseen", null);
+            Assertions.assertThat(restTemplate.exchange(urlBase, HttpMethod.GET, new HttpEntity<>(headers),
+                    Movie[].class).getStatusCode()).isEqualTo(HttpStatus.OK);
+        }
+
+        @Test
+        public void testGetAllMoviesGzip() throws IOException {
+            String plain = restTemplate.getForObject(urlBase, String.class);
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.ACCEPT_ENCODING, "gzip");
+            ResponseEntity<byte[]> response = restTemplate.exchange(urlBase, HttpMethod.GET,
+                    new HttpEntity<>(headers), byte[].class);
+            Assertions.assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+            Assertions.assertThat(response.getHeaders().getVary()).contains(HttpHeaders.ACCEPT_ENCODING);
+            try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(response.getBody()))) {
+                Assertions.assertThat(new String(gzip.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo(plain);
+            }
+        }
+
         @Test
         public void testUpdateMovieName() {
             String movieImdbIdToUpdate = "tt10872600";
@@ -0,0 +1,34 @@
+package se.martenb.mymoviesback.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class VirtualThreadsTest {
+    private static final int VIRTUAL_THREADS_VERSION = 21;
+
+    @Test
+    public void testVirtualThreadPerTaskExecutor() throws Exception {
+        assumeTrue(Runtime.version().feature() >= VIRTUAL_THREADS_VERSION);
+
+        ExecutorService executor = VirtualThreads.newVirtualThreadPerTaskExecutor("test-");
+        try {
+            Thread thread = executor.submit(Thread::currentThread).get();
+            assertTrue(VirtualThreads.isVirtual(thread));
+            assertTrue(thread.getName().startsWith("test-"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testVirtualThreadsUnavailable() {
+        assumeTrue(Runtime.version().feature() < VIRTUAL_THREADS_VERSION);
+
+        assertThrows(IllegalStateException.class, () -> VirtualThreads.newVirtualThreadPerTaskExecutor("test-"));
+        assertFalse(VirtualThreads.isVirtual(Thread.currentThread()));
+    }
+}
@@ -0,0 +1,100 @@
+package se.martenb.mymoviesback.controller;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimitTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+
+    @Test
+    public void testRejectsOverLimit() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100, 0.8);
+
+        for (int i = 0; i < 8; i++)
+            assertTrue(limit.tryAcquire(false));
+        assertFalse(limit.tryAcquire(false));
+        assertTrue(limit.tryAcquire(true));
+        assertTrue(limit.tryAcquire(true));
+        assertFalse(limit.tryAcquire(true));
+        assertEquals(10, limit.getInFlight());
+
+        limit.release();
+        assertEquals(9, limit.getInFlight());
+        assertFalse(limit.tryAcquire(false));
+        assertTrue(limit.tryAcquire(true));
+    }
+
+    @Test
+    public void testGrowsWhileLatencyIsSteady() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100, 1.0);
+
+        for (int i = 0; i < 100; i++)
+            runBusy(limit, FAST);
+
+        assertEquals(100, limit.getLimit());
+    }
+
+    @Test
+    public void testDoesNotGrowWhenIdle() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100, 1.0);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limit.tryAcquire(false));
+            limit.release(FAST, false);
+        }
+
+        assertEquals(10, limit.getLimit());
+    }
+
+    @Test
+    public void testShrinksWhenLatencyRises() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 2, 100, 1.0);
+        for (int i = 0; i < 100; i++)
+            runBusy(limit, FAST);
+
+        for (int i = 0; i < 100; i++)
+            runBusy(limit, SLOW);
+        assertEquals(2, limit.getLimit());
+
+        for (int i = 0; i < 1000; i++)
+            runBusy(limit, FAST);
+        assertEquals(100, limit.getLimit());
+    }
+
+    @Test
+    public void testBacksOffOnFailure() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 5, 100, 1.0);
+
+        assertTrue(limit.tryAcquire(true));
+        limit.release(FAST, true);
+        assertEquals(18, limit.getLimit());
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limit.tryAcquire(true));
+            limit.release(FAST, true);
+        }
+        assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    public void testInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrencyLimit(0, 0, 10, 0.5));
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrencyLimit(20, 1, 10, 0.5));
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrencyLimit(5, 1, 10, 0));
+    }
+
+    /**
+     * Fill the limit and release every request with the given latency.
+     */
+    private static void runBusy(AdaptiveConcurrencyLimit limit, long latencyNanos) {
+        int acquired = 0;
+        while (limit.tryAcquire(true))
+            acquired++;
+        for (int i = 0; i < acquired; i++)
+            limit.release(latencyNanos, false);
+    }
+}
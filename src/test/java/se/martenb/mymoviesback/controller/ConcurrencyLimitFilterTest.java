@@ -0,0 +1,65 @@
+package se.martenb.mymoviesback.controller;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import se.martenb.mymoviesback.config.MetricsConfig;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrencyLimitFilterTest {
+    ConcurrencyLimitFilter filter;
+    SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        filter = new ConcurrencyLimitFilter(meterRegistry, 2, 1, 10, 0.5, Duration.ofSeconds(2));
+    }
+
+    @Test
+    public void testLetsRequestsThrough() throws ServletException, IOException {
+        MockHttpServletResponse response = doFilter("GET", "/api/movies");
+
+        assertEquals(200, response.getStatus());
+        assertEquals(0, filter.getLimit().getInFlight());
+    }
+
+    @Test
+    public void testRejectsOverLimit() throws ServletException, IOException {
+        assertTrue(filter.getLimit().tryAcquire(false));
+
+        MockHttpServletResponse response = doFilter("GET", "/api/movies/tt0111161");
+        assertEquals(503, response.getStatus());
+        assertEquals("2", response.getHeader(HttpHeaders.RETRY_AFTER));
+        assertEquals(1.0, meterRegistry.get(MetricsConfig.CONCURRENCY_REJECTED_COUNTER)
+                .tag("priority", "read").counter().count());
+
+        assertEquals(503, doFilter("POST", "/api/movies/lookup").getStatus());
+        assertEquals(200, doFilter("PUT", "/api/movies/tt0111161").getStatus());
+    }
+
+    @Test
+    public void testOtherPathsAreNotLimited() throws ServletException, IOException {
+        assertTrue(filter.getLimit().tryAcquire(true));
+        assertTrue(filter.getLimit().tryAcquire(true));
+
+        assertEquals(200, doFilter("GET", "/actuator/health").getStatus());
+        assertEquals(200, doFilter("GET", "/api/movies/changes").getStatus());
+        assertEquals(503, doFilter("POST", "/api/movies").getStatus());
+    }
+
+    private MockHttpServletResponse doFilter(String method, String uri) throws ServletException, IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest(method, uri), response, new MockFilterChain());
+        return response;
+    }
+}
@@ -2,6 +2,7 @@ package se.martenb.mymoviesback.controller;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -10,13 +11,26 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.cache.support.NoOpCacheManager;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
 import se.martenb.mymoviesback.model.Movie;
 import se.martenb.mymoviesback.dao.MovieRepository;
+import se.martenb.mymoviesback.service.MovieCacheSynchronizer;
+import se.martenb.mymoviesback.service.MovieChangeCounter;
+import se.martenb.mymoviesback.service.MovieChangeFeed;
 import se.martenb.mymoviesback.service.MovieService;
+import se.martenb.mymoviesback.service.ContainingMovieSearch;
 import se.martenb.mymoviesback.service.MovieServiceImpl;
 
+import javax.validation.Validation;
+import java.time.Duration;
+
 @EnabledIfEnvironmentVariable(named = "SPRING_TESTING_PROFILES_ACTIVE", matches = ".*integrationtest.*")
 @ExtendWith(SpringExtension.class)
 @DataJpaTest
@@ -25,27 +39,44 @@ class IntegrationTests {
     @Autowired
     MovieRepository movieRepository;
 
+    @Autowired
+    ApplicationEventPublisher eventPublisher;
+
+    static final String OWNER = "alice";
+
     MovieService movieService;
     MovieServiceController movieServiceController;
 
     @BeforeEach
     void SetUp() {
-        movieService = new MovieServiceImpl(movieRepository);
-        movieServiceController = new MovieServiceController(movieService);
+        movieService = new MovieServiceImpl(movieRepository, new ContainingMovieSearch(movieRepository),
+                Validation.buildDefaultValidatorFactory().getValidator(), eventPublisher,
+                new MovieCacheSynchronizer(new NoOpCacheManager()));
+        MovieChangeCounter changeCounter = new MovieChangeCounter(movieRepository);
+        movieServiceController = new MovieServiceController(movieService, changeCounter,
+                new PrecompressedMovieListing(movieService, changeCounter, new ObjectMapper()),
+                new MovieChangeFeed(new SimpleMeterRegistry(), 16, 16, 16, 1), Duration.ofMinutes(1),
+                Duration.ZERO, Duration.ZERO);
+    }
+
+    private static WebRequest webRequest() {
+        return new ServletWebRequest(new MockHttpServletRequest(), new MockHttpServletResponse());
     }
 
     @Test
     public void testIntegrationAddAndDeleteMovie() {
         Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
 
-        movieServiceController.add(movie);
+        movieServiceController.add(OWNER, movie);
 
-        ResponseEntity<Movie> movieResponse = movieServiceController.getByImdbId(movie.getImdbId());
+        ResponseEntity<Movie> movieResponse =
+                movieServiceController.getByImdbId(OWNER, movie.getImdbId(), webRequest());
         Movie foundMovie = movieResponse.getBody();
         Assertions.assertThat(foundMovie).hasFieldOrPropertyWithValue("imdbId", movie.getImdbId());
 
-        movieServiceController.delete(movie.getImdbId());
-        Assertions.assertThat(movieServiceController.getByImdbId(movie.getImdbId()).getBody()).isNull();
+        movieServiceController.delete(OWNER, movie.getImdbId());
+        Assertions.assertThat(movieServiceController.getByImdbId(OWNER, movie.getImdbId(), webRequest()).getBody())
+                .isNull();
     }
 
     @Test
@@ -53,15 +84,16 @@ class IntegrationTests {
         Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
         Movie newMovie = new Movie("tt99999999", "Spider-Man: No Way Home (NEW)", false, 0);
 
-        movieServiceController.add(movie);
+        movieServiceController.add(OWNER, movie);
 
-        ResponseEntity<Movie> movieResponse = movieServiceController.getByImdbId(movie.getImdbId());
+        ResponseEntity<Movie> movieResponse =
+                movieServiceController.getByImdbId(OWNER, movie.getImdbId(), webRequest());
         Movie foundOriginalMovie = movieResponse.getBody();
         Assertions.assertThat(foundOriginalMovie).hasFieldOrPropertyWithValue("imdbId", movie.getImdbId());
         Assertions.assertThat(foundOriginalMovie).hasFieldOrProperty("id");
 
-        movieServiceController.update(movie.getImdbId(), newMovie);
-        movieResponse = movieServiceController.getByImdbId(newMovie.getImdbId());
+        movieServiceController.update(OWNER, movie.getImdbId(), newMovie);
+        movieResponse = movieServiceController.getByImdbId(OWNER, newMovie.getImdbId(), webRequest());
         Movie foundUpdatedMovie = movieResponse.getBody();
         assert foundOriginalMovie != null;
         Assertions.assertThat(foundUpdatedMovie).hasFieldOrPropertyWithValue("id", foundOriginalMovie.getId());
@@ -72,14 +104,15 @@ class IntegrationTests {
         Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 8);
         int newRating = 10;
 
-        movieServiceController.add(movie);
+        movieServiceController.add(OWNER, movie);
 
-        ResponseEntity<Movie> movieResponse = movieServiceController.getByImdbId(movie.getImdbId());
+        ResponseEntity<Movie> movieResponse =
+                movieServiceController.getByImdbId(OWNER, movie.getImdbId(), webRequest());
         Movie foundMovie = movieResponse.getBody();
         Assertions.assertThat(foundMovie).hasFieldOrPropertyWithValue("rating", movie.getRating());
 
-        movieServiceController.updateRating(movie.getImdbId(), newRating);
-        movieResponse = movieServiceController.getByImdbId(movie.getImdbId());
+        movieServiceController.updateRating(OWNER, movie.getImdbId(), newRating);
+        movieResponse = movieServiceController.getByImdbId(OWNER, movie.getImdbId(), webRequest());
         foundMovie = movieResponse.getBody();
         Assertions.assertThat(foundMovie).hasFieldOrPropertyWithValue("rating", newRating);
     }
@@ -89,14 +122,15 @@ class IntegrationTests {
         Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 8);
         String newName = "Spider-Man: No Way Home (NEW)";
 
-        movieServiceController.add(movie);
+        movieServiceController.add(OWNER, movie);
 
-        ResponseEntity<Movie> movieResponse = movieServiceController.getByImdbId(movie.getImdbId());
+        ResponseEntity<Movie> movieResponse =
+                movieServiceController.getByImdbId(OWNER, movie.getImdbId(), webRequest());
         Movie foundMovie = movieResponse.getBody();
         Assertions.assertThat(foundMovie).hasFieldOrPropertyWithValue("name", movie.getName());
 
-        movieServiceController.updateName(movie.getImdbId(), new ObjectMapper().writeValueAsString(newName));
-        movieResponse = movieServiceController.getByImdbId(movie.getImdbId());
+        movieServiceController.updateName(OWNER, movie.getImdbId(), new ObjectMapper().writeValueAsString(newName));
+        movieResponse = movieServiceController.getByImdbId(OWNER, movie.getImdbId(), webRequest());
         foundMovie = movieResponse.getBody();
         Assertions.assertThat(foundMovie).hasFieldOrPropertyWithValue("name", newName);
     }
@@ -106,14 +140,15 @@ class IntegrationTests {
         Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 8);
         String newImdbId = "tt99999999";
 
-        movieServiceController.add(movie);
+        movieServiceController.add(OWNER, movie);
 
-        ResponseEntity<Movie> movieResponse = movieServiceController.getByImdbId(movie.getImdbId());
+        ResponseEntity<Movie> movieResponse =
+                movieServiceController.getByImdbId(OWNER, movie.getImdbId(), webRequest());
         Movie foundMovie = movieResponse.getBody();
         Assertions.assertThat(foundMovie).hasFieldOrPropertyWithValue("name", movie.getName());
 
-        movieServiceController.updateImdbId(movie.getImdbId(), new ObjectMapper().writeValueAsString(newImdbId));
-        movieResponse = movieServiceController.getByImdbId(movie.getImdbId());
+        movieServiceController.updateImdbId(OWNER, movie.getImdbId(), new ObjectMapper().writeValueAsString(newImdbId));
+        movieResponse = movieServiceController.getByImdbId(OWNER, newImdbId, webRequest());
         foundMovie = movieResponse.getBody();
         Assertions.assertThat(foundMovie).hasFieldOrPropertyWithValue("imdbId", newImdbId);
     }
@@ -123,14 +158,15 @@ class IntegrationTests {
         Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", false, 0);
         int newRating = 10;
 
-        movieServiceController.add(movie);
+        movieServiceController.add(OWNER, movie);
 
-        ResponseEntity<Movie> movieResponse = movieServiceController.getByImdbId(movie.getImdbId());
+        ResponseEntity<Movie> movieResponse =
+                movieServiceController.getByImdbId(OWNER, movie.getImdbId(), webRequest());
         Movie foundMovie = movieResponse.getBody();
         Assertions.assertThat(foundMovie).hasFieldOrPropertyWithValue("name", movie.getName());
 
-        movieServiceController.updateSetSeen(movie.getImdbId(), newRating);
-        movieResponse = movieServiceController.getByImdbId(movie.getImdbId());
+        movieServiceController.updateSetSeen(OWNER, movie.getImdbId(), newRating);
+        movieResponse = movieServiceController.getByImdbId(OWNER, movie.getImdbId(), webRequest());
         foundMovie = movieResponse.getBody();
         Assertions.assertThat(foundMovie).hasFieldOrPropertyWithValue("seen", true);
         Assertions.assertThat(foundMovie).hasFieldOrPropertyWithValue("rating", newRating);
@@ -140,14 +176,15 @@ class IntegrationTests {
     public void testIntegrationAddAndSetUnseen() {
         Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
 
-        movieServiceController.add(movie);
+        movieServiceController.add(OWNER, movie);
 
-        ResponseEntity<Movie> movieResponse = movieServiceController.getByImdbId(movie.getImdbId());
+        ResponseEntity<Movie> movieResponse =
+                movieServiceController.getByImdbId(OWNER, movie.getImdbId(), webRequest());
         Movie foundMovie = movieResponse.getBody();
         Assertions.assertThat(foundMovie).hasFieldOrPropertyWithValue("name", movie.getName());
 
-        movieServiceController.updateSetUnseen(movie.getImdbId());
-        movieResponse = movieServiceController.getByImdbId(movie.getImdbId());
+        movieServiceController.updateSetUnseen(OWNER, movie.getImdbId());
+        movieResponse = movieServiceController.getByImdbId(OWNER, movie.getImdbId(), webRequest());
         foundMovie = movieResponse.getBody();
         Assertions.assertThat(foundMovie).hasFieldOrPropertyWithValue("seen", false);
         Assertions.assertThat(foundMovie).hasFieldOrPropertyWithValue("rating", 0);
@@ -1,12 +1,16 @@
 package se.martenb.mymoviesback.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
@@ -14,29 +18,81 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.RequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import se.martenb.mymoviesback.dao.MovieRepository;
+import se.martenb.mymoviesback.dao.ReplicaRoutingDataSource;
 import se.martenb.mymoviesback.model.Movie;
+import se.martenb.mymoviesback.model.MovieBatchResult;
+import se.martenb.mymoviesback.model.MovieBatchUpdate;
+import se.martenb.mymoviesback.model.MovieDelta;
+import se.martenb.mymoviesback.model.MovieLookup;
+import se.martenb.mymoviesback.model.MoviePage;
+import se.martenb.mymoviesback.model.MovieSort;
+import se.martenb.mymoviesback.model.MovieStats;
+import se.martenb.mymoviesback.service.MovieChangeCounter;
+import se.martenb.mymoviesback.service.MovieChangeEvent;
+import se.martenb.mymoviesback.service.MovieChangeFeed;
 import se.martenb.mymoviesback.service.MovieService;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @ExtendWith(SpringExtension.class)
 @WebMvcTest(MovieServiceController.class)
+@Import({MovieChangeCounter.class, MovieChangeFeed.class, PrecompressedMovieListing.class,
+        SimpleMeterRegistry.class})
 class MovieServiceControllerTest {
+    static final String OWNER = Movie.DEFAULT_OWNER;
+
+    // The versions of the collections as counted by the database, kept between tests like the listings
+    static final Map<String, AtomicLong> collectionVersions = new ConcurrentHashMap<>();
 
     @MockBean
     MovieService movieService;
 
+    @MockBean
+    MovieRepository movieRepository;
+
+    @Autowired
+    MovieChangeFeed changeFeed;
+
     @Autowired
     MockMvc mockMvc;
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void setUp() {
+        when(movieRepository.findCollectionVersion(anyString())).thenAnswer(invocation ->
+                collectionVersions.computeIfAbsent(invocation.getArgument(0), owner -> new AtomicLong()).get());
+        // The listing is kept between tests, so start each test from a new version of the collections
+        collectionVersions.values().forEach(AtomicLong::incrementAndGet);
+    }
+
+    private static void changeCollection(String owner) {
+        collectionVersions.computeIfAbsent(owner, key -> new AtomicLong()).incrementAndGet();
+    }
+
     @Test
     public void testGetAllMovies() throws Exception {
         Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
@@ -44,7 +100,7 @@ class MovieServiceControllerTest {
         Movie movieSpiderHome = new Movie("tt2250912", "Spider-Man: Homecoming", true, 8);
         List<Movie> movies = List.of(movieSpiderNo, movieSpiderFar, movieSpiderHome);
 
-        when(movieService.getAllMovies(null)).thenReturn(movies);
+        when(movieService.getAllMovies(OWNER, null)).thenReturn(movies);
 
         mockMvc.perform(get("/api/movies"))
                 .andExpect(status().isOk())
@@ -54,14 +110,380 @@ class MovieServiceControllerTest {
                 .andExpect(jsonPath("$[2].name", Matchers.is("Spider-Man: Homecoming")));
     }
 
+    @Test
+    public void testGetAllMoviesListingReadFromPrimary() throws Exception {
+        Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        Movie movieSpiderFar = new Movie("tt6320628", "Spider-Man: Far from Home", true, 9);
+
+        // A replica that has not caught up would still have a movie that has already been deleted
+        when(movieService.getAllMovies(OWNER, null)).thenAnswer(invocation ->
+                ReplicaRoutingDataSource.isPrimaryRequired() ? List.of(movieSpiderNo)
+                        : List.of(movieSpiderNo, movieSpiderFar));
+
+        mockMvc.perform(get("/api/movies"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", Matchers.hasSize(1)));
+    }
+
     @Test
     public void testGetAllMoviesNothingAdded() throws Exception {
         List<Movie> movies = Collections.emptyList();
 
-        when(movieService.getAllMovies(null)).thenReturn(movies);
+        when(movieService.getAllMovies(OWNER, null)).thenReturn(movies);
+
+        mockMvc.perform(get("/api/movies"))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    public void testGetAllMoviesNotModified() throws Exception {
+        Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+
+        when(movieService.getAllMovies(OWNER, null)).thenReturn(List.of(movieSpiderNo));
+
+        MvcResult mvcResult = mockMvc.perform(get("/api/movies"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "max-age=0"))
+                .andReturn();
+        List<String> eTags = mvcResult.getResponse().getHeaders("ETag");
+        assertEquals(1, eTags.size());
+
+        mockMvc.perform(get("/api/movies").header("If-None-Match", eTags.get(0)))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", eTags.get(0)))
+                .andExpect(header().string("Cache-Control", "max-age=0"))
+                .andExpect(content().string(""));
+        verify(movieService, times(1)).getAllMovies(OWNER, null);
+
+        changeCollection(OWNER);
+        mockMvc.perform(get("/api/movies").header("If-None-Match", eTags.get(0)))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", Matchers.not(eTags.get(0))));
+        verify(movieService, times(2)).getAllMovies(OWNER, null);
+    }
+
+    @Test
+    public void testGetAllMoviesOfOwner() throws Exception {
+        Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+
+        when(movieService.getAllMovies("alice", null)).thenReturn(List.of(movieSpiderNo));
+        when(movieService.getAllMovies(OWNER, null)).thenReturn(List.of());
 
+        MvcResult mvcResult = mockMvc.perform(get("/api/movies").header("X-Owner", "alice"))
+                .andExpect(status().isOk())
+                .andExpect(header().stringValues("Vary", Matchers.hasItem(Matchers.containsString("X-Owner"))))
+                .andExpect(jsonPath("$", Matchers.hasSize(1)))
+                .andReturn();
+        String eTag = mvcResult.getResponse().getHeader("ETag");
         mockMvc.perform(get("/api/movies"))
                 .andExpect(status().isNoContent());
+
+        // A change in another owner's collection leaves the ETag as it was
+        changeCollection(OWNER);
+        mockMvc.perform(get("/api/movies").header("X-Owner", "alice").header("If-None-Match", eTag))
+                .andExpect(status().isNotModified());
+        verify(movieService, times(1)).getAllMovies("alice", null);
+    }
+
+    @Test
+    public void testGetMovieStats() throws Exception {
+        when(movieService.getMovieStats(OWNER))
+                .thenReturn(new MovieStats(new long[] {1, 0, 0, 0, 0, 0, 0, 0, 1, 1, 0}));
+
+        MvcResult result = mockMvc.perform(get("/api/movies/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.total").value(3))
+                .andExpect(jsonPath("$.unseen").value(1))
+                .andExpect(jsonPath("$.ratings.8").value(1))
+                .andExpect(jsonPath("$.mean").value(8.5))
+                .andExpect(jsonPath("$.median").value(8.5))
+                .andReturn();
+
+        mockMvc.perform(get("/api/movies/stats").header("If-None-Match", result.getResponse().getHeader("ETag")))
+                .andExpect(status().isNotModified());
+        verify(movieService, times(1)).getMovieStats(OWNER);
+    }
+
+    @Test
+    public void testGetMovieDelta() throws Exception {
+        when(movieService.getMovieDelta(OWNER, 40, 1000)).thenReturn(new MovieDelta(
+                List.of(new Movie("tt10872600", "Spider-Man: No Way Home", true, 10)), List.of("tt6320628"), 42, true));
+
+        mockMvc.perform(get("/api/movies/delta").param("since", "40"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.movies[0].imdbId").value("tt10872600"))
+                .andExpect(jsonPath("$.deleted[0]").value("tt6320628"))
+                .andExpect(jsonPath("$.cursor").value(42))
+                .andExpect(jsonPath("$.more").value(true));
+    }
+
+    @Test
+    public void testGetMovieDeltaInvalid() throws Exception {
+        mockMvc.perform(get("/api/movies/delta").param("since", "-1"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/movies/delta").param("limit", "0"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/movies/delta").param("limit", "10001"))
+                .andExpect(status().isBadRequest());
+        verify(movieService, never()).getMovieDelta(any(), anyLong(), anyInt());
+    }
+
+    @Test
+    public void testGetMovieDeltaExpired() throws Exception {
+        when(movieService.getMovieDelta(OWNER, 20, 100)).thenThrow(new MovieDeltaExpiredException());
+
+        mockMvc.perform(get("/api/movies/delta").param("since", "20").param("limit", "100"))
+                .andExpect(status().isGone());
+    }
+
+    @Test
+    public void testGetMoviesByImdbIds() throws Exception {
+        when(movieService.getMoviesByImdbIds(OWNER, List.of("tt6320628", "tt99999999", "tt10872600")))
+                .thenReturn(new MovieLookup(List.of(
+                        new Movie("tt6320628", "Spider-Man: Far from Home", true, 9),
+                        new Movie("tt10872600", "Spider-Man: No Way Home", true, 10)), List.of("tt99999999")));
+
+        mockMvc.perform(get("/api/movies").param("imdbIds", "tt6320628,tt99999999,tt10872600"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("ETag"))
+                .andExpect(jsonPath("$.movies[0].imdbId").value("tt6320628"))
+                .andExpect(jsonPath("$.movies[1].imdbId").value("tt10872600"))
+                .andExpect(jsonPath("$.missing[0]").value("tt99999999"));
+    }
+
+    @Test
+    public void testLookupMovies() throws Exception {
+        when(movieService.getMoviesByImdbIds(OWNER, List.of("tt10872600")))
+                .thenReturn(new MovieLookup(List.of(), List.of("tt10872600")));
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/movies/lookup")
+                        .contentType(MediaType.APPLICATION_JSON).content("[\"tt10872600\"]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.movies").isEmpty())
+                .andExpect(jsonPath("$.missing[0]").value("tt10872600"));
+    }
+
+    @Test
+    public void testLookupMoviesTooMany() throws Exception {
+        List<String> imdbIds = new ArrayList<>();
+        for (int i = 0; i <= 1000; i++)
+            imdbIds.add("tt" + (1000000 + i));
+
+        mockMvc.perform(get("/api/movies").param("imdbIds", String.join(",", imdbIds)))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/movies/lookup")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(new ObjectMapper().writeValueAsString(imdbIds)))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/movies/lookup")
+                        .contentType(MediaType.APPLICATION_JSON).content("[]"))
+                .andExpect(status().isBadRequest());
+        verify(movieService, never()).getMoviesByImdbIds(any(), any());
+    }
+
+    @Test
+    public void testUpdateBatch() throws Exception {
+        when(movieService.updateMovies(eq(OWNER), any())).thenReturn(List.of(
+                new MovieBatchResult("tt10872600", MovieBatchResult.Status.UPDATED, "Movie was updated successfully"),
+                new MovieBatchResult("tt6320628", MovieBatchResult.Status.NOT_FOUND, "Movie not found")));
+
+        mockMvc.perform(MockMvcRequestBuilders.patch("/api/movies/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"operation\": \"seen\", \"imdbId\": \"tt10872600\", \"rating\": 8}, " +
+                                "{\"operation\": \"DELETE\", \"imdbId\": \"tt6320628\"}]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value("UPDATED"))
+                .andExpect(jsonPath("$[1].status").value("NOT_FOUND"));
+
+        verify(movieService, times(1)).updateMovies(eq(OWNER), argThat(updates -> updates.size() == 2
+                && updates.get(0).getOperation() == MovieBatchUpdate.Operation.SEEN
+                && updates.get(0).getRating() == 8
+                && updates.get(1).getOperation() == MovieBatchUpdate.Operation.DELETE));
+    }
+
+    @Test
+    public void testGetAllMoviesGzip() throws Exception {
+        List<Movie> movies = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            movies.add(new Movie("tt" + (1000000 + i), "Spider-Man " + i, false, 0));
+
+        when(movieService.getAllMovies(OWNER, null)).thenReturn(movies);
+
+        MvcResult plain = mockMvc.perform(get("/api/movies"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("Content-Encoding"))
+                .andExpect(header().stringValues("Vary", Matchers.hasItem(Matchers.containsString("Accept-Encoding"))))
+                .andReturn();
+        MvcResult compressed = mockMvc.perform(get("/api/movies").header("Accept-Encoding", "br, gzip;q=0.8"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andExpect(header().stringValues("Vary", Matchers.hasItem(Matchers.containsString("Accept-Encoding"))))
+                .andReturn();
+
+        byte[] json;
+        try (GZIPInputStream gzip = new GZIPInputStream(
+                new ByteArrayInputStream(compressed.getResponse().getContentAsByteArray()))) {
+            json = gzip.readAllBytes();
+        }
+        assertEquals(plain.getResponse().getContentAsString(), new String(json, StandardCharsets.UTF_8));
+        assertTrue(compressed.getResponse().getContentLength() < plain.getResponse().getContentLength());
+
+        String eTag = compressed.getResponse().getHeader("ETag");
+        assertNotEquals(plain.getResponse().getHeader("ETag"), eTag);
+        mockMvc.perform(get("/api/movies").header("Accept-Encoding", "gzip").header("If-None-Match", eTag))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/api/movies").header("If-None-Match", eTag))
+                .andExpect(status().isOk());
+        verify(movieService, times(1)).getAllMovies(OWNER, null);
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(MovieServiceController.acceptsGzip("gzip, deflate, br"));
+        assertTrue(MovieServiceController.acceptsGzip("GZIP;q=0.5"));
+        assertTrue(MovieServiceController.acceptsGzip("br, *"));
+        assertFalse(MovieServiceController.acceptsGzip(null));
+        assertFalse(MovieServiceController.acceptsGzip("identity"));
+        assertFalse(MovieServiceController.acceptsGzip("gzip;q=0, *"));
+        assertFalse(MovieServiceController.acceptsGzip("*;q=0"));
+    }
+
+    @Test
+    public void testExceptionsAreCounted() throws Exception {
+        double before = meterRegistry.counter("movies.exceptions", "exception", "MovieNotFoundException").count();
+        doThrow(new MovieNotFoundException()).when(movieService).deleteMovie(OWNER, "tt0000001");
+
+        mockMvc.perform(MockMvcRequestBuilders.delete("/api/movies/tt0000001"))
+                .andExpect(status().isNotFound());
+
+        assertEquals(before + 1,
+                meterRegistry.counter("movies.exceptions", "exception", "MovieNotFoundException").count());
+    }
+
+    @Test
+    public void testGetMovieByImdbIdNotModified() throws Exception {
+        Movie movie = new Movie(1L, "tt10872600", "Spider-Man: No Way Home", true, 10, 3L);
+
+        when(movieService.getMovieByImdbId(OWNER, "tt10872600")).thenReturn(movie);
+
+        mockMvc.perform(get("/api/movies/tt10872600"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"1-3\""))
+                .andExpect(jsonPath("$.name", Matchers.is("Spider-Man: No Way Home")))
+                .andExpect(jsonPath("$.version").doesNotExist());
+
+        mockMvc.perform(get("/api/movies/tt10872600").header("If-None-Match", "\"1-3\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        mockMvc.perform(get("/api/movies/tt10872600").header("If-None-Match", "\"1-2\""))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetAllMoviesStreamed() throws Exception {
+        Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        Movie movieSpiderFar = new Movie("tt6320628", "Spider-Man: Far from Home", true, 9);
+
+        doAnswer(invocation -> {
+            Consumer<Movie> consumer = invocation.getArgument(1);
+            consumer.accept(movieSpiderNo);
+            consumer.accept(movieSpiderFar);
+            return null;
+        }).when(movieService).streamAllMovies(eq(OWNER), any(Consumer.class));
+
+        MvcResult mvcResult = mockMvc.perform(get("/api/movies").param("stream", "true"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", Matchers.hasSize(2)))
+                .andExpect(jsonPath("$[0].name", Matchers.is("Spider-Man: No Way Home")))
+                .andExpect(jsonPath("$[1].name", Matchers.is("Spider-Man: Far from Home")));
+        verify(movieService, never()).getAllMovies(any(), any());
+    }
+
+    @Test
+    public void testGetChanges() throws Exception {
+        MvcResult mvcResult = mockMvc.perform(get("/api/movies/changes").header("X-Owner", "alice"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        changeFeed.onMovieChange(MovieChangeEvent.added(new Movie("tt6320628", "Other Owner", false, 0)));
+        changeFeed.onMovieChange(MovieChangeEvent.added(
+                new Movie(1L, "alice", "tt10872600", "Spider-Man: No Way Home", true, 10, 0)));
+
+        String content = awaitContent(mvcResult, "event:added");
+        assertTrue(mvcResult.getResponse().getContentType().startsWith(MediaType.TEXT_EVENT_STREAM_VALUE));
+        assertTrue(content.contains("data:{\"imdbId\":\"tt10872600\",\"movie\":{"), content);
+        assertFalse(content.contains("Other Owner"), content);
+    }
+
+    @Test
+    public void testGetChangesResyncsUnknownLastEventId() throws Exception {
+        MvcResult mvcResult = mockMvc.perform(get("/api/movies/changes").header("Last-Event-ID", "unknown-1"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        assertTrue(awaitContent(mvcResult, "event:resync").contains("id:"));
+    }
+
+    private static String awaitContent(MvcResult mvcResult, String expected) throws Exception {
+        for (int i = 0; i < 100; i++) {
+            String content = mvcResult.getResponse().getContentAsString();
+            if (content.contains(expected))
+                return content;
+            Thread.sleep(50);
+        }
+        return fail("No " + expected + " in " + mvcResult.getResponse().getContentAsString());
+    }
+
+    @Test
+    public void testGetMoviePage() throws Exception {
+        Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        Movie movieSpiderFar = new Movie("tt6320628", "Spider-Man: Far from Home", true, 9);
+        MoviePage page = new MoviePage(List.of(movieSpiderNo, movieSpiderFar), true);
+
+        when(movieService.getMoviePage(OWNER, null, null, 2, MovieSort.NAME)).thenReturn(page);
+        when(movieService.getEstimatedMovieCount(OWNER)).thenReturn(5L);
+
+        mockMvc.perform(get("/api/movies").param("limit", "2").param("sort", "name").param("count", "true"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", Matchers.hasSize(2)))
+                .andExpect(header().string("Link",
+                        "<http://localhost/api/movies?after=0&limit=2&sort=name" +
+                                "&afterName=Spider-Man%3A%20Far%20from%20Home&count=true>; rel=\"next\""))
+                .andExpect(header().string("X-Estimated-Total-Count", "5"));
+    }
+
+    @Test
+    public void testGetMoviePageLastPage() throws Exception {
+        Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        MoviePage page = new MoviePage(List.of(movieSpiderNo), false);
+
+        when(movieService.getMoviePage(OWNER, 3L, null, 100, MovieSort.ID)).thenReturn(page);
+
+        mockMvc.perform(get("/api/movies").param("after", "3"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", Matchers.hasSize(1)))
+                .andExpect(header().doesNotExist("Link"))
+                .andExpect(header().doesNotExist("X-Estimated-Total-Count"));
+    }
+
+    @Test
+    public void testGetMoviePageLimitTooHigh() throws Exception {
+        mockMvc.perform(get("/api/movies").param("limit", "1001"))
+                .andExpect(status().isBadRequest());
+        verify(movieService, never()).getMoviePage(any(), any(), any(), anyInt(), any());
+    }
+
+    @Test
+    public void testGetMoviePageWithName() throws Exception {
+        mockMvc.perform(get("/api/movies").param("limit", "10").param("name", "Spider"))
+                .andExpect(status().isBadRequest());
+        verify(movieService, never()).getMoviePage(any(), any(), any(), anyInt(), any());
     }
 
     @Test
@@ -70,7 +492,7 @@ class MovieServiceControllerTest {
         String movieAsJson = new ObjectMapper().writeValueAsString(movie);
         String url = "/api/movies";
 
-        doNothing().when(movieService).addMovie(isA(Movie.class));
+        doNothing().when(movieService).addMovie(eq(OWNER), isA(Movie.class));
 
         RequestBuilder requestBuilder = MockMvcRequestBuilders.post(url)
                 .accept(MediaType.APPLICATION_JSON)
@@ -81,10 +503,64 @@ class MovieServiceControllerTest {
 
         assertEquals(HttpStatus.CREATED.value(), mvcResult.getResponse().getStatus());
         assertEquals("Movie is saved successfully", mvcResult.getResponse().getContentAsString());
-        verify(movieService, times(1)).addMovie(refEq(movie));
+        verify(movieService, times(1)).addMovie(eq(OWNER), refEq(movie));
 
     }
 
+    @Test
+    public void testUpsertMovie() throws Exception {
+        Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        String movieAsJson = new ObjectMapper().writeValueAsString(movie);
+
+        when(movieService.upsertMovie(eq(OWNER), eq("tt10872600"), isA(Movie.class))).thenReturn(true, false);
+
+        mockMvc.perform(put("/api/movies/tt10872600").param("upsert", "true")
+                        .contentType(MediaType.APPLICATION_JSON).content(movieAsJson))
+                .andExpect(status().isCreated())
+                .andExpect(content().string("Movie is saved successfully"));
+        mockMvc.perform(put("/api/movies/tt10872600").param("upsert", "true")
+                        .contentType(MediaType.APPLICATION_JSON).content(movieAsJson))
+                .andExpect(status().isOk())
+                .andExpect(content().string("Movie was updated successfully"));
+        verify(movieService, never()).updateMovie(any(), any(), any());
+    }
+
+    @Test
+    public void testUpsertMovieImdbIdMismatch() throws Exception {
+        Movie movie = new Movie("tt6320628", "Spider-Man: Far from Home", true, 9);
+        String movieAsJson = new ObjectMapper().writeValueAsString(movie);
+
+        mockMvc.perform(put("/api/movies/tt10872600").param("upsert", "true")
+                        .contentType(MediaType.APPLICATION_JSON).content(movieAsJson))
+                .andExpect(status().isBadRequest());
+        verify(movieService, never()).upsertMovie(any(), any(), any());
+    }
+
+    @Test
+    public void testAddMovies() throws Exception {
+        Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        Movie movieSpiderFar = new Movie("tt6320628", "Spider-Man: Far from Home", true, 9);
+        String moviesAsJson = new ObjectMapper().writeValueAsString(List.of(movieSpiderNo, movieSpiderFar));
+        List<MovieBatchResult> results = List.of(
+                new MovieBatchResult("tt10872600", MovieBatchResult.Status.CREATED, "Movie is saved successfully"),
+                new MovieBatchResult("tt6320628", MovieBatchResult.Status.ALREADY_EXISTS, "Movie already exists"));
+
+        when(movieService.addMovies(eq(OWNER), anyList())).thenReturn(results);
+
+        RequestBuilder requestBuilder = MockMvcRequestBuilders.post("/api/movies/batch")
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(moviesAsJson);
+
+        mockMvc.perform(requestBuilder)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", Matchers.hasSize(2)))
+                .andExpect(jsonPath("$[0].imdbId", Matchers.is("tt10872600")))
+                .andExpect(jsonPath("$[0].status", Matchers.is("CREATED")))
+                .andExpect(jsonPath("$[1].status", Matchers.is("ALREADY_EXISTS")));
+        verify(movieService, times(1)).addMovies(eq(OWNER), argThat(movies -> movies.size() == 2));
+    }
+
     @Test
     public void testUpdateMovie() throws Exception {
         String imdbId = "tt10872600";
@@ -92,7 +568,7 @@ class MovieServiceControllerTest {
         String movieAsJson = new ObjectMapper().writeValueAsString(movie);
         String url = "/api/movies/" + imdbId;
 
-        doNothing().when(movieService).updateMovie(isA(String.class), isA(Movie.class));
+        doNothing().when(movieService).updateMovie(eq(OWNER), isA(String.class), isA(Movie.class));
 
         RequestBuilder requestBuilder = MockMvcRequestBuilders.put(url)
                 .accept(MediaType.APPLICATION_JSON)
@@ -103,7 +579,7 @@ class MovieServiceControllerTest {
 
         assertEquals(HttpStatus.OK.value(), mvcResult.getResponse().getStatus());
         assertEquals("Movie was updated successfully", mvcResult.getResponse().getContentAsString());
-        verify(movieService, times(1)).updateMovie(eq(imdbId), refEq(movie));
+        verify(movieService, times(1)).updateMovie(eq(OWNER), eq(imdbId), refEq(movie));
 
     }
 
@@ -114,7 +590,7 @@ class MovieServiceControllerTest {
         String movieAsJson = new ObjectMapper().writeValueAsString(rating);
         String url = "/api/movies/" + imdbId + "/rating";
 
-        doNothing().when(movieService).updateRating(isA(String.class), isA(Integer.class));
+        doNothing().when(movieService).updateRating(eq(OWNER), isA(String.class), isA(Integer.class));
 
         RequestBuilder requestBuilder = MockMvcRequestBuilders.put(url)
                 .accept(MediaType.APPLICATION_JSON)
@@ -125,7 +601,7 @@ class MovieServiceControllerTest {
 
         assertEquals(HttpStatus.OK.value(), mvcResult.getResponse().getStatus());
         assertEquals("Movie rating was updated successfully", mvcResult.getResponse().getContentAsString());
-        verify(movieService, times(1)).updateRating(eq(imdbId), eq(rating));
+        verify(movieService, times(1)).updateRating(eq(OWNER), eq(imdbId), eq(rating));
 
     }
 
@@ -136,7 +612,7 @@ class MovieServiceControllerTest {
         String movieAsJson = "\"" + movieAsString + "\"";
         String url = "/api/movies/" + imdbId + "/name";
 
-        doNothing().when(movieService).updateName(isA(String.class), isA(String.class));
+        doNothing().when(movieService).updateName(eq(OWNER), isA(String.class), isA(String.class));
 
         RequestBuilder requestBuilder = MockMvcRequestBuilders.put(url)
                 .accept(MediaType.APPLICATION_JSON)
@@ -147,7 +623,7 @@ class MovieServiceControllerTest {
 
         assertEquals(HttpStatus.OK.value(), mvcResult.getResponse().getStatus());
         assertEquals("Movie name was updated successfully", mvcResult.getResponse().getContentAsString());
-        verify(movieService, times(1)).updateName(eq(imdbId), eq(movieAsString));
+        verify(movieService, times(1)).updateName(eq(OWNER), eq(imdbId), eq(movieAsString));
     }
 
     @Test
@@ -158,7 +634,7 @@ class MovieServiceControllerTest {
 
         String url = "/api/movies/" + imdbIdAsString + "/imdbid";
 
-        doNothing().when(movieService).updateImdbId(isA(String.class), isA(String.class));
+        doNothing().when(movieService).updateImdbId(eq(OWNER), isA(String.class), isA(String.class));
 
         RequestBuilder requestBuilder = MockMvcRequestBuilders.put(url)
                 .accept(MediaType.APPLICATION_JSON)
@@ -170,7 +646,7 @@ class MovieServiceControllerTest {
         assertEquals(HttpStatus.OK.value(), mvcResult.getResponse().getStatus());
         assertEquals("Movie IMDB id was updated successfully",
                 mvcResult.getResponse().getContentAsString());
-        verify(movieService, times(1)).updateImdbId(eq(imdbIdAsString), eq(newImdbIdAsString));
+        verify(movieService, times(1)).updateImdbId(eq(OWNER), eq(imdbIdAsString), eq(newImdbIdAsString));
     }
 
     @Test
@@ -180,7 +656,7 @@ class MovieServiceControllerTest {
         String movieAsJson = new ObjectMapper().writeValueAsString(rating);
         String url = "/api/movies/" + imdbId + "/seen";
 
-        doNothing().when(movieService).setMovieSeen(isA(String.class), isA(Integer.class));
+        doNothing().when(movieService).setMovieSeen(eq(OWNER), isA(String.class), isA(Integer.class));
 
         RequestBuilder requestBuilder = MockMvcRequestBuilders.put(url)
                 .accept(MediaType.APPLICATION_JSON)
@@ -192,7 +668,7 @@ class MovieServiceControllerTest {
         assertEquals(HttpStatus.OK.value(), mvcResult.getResponse().getStatus());
         assertEquals("Movie seen status and rating updated successfully",
                 mvcResult.getResponse().getContentAsString());
-        verify(movieService, times(1)).setMovieSeen(eq(imdbId), eq(rating));
+        verify(movieService, times(1)).setMovieSeen(eq(OWNER), eq(imdbId), eq(rating));
     }
 
     @Test
@@ -200,7 +676,7 @@ class MovieServiceControllerTest {
         String imdbId = "tt10872600";
         String url = "/api/movies/" + imdbId + "/unseen";
 
-        doNothing().when(movieService).setMovieUnseen(isA(String.class));
+        doNothing().when(movieService).setMovieUnseen(eq(OWNER), isA(String.class));
 
         RequestBuilder requestBuilder = MockMvcRequestBuilders.put(url);
 
@@ -209,7 +685,7 @@ class MovieServiceControllerTest {
         assertEquals(HttpStatus.OK.value(), mvcResult.getResponse().getStatus());
         assertEquals("Movie seen status and rating removed successfully",
                 mvcResult.getResponse().getContentAsString());
-        verify(movieService, times(1)).setMovieUnseen(eq(imdbId));
+        verify(movieService, times(1)).setMovieUnseen(eq(OWNER), eq(imdbId));
     }
 
     @Test
@@ -217,7 +693,7 @@ class MovieServiceControllerTest {
         String imdbId = "tt10872600";
         String url = "/api/movies/" + imdbId;
 
-        doNothing().when(movieService).deleteMovie(isA(String.class));
+        doNothing().when(movieService).deleteMovie(eq(OWNER), isA(String.class));
 
         RequestBuilder requestBuilder = MockMvcRequestBuilders.delete(url);
 
@@ -225,7 +701,7 @@ class MovieServiceControllerTest {
 
         assertEquals(HttpStatus.OK.value(), mvcResult.getResponse().getStatus());
         assertEquals("Movie is deleted successfully", mvcResult.getResponse().getContentAsString());
-        verify(movieService, times(1)).deleteMovie(eq(imdbId));
+        verify(movieService, times(1)).deleteMovie(eq(OWNER), eq(imdbId));
 
     }
 
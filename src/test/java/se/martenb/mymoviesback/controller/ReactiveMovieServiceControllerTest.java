@@ -0,0 +1,118 @@
+package se.martenb.mymoviesback.controller;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import se.martenb.mymoviesback.model.Movie;
+import se.martenb.mymoviesback.service.ReactiveMovieService;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@WebFluxTest(ReactiveMovieServiceController.class)
+@ActiveProfiles("reactive")
+@Import(SimpleMeterRegistry.class)
+class ReactiveMovieServiceControllerTest {
+
+    @MockBean
+    ReactiveMovieService movieService;
+
+    @Autowired
+    WebTestClient webTestClient;
+
+    @Test
+    public void testGetAllMovies() {
+        Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        Movie movieSpiderFar = new Movie("tt6320628", "Spider-Man: Far from Home", true, 9);
+
+        when(movieService.hasMovies(Movie.DEFAULT_OWNER, null)).thenReturn(Mono.just(true));
+        when(movieService.getAllMovies(Movie.DEFAULT_OWNER, null)).thenReturn(Flux.just(movieSpiderNo, movieSpiderFar));
+
+        webTestClient.get().uri("/api/movies").exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0].imdbId").isEqualTo("tt10872600")
+                .jsonPath("$[1].name").isEqualTo("Spider-Man: Far from Home");
+    }
+
+    @Test
+    public void testGetAllMoviesNoContent() {
+        when(movieService.hasMovies(Movie.DEFAULT_OWNER, "Batman")).thenReturn(Mono.just(false));
+
+        webTestClient.get().uri("/api/movies?name=Batman").exchange()
+                .expectStatus().isNoContent()
+                .expectBody().isEmpty();
+    }
+
+    @Test
+    public void testGetMovieByImdbId() {
+        when(movieService.getMovieByImdbId("alice", "tt2250912"))
+                .thenReturn(Mono.just(new Movie("tt2250912", "Spider-Man: Homecoming", true, 8)));
+        when(movieService.getMovieByImdbId(Movie.DEFAULT_OWNER, "tt0000000")).thenReturn(Mono.empty());
+
+        webTestClient.get().uri("/api/movies/tt2250912").header("X-Owner", "alice").exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.rating").isEqualTo(8);
+        webTestClient.get().uri("/api/movies/tt0000000").exchange()
+                .expectStatus().isOk()
+                .expectBody().isEmpty();
+    }
+
+    @Test
+    public void testAddMovie() {
+        when(movieService.addMovie(eq(Movie.DEFAULT_OWNER), any())).thenReturn(Mono.empty());
+
+        webTestClient.post().uri("/api/movies").contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"imdbId\":\"tt2250912\",\"name\":\"Spider-Man: Homecoming\",\"seen\":true,\"rating\":8}")
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(String.class).isEqualTo("Movie is saved successfully");
+    }
+
+    @Test
+    public void testAddExistingMovie() {
+        when(movieService.addMovie(eq(Movie.DEFAULT_OWNER), any()))
+                .thenReturn(Mono.error(new MovieAlreadyExistsException()));
+
+        webTestClient.post().uri("/api/movies").contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"imdbId\":\"tt2250912\",\"name\":\"Spider-Man: Homecoming\",\"seen\":true,\"rating\":8}")
+                .exchange()
+                .expectStatus().isEqualTo(409);
+    }
+
+    @Test
+    public void testUpdateName() {
+        when(movieService.updateName(Movie.DEFAULT_OWNER, "tt2250912", "Homecoming")).thenReturn(Mono.empty());
+
+        webTestClient.put().uri("/api/movies/tt2250912/name").contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("\"Homecoming\"")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo("Movie name was updated successfully");
+        webTestClient.put().uri("/api/movies/tt2250912/name").contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("Homecoming")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("There was an error trying to process the JSON data");
+    }
+
+    @Test
+    public void testDeleteMissingMovie() {
+        when(movieService.deleteMovie(eq(Movie.DEFAULT_OWNER), eq("tt0000000")))
+                .thenReturn(Mono.error(new MovieNotFoundException()));
+
+        webTestClient.delete().uri("/api/movies/tt0000000").exchange()
+                .expectStatus().isNotFound();
+    }
+}
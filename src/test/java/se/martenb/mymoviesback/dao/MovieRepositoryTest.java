@@ -7,20 +7,47 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import se.martenb.mymoviesback.model.Movie;
+import se.martenb.mymoviesback.model.MovieDelta;
+import se.martenb.mymoviesback.model.MovieUpsertResult;
 
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @EnabledIfEnvironmentVariable(named = "SPRING_TESTING_PROFILES_ACTIVE", matches = ".*daotest.*")
 @ExtendWith(SpringExtension.class)
 @DataJpaTest
 @AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
 class MovieRepositoryTest {
+    static final String OWNER = Movie.DEFAULT_OWNER;
 
     @Autowired
     MovieRepository movieRepository;
 
+    @Autowired
+    EntityManager entityManager;
+
+    @Autowired
+    DataSource dataSource;
+
     @Test
     public void testCreateReadDelete() {
         Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
@@ -44,7 +71,7 @@ class MovieRepositoryTest {
         movieRepository.save(movieSpiderFar);
         movieRepository.save(movieSpiderHome);
 
-        Iterable<Movie> movies = movieRepository.findByNameContaining("Far");
+        Iterable<Movie> movies = movieRepository.findByOwnerAndNameContaining(OWNER, "Far");
         Assertions.assertThat(movies).extracting(Movie::getImdbId).containsOnly("tt6320628");
 
         movieRepository.deleteAll();
@@ -61,7 +88,7 @@ class MovieRepositoryTest {
         movieRepository.save(movieSpiderFar);
         movieRepository.save(movieSpiderHome);
 
-        Iterable<Movie> movies = movieRepository.findByNameContaining("Home");
+        Iterable<Movie> movies = movieRepository.findByOwnerAndNameContaining(OWNER, "Home");
         Assertions.assertThat(movies).extracting(Movie::getImdbId).containsAll(
                 Arrays.asList("tt10872600", "tt6320628", "tt2250912"));
 
@@ -79,13 +106,46 @@ class MovieRepositoryTest {
         movieRepository.save(movieSpiderFar);
         movieRepository.save(movieSpiderHome);
 
-        Iterable<Movie> movies = movieRepository.findByNameContaining("NotPresent");
+        Iterable<Movie> movies = movieRepository.findByOwnerAndNameContaining(OWNER, "NotPresent");
         Assertions.assertThat(movies).isEmpty();
 
         movieRepository.deleteAll();
         Assertions.assertThat(movieRepository.findAll()).isEmpty();
     }
 
+    @Test
+    public void testFindByNameContainingMatchesWildcardsLiterally() {
+        movieRepository.save(new Movie("tt10872600", "Spider-Man: No Way Home", true, 10));
+        movieRepository.save(new Movie("tt0000001", "100% Spider_Man", true, 9));
+
+        Assertions.assertThat(movieRepository.findByOwnerAndNameContaining(OWNER, "%")).extracting(Movie::getImdbId)
+                .containsOnly("tt0000001");
+        Assertions.assertThat(movieRepository.findByOwnerAndNameContaining(OWNER, "Spider_"))
+                .extracting(Movie::getImdbId).containsOnly("tt0000001");
+
+        movieRepository.deleteAll();
+    }
+
+    @Test
+    public void testReadMoviesAreNotManaged() {
+        movieRepository.saveAndFlush(new Movie("tt10872600", "Spider-Man: No Way Home", true, 10));
+        entityManager.clear();
+
+        Movie movie = movieRepository.findOneByOwnerAndImdbId(OWNER, "tt10872600");
+        Assertions.assertThat(entityManager.contains(movie)).isFalse();
+        Assertions.assertThat(movieRepository.findByOwner(OWNER)).noneMatch(entityManager::contains);
+        Assertions.assertThat(movieRepository.findByOwnerAndNameContaining(OWNER, "Way"))
+                .noneMatch(entityManager::contains);
+
+        movie.setName("Changed");
+        movieRepository.flush();
+        entityManager.clear();
+        Assertions.assertThat(movieRepository.findOneByOwnerAndImdbId(OWNER, "tt10872600").getName())
+                .isEqualTo("Spider-Man: No Way Home");
+
+        movieRepository.deleteAll();
+    }
+
     @Test
     public void testFindOneByImdbId() {
         Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
@@ -96,13 +156,43 @@ class MovieRepositoryTest {
         movieRepository.save(movieSpiderFar);
         movieRepository.save(movieSpiderHome);
 
-        Movie movie = movieRepository.findOneByImdbId("tt2250912");
-        Assertions.assertThat(movie).isEqualTo(movieSpiderHome);
+        Movie movie = movieRepository.findOneByOwnerAndImdbId(OWNER, "tt2250912");
+        Assertions.assertThat(movie).usingRecursiveComparison().isEqualTo(movieSpiderHome);
 
         movieRepository.deleteAll();
         Assertions.assertThat(movieRepository.findAll()).isEmpty();
     }
 
+    @Test
+    public void testFindByImdbIdIn() {
+        movieRepository.save(new Movie("tt10872600", "Spider-Man: No Way Home", true, 10));
+        movieRepository.save(new Movie("tt6320628", "Spider-Man: Far from Home", true, 9));
+        movieRepository.save(new Movie("tt2250912", "Spider-Man: Homecoming", true, 8));
+        movieRepository.saveAndFlush(ownedMovie("alice", "tt4154796", "Avengers: Endgame"));
+
+        List<Movie> movies = movieRepository.findByOwnerAndImdbIdIn(OWNER,
+                List.of("tt2250912", "tt10872600", "tt4154796", "tt99999999"));
+        Assertions.assertThat(movies).extracting(Movie::getImdbId).containsOnly("tt2250912", "tt10872600");
+
+        movieRepository.deleteAll();
+    }
+
+    @Test
+    public void testFindForUpdate() {
+        movieRepository.save(new Movie("tt6320628", "Spider-Man: Far from Home", true, 9));
+        movieRepository.save(new Movie("tt2250912", "Spider-Man: Homecoming", true, 8));
+        movieRepository.save(new Movie("tt10872600", "Spider-Man: No Way Home", true, 10));
+        movieRepository.saveAndFlush(ownedMovie("alice", "tt4154796", "Avengers: Endgame"));
+
+        List<Movie> movies = movieRepository.findForUpdateByOwnerAndImdbIdInOrderByImdbId(OWNER,
+                List.of("tt6320628", "tt10872600", "tt2250912", "tt4154796"));
+        Assertions.assertThat(movies).extracting(Movie::getImdbId)
+                .containsExactly("tt10872600", "tt2250912", "tt6320628");
+        Assertions.assertThat(movies).allMatch(entityManager::contains);
+
+        movieRepository.deleteAll();
+    }
+
     @Test
     public void testFindOneByImdbIdNoMatch() {
         Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
@@ -113,11 +203,393 @@ class MovieRepositoryTest {
         movieRepository.save(movieSpiderFar);
         movieRepository.save(movieSpiderHome);
 
-        Movie movie = movieRepository.findOneByImdbId("tt99999999");
+        Movie movie = movieRepository.findOneByOwnerAndImdbId(OWNER, "tt99999999");
         Assertions.assertThat(movie).isNull();
 
         movieRepository.deleteAll();
         Assertions.assertThat(movieRepository.findAll()).isEmpty();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testPageAfterNameStartsAtCursorInIndex() {
+        movieRepository.saveAndFlush(new Movie("tt10872600", "Spider-Man: No Way Home", true, 10));
+        // With a handful of rows a sequential scan is cheaper, turn it off to see how the index would be used
+        entityManager.createNativeQuery("SET LOCAL enable_seqscan = off").executeUpdate();
+
+        List<?> plan = entityManager.createNativeQuery("EXPLAIN " + MovieRepository.AFTER_NAME_QUERY)
+                .setParameter("owner", OWNER)
+                .setParameter("name", "Spider-Man")
+                .setParameter("id", 7L)
+                .getResultList();
+        String planText = plan.stream().map(Object::toString).collect(Collectors.joining("\n"));
+        Assertions.assertThat(planText).containsPattern("Index Cond: .*ROW\\(.*name.*, id\\) > ROW\\(");
+
+        movieRepository.deleteAll();
+    }
+
+    @Test
+    public void testKeysetPagination() {
+        Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        Movie movieSpiderFar = new Movie("tt6320628", "Spider-Man: Far from Home", true, 9);
+        Movie movieSpiderHome = new Movie("tt2250912", "Spider-Man: Homecoming", true, 8);
+
+        movieRepository.save(movieSpiderNo);
+        movieRepository.save(movieSpiderFar);
+        movieRepository.save(movieSpiderHome);
+
+        Iterable<Movie> firstByName = movieRepository.findByOwnerOrderByNameAscIdAsc(OWNER, PageRequest.of(0, 2));
+        Assertions.assertThat(firstByName).extracting(Movie::getImdbId).containsExactly("tt6320628", "tt2250912");
+
+        Iterable<Movie> nextByName = movieRepository.findAfterOrderByNameAsc(OWNER,
+                movieSpiderHome.getName(), movieSpiderHome.getId(), PageRequest.of(0, 2));
+        Assertions.assertThat(nextByName).extracting(Movie::getImdbId).containsExactly("tt10872600");
+
+        Iterable<Movie> nextById = movieRepository.findByOwnerAndIdGreaterThanOrderByIdAsc(OWNER,
+                movieSpiderNo.getId(), PageRequest.of(0, 2));
+        Assertions.assertThat(nextById).extracting(Movie::getImdbId).containsExactly("tt6320628", "tt2250912");
+
+        Movie movieSameName = new Movie("tt0000001", movieSpiderHome.getName(), false, 0);
+        movieRepository.saveAndFlush(movieSameName);
+        Iterable<Movie> sameName = movieRepository.findAfterOrderByNameAsc(OWNER,
+                movieSpiderHome.getName(), movieSpiderHome.getId(), PageRequest.of(0, 2));
+        Assertions.assertThat(sameName).extracting(Movie::getImdbId).containsExactly("tt0000001", "tt10872600");
+
+        movieRepository.deleteAll();
+        Assertions.assertThat(movieRepository.findAll()).isEmpty();
+    }
+
+    @Test
+    public void testStreamByOwnerOrderByIdAsc() {
+        Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        Movie movieSpiderFar = new Movie("tt6320628", "Spider-Man: Far from Home", true, 9);
+
+        movieRepository.save(movieSpiderNo);
+        movieRepository.save(movieSpiderFar);
+
+        List<String> imdbIds;
+        try (Stream<Movie> movies = movieRepository.streamByOwnerOrderByIdAsc(OWNER)) {
+            imdbIds = movies.map(Movie::getImdbId).collect(Collectors.toList());
+        }
+        Assertions.assertThat(imdbIds).containsExactly("tt10872600", "tt6320628");
+
+        movieRepository.deleteAll();
+        Assertions.assertThat(movieRepository.findAll()).isEmpty();
+    }
+
+    @Test
+    public void testSearchByNormalizedName() {
+        Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        Movie movieSpiderFar = new Movie("tt6320628", "Spider-Man: Far from Home", true, 9);
+        Movie movieAmelie = new Movie("tt0211915", "Le Fabuleux Destin d'Amélie Poulain", true, 8);
+
+        movieRepository.save(movieSpiderNo);
+        movieRepository.save(movieSpiderFar);
+        movieRepository.save(movieAmelie);
+        movieRepository.flush();
+
+        Iterable<Movie> movies = movieRepository.searchByNormalizedName(OWNER, "far from home", "far from home");
+        Assertions.assertThat(movies).extracting(Movie::getImdbId).containsExactly("tt6320628");
+
+        movies = movieRepository.searchByNormalizedName(OWNER, "AMELIE", "AMELIE");
+        Assertions.assertThat(movies).extracting(Movie::getImdbId).containsExactly("tt0211915");
+
+        movies = movieRepository.searchByNormalizedName(OWNER, "home", "home");
+        Assertions.assertThat(movies).extracting(Movie::getImdbId).containsExactly("tt10872600", "tt6320628");
+
+        movies = movieRepository.searchByNormalizedName(OWNER, "%", "\\%");
+        Assertions.assertThat(movies).isEmpty();
+
+        movieRepository.deleteAll();
+        Assertions.assertThat(movieRepository.findAll()).isEmpty();
+    }
+
+
+    @Test
+    public void testNameSearchIndexLeadsWithOwner() {
+        List<?> indexes = entityManager.createNativeQuery("SELECT indexdef FROM pg_indexes " +
+                        "WHERE tablename = 'movies' AND indexdef LIKE '%gin_trgm_ops%'")
+                .getResultList();
+        Assertions.assertThat(indexes).singleElement().asString()
+                .contains("USING gin (owner, name_search gin_trgm_ops)");
+    }
+
+    @Test
+    public void testSingleStatementUpdates() {
+        Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        Movie movieAvengerInf = new Movie("tt4154756", "Avengers: Infinity War", false, 0);
+        movieRepository.saveAndFlush(movieSpiderNo);
+        movieRepository.saveAndFlush(movieAvengerInf);
+
+        Assertions.assertThat(movieRepository.updateRating(OWNER, "tt10872600", 7)).get()
+                .extracting(Movie::getId, Movie::getRating).containsExactly(movieSpiderNo.getId(), 7);
+        Assertions.assertThat(movieRepository.updateRating(OWNER, "tt10872600", 0)).isEmpty();
+        Assertions.assertThat(movieRepository.updateRating(OWNER, "tt4154756", 5)).isEmpty();
+        Assertions.assertThat(movieRepository.updateRating(OWNER, "tt99999999", 5)).isEmpty();
+
+        Assertions.assertThat(movieRepository.updateSeen(OWNER, "tt4154756", 11)).isEmpty();
+        Assertions.assertThat(movieRepository.updateSeen(OWNER, "tt4154756", 8)).get()
+                .extracting(Movie::isSeen, Movie::getRating).containsExactly(true, 8);
+        Assertions.assertThat(movieRepository.updateUnseen(OWNER, "tt4154756")).get()
+                .extracting(Movie::isSeen, Movie::getRating).containsExactly(false, 0);
+        Assertions.assertThat(movieRepository.updateSeenAndRating(new Movie(0, "tt4154756", "", true, 6, 10))).get()
+                .extracting(Movie::isSeen, Movie::getRating, Movie::getVersion).containsExactly(true, 6, 10L);
+        Assertions.assertThat(movieRepository.updateSeenAndRating(new Movie(0, "tt4154756", "", false, 0, 1))).get()
+                .extracting(Movie::isSeen, Movie::getRating, Movie::getVersion).containsExactly(false, 0, 11L);
+        Assertions.assertThat(movieRepository.updateSeenAndRating(new Movie(0, "tt99999999", "", true, 6, 1)))
+                .isEmpty();
+
+        Assertions.assertThat(movieRepository.updateName(OWNER, "tt10872600", "Random Name")).get()
+                .extracting(Movie::getName, Movie::getRating).containsExactly("Random Name", 7);
+        Assertions.assertThat(movieRepository.updateImdbId(OWNER, "tt10872600", "tt99999999")).get()
+                .extracting(Movie::getImdbId).isEqualTo("tt99999999");
+        Assertions.assertThat(movieRepository.updateName(OWNER, "tt10872600", "Random Name")).isEmpty();
+
+        movieRepository.deleteAll();
+        Assertions.assertThat(movieRepository.findAll()).isEmpty();
+    }
+
+    @Test
+    public void testRatingCountsAreKeptByTheDatabase() {
+        long[] before = movieRepository.countByRating(OWNER);
+        Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        Movie movieAvengerInf = new Movie("tt4154756", "Avengers: Infinity War", false, 0);
+        movieRepository.saveAndFlush(movieSpiderNo);
+        movieRepository.saveAndFlush(movieAvengerInf);
+        movieRepository.updateSeen(OWNER, "tt4154756", 7);
+        movieRepository.updateRating(OWNER, "tt10872600", 7);
+
+        long[] after = movieRepository.countByRating(OWNER);
+        Assertions.assertThat(after[7] - before[7]).isEqualTo(2);
+        Assertions.assertThat(after[10] - before[10]).isEqualTo(0);
+        Assertions.assertThat(after[0] - before[0]).isEqualTo(0);
+        Assertions.assertThat(movieRepository.countByRatingOfMovies(OWNER)).containsExactly(after);
+        Assertions.assertThat(movieRepository.findAllOwners()).contains(OWNER);
+
+        long[] correction = new long[after.length];
+        correction[7] = -2;
+        movieRepository.addRatingCounts(OWNER, correction);
+        Assertions.assertThat(movieRepository.countByRating(OWNER)[7]).isEqualTo(after[7] - 2);
+        correction[7] = 2;
+        movieRepository.addRatingCounts(OWNER, correction);
+        Assertions.assertThat(movieRepository.countByRating(OWNER)).containsExactly(after);
+
+        movieRepository.deleteAll();
+        movieRepository.flush();
+        Assertions.assertThat(movieRepository.countByRating(OWNER)).containsOnly(0L);
+        Assertions.assertThat(movieRepository.countByRatingOfMovies(OWNER)).containsOnly(0L);
+    }
+
+    @Test
+    public void testCollectionVersionIsKeptByTheDatabase() {
+        long before = movieRepository.findCollectionVersion(OWNER);
+        long otherBefore = movieRepository.findCollectionVersion("bob");
+        movieRepository.saveAndFlush(new Movie("tt10872600", "Spider-Man: No Way Home", true, 10));
+        Assertions.assertThat(movieRepository.findCollectionVersion(OWNER)).isEqualTo(before + 1);
+
+        // Changes made directly in the database move the version forward as well
+        entityManager.createNativeQuery("UPDATE movies SET name = 'Changed' WHERE owner = :owner AND imdb_id = :imdbId")
+                .setParameter("owner", OWNER)
+                .setParameter("imdbId", "tt10872600")
+                .executeUpdate();
+        Assertions.assertThat(movieRepository.findCollectionVersion(OWNER)).isEqualTo(before + 2);
+        movieRepository.delete(OWNER, "tt10872600");
+        Assertions.assertThat(movieRepository.findCollectionVersion(OWNER)).isEqualTo(before + 3);
+        Assertions.assertThat(movieRepository.findCollectionVersion("bob")).isEqualTo(otherBefore);
+    }
+
+    @Test
+    public void testInsertIfAbsentAndUpsert() {
+        Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+
+        Optional<Movie> addedMovie = movieRepository.insertIfAbsent(movie);
+        Assertions.assertThat(addedMovie).get().extracting(Movie::getImdbId).isEqualTo("tt10872600");
+        Assertions.assertThat(movieRepository.insertIfAbsent(movie)).isEmpty();
+
+        MovieUpsertResult replaced = movieRepository.upsert(new Movie("tt10872600", "Random Name", true, 7));
+        Assertions.assertThat(replaced.isCreated()).isFalse();
+        Assertions.assertThat(replaced.getMovie()).extracting(Movie::getId, Movie::getName, Movie::getRating)
+                .containsExactly(addedMovie.get().getId(), "Random Name", 7);
+
+        MovieUpsertResult created =
+                movieRepository.upsert(new Movie("tt6320628", "Spider-Man: Far from Home", true, 9));
+        Assertions.assertThat(created.isCreated()).isTrue();
+        Assertions.assertThat(movieRepository.findAll()).extracting(Movie::getImdbId)
+                .containsOnly("tt10872600", "tt6320628");
+
+        movieRepository.deleteAll();
+        Assertions.assertThat(movieRepository.findAll()).isEmpty();
+    }
+
+    @Test
+    public void testOwnersAreSeparate() {
+        Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        Movie otherMovie = new Movie("tt10872600", "Spider-Man: No Way Home", false, 0);
+        otherMovie.setOwner("alice");
+        movieRepository.saveAndFlush(movie);
+        movieRepository.saveAndFlush(otherMovie);
+
+        Assertions.assertThat(movieRepository.findByOwner("alice")).extracting(Movie::getId)
+                .containsExactly(otherMovie.getId());
+        Assertions.assertThat(movieRepository.updateSeen("alice", "tt10872600", 6)).get()
+                .extracting(Movie::getId, Movie::getRating).containsExactly(otherMovie.getId(), 6);
+        Assertions.assertThat(movieRepository.findOneByOwnerAndImdbId(OWNER, "tt10872600").getRating()).isEqualTo(10);
+        Assertions.assertThat(movieRepository.countByRating("alice")[6]).isEqualTo(1);
+        Assertions.assertThat(movieRepository.findImdbIdsByOwnerAndImdbIdIn("bob", List.of("tt10872600"))).isEmpty();
+
+        Assertions.assertThat(movieRepository.delete("alice", "tt10872600")).get()
+                .extracting(Movie::getOwner).isEqualTo("alice");
+        Assertions.assertThat(movieRepository.delete("alice", "tt10872600")).isEmpty();
+        Assertions.assertThat(movieRepository.findOneByOwnerAndImdbId(OWNER, "tt10872600")).isNotNull();
+        Assertions.assertThat(movieRepository.countByRating("alice")).containsOnly(0L);
+
+        movieRepository.deleteAll();
+        Assertions.assertThat(movieRepository.findAll()).isEmpty();
+    }
+
+    @Test
+    public void testUpdateAndDeleteMoviesOfOwner() throws SQLException {
+        movieRepository.saveAndFlush(new Movie("tt10872600", "Spider-Man: No Way Home", true, 10));
+        movieRepository.saveAndFlush(new Movie("tt6320628", "Spider-Man: Far from Home", true, 9));
+        movieRepository.saveAndFlush(ownedMovie("alice", "tt10872600", "Spider-Man: No Way Home"));
+        movieRepository.saveAndFlush(ownedMovie("alice", "tt6320628", "Spider-Man: Far from Home"));
+        Movie stored = movieRepository.findOneByOwnerAndImdbId(OWNER, "tt10872600");
+
+        movieRepository.updateMovies(OWNER, List.of(new Movie(stored.getId(), OWNER, "tt10872600", "Random Name",
+                false, 0, stored.getVersion() + 1)));
+        Assertions.assertThat(movieRepository.deleteMovies(OWNER, List.of("tt6320628"))).isEqualTo(1);
+
+        Assertions.assertThat(movieRepository.findOneByOwnerAndImdbId(OWNER, "tt10872600"))
+                .extracting(Movie::getName, Movie::isSeen, Movie::getRating, Movie::getVersion)
+                .containsExactly("Random Name", false, 0, stored.getVersion() + 1);
+        Assertions.assertThat(movieRepository.findOneByOwnerAndImdbId(OWNER, "tt6320628")).isNull();
+        Assertions.assertThat(movieRepository.findByOwner("alice")).extracting(Movie::getName)
+                .containsOnly("Spider-Man: No Way Home", "Spider-Man: Far from Home");
+
+        // With the owner in the statement, only the owner's partition is read to find the movie
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "EXPLAIN " + MovieRepositoryCustomImpl.UPDATE_MOVIE_SQL)) {
+            statement.setString(1, "Random Name");
+            statement.setBoolean(2, false);
+            statement.setInt(3, 0);
+            statement.setString(4, OWNER);
+            statement.setString(5, "tt10872600");
+            Set<String> partitions = new HashSet<>();
+            try (ResultSet plan = statement.executeQuery()) {
+                while (plan.next()) {
+                    Matcher partition = Pattern.compile("on (movies_p\\d+)").matcher(plan.getString(1));
+                    while (partition.find())
+                        partitions.add(partition.group(1));
+                }
+            }
+            Assertions.assertThat(partitions).hasSize(1);
+        }
+    }
+
+    @Test
+    public void testFindChangesSince() {
+        String owner = "carol";
+        movieRepository.saveAndFlush(ownedMovie(owner, "tt10872600", "Spider-Man: No Way Home"));
+        movieRepository.saveAndFlush(ownedMovie(owner, "tt6320628", "Spider-Man: Far from Home"));
+        movieRepository.saveAndFlush(new Movie("tt2250912", "Spider-Man: Homecoming", true, 8));
+
+        MovieDelta all = movieRepository.findChangesSince(owner, 0, 1000);
+        Assertions.assertThat(all.getMovies()).extracting(Movie::getImdbId).containsExactly("tt10872600", "tt6320628");
+        Assertions.assertThat(all.getDeleted()).isEmpty();
+        Assertions.assertThat(all.isMore()).isFalse();
+
+        movieRepository.updateRating(owner, "tt10872600", 9);
+        movieRepository.delete(owner, "tt6320628");
+        MovieDelta changes = movieRepository.findChangesSince(owner, all.getCursor(), 1000);
+        Assertions.assertThat(changes.getMovies()).extracting(Movie::getImdbId, Movie::getRating)
+                .containsExactly(Assertions.tuple("tt10872600", 9));
+        Assertions.assertThat(changes.getDeleted()).containsExactly("tt6320628");
+        Assertions.assertThat(changes.getCursor()).isGreaterThan(all.getCursor());
+
+        MovieDelta first = movieRepository.findChangesSince(owner, all.getCursor(), 1);
+        Assertions.assertThat(first.getMovies()).extracting(Movie::getImdbId).containsExactly("tt10872600");
+        Assertions.assertThat(first.isMore()).isTrue();
+        MovieDelta second = movieRepository.findChangesSince(owner, first.getCursor(), 1);
+        Assertions.assertThat(second.getMovies()).isEmpty();
+        Assertions.assertThat(second.getDeleted()).containsExactly("tt6320628");
+        Assertions.assertThat(second.getCursor()).isEqualTo(changes.getCursor());
+        Assertions.assertThat(second.isMore()).isFalse();
+
+        movieRepository.insertIfAbsent(ownedMovie(owner, "tt6320628", "Spider-Man: Far from Home"));
+        movieRepository.updateImdbId(owner, "tt10872600", "tt0000001");
+        MovieDelta later = movieRepository.findChangesSince(owner, changes.getCursor(), 1000);
+        Assertions.assertThat(later.getMovies()).extracting(Movie::getImdbId).containsExactly("tt6320628", "tt0000001");
+        Assertions.assertThat(later.getDeleted()).containsExactly("tt10872600");
+
+        MovieDelta none = movieRepository.findChangesSince(owner, later.getCursor(), 1000);
+        Assertions.assertThat(none.getMovies()).isEmpty();
+        Assertions.assertThat(none.getDeleted()).isEmpty();
+        Assertions.assertThat(none.getCursor()).isEqualTo(later.getCursor());
+    }
+
+    @Test
+    public void testChangesOfRunningTransactionHoldBackCursor() throws SQLException {
+        String owner = "dave";
+        try (Connection running = dataSource.getConnection(); Connection committed = dataSource.getConnection()) {
+            // The running transaction takes the lower number, but the other one commits first
+            running.setAutoCommit(false);
+            insertMovie(running, owner, "tt10872600", "Spider-Man: No Way Home");
+            insertMovie(committed, owner, "tt6320628", "Spider-Man: Far from Home");
+
+            MovieDelta held = movieRepository.findChangesSince(owner, 0, 1000);
+            Assertions.assertThat(held.getMovies()).isEmpty();
+            Assertions.assertThat(held.getCursor()).isZero();
+
+            running.commit();
+            MovieDelta all = movieRepository.findChangesSince(owner, 0, 1000);
+            Assertions.assertThat(all.getMovies()).extracting(Movie::getImdbId)
+                    .containsExactly("tt10872600", "tt6320628");
+        } finally {
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.executeUpdate("DELETE FROM movies WHERE owner = 'dave'");
+                statement.executeUpdate("DELETE FROM movie_tombstones WHERE owner = 'dave'");
+            }
+        }
+    }
+
+    private static void insertMovie(Connection connection, String owner, String imdbId, String name)
+            throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO movies (owner, imdb_id, name, seen, rating) VALUES (?, ?, ?, true, 8)")) {
+            statement.setString(1, owner);
+            statement.setString(2, imdbId);
+            statement.setString(3, name);
+            statement.executeUpdate();
+        }
+    }
+
+    @Test
+    public void testPruneTombstones() {
+        movieRepository.saveAndFlush(ownedMovie("carol", "tt10872600", "Spider-Man: No Way Home"));
+        movieRepository.delete("carol", "tt10872600");
+        long cursor = movieRepository.findChangesSince("carol", 0, 1000).getCursor();
+
+        Assertions.assertThat(movieRepository.pruneTombstones(Instant.now().minusSeconds(3600))).isZero();
+        Assertions.assertThat(movieRepository.findDeltaHorizon()).isLessThan(cursor);
+
+        Assertions.assertThat(movieRepository.pruneTombstones(Instant.now().plusSeconds(3600))).isPositive();
+        Assertions.assertThat(movieRepository.findDeltaHorizon()).isGreaterThanOrEqualTo(cursor);
+        Assertions.assertThat(movieRepository.findChangesSince("carol", 0, 1000).getDeleted()).isEmpty();
+    }
+
+    private static Movie ownedMovie(String owner, String imdbId, String name) {
+        Movie movie = new Movie(imdbId, name, true, 8);
+        movie.setOwner(owner);
+        return movie;
+    }
+
+    @Test
+    public void testImdbIdIsUnique() {
+        movieRepository.saveAndFlush(new Movie("tt10872600", "Spider-Man: No Way Home", true, 10));
+
+        Assertions.assertThatThrownBy(() ->
+                        movieRepository.saveAndFlush(new Movie("tt10872600", "Spider-Man: No Way Home", true, 10)))
+                .isInstanceOf(DataIntegrityViolationException.class);
+    }
+}
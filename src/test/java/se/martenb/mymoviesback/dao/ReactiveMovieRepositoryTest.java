@@ -0,0 +1,107 @@
+package se.martenb.mymoviesback.dao;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.flyway.FlywayAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.data.r2dbc.DataR2dbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.test.StepVerifier;
+import se.martenb.mymoviesback.model.Movie;
+
+@EnabledIfEnvironmentVariable(named = "SPRING_TESTING_PROFILES_ACTIVE", matches = ".*daotest.*")
+@DataR2dbcTest(properties = {"spring.flyway.url = ${spring.datasource.url}",
+        "spring.flyway.user = ${spring.datasource.username}", "spring.flyway.password = ${spring.datasource.password}"})
+@ActiveProfiles("reactive")
+@Import(ReactiveMovieRepository.class)
+@ImportAutoConfiguration(FlywayAutoConfiguration.class)
+class ReactiveMovieRepositoryTest {
+    static final String OWNER = Movie.DEFAULT_OWNER;
+    static final String OTHER_OWNER = "alice";
+
+    @Autowired
+    ReactiveMovieRepository movieRepository;
+
+    @AfterEach
+    public void tearDown() {
+        movieRepository.deleteByOwnerAndImdbId(OWNER, "tt10872600")
+                .then(movieRepository.deleteByOwnerAndImdbId(OWNER, "tt6320628"))
+                .then(movieRepository.deleteByOwnerAndImdbId(OWNER, "tt0000000"))
+                .then(movieRepository.deleteByOwnerAndImdbId(OTHER_OWNER, "tt10872600"))
+                .block();
+    }
+
+    @Test
+    public void testCreateReadDelete() {
+        Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+
+        StepVerifier.create(movieRepository.insert(movie)).expectNext(1).verifyComplete();
+        StepVerifier.create(movieRepository.findOneByOwnerAndImdbId(OWNER, "tt10872600"))
+                .expectNextMatches(found -> found.getName().equals("Spider-Man: No Way Home") && found.getId() > 0)
+                .verifyComplete();
+        StepVerifier.create(movieRepository.insert(movie))
+                .expectError(DataIntegrityViolationException.class)
+                .verify();
+
+        StepVerifier.create(movieRepository.deleteByOwnerAndImdbId(OWNER, "tt10872600")).expectNext(1).verifyComplete();
+        StepVerifier.create(movieRepository.findOneByOwnerAndImdbId(OWNER, "tt10872600")).verifyComplete();
+    }
+
+    @Test
+    public void testFindByNameContaining() {
+        movieRepository.insert(new Movie("tt10872600", "Spider-Man: No Way Home", true, 10))
+                .then(movieRepository.insert(new Movie("tt6320628", "Spider-Man: 100% Far from Home", true, 9)))
+                .block();
+
+        StepVerifier.create(movieRepository.findByOwnerAndNameContaining(OWNER, "Home").map(Movie::getImdbId))
+                .expectNext("tt10872600", "tt6320628")
+                .verifyComplete();
+        StepVerifier.create(movieRepository.findByOwnerAndNameContaining(OWNER, "0% F").map(Movie::getImdbId))
+                .expectNext("tt6320628")
+                .verifyComplete();
+        StepVerifier.create(movieRepository.existsByOwnerAndNameContaining(OWNER, "_"))
+                .expectNext(false)
+                .verifyComplete();
+        StepVerifier.create(movieRepository.existsByOwnerAndNameContaining(OWNER, null))
+                .expectNext(true)
+                .verifyComplete();
+    }
+
+    @Test
+    public void testUpdateChecksVersion() {
+        movieRepository.insert(new Movie("tt10872600", "Spider-Man: No Way Home", true, 10)).block();
+        Movie movie = movieRepository.findOneByOwnerAndImdbId(OWNER, "tt10872600").block();
+        movie.setName("Spider-Man: No Way Home (2021)");
+
+        StepVerifier.create(movieRepository.update("tt10872600", movie)).expectNext(1).verifyComplete();
+        StepVerifier.create(movieRepository.update("tt10872600", movie)).expectNext(0).verifyComplete();
+        StepVerifier.create(movieRepository.findOneByOwnerAndImdbId(OWNER, "tt10872600").map(Movie::getVersion))
+                .expectNext(movie.getVersion() + 1)
+                .verifyComplete();
+    }
+
+    @Test
+    public void testOwnersAreSeparate() {
+        Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        Movie otherMovie = new Movie("tt10872600", "Spider-Man: No Way Home", false, 0);
+        otherMovie.setOwner(OTHER_OWNER);
+        movieRepository.insert(movie).then(movieRepository.insert(otherMovie)).block();
+
+        StepVerifier.create(movieRepository.findByOwner(OTHER_OWNER).map(Movie::isSeen))
+                .expectNext(false)
+                .verifyComplete();
+        StepVerifier.create(movieRepository.deleteByOwnerAndImdbId(OTHER_OWNER, "tt10872600"))
+                .expectNext(1)
+                .verifyComplete();
+        StepVerifier.create(movieRepository.findOneByOwnerAndImdbId(OWNER, "tt10872600").map(Movie::getOwner))
+                .expectNext(OWNER)
+                .verifyComplete();
+        StepVerifier.create(movieRepository.existsByOwnerAndNameContaining(OTHER_OWNER, null))
+                .expectNext(false)
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,167 @@
+package se.martenb.mymoviesback.dao;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReplicaRoutingDataSourceTest {
+    ReplicaRoutingDataSource dataSource;
+
+    @Mock
+    DataSource primary;
+
+    @Mock
+    DataSource replicaOne;
+
+    @Mock
+    DataSource replicaTwo;
+
+    @Mock
+    Connection primaryConnection;
+
+    @Mock
+    Connection replicaOneConnection;
+
+    @Mock
+    Connection replicaTwoConnection;
+
+    @BeforeEach
+    public void setUp() {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        replicas.put("replica-1", replicaOne);
+        replicas.put("replica-2", replicaTwo);
+        dataSource = new ReplicaRoutingDataSource(primary, replicas, Duration.ofSeconds(5));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        ReplicaRoutingDataSource.setPrimaryRequired(false);
+    }
+
+    @Test
+    public void testWritesGoToPrimary() throws SQLException {
+        when(primary.getConnection()).thenReturn(primaryConnection);
+
+        assertSame(primaryConnection, dataSource.getConnection());
+        verifyNoInteractions(replicaOne, replicaTwo);
+    }
+
+    @Test
+    public void testReadOnlyTransactionsTakeTurnsOnReplicas() throws SQLException {
+        when(replicaOne.getConnection()).thenReturn(replicaOneConnection);
+        when(replicaTwo.getConnection()).thenReturn(replicaTwoConnection);
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        assertSame(replicaOneConnection, dataSource.getConnection());
+        assertSame(replicaTwoConnection, dataSource.getConnection());
+        assertSame(replicaOneConnection, dataSource.getConnection());
+        verifyNoInteractions(primary);
+    }
+
+    @Test
+    public void testPrimaryRequiredForReads() throws SQLException {
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        ReplicaRoutingDataSource.setPrimaryRequired(true);
+
+        assertSame(primaryConnection, dataSource.getConnection());
+        verifyNoInteractions(replicaOne, replicaTwo);
+    }
+
+    @Test
+    public void testReadFromPrimaryPassesOverLaggingReplica() throws SQLException {
+        mockReplicationLag(replicaOne, replicaOneConnection, 2);
+        mockReplicationLag(replicaTwo, replicaTwoConnection, 2);
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        dataSource.checkReplicas();
+        assertEquals(2, dataSource.getHealthyReplicaCount());
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        assertSame(primaryConnection, ReplicaRoutingDataSource.readFromPrimary(this::getConnection));
+        assertFalse(ReplicaRoutingDataSource.isPrimaryRequired());
+        assertSame(replicaOneConnection, dataSource.getConnection());
+
+        ReplicaRoutingDataSource.setPrimaryRequired(true);
+        assertSame(primaryConnection, ReplicaRoutingDataSource.readFromPrimary(this::getConnection));
+        assertTrue(ReplicaRoutingDataSource.isPrimaryRequired());
+    }
+
+    @Test
+    public void testUnavailableReplicaIsLeftOut() throws SQLException {
+        when(replicaOne.getConnection()).thenThrow(new SQLException("Connection refused"));
+        when(replicaTwo.getConnection()).thenReturn(replicaTwoConnection);
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        assertSame(replicaTwoConnection, dataSource.getConnection());
+        assertSame(replicaTwoConnection, dataSource.getConnection());
+        assertSame(replicaTwoConnection, dataSource.getConnection());
+        assertEquals(1, dataSource.getHealthyReplicaCount());
+        verify(replicaOne, times(1)).getConnection();
+    }
+
+    @Test
+    public void testReadsFallBackToPrimary() throws SQLException {
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        when(replicaOne.getConnection()).thenThrow(new SQLException("Connection refused"));
+        when(replicaTwo.getConnection()).thenThrow(new SQLException("Connection refused"));
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        assertSame(primaryConnection, dataSource.getConnection());
+        assertEquals(0, dataSource.getHealthyReplicaCount());
+    }
+
+    @Test
+    public void testHealthCheck() throws SQLException {
+        mockReplicationLag(replicaOne, replicaOneConnection, 0.5);
+        mockReplicationLag(replicaTwo, replicaTwoConnection, 30);
+
+        dataSource.checkReplicas();
+        assertEquals(1, dataSource.getHealthyReplicaCount());
+
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        assertSame(replicaOneConnection, dataSource.getConnection());
+        assertSame(replicaOneConnection, dataSource.getConnection());
+
+        mockReplicationLag(replicaTwo, replicaTwoConnection, 0);
+        dataSource.checkReplicas();
+        assertEquals(2, dataSource.getHealthyReplicaCount());
+    }
+
+    private Connection getConnection() {
+        try {
+            return dataSource.getConnection();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void mockReplicationLag(DataSource replica, Connection connection, double lagSeconds)
+            throws SQLException {
+        Statement statement = mock(Statement.class);
+        ResultSet resultSet = mock(ResultSet.class);
+        when(replica.getConnection()).thenReturn(connection);
+        when(connection.createStatement()).thenReturn(statement);
+        when(statement.executeQuery(anyString())).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getDouble(1)).thenReturn(lagSeconds);
+    }
+}
@@ -0,0 +1,127 @@
+package se.martenb.mymoviesback.loadtest;
+
+import org.HdrHistogram.Recorder;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends requests open-loop at a fixed arrival rate, whether or not earlier requests have completed, spread over a pool
+ * of HTTP clients. The latency of a request is measured from the time it was scheduled to be sent rather than from
+ * when it actually was, so a server that falls behind shows up in the latencies instead of lowering the rate.
+ */
+class LoadGenerator {
+    private static final long MAX_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final List<LoadOperation> operations;
+    private final int totalWeight;
+    private final List<HttpClient> clients = new ArrayList<>();
+    private final ExecutorService executor;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final Duration drainTimeout;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * A load generator for a mix of operations.
+     *
+     * @param operations The operations to pick from.
+     * @param clients The number of HTTP clients, each with its own connections to the server.
+     * @param maxInFlight The most requests that may wait for a response at once, any more are counted as dropped.
+     * @param requestTimeout How long the requests built by the operations wait for a response.
+     */
+    LoadGenerator(List<LoadOperation> operations, int clients, int maxInFlight, Duration requestTimeout) {
+        this.operations = operations;
+        this.totalWeight = operations.stream().mapToInt(LoadOperation::getWeight).sum();
+        this.executor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        for (int i = 0; i < clients; i++)
+            this.clients.add(HttpClient.newBuilder()
+                    .executor(executor)
+                    .connectTimeout(requestTimeout)
+                    .build());
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        // Every request times out on its own, so all of them have completed shortly after that
+        this.drainTimeout = requestTimeout.plusSeconds(5);
+    }
+
+    /**
+     * Send requests at the given rate for the given time and wait for the outstanding responses.
+     *
+     * @param rate The number of requests to send per second.
+     * @param duration How long to keep sending.
+     * @param seed The seed for picking operations, the same seed sends the same sequence of requests.
+     * @return The results per operation.
+     */
+    LoadReport run(int rate, Duration duration, long seed) throws InterruptedException {
+        Map<String, Recorder> recorders = new LinkedHashMap<>();
+        Map<String, AtomicLong> errors = new LinkedHashMap<>();
+        for (LoadOperation operation : operations) {
+            recorders.put(operation.getName(), new Recorder(MAX_LATENCY_NANOS, 3));
+            errors.put(operation.getName(), new AtomicLong());
+        }
+
+        Random random = new Random(seed);
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long count = duration.toNanos() / intervalNanos;
+        long start = System.nanoTime();
+        for (long i = 0; i < count; i++) {
+            long intended = start + i * intervalNanos;
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0)
+                LockSupport.parkNanos(wait);
+
+            LoadOperation operation = pick(random);
+            Recorder recorder = recorders.get(operation.getName());
+            AtomicLong operationErrors = errors.get(operation.getName());
+            if (!inFlight.tryAcquire()) {
+                operationErrors.incrementAndGet();
+                continue;
+            }
+            clients.get((int) (i % clients.size()))
+                    .sendAsync(operation.newRequest(random, sequence.incrementAndGet()),
+                            HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, failure) -> {
+                        recorder.recordValue(Math.min(System.nanoTime() - intended, MAX_LATENCY_NANOS));
+                        if (failure != null || !operation.isExpected(response.statusCode()))
+                            operationErrors.incrementAndGet();
+                        inFlight.release();
+                    });
+        }
+
+        if (inFlight.tryAcquire(maxInFlight, drainTimeout.toNanos(), TimeUnit.NANOSECONDS))
+            inFlight.release(maxInFlight);
+        long elapsed = System.nanoTime() - start;
+
+        LoadReport report = new LoadReport(rate, elapsed);
+        for (LoadOperation operation : operations)
+            report.add(operation.getName(), recorders.get(operation.getName()).getIntervalHistogram(),
+                    errors.get(operation.getName()).get());
+        return report;
+    }
+
+    /**
+     * Stop the clients' threads.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private LoadOperation pick(Random random) {
+        int value = random.nextInt(totalWeight);
+        for (LoadOperation operation : operations) {
+            value -= operation.getWeight();
+            if (value < 0)
+                return operation;
+        }
+        throw new IllegalStateException("Operation weights changed during the run");
+    }
+}
@@ -0,0 +1,49 @@
+package se.martenb.mymoviesback.loadtest;
+
+import java.net.http.HttpRequest;
+import java.util.Random;
+import java.util.function.BiFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * One kind of request in the load mix, with how often it is sent relative to the others.
+ */
+class LoadOperation {
+    private final String name;
+    private final int weight;
+    private final BiFunction<Random, Long, HttpRequest> requestFactory;
+    private final IntPredicate expectedStatus;
+
+    /**
+     * An operation in the load mix.
+     *
+     * @param name The name the results are reported under.
+     * @param weight How often the operation is picked, relative to the sum of all weights.
+     * @param requestFactory Builds a request from the load generator's random source and a sequence number that is
+     *                       unique within the run.
+     * @param expectedStatus Which response statuses count as a success.
+     */
+    LoadOperation(String name, int weight, BiFunction<Random, Long, HttpRequest> requestFactory,
+                  IntPredicate expectedStatus) {
+        this.name = name;
+        this.weight = weight;
+        this.requestFactory = requestFactory;
+        this.expectedStatus = expectedStatus;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getWeight() {
+        return weight;
+    }
+
+    HttpRequest newRequest(Random random, long sequence) {
+        return requestFactory.apply(random, sequence);
+    }
+
+    boolean isExpected(int status) {
+        return expectedStatus.test(status);
+    }
+}
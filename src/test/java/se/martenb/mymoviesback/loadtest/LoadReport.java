@@ -0,0 +1,87 @@
+package se.martenb.mymoviesback.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency percentiles per operation for one run at a fixed arrival rate.
+ */
+class LoadReport {
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int rate;
+    private final long elapsedNanos;
+    private final Map<String, Histogram> histograms = new TreeMap<>();
+    private final Map<String, Long> errors = new TreeMap<>();
+    private final Histogram total = new Histogram(3);
+
+    LoadReport(int rate, long elapsedNanos) {
+        this.rate = rate;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    void add(String operation, Histogram histogram, long operationErrors) {
+        histograms.put(operation, histogram);
+        errors.put(operation, operationErrors);
+        total.add(histogram);
+    }
+
+    /**
+     * Get the number of requests that completed per second, including the time spent waiting for the last responses.
+     *
+     * @return The achieved throughput.
+     */
+    double getThroughput() {
+        return total.getTotalCount() / (elapsedNanos / 1e9);
+    }
+
+    /**
+     * Get the number of requests that failed, got an unexpected status or were dropped because too many were already
+     * waiting for a response.
+     *
+     * @return The number of errors.
+     */
+    long getErrors() {
+        return errors.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * Get whether the server kept up with the arrival rate, completing at least 95% of it without errors.
+     *
+     * @return True if the server was not saturated.
+     */
+    boolean keptUp() {
+        return getErrors() == 0 && getThroughput() >= rate * 0.95;
+    }
+
+    /**
+     * Format the report as a table with one row per operation and a total.
+     *
+     * @return The formatted report.
+     */
+    String format() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("Arrival rate %d/s, achieved %.1f/s, %d errors%s%n", rate, getThroughput(),
+                getErrors(), keptUp() ? "" : " - SATURATED"));
+        text.append(String.format("%-10s %9s %9s %7s %9s %9s %9s %9s%n",
+                "operation", "requests", "req/s", "errors", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        histograms.forEach((operation, histogram) -> row(text, operation, histogram, errors.get(operation)));
+        row(text, "total", total, getErrors());
+        return text.toString();
+    }
+
+    private void row(StringBuilder text, String operation, Histogram histogram, long operationErrors) {
+        text.append(String.format("%-10s %9d %9.1f %7d %9.2f %9.2f %9.2f %9.2f%n",
+                operation,
+                histogram.getTotalCount(),
+                histogram.getTotalCount() / (elapsedNanos / 1e9),
+                operationErrors,
+                histogram.getValueAtPercentile(50) / NANOS_PER_MILLI,
+                histogram.getValueAtPercentile(99) / NANOS_PER_MILLI,
+                histogram.getValueAtPercentile(99.9) / NANOS_PER_MILLI,
+                histogram.getMaxValue() / NANOS_PER_MILLI));
+    }
+}
@@ -0,0 +1,205 @@
+package se.martenb.mymoviesback.loadtest;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.testcontainers.containers.PostgreSQLContainer;
+import se.martenb.mymoviesback.dao.MovieRepository;
+import se.martenb.mymoviesback.model.Movie;
+import se.martenb.mymoviesback.service.MovieService;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+/**
+ * Drives a mix of requests against the whole application at a series of increasing arrival rates, to find the rate at
+ * which a single instance saturates. Unless a database is configured in the environment, PostgreSQL is started in a
+ * container, so the results do not depend on what else is in the database. The report is printed and written to
+ * target/loadtest/report.txt.
+ */
+@EnabledIfEnvironmentVariable(named = "SPRING_TESTING_PROFILES_ACTIVE", matches = ".*loadtest.*")
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class LoadTests {
+    private static final String[] WORDS = {"Spider-Man", "Home", "Avengers", "War", "Night", "Star", "Return",
+            "Legend", "Dark", "Planet", "Ghost", "Empire", "Story", "King", "Journey", "Island"};
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    MovieService movieService;
+
+    @Autowired
+    MovieRepository movieRepository;
+
+    @Value("${loadtest.rates:50,100,200,400,800}")
+    int[] rates;
+
+    @Value("${loadtest.duration:30s}")
+    Duration duration;
+
+    @Value("${loadtest.warmup:10s}")
+    Duration warmup;
+
+    @Value("${loadtest.movies:1000}")
+    int movieCount;
+
+    @Value("${loadtest.clients:16}")
+    int clients;
+
+    @Value("${loadtest.max-in-flight:1000}")
+    int maxInFlight;
+
+    @Value("${loadtest.request-timeout:10s}")
+    Duration requestTimeout;
+
+    @Value("#{${loadtest.mix:{get: 50, list: 5, page: 10, search: 10, rating: 15, upsert: 5, add: 5}}}")
+    Map<String, Integer> mix;
+
+    @Value("${loadtest.seed:42}")
+    long seed;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) {
+        if (System.getenv("SPRING_DATASOURCE_URL_HOST") != null)
+            return;
+
+        PostgreSQLContainer<?> database = new PostgreSQLContainer<>("postgres:14");
+        database.start();
+        registry.add("spring.datasource.url", database::getJdbcUrl);
+        registry.add("spring.datasource.username", database::getUsername);
+        registry.add("spring.datasource.password", database::getPassword);
+    }
+
+    @BeforeEach
+    public void setUp() {
+        List<Movie> movies = new ArrayList<>();
+        for (int i = 1; i <= movieCount; i++)
+            movies.add(new Movie(seededImdbId(i), WORDS[i % WORDS.length] + " " + WORDS[i / WORDS.length % WORDS.length]
+                    + " " + i, true, i % 10 + 1));
+        movieService.addMovies(Movie.DEFAULT_OWNER, movies);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        movieRepository.deleteAllInBatch();
+    }
+
+    @Test
+    public void testLoad() throws InterruptedException, IOException {
+        LoadGenerator generator = new LoadGenerator(operations(), clients, maxInFlight, requestTimeout);
+        StringBuilder report = new StringBuilder();
+        try {
+            // Let the JIT compiler, the connection pool and the caches settle before anything is measured
+            generator.run(rates[0], warmup, seed);
+
+            for (int rate : rates) {
+                LoadReport result = generator.run(rate, duration, seed + rate);
+                report.append(result.format()).append(System.lineSeparator());
+                Assertions.assertThat(result.getThroughput()).isPositive();
+                if (!result.keptUp())
+                    break;
+            }
+        } finally {
+            generator.shutdown();
+        }
+
+        System.out.println(report);
+        Path reportFile = Path.of("target", "loadtest", "report.txt");
+        Files.createDirectories(reportFile.getParent());
+        Files.writeString(reportFile, report);
+    }
+
+    private List<LoadOperation> operations() {
+        String urlBase = "http://localhost:" + port + "/api/movies";
+        IntPredicate ok = status -> status == 200 || status == 204;
+        List<LoadOperation> operations = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+            String name = entry.getKey();
+            int weight = entry.getValue();
+            switch (name) {
+                case "get":
+                    operations.add(new LoadOperation(name, weight, (random, sequence) ->
+                            request(urlBase + "/" + randomImdbId(random)).GET().build(), ok));
+                    break;
+                case "list":
+                    operations.add(new LoadOperation(name, weight, (random, sequence) ->
+                            request(urlBase).header("Accept-Encoding", "gzip").GET().build(), ok));
+                    break;
+                case "page":
+                    operations.add(new LoadOperation(name, weight, (random, sequence) ->
+                            request(urlBase + "?limit=100&sort=name").GET().build(), ok));
+                    break;
+                case "search":
+                    operations.add(new LoadOperation(name, weight, (random, sequence) ->
+                            request(urlBase + "?name=" + WORDS[random.nextInt(WORDS.length)]).GET().build(), ok));
+                    break;
+                case "rating":
+                    operations.add(new LoadOperation(name, weight, (random, sequence) ->
+                            json(request(urlBase + "/" + randomImdbId(random) + "/rating"))
+                                    .PUT(HttpRequest.BodyPublishers.ofString(String.valueOf(random.nextInt(10) + 1)))
+                                    .build(), ok));
+                    break;
+                case "upsert":
+                    operations.add(new LoadOperation(name, weight, (random, sequence) -> {
+                        String imdbId = randomImdbId(random);
+                        return json(request(urlBase + "/" + imdbId + "?upsert=true"))
+                                .PUT(movieBody(imdbId, "Upserted " + sequence, random))
+                                .build();
+                    }, status -> status == 200 || status == 201));
+                    break;
+                case "add":
+                    operations.add(new LoadOperation(name, weight, (random, sequence) ->
+                            json(request(urlBase))
+                                    .POST(movieBody(String.format("lt%07d", sequence), "Added " + sequence, random))
+                                    .build(), status -> status == 201));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown operation in loadtest.mix: " + name);
+            }
+        }
+        return operations;
+    }
+
+    private HttpRequest.Builder request(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).timeout(requestTimeout);
+    }
+
+    private static HttpRequest.Builder json(HttpRequest.Builder request) {
+        return request.header("Content-Type", "application/json");
+    }
+
+    private static HttpRequest.BodyPublisher movieBody(String imdbId, String name, Random random) {
+        return HttpRequest.BodyPublishers.ofString(String.format(
+                "{\"imdbId\":\"%s\",\"name\":\"%s\",\"seen\":true,\"rating\":%d}",
+                imdbId, name, random.nextInt(10) + 1));
+    }
+
+    private String randomImdbId(Random random) {
+        return seededImdbId(random.nextInt(movieCount) + 1);
+    }
+
+    private static String seededImdbId(int i) {
+        return String.format("tt%07d", i);
+    }
+}
@@ -0,0 +1,38 @@
+package se.martenb.mymoviesback.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MovieStatsTest {
+
+    @Test
+    public void testStats() {
+        MovieStats stats = new MovieStats(new long[] {3, 0, 1, 0, 0, 0, 0, 0, 2, 0, 1});
+
+        assertEquals(7, stats.getTotal());
+        assertEquals(4, stats.getSeen());
+        assertEquals(3, stats.getUnseen());
+        assertEquals(10, stats.getRatings().size());
+        assertEquals(2L, stats.getRatings().get(8));
+        assertEquals(7.0, stats.getMean());
+        assertEquals(8.0, stats.getMedian());
+    }
+
+    @Test
+    public void testMedianOfEvenNumberOfMovies() {
+        MovieStats stats = new MovieStats(new long[] {0, 0, 0, 0, 0, 1, 0, 1, 0, 0, 0});
+
+        assertEquals(6.0, stats.getMedian());
+        assertEquals(6.0, stats.getMean());
+    }
+
+    @Test
+    public void testNoSeenMovies() {
+        MovieStats stats = new MovieStats(new long[11]);
+
+        assertEquals(0, stats.getTotal());
+        assertNull(stats.getMean());
+        assertNull(stats.getMedian());
+    }
+}
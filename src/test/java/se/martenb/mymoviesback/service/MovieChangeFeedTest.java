@@ -0,0 +1,203 @@
+package se.martenb.mymoviesback.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import se.martenb.mymoviesback.config.MetricsConfig;
+import se.martenb.mymoviesback.model.Movie;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MovieChangeFeedTest {
+    static final String OWNER = "alice";
+
+    MovieChangeFeed feed;
+    SimpleMeterRegistry meterRegistry;
+    Queue<Runnable> sends = new ArrayDeque<>();
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        feed = new MovieChangeFeed(meterRegistry, 4, 2, 2, sends::add);
+    }
+
+    @Test
+    public void testChangesAreSentToSubscribersOfOwner() {
+        RecordingListener alice = new RecordingListener();
+        RecordingListener bob = new RecordingListener();
+        feed.subscribe(OWNER, null, alice);
+        feed.subscribe("bob", null, bob);
+
+        feed.onMovieChange(MovieChangeEvent.added(movie(OWNER, "tt10872600")));
+        feed.onMovieChange(MovieChangeEvent.deleted(movie(OWNER, "tt6320628")));
+        sendAll();
+
+        assertEquals(List.of("ADDED tt10872600", "DELETED tt6320628"), alice.received);
+        assertEquals("tt10872600", alice.changes.get(0).getMovie().getImdbId());
+        assertNull(alice.changes.get(1).getMovie());
+        assertEquals(List.of(), bob.received);
+    }
+
+    @Test
+    public void testMissedChangesAreSentOnResume() {
+        RecordingListener earlier = new RecordingListener();
+        feed.subscribe(OWNER, null, earlier);
+        publish(OWNER, "tt10872600");
+        publish("bob", "tt6320628");
+        publish(OWNER, "tt2250912");
+        sendAll();
+        String firstId = earlier.changes.get(0).getId();
+
+        RecordingListener listener = new RecordingListener();
+        feed.subscribe(OWNER, firstId, listener);
+        sendAll();
+
+        assertEquals(List.of("ADDED tt2250912"), listener.received);
+    }
+
+    @Test
+    public void testChangesToOtherCollectionsDoNotPushOutMissedChanges() {
+        RecordingListener earlier = new RecordingListener();
+        feed.subscribe(OWNER, null, earlier);
+        publish(OWNER, "tt10872600");
+        for (int i = 1; i <= 6; i++)
+            publish("bob", "tt000000" + i);
+        publish(OWNER, "tt2250912");
+        sendAll();
+        String firstId = earlier.changes.get(0).getId();
+
+        RecordingListener listener = new RecordingListener();
+        feed.subscribe(OWNER, firstId, listener);
+        sendAll();
+
+        assertEquals(List.of("ADDED tt2250912"), listener.received);
+    }
+
+    @Test
+    public void testResyncWhenMissedChangesAreNoLongerKept() {
+        RecordingListener earlier = new RecordingListener();
+        feed.subscribe(OWNER, null, earlier);
+        for (int i = 1; i <= 6; i++) {
+            publish(OWNER, "tt000000" + i);
+            sendAll();
+        }
+        String firstId = earlier.changes.get(0).getId();
+        String lastId = earlier.changes.get(5).getId();
+
+        RecordingListener expired = new RecordingListener();
+        feed.subscribe(OWNER, firstId, expired);
+        RecordingListener unknown = new RecordingListener();
+        feed.subscribe(OWNER, "before-restart-1", unknown);
+        sendAll();
+
+        assertEquals(List.of("resync " + lastId), expired.received);
+        assertEquals(List.of("resync " + lastId), unknown.received);
+        assertEquals(2.0, meterRegistry.get(MetricsConfig.CHANGES_RESYNC_COUNTER).counter().count());
+    }
+
+    @Test
+    public void testFullQueueIsReplacedWithResync() {
+        RecordingListener listener = new RecordingListener();
+        feed.subscribe(OWNER, null, listener);
+
+        publish(OWNER, "tt0000001");
+        publish(OWNER, "tt0000002");
+        publish(OWNER, "tt0000003");
+        sendAll();
+        publish(OWNER, "tt0000004");
+        sendAll();
+
+        // The resync carries the id of the change that did not fit, the one before the change sent after it
+        String fourthId = listener.changes.get(0).getId();
+        String thirdId = fourthId.substring(0, fourthId.lastIndexOf('-') + 1) + 3;
+        assertEquals(List.of("resync " + thirdId, "ADDED tt0000004"), listener.received);
+        assertEquals(1.0, meterRegistry.get(MetricsConfig.CHANGES_RESYNC_COUNTER).counter().count());
+    }
+
+    @Test
+    public void testFailingListenerIsUnsubscribed() {
+        RecordingListener listener = new RecordingListener();
+        listener.failing = true;
+        feed.subscribe(OWNER, null, listener);
+        assertEquals(1, feed.getSubscribers());
+
+        publish(OWNER, "tt0000001");
+        sendAll();
+
+        assertEquals(0, feed.getSubscribers());
+        publish(OWNER, "tt0000002");
+        assertTrue(sends.isEmpty());
+    }
+
+    @Test
+    public void testHeartbeatsAreOnlySentToIdleSubscribers() {
+        RecordingListener idle = new RecordingListener();
+        RecordingListener busy = new RecordingListener();
+        feed.subscribe(OWNER, null, idle);
+        feed.subscribe("bob", null, busy);
+
+        publish("bob", "tt0000001");
+        feed.sendHeartbeats();
+        sendAll();
+
+        assertEquals(List.of("heartbeat"), idle.received);
+        assertEquals(List.of("ADDED tt0000001"), busy.received);
+    }
+
+    @Test
+    public void testCancelledSubscriptionGetsNothing() {
+        RecordingListener listener = new RecordingListener();
+        MovieChangeFeed.Subscription subscription = feed.subscribe(OWNER, null, listener);
+
+        publish(OWNER, "tt0000001");
+        subscription.cancel();
+        sendAll();
+
+        assertEquals(List.of(), listener.received);
+        assertEquals(0, feed.getSubscribers());
+    }
+
+    private void publish(String owner, String imdbId) {
+        feed.onMovieChange(MovieChangeEvent.added(movie(owner, imdbId)));
+    }
+
+    private void sendAll() {
+        Runnable send;
+        while ((send = sends.poll()) != null)
+            send.run();
+    }
+
+    private static Movie movie(String owner, String imdbId) {
+        return new Movie(1L, owner, imdbId, "Spider-Man: No Way Home", true, 10, 0);
+    }
+
+    private static class RecordingListener implements MovieChangeFeed.Listener {
+        final List<String> received = new ArrayList<>();
+        final List<MovieChangeFeed.Change> changes = new ArrayList<>();
+        boolean failing;
+
+        @Override
+        public void onChange(MovieChangeFeed.Change change) throws IOException {
+            if (failing)
+                throw new IOException("Connection reset");
+            received.add(change.getType() + " " + change.getImdbId());
+            changes.add(change);
+        }
+
+        @Override
+        public void onResync(String lastChangeId) {
+            received.add("resync " + lastChangeId);
+        }
+
+        @Override
+        public void onHeartbeat() {
+            received.add("heartbeat");
+        }
+    }
+}
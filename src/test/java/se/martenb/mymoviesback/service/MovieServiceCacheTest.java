@@ -0,0 +1,183 @@
+package se.martenb.mymoviesback.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import se.martenb.mymoviesback.config.CacheConfig;
+import se.martenb.mymoviesback.dao.MovieRepository;
+import se.martenb.mymoviesback.dao.ReplicaRoutingDataSource;
+import se.martenb.mymoviesback.model.Movie;
+
+import javax.validation.Validator;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.*;
+
+@SpringJUnitConfig
+class MovieServiceCacheTest {
+    static final String OWNER = "alice";
+
+    @Configuration
+    @EnableCaching
+    @Import({MovieServiceImpl.class, MovieCacheSynchronizer.class})
+    static class CacheTestConfig {
+        @Bean
+        CacheManager cacheManager() {
+            return new ConcurrentMapCacheManager(CacheConfig.MOVIES_BY_IMDB_ID);
+        }
+    }
+
+    @Autowired
+    MovieService movieService;
+
+    @MockBean
+    MovieRepository movieRepository;
+
+    @MockBean
+    MovieSearchStrategy movieSearch;
+
+    @MockBean
+    Validator validator;
+
+    @Test
+    public void testGetMovieByImdbIdIsCached()
+    {
+        Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+
+        when(movieRepository.findOneByOwnerAndImdbId(OWNER, movie.getImdbId())).thenReturn(movie);
+
+        assertEquals(movie.getName(), movieService.getMovieByImdbId(OWNER, movie.getImdbId()).getName());
+        assertEquals(movie.getName(), movieService.getMovieByImdbId(OWNER, movie.getImdbId()).getName());
+
+        verify(movieRepository, times(1)).findOneByOwnerAndImdbId(OWNER, movie.getImdbId());
+    }
+
+    @Test
+    public void testGetMovieByImdbIdNotExistingIsNotCached()
+    {
+        String movieImdbId = "tt0000000";
+
+        when(movieRepository.findOneByOwnerAndImdbId(OWNER, movieImdbId)).thenReturn(null);
+
+        assertNull(movieService.getMovieByImdbId(OWNER, movieImdbId));
+        assertNull(movieService.getMovieByImdbId(OWNER, movieImdbId));
+
+        verify(movieRepository, times(2)).findOneByOwnerAndImdbId(OWNER, movieImdbId);
+    }
+
+    @Test
+    public void testUpdatesRefreshCache()
+    {
+        Movie movie = new Movie(2L, OWNER, "tt6320628", "Spider-Man: Far from Home", true, 9, 0);
+        String newName = "Spider-Man: Far from Home (NEW)";
+        String newImdbId = "tt99999999";
+
+        when(movieRepository.findOneByOwnerAndImdbId(OWNER, movie.getImdbId())).thenReturn(movie);
+        movieService.getMovieByImdbId(OWNER, movie.getImdbId());
+
+        when(movieRepository.updateName(OWNER, movie.getImdbId(), newName))
+                .thenReturn(Optional.of(new Movie(2L, OWNER, "tt6320628", newName, true, 9, 1)));
+        movieService.updateName(OWNER, movie.getImdbId(), newName);
+        assertEquals(newName, movieService.getMovieByImdbId(OWNER, "tt6320628").getName());
+
+        when(movieRepository.updateImdbId(OWNER, "tt6320628", newImdbId))
+                .thenReturn(Optional.of(new Movie(2L, OWNER, newImdbId, newName, true, 9, 2)));
+        movieService.updateImdbId(OWNER, "tt6320628", newImdbId);
+        when(movieRepository.findOneByOwnerAndImdbId(OWNER, "tt6320628")).thenReturn(null);
+        assertEquals(newName, movieService.getMovieByImdbId(OWNER, newImdbId).getName());
+        assertNull(movieService.getMovieByImdbId(OWNER, "tt6320628"));
+
+        // Once when first cached and once for the old IMDB id after it was changed
+        verify(movieRepository, times(2)).findOneByOwnerAndImdbId(OWNER, "tt6320628");
+        verify(movieRepository, never()).findOneByOwnerAndImdbId(OWNER, newImdbId);
+    }
+
+    @Test
+    public void testDeleteEvictsCache()
+    {
+        Movie movie = new Movie(3L, OWNER, "tt2250912", "Spider-Man: Homecoming", true, 8, 0);
+
+        when(movieRepository.findOneByOwnerAndImdbId(OWNER, movie.getImdbId())).thenReturn(movie);
+        movieService.getMovieByImdbId(OWNER, movie.getImdbId());
+
+        when(movieRepository.delete(OWNER, movie.getImdbId())).thenReturn(Optional.of(movie));
+        movieService.deleteMovie(OWNER, movie.getImdbId());
+        when(movieRepository.findOneByOwnerAndImdbId(OWNER, movie.getImdbId())).thenReturn(null);
+
+        assertNull(movieService.getMovieByImdbId(OWNER, movie.getImdbId()));
+    }
+
+    @Test
+    public void testDeletedMovieIsNotCachedFromLaggingReplica()
+    {
+        Movie movie = new Movie(5L, OWNER, "tt4154756", "Avengers: Infinity War", true, 9, 0);
+
+        // The replica has not caught up with the delete yet, only the primary knows the movie is gone
+        when(movieRepository.findOneByOwnerAndImdbId(OWNER, movie.getImdbId()))
+                .thenAnswer(invocation -> ReplicaRoutingDataSource.isPrimaryRequired() ? null : movie);
+        when(movieRepository.delete(OWNER, movie.getImdbId())).thenReturn(Optional.of(movie));
+        movieService.deleteMovie(OWNER, movie.getImdbId());
+
+        assertNull(movieService.getMovieByImdbId(OWNER, movie.getImdbId()));
+        assertNull(movieService.getMovieByImdbId(OWNER, movie.getImdbId()));
+    }
+
+    @Test
+    public void testLookupReadBeforeUpdateDoesNotReplaceUpdatedMovie()
+    {
+        Movie movie = new Movie(6L, OWNER, "tt0848228", "The Avengers", true, 8, 0);
+        String newName = "The Avengers (NEW)";
+
+        // The movie is updated after the lookup has read it but before the lookup has cached it
+        when(movieRepository.updateName(OWNER, movie.getImdbId(), newName))
+                .thenReturn(Optional.of(new Movie(6L, OWNER, movie.getImdbId(), newName, true, 8, 1)));
+        when(movieRepository.findOneByOwnerAndImdbId(OWNER, movie.getImdbId())).thenAnswer(invocation -> {
+            movieService.updateName(OWNER, movie.getImdbId(), newName);
+            return movie;
+        });
+
+        movieService.getMovieByImdbId(OWNER, movie.getImdbId());
+
+        assertEquals(newName, movieService.getMovieByImdbId(OWNER, movie.getImdbId()).getName());
+        verify(movieRepository, times(1)).findOneByOwnerAndImdbId(OWNER, movie.getImdbId());
+    }
+
+    @Test
+    public void testLookupReadBeforeDeleteDoesNotCacheDeletedMovie()
+    {
+        Movie movie = new Movie(7L, OWNER, "tt2395427", "Avengers: Age of Ultron", true, 7, 0);
+
+        // The movie is deleted after the lookup has read it but before the lookup has cached it
+        when(movieRepository.delete(OWNER, movie.getImdbId())).thenReturn(Optional.of(movie));
+        when(movieRepository.findOneByOwnerAndImdbId(OWNER, movie.getImdbId())).thenAnswer(invocation -> {
+            movieService.deleteMovie(OWNER, movie.getImdbId());
+            return movie;
+        });
+
+        movieService.getMovieByImdbId(OWNER, movie.getImdbId());
+
+        doReturn(null).when(movieRepository).findOneByOwnerAndImdbId(OWNER, movie.getImdbId());
+        assertNull(movieService.getMovieByImdbId(OWNER, movie.getImdbId()));
+    }
+
+    @Test
+    public void testOwnersAreCachedSeparately()
+    {
+        Movie movie = new Movie(4L, OWNER, "tt4154796", "Avengers: Endgame", true, 10, 0);
+
+        when(movieRepository.findOneByOwnerAndImdbId(OWNER, movie.getImdbId())).thenReturn(movie);
+        when(movieRepository.findOneByOwnerAndImdbId(Movie.DEFAULT_OWNER, movie.getImdbId())).thenReturn(null);
+
+        assertEquals(movie.getName(), movieService.getMovieByImdbId(OWNER, movie.getImdbId()).getName());
+        assertNull(movieService.getMovieByImdbId(Movie.DEFAULT_OWNER, movie.getImdbId()));
+    }
+}
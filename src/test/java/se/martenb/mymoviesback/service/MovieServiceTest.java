@@ -1,16 +1,42 @@
 package se.martenb.mymoviesback.service;
 
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import se.martenb.mymoviesback.controller.MovieAlreadyExistsException;
+import se.martenb.mymoviesback.controller.MovieDeltaExpiredException;
 import se.martenb.mymoviesback.controller.MovieNotFoundException;
+import org.springframework.cache.support.NoOpCacheManager;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import se.martenb.mymoviesback.model.Movie;
+import se.martenb.mymoviesback.model.MovieBatchResult;
+import se.martenb.mymoviesback.model.MovieBatchUpdate;
+import se.martenb.mymoviesback.model.MovieDelta;
+import se.martenb.mymoviesback.model.MovieLookup;
+import se.martenb.mymoviesback.model.MoviePage;
+import se.martenb.mymoviesback.model.MovieSort;
+import se.martenb.mymoviesback.model.MovieStats;
+import se.martenb.mymoviesback.model.MovieUpsertResult;
 import se.martenb.mymoviesback.dao.MovieRepository;
-
+import se.martenb.mymoviesback.dao.ReplicaRoutingDataSource;
+
+import javax.validation.ConstraintViolationException;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.jupiter.api.Assertions.*;
@@ -18,12 +44,24 @@ import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class MovieServiceTest {
-    @InjectMocks
+    static final String OWNER = "alice";
+
     MovieServiceImpl movieService;
 
     @Mock
     MovieRepository movieRepository;
 
+    @Mock
+    ApplicationEventPublisher eventPublisher;
+
+    Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+
+    @BeforeEach
+    public void setUp() {
+        movieService = new MovieServiceImpl(movieRepository, new ContainingMovieSearch(movieRepository), validator,
+                eventPublisher, new MovieCacheSynchronizer(new NoOpCacheManager()));
+    }
+
     @Test
     public void testGetAllMovies()
     {
@@ -32,12 +70,12 @@ class MovieServiceTest {
         Movie movieSpiderHome = new Movie("tt2250912", "Spider-Man: Homecoming", true, 8);
         List<Movie> movies = List.of(movieSpiderNo, movieSpiderFar, movieSpiderHome);
 
-        when(movieRepository.findAll()).thenReturn(movies);
+        when(movieRepository.findByOwner(OWNER)).thenReturn(movies);
 
-        List<Movie> movieList = movieService.getAllMovies(null);
+        List<Movie> movieList = movieService.getAllMovies(OWNER, null);
 
         assertEquals(3, movieList.size());
-        verify(movieRepository, times(1)).findAll();
+        verify(movieRepository, times(1)).findByOwner(OWNER);
     }
 
     @Test
@@ -47,12 +85,153 @@ class MovieServiceTest {
         String filterText = "way";
         List<Movie> moviesFiltered = List.of(movieSpiderNo);
 
-        when(movieRepository.findByNameContaining(filterText)).thenReturn(moviesFiltered);
+        when(movieRepository.findByOwnerAndNameContaining(OWNER, filterText)).thenReturn(moviesFiltered);
 
-        List<Movie> movieList = movieService.getAllMovies(filterText);
+        List<Movie> movieList = movieService.getAllMovies(OWNER, filterText);
 
         assertEquals(1, movieList.size());
-        verify(movieRepository, times(1)).findByNameContaining(eq(filterText));
+        verify(movieRepository, times(1)).findByOwnerAndNameContaining(eq(OWNER), eq(filterText));
+    }
+
+    @Test
+    public void testStreamAllMovies()
+    {
+        Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        Movie movieSpiderFar = new Movie("tt6320628", "Spider-Man: Far from Home", true, 9);
+
+        when(movieRepository.streamByOwnerOrderByIdAsc(OWNER)).thenReturn(Stream.of(movieSpiderNo, movieSpiderFar));
+
+        List<Movie> streamedMovies = new ArrayList<>();
+        movieService.streamAllMovies(OWNER, streamedMovies::add);
+
+        assertEquals(List.of(movieSpiderNo, movieSpiderFar), streamedMovies);
+        verify(movieRepository, times(1)).detach(movieSpiderNo);
+        verify(movieRepository, times(1)).detach(movieSpiderFar);
+    }
+
+    @Test
+    public void testGetMoviePageById()
+    {
+        Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        Movie movieSpiderFar = new Movie("tt6320628", "Spider-Man: Far from Home", true, 9);
+        Movie movieSpiderHome = new Movie("tt2250912", "Spider-Man: Homecoming", true, 8);
+        List<Movie> movies = List.of(movieSpiderNo, movieSpiderFar, movieSpiderHome);
+
+        when(movieRepository.findByOwnerAndIdGreaterThanOrderByIdAsc(eq(OWNER), eq(5L), eq(PageRequest.of(0, 3))))
+                .thenReturn(movies);
+
+        MoviePage page = movieService.getMoviePage(OWNER, 5L, null, 2, MovieSort.ID);
+
+        assertEquals(2, page.getMovies().size());
+        assertTrue(page.hasNext());
+        assertEquals(movieSpiderFar, page.getLast());
+    }
+
+    @Test
+    public void testGetMoviePageByIdLastPage()
+    {
+        Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        List<Movie> movies = List.of(movieSpiderNo);
+
+        when(movieRepository.findByOwnerAndIdGreaterThanOrderByIdAsc(eq(OWNER), eq(0L), eq(PageRequest.of(0, 3))))
+                .thenReturn(movies);
+
+        MoviePage page = movieService.getMoviePage(OWNER, null, null, 2, MovieSort.ID);
+
+        assertEquals(1, page.getMovies().size());
+        assertFalse(page.hasNext());
+    }
+
+    @Test
+    public void testGetMoviePageByNameLooksUpCursor()
+    {
+        Movie movieSpiderFar = new Movie("tt6320628", "Spider-Man: Far from Home", true, 9);
+        Movie movieSpiderHome = new Movie("tt2250912", "Spider-Man: Homecoming", true, 8);
+
+        when(movieRepository.findOneByOwnerAndId(OWNER, 7L)).thenReturn(movieSpiderFar);
+        when(movieRepository.findAfterOrderByNameAsc(eq(OWNER), eq(movieSpiderFar.getName()), eq(7L),
+                eq(PageRequest.of(0, 3))))
+                .thenReturn(List.of(movieSpiderHome));
+
+        MoviePage page = movieService.getMoviePage(OWNER, 7L, null, 2, MovieSort.NAME);
+
+        assertEquals(List.of(movieSpiderHome), page.getMovies());
+        assertFalse(page.hasNext());
+        verify(movieRepository, times(1)).findOneByOwnerAndId(OWNER, 7L);
+    }
+
+    @Test
+    public void testGetMoviePageByNameCursorNotExisting()
+    {
+        when(movieRepository.findOneByOwnerAndId(OWNER, 7L)).thenReturn(null);
+
+        assertThatThrownBy(() -> movieService.getMoviePage(OWNER, 7L, null, 2, MovieSort.NAME))
+                .isInstanceOf(MovieNotFoundException.class)
+                .hasNoCause();
+    }
+
+    @Test
+    public void testGetEstimatedMovieCount()
+    {
+        when(movieRepository.countByRating(OWNER)).thenReturn(new long[] {30, 0, 0, 0, 0, 0, 0, 0, 2, 4, 6});
+
+        assertEquals(42L, movieService.getEstimatedMovieCount(OWNER));
+    }
+
+    @Test
+    public void testGetMovieStats()
+    {
+        when(movieRepository.countByRating(OWNER)).thenReturn(new long[] {2, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1});
+
+        MovieStats stats = movieService.getMovieStats(OWNER);
+
+        assertEquals(5, stats.getTotal());
+        assertEquals(3, stats.getSeen());
+        assertEquals(9.0, stats.getMean());
+        verify(movieRepository, never()).findByOwner(any());
+    }
+
+    @Test
+    public void testGetMovieStatsReadFromPrimary()
+    {
+        // A replica that has not caught up would count a movie that has already been deleted
+        when(movieRepository.countByRating(OWNER)).thenAnswer(invocation -> ReplicaRoutingDataSource.isPrimaryRequired()
+                ? new long[] {2, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1} : new long[] {2, 0, 0, 0, 0, 0, 0, 0, 1, 1, 2});
+
+        assertEquals(5, movieService.getMovieStats(OWNER).getTotal());
+        assertFalse(ReplicaRoutingDataSource.isPrimaryRequired());
+    }
+
+    @Test
+    public void testGetMovieDelta()
+    {
+        MovieDelta delta = new MovieDelta(List.of(new Movie("tt10872600", "Spider-Man: No Way Home", true, 10)),
+                List.of("tt6320628"), 42, false);
+
+        when(movieRepository.findChangesSince(OWNER, 40, 100)).thenReturn(delta);
+        when(movieRepository.findDeltaHorizon()).thenReturn(30L);
+
+        assertSame(delta, movieService.getMovieDelta(OWNER, 40, 100));
+    }
+
+    @Test
+    public void testGetMovieDeltaFromStartAfterPruning()
+    {
+        MovieDelta delta = new MovieDelta(List.of(), List.of(), 42, false);
+
+        when(movieRepository.findChangesSince(OWNER, 0, 100)).thenReturn(delta);
+
+        assertSame(delta, movieService.getMovieDelta(OWNER, 0, 100));
+    }
+
+    @Test
+    public void testGetMovieDeltaExpired()
+    {
+        when(movieRepository.findChangesSince(OWNER, 20, 100)).thenReturn(new MovieDelta(List.of(), List.of(), 42,
+                false));
+        when(movieRepository.findDeltaHorizon()).thenReturn(30L);
+
+        assertThrows(MovieDeltaExpiredException.class, () -> movieService.getMovieDelta(OWNER, 20, 100));
     }
 
     @Test
@@ -60,26 +239,51 @@ class MovieServiceTest {
     {
         Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
 
-        when(movieRepository.findOneByImdbId(movieSpiderNo.getImdbId())).thenReturn(movieSpiderNo);
+        when(movieRepository.findOneByOwnerAndImdbId(OWNER, movieSpiderNo.getImdbId())).thenReturn(movieSpiderNo);
 
-        Movie foundMovie = movieService.getMovieByImdbId(movieSpiderNo.getImdbId());
+        Movie foundMovie = movieService.getMovieByImdbId(OWNER, movieSpiderNo.getImdbId());
 
         assertEquals(movieSpiderNo, foundMovie);
-        verify(movieRepository, times(1)).findOneByImdbId(eq(movieSpiderNo.getImdbId()));
+        verify(movieRepository, times(1)).findOneByOwnerAndImdbId(eq(OWNER), eq(movieSpiderNo.getImdbId()));
+    }
+
+    @Test
+    public void testGetMoviesByImdbIds()
+    {
+        Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        Movie movieSpiderHome = new Movie("tt2250912", "Spider-Man: Homecoming", true, 8);
+
+        when(movieRepository.findByOwnerAndImdbIdIn(eq(OWNER), any())).thenReturn(
+                List.of(movieSpiderNo, movieSpiderHome));
+
+        MovieLookup lookup = movieService.getMoviesByImdbIds(OWNER,
+                List.of("tt2250912", "tt99999999", "tt10872600", "tt2250912"));
+
+        assertEquals(List.of(movieSpiderHome, movieSpiderNo), lookup.getMovies());
+        assertEquals(List.of("tt99999999"), lookup.getMissing());
+        verify(movieRepository, times(1)).findByOwnerAndImdbIdIn(OWNER,
+                new LinkedHashSet<>(List.of("tt2250912", "tt99999999", "tt10872600")));
     }
 
     @Test
     public void testAddMovie()
     {
         Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        Movie addedMovie = new Movie(1L, "tt10872600", "Spider-Man: No Way Home", true, 10);
+
+        when(movieRepository.insertIfAbsent(isA(Movie.class))).thenReturn(Optional.of(addedMovie));
 
-        when(movieRepository.findOneByImdbId(movie.getImdbId())).thenReturn(null);
-        when(movieRepository.save(isA(Movie.class))).thenReturn(movie);
+        movieService.addMovie(OWNER, movie);
 
-        movieService.addMovie(movie);
+        verify(movieRepository, times(1)).insertIfAbsent(
+                argThat(m -> OWNER.equals(m.getOwner()) && movie.getImdbId().equals(m.getImdbId())));
+        verify(movieRepository, never()).findOneByOwnerAndImdbId(any(), any());
+        verify(movieRepository, never()).save(any());
 
-        verify(movieRepository, times(1)).findOneByImdbId(eq(movie.getImdbId()));
-        verify(movieRepository, times(1)).save(movie);
+        ArgumentCaptor<MovieChangeEvent> eventCaptor = ArgumentCaptor.forClass(MovieChangeEvent.class);
+        verify(eventPublisher, times(1)).publishEvent(eventCaptor.capture());
+        assertEquals(MovieChangeEvent.Type.ADDED, eventCaptor.getValue().getType());
+        assertEquals(1L, eventCaptor.getValue().getMovie().getId());
     }
 
     @Test
@@ -87,28 +291,196 @@ class MovieServiceTest {
     {
         Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
 
-        when(movieRepository.findOneByImdbId(movie.getImdbId())).thenReturn(movie);
+        when(movieRepository.insertIfAbsent(isA(Movie.class))).thenReturn(Optional.empty());
 
-        assertThatThrownBy(() -> movieService.addMovie(movie))
+        assertThatThrownBy(() -> movieService.addMovie(OWNER, movie))
                 .isInstanceOf(MovieAlreadyExistsException.class)
                 .hasNoCause();
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    public void testAddMovieInvalid()
+    {
+        Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", false, 10);
+
+        assertThatThrownBy(() -> movieService.addMovie(OWNER, movie))
+                .isInstanceOf(ConstraintViolationException.class)
+                .hasMessageContaining("If movie is not seen then rating cannot be set");
+        verify(movieRepository, never()).insertIfAbsent(any());
+    }
+
+    @Test
+    public void testUpsertMovieCreated()
+    {
+        Movie movie = new Movie(null, "Spider-Man: No Way Home", true, 10);
+        Movie storedMovie = new Movie(1L, "tt10872600", "Spider-Man: No Way Home", true, 10);
+
+        when(movieRepository.upsert(argThat(m -> "tt10872600".equals(m.getImdbId()) && OWNER.equals(m.getOwner()))))
+                .thenReturn(new MovieUpsertResult(storedMovie, true));
+
+        assertTrue(movieService.upsertMovie(OWNER, "tt10872600", movie));
+
+        ArgumentCaptor<MovieChangeEvent> eventCaptor = ArgumentCaptor.forClass(MovieChangeEvent.class);
+        verify(eventPublisher, times(1)).publishEvent(eventCaptor.capture());
+        assertEquals(MovieChangeEvent.Type.ADDED, eventCaptor.getValue().getType());
+    }
+
+    @Test
+    public void testUpsertMovieReplaced()
+    {
+        Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home (NEW)", true, 9);
+        Movie storedMovie = new Movie(1L, "tt10872600", "Spider-Man: No Way Home (NEW)", true, 9);
+
+        when(movieRepository.upsert(isA(Movie.class))).thenReturn(new MovieUpsertResult(storedMovie, false));
+
+        assertFalse(movieService.upsertMovie(OWNER, "tt10872600", movie));
+
+        ArgumentCaptor<MovieChangeEvent> eventCaptor = ArgumentCaptor.forClass(MovieChangeEvent.class);
+        verify(eventPublisher, times(1)).publishEvent(eventCaptor.capture());
+        assertEquals(MovieChangeEvent.Type.UPDATED, eventCaptor.getValue().getType());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAddMovies()
+    {
+        Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        Movie movieSpiderFar = new Movie("tt6320628", "Spider-Man: Far from Home", true, 9);
+        Movie movieSpiderHome = new Movie("tt2250912", "Spider-Man: Homecoming", true, 8);
+        Movie movieInvalid = new Movie("tt4154756", "Avengers: Infinity War", false, 5);
+        Movie movieDuplicate = new Movie("tt10872600", "Spider-Man: No Way Home (AGAIN)", true, 10);
+        List<Movie> movies = Arrays.asList(
+                movieSpiderNo, movieSpiderFar, movieInvalid, movieDuplicate, null, movieSpiderHome);
+
+        when(movieRepository.findImdbIdsByOwnerAndImdbIdIn(eq(OWNER), anyCollection()))
+                .thenReturn(List.of("tt6320628"));
+
+        List<MovieBatchResult> results = movieService.addMovies(OWNER, movies);
+
+        Assertions.assertThat(results).extracting(MovieBatchResult::getStatus).containsExactly(
+                MovieBatchResult.Status.CREATED,
+                MovieBatchResult.Status.ALREADY_EXISTS,
+                MovieBatchResult.Status.INVALID,
+                MovieBatchResult.Status.DUPLICATE,
+                MovieBatchResult.Status.INVALID,
+                MovieBatchResult.Status.CREATED);
+        Assertions.assertThat(results.get(2).getMessage()).contains(
+                "If movie is not seen then rating cannot be set and if movie is seen then rating must be between " +
+                        "1 and 10");
+        verify(movieRepository, times(1)).findImdbIdsByOwnerAndImdbIdIn(eq(OWNER),
+                argThat(imdbIds -> imdbIds.containsAll(List.of("tt10872600", "tt6320628", "tt2250912"))
+                        && imdbIds.size() == 3));
+        ArgumentCaptor<List<Movie>> savedMovies = ArgumentCaptor.forClass(List.class);
+        verify(movieRepository, times(1)).saveAll(savedMovies.capture());
+        Assertions.assertThat(savedMovies.getValue()).extracting(Movie::getImdbId)
+                .containsExactly("tt10872600", "tt2250912");
+        Assertions.assertThat(savedMovies.getValue()).extracting(Movie::getOwner).containsOnly(OWNER);
+    }
+
+    @Test
+    public void testUpdateMovies()
+    {
+        Movie movieSpiderNo = new Movie(1, OWNER, "tt10872600", "Spider-Man: No Way Home", true, 10, 0);
+        Movie movieSpiderFar = new Movie(2, OWNER, "tt6320628", "Spider-Man: Far from Home", true, 9, 0);
+        Movie movieAvengerInf = new Movie(3, OWNER, "tt4154756", "Avengers: Infinity War", false, 0, 0);
+        List<MovieBatchUpdate> updates = Arrays.asList(
+                new MovieBatchUpdate(MovieBatchUpdate.Operation.UNSEEN, "tt10872600", null, null),
+                new MovieBatchUpdate(MovieBatchUpdate.Operation.RATING, "tt10872600", null, 5),
+                new MovieBatchUpdate(MovieBatchUpdate.Operation.SEEN, "tt4154756", null, 7),
+                new MovieBatchUpdate(MovieBatchUpdate.Operation.NAME, "tt4154756", "", null),
+                new MovieBatchUpdate(MovieBatchUpdate.Operation.DELETE, "tt6320628", null, null),
+                new MovieBatchUpdate(MovieBatchUpdate.Operation.RATING, "tt6320628", null, 5),
+                new MovieBatchUpdate(MovieBatchUpdate.Operation.SEEN, "tt2250912", null, 8),
+                new MovieBatchUpdate(null, "tt2250912", null, null),
+                null);
+
+        when(movieRepository.findForUpdateByOwnerAndImdbIdInOrderByImdbId(eq(OWNER), anyCollection()))
+                .thenReturn(List.of(movieSpiderNo, movieSpiderFar, movieAvengerInf));
+
+        List<MovieBatchResult> results = movieService.updateMovies(OWNER, updates);
+
+        Assertions.assertThat(results).extracting(MovieBatchResult::getStatus).containsExactly(
+                MovieBatchResult.Status.UPDATED,
+                MovieBatchResult.Status.INVALID,
+                MovieBatchResult.Status.UPDATED,
+                MovieBatchResult.Status.INVALID,
+                MovieBatchResult.Status.DELETED,
+                MovieBatchResult.Status.NOT_FOUND,
+                MovieBatchResult.Status.NOT_FOUND,
+                MovieBatchResult.Status.INVALID,
+                MovieBatchResult.Status.INVALID);
+        Assertions.assertThat(results.get(1).getMessage()).contains(
+                "If movie is not seen then rating cannot be set and if movie is seen then rating must be between " +
+                        "1 and 10");
+        verify(movieRepository, times(1)).findForUpdateByOwnerAndImdbIdInOrderByImdbId(OWNER,
+                Set.of("tt10872600", "tt4154756", "tt6320628", "tt2250912"));
+        ArgumentCaptor<Collection<Movie>> updatedMovies = ArgumentCaptor.forClass(Collection.class);
+        verify(movieRepository, times(1)).updateMovies(eq(OWNER), updatedMovies.capture());
+        Assertions.assertThat(updatedMovies.getValue())
+                .extracting(Movie::getImdbId, Movie::getName, Movie::isSeen, Movie::getRating, Movie::getVersion)
+                .containsExactly(
+                        Assertions.tuple("tt10872600", "Spider-Man: No Way Home", false, 0, 1L),
+                        Assertions.tuple("tt4154756", "Avengers: Infinity War", true, 7, 1L));
+        verify(movieRepository, times(1)).deleteMovies(OWNER, List.of("tt6320628"));
+        verify(movieRepository, never()).flush();
+        assertTrue(movieSpiderNo.isSeen());
+        assertFalse(movieAvengerInf.isSeen());
+        verify(eventPublisher, times(3)).publishEvent(any(MovieChangeEvent.class));
+    }
+
+    @Test
+    public void testUpdateMoviesWithoutChange()
+    {
+        Movie movieSpiderNo = new Movie(1, OWNER, "tt10872600", "Spider-Man: No Way Home", true, 10, 0);
+
+        when(movieRepository.findForUpdateByOwnerAndImdbIdInOrderByImdbId(eq(OWNER), anyCollection()))
+                .thenReturn(List.of(movieSpiderNo));
+
+        List<MovieBatchResult> results = movieService.updateMovies(OWNER, List.of(
+                new MovieBatchUpdate(MovieBatchUpdate.Operation.RATING, "tt10872600", null, 6),
+                new MovieBatchUpdate(MovieBatchUpdate.Operation.RATING, "tt10872600", null, 10)));
+
+        Assertions.assertThat(results).extracting(MovieBatchResult::getStatus)
+                .containsOnly(MovieBatchResult.Status.UPDATED);
+        verify(movieRepository, times(1)).updateMovies(OWNER, List.of());
+        verify(movieRepository, times(1)).deleteMovies(OWNER, List.of());
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    public void testAddMoviesAllInvalid()
+    {
+        Movie movieInvalid = new Movie("tt4154756", "", false, 0);
+
+        List<MovieBatchResult> results = movieService.addMovies(OWNER, List.of(movieInvalid));
+
+        Assertions.assertThat(results).extracting(MovieBatchResult::getStatus)
+                .containsExactly(MovieBatchResult.Status.INVALID);
+        verify(movieRepository, never()).findImdbIdsByOwnerAndImdbIdIn(eq(OWNER), anyCollection());
+        verify(movieRepository, times(1)).saveAll(eq(List.of()));
     }
 
     @Test
     public void testUpdateMovie()
     {
-        Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        String movieImdbId = "tt10872600";
         Movie newMovie = new Movie("tt10872600", "Spider-Man: No Way Home (NEW)", true, 10);
+        Movie updatedMovie = new Movie(1L, OWNER, "tt10872600", "Spider-Man: No Way Home (NEW)", true, 10, 1);
 
-        when(movieRepository.findOneByImdbId(movie.getImdbId())).thenReturn(movie);
-        when(movieRepository.save(isA(Movie.class))).thenReturn(movie);
+        when(movieRepository.update(eq(movieImdbId), isA(Movie.class))).thenReturn(Optional.of(updatedMovie));
 
-        movieService.updateMovie(movie.getImdbId(), newMovie);
+        movieService.updateMovie(OWNER, movieImdbId, newMovie);
 
-        assertEquals(movie.getName(), newMovie.getName());
-        verify(movieRepository, times(1)).findOneByImdbId(eq(movie.getImdbId()));
-        verify(movieRepository, times(1)).save(movie);
+        verify(movieRepository, times(1)).update(eq(movieImdbId),
+                argThat(m -> OWNER.equals(m.getOwner()) && newMovie.getName().equals(m.getName())));
+        verify(movieRepository, never()).findOneByOwnerAndImdbId(any(), any());
+        verify(movieRepository, never()).save(any());
 
+        ArgumentCaptor<MovieChangeEvent> eventCaptor = ArgumentCaptor.forClass(MovieChangeEvent.class);
+        verify(eventPublisher, times(1)).publishEvent(eventCaptor.capture());
+        assertEquals(MovieChangeEvent.Type.UPDATED, eventCaptor.getValue().getType());
+        assertEquals(updatedMovie.getName(), eventCaptor.getValue().getMovie().getName());
     }
 
     @Test
@@ -117,28 +489,64 @@ class MovieServiceTest {
         String origMovieImdbId = "tt10872600";
         Movie newMovie = new Movie("tt10872600", "Spider-Man: No Way Home (NEW)", true, 10);
 
-        when(movieRepository.findOneByImdbId(origMovieImdbId)).thenReturn(null);
+        when(movieRepository.update(eq(origMovieImdbId), isA(Movie.class))).thenReturn(Optional.empty());
 
-        assertThatThrownBy(() -> movieService.updateMovie(origMovieImdbId, newMovie))
+        assertThatThrownBy(() -> movieService.updateMovie(OWNER, origMovieImdbId, newMovie))
                 .isInstanceOf(MovieNotFoundException.class)
                 .hasNoCause();
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    public void testUpdateMovieImdbIdAlreadyExistingInCollection()
+    {
+        String movieImdbId = "tt10872600";
+        Movie newMovie = new Movie("tt6320628", "Spider-Man: No Way Home", true, 10);
 
+        when(movieRepository.update(eq(movieImdbId), isA(Movie.class)))
+                .thenThrow(new DataIntegrityViolationException("duplicate key"));
+
+        assertThatThrownBy(() -> movieService.updateMovie(OWNER, movieImdbId, newMovie))
+                .isInstanceOf(MovieAlreadyExistsException.class);
+        verify(eventPublisher, never()).publishEvent(any());
     }
 
     @Test
     public void testUpdateMovieRating()
     {
-        Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 8);
+        String movieImdbId = "tt10872600";
         int newRating = 10;
+        Movie updatedMovie = new Movie(1L, movieImdbId, "Spider-Man: No Way Home", true, newRating);
+
+        when(movieRepository.updateRating(OWNER, movieImdbId, newRating)).thenReturn(Optional.of(updatedMovie));
 
-        when(movieRepository.findOneByImdbId(movie.getImdbId())).thenReturn(movie);
-        when(movieRepository.save(isA(Movie.class))).thenReturn(movie);
+        movieService.updateRating(OWNER, movieImdbId, newRating);
 
-        movieService.updateRating(movie.getImdbId(), newRating);
+        verify(movieRepository, times(1)).updateRating(eq(OWNER), eq(movieImdbId), eq(newRating));
+        verify(movieRepository, never()).findOneByOwnerAndImdbId(any(), any());
+        verify(movieRepository, never()).save(any());
 
-        assertEquals(movie.getRating(), newRating);
-        verify(movieRepository, times(1)).findOneByImdbId(eq(movie.getImdbId()));
-        verify(movieRepository, times(1)).save(movie);
+        ArgumentCaptor<MovieChangeEvent> eventCaptor = ArgumentCaptor.forClass(MovieChangeEvent.class);
+        verify(eventPublisher, times(1)).publishEvent(eventCaptor.capture());
+        assertEquals(newRating, eventCaptor.getValue().getMovie().getRating());
+    }
+
+    @Test
+    public void testUpdateMovieRatingNotAllowed()
+    {
+        Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", false, 0);
+        int newRating = 10;
+
+        when(movieRepository.updateRating(OWNER, movie.getImdbId(), newRating)).thenReturn(Optional.empty());
+        when(movieRepository.findOneByOwnerAndImdbId(OWNER, movie.getImdbId())).thenReturn(movie);
+
+        assertThatThrownBy(() -> movieService.updateRating(OWNER, movie.getImdbId(), newRating))
+                .isInstanceOf(ConstraintViolationException.class)
+                .hasMessageContaining("If movie is not seen then rating cannot be set");
+
+        assertEquals(0, movie.getRating());
+        verify(movieRepository, never()).save(any());
+        verify(eventPublisher, never()).publishEvent(any());
     }
 
     @Test
@@ -147,9 +555,10 @@ class MovieServiceTest {
         String movieImdbId = "tt10872600";
         int newRating = 10;
 
-        when(movieRepository.findOneByImdbId(movieImdbId)).thenReturn(null);
+        when(movieRepository.updateRating(OWNER, movieImdbId, newRating)).thenReturn(Optional.empty());
+        when(movieRepository.findOneByOwnerAndImdbId(OWNER, movieImdbId)).thenReturn(null);
 
-        assertThatThrownBy(() -> movieService.updateRating(movieImdbId, newRating))
+        assertThatThrownBy(() -> movieService.updateRating(OWNER, movieImdbId, newRating))
                 .isInstanceOf(MovieNotFoundException.class)
                 .hasNoCause();
     }
@@ -157,17 +566,29 @@ class MovieServiceTest {
     @Test
     public void testUpdateMovieName()
     {
-        Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 8);
+        String movieImdbId = "tt10872600";
         String newName = "Spider-Man: No Way Home (NEW)";
+        Movie updatedMovie = new Movie(1L, movieImdbId, newName, true, 8);
+
+        when(movieRepository.updateName(OWNER, movieImdbId, newName)).thenReturn(Optional.of(updatedMovie));
+
+        movieService.updateName(OWNER, movieImdbId, newName);
 
-        when(movieRepository.findOneByImdbId(movie.getImdbId())).thenReturn(movie);
-        when(movieRepository.save(isA(Movie.class))).thenReturn(movie);
+        verify(movieRepository, times(1)).updateName(eq(OWNER), eq(movieImdbId), eq(newName));
+        verify(movieRepository, never()).findOneByOwnerAndImdbId(any(), any());
+        verify(movieRepository, never()).save(any());
+    }
+
+    @Test
+    public void testUpdateMovieNameBlank()
+    {
+        String movieImdbId = "tt10872600";
 
-        movieService.updateName(movie.getImdbId(), newName);
+        assertThatThrownBy(() -> movieService.updateName(OWNER, movieImdbId, " "))
+                .isInstanceOf(ConstraintViolationException.class)
+                .hasMessageContaining("Name cannot be null or blank");
 
-        assertEquals(movie.getName(), newName);
-        verify(movieRepository, times(1)).findOneByImdbId(eq(movie.getImdbId()));
-        verify(movieRepository, times(1)).save(movie);
+        verify(movieRepository, never()).updateName(any(), any(), any());
     }
 
     @Test
@@ -176,9 +597,9 @@ class MovieServiceTest {
         String movieImdbId = "tt10872600";
         String newName = "Spider-Man: No Way Home (NEW)";
 
-        when(movieRepository.findOneByImdbId(movieImdbId)).thenReturn(null);
+        when(movieRepository.updateName(OWNER, movieImdbId, newName)).thenReturn(Optional.empty());
 
-        assertThatThrownBy(() -> movieService.updateName(movieImdbId, newName))
+        assertThatThrownBy(() -> movieService.updateName(OWNER, movieImdbId, newName))
                 .isInstanceOf(MovieNotFoundException.class)
                 .hasNoCause();
     }
@@ -187,17 +608,46 @@ class MovieServiceTest {
     public void testUpdateMovieImdbId()
     {
         String previousImdbId = "tt10872600";
-        Movie movie = new Movie(previousImdbId, "Spider-Man: No Way Home", true, 8);
         String newImdbId = "tt99999999";
+        Movie updatedMovie = new Movie(1L, newImdbId, "Spider-Man: No Way Home", true, 8);
+
+        when(movieRepository.updateImdbId(OWNER, previousImdbId, newImdbId)).thenReturn(Optional.of(updatedMovie));
+
+        movieService.updateImdbId(OWNER, previousImdbId, newImdbId);
+
+        verify(movieRepository, times(1)).updateImdbId(eq(OWNER), eq(previousImdbId), eq(newImdbId));
+        verify(movieRepository, never()).save(any());
+
+        ArgumentCaptor<MovieChangeEvent> eventCaptor = ArgumentCaptor.forClass(MovieChangeEvent.class);
+        verify(eventPublisher, times(1)).publishEvent(eventCaptor.capture());
+        assertEquals(MovieChangeEvent.Type.UPDATED, eventCaptor.getValue().getType());
+        assertEquals(previousImdbId, eventCaptor.getValue().getImdbId());
+        assertEquals(newImdbId, eventCaptor.getValue().getMovie().getImdbId());
+    }
+
+    @Test
+    public void testUpdateMovieImdbIdTooLong()
+    {
+        String movieImdbId = "tt10872600";
+
+        assertThatThrownBy(() -> movieService.updateImdbId(OWNER, movieImdbId, "tt" + "9".repeat(19)))
+                .isInstanceOf(ConstraintViolationException.class)
+                .hasMessageContaining("IMDB id must be between 1 and 20 characters");
 
-        when(movieRepository.findOneByImdbId(movie.getImdbId())).thenReturn(movie);
-        when(movieRepository.save(isA(Movie.class))).thenReturn(movie);
+        verify(movieRepository, never()).updateImdbId(any(), any(), any());
+    }
+
+    @Test
+    public void testUpdateMovieImdbIdAlreadyExisting()
+    {
+        String movieImdbId = "tt10872600";
+        String newImdbId = "tt6320628";
 
-        movieService.updateImdbId(movie.getImdbId(), newImdbId);
+        when(movieRepository.updateImdbId(OWNER, movieImdbId, newImdbId))
+                .thenThrow(new DataIntegrityViolationException("duplicate key"));
 
-        assertEquals(movie.getImdbId(), newImdbId);
-        verify(movieRepository, times(1)).findOneByImdbId(eq(previousImdbId));
-        verify(movieRepository, times(1)).save(movie);
+        assertThatThrownBy(() -> movieService.updateImdbId(OWNER, movieImdbId, newImdbId))
+                .isInstanceOf(MovieAlreadyExistsException.class);
     }
 
     @Test
@@ -206,9 +656,9 @@ class MovieServiceTest {
         String movieImdbId = "tt10872600";
         String newImdbId = "tt99999999";
 
-        when(movieRepository.findOneByImdbId(movieImdbId)).thenReturn(null);
+        when(movieRepository.updateImdbId(OWNER, movieImdbId, newImdbId)).thenReturn(Optional.empty());
 
-        assertThatThrownBy(() -> movieService.updateImdbId(movieImdbId, newImdbId))
+        assertThatThrownBy(() -> movieService.updateImdbId(OWNER, movieImdbId, newImdbId))
                 .isInstanceOf(MovieNotFoundException.class)
                 .hasNoCause();
     }
@@ -216,18 +666,34 @@ class MovieServiceTest {
     @Test
     public void testUpdateMovieSetSeen()
     {
-        Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", false, 0);
+        String movieImdbId = "tt10872600";
         int newRating = 10;
+        Movie updatedMovie = new Movie(1L, movieImdbId, "Spider-Man: No Way Home", true, newRating);
+
+        when(movieRepository.updateSeen(OWNER, movieImdbId, newRating)).thenReturn(Optional.of(updatedMovie));
+
+        movieService.setMovieSeen(OWNER, movieImdbId, newRating);
 
-        when(movieRepository.findOneByImdbId(movie.getImdbId())).thenReturn(movie);
-        when(movieRepository.save(isA(Movie.class))).thenReturn(movie);
+        verify(movieRepository, times(1)).updateSeen(eq(OWNER), eq(movieImdbId), eq(newRating));
+        verify(movieRepository, never()).findOneByOwnerAndImdbId(any(), any());
+        verify(movieRepository, never()).save(any());
+    }
+
+    @Test
+    public void testUpdateMovieSetSeenRatingTooHigh()
+    {
+        Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", false, 0);
+        int newRating = 11;
+
+        when(movieRepository.updateSeen(OWNER, movie.getImdbId(), newRating)).thenReturn(Optional.empty());
+        when(movieRepository.findOneByOwnerAndImdbId(OWNER, movie.getImdbId())).thenReturn(movie);
 
-        movieService.setMovieSeen(movie.getImdbId(), newRating);
+        assertThatThrownBy(() -> movieService.setMovieSeen(OWNER, movie.getImdbId(), newRating))
+                .isInstanceOf(ConstraintViolationException.class)
+                .hasMessageContaining("if movie is seen then rating must be between 1 and 10");
 
-        assertTrue(movie.isSeen());
-        assertEquals(movie.getRating(), newRating);
-        verify(movieRepository, times(1)).findOneByImdbId(eq(movie.getImdbId()));
-        verify(movieRepository, times(1)).save(movie);
+        assertFalse(movie.isSeen());
+        verify(movieRepository, never()).save(any());
     }
 
     @Test
@@ -236,9 +702,10 @@ class MovieServiceTest {
         String movieImdbId = "tt10872600";
         int newRating = 10;
 
-        when(movieRepository.findOneByImdbId(movieImdbId)).thenReturn(null);
+        when(movieRepository.updateSeen(OWNER, movieImdbId, newRating)).thenReturn(Optional.empty());
+        when(movieRepository.findOneByOwnerAndImdbId(OWNER, movieImdbId)).thenReturn(null);
 
-        assertThatThrownBy(() -> movieService.setMovieSeen(movieImdbId, newRating))
+        assertThatThrownBy(() -> movieService.setMovieSeen(OWNER, movieImdbId, newRating))
                 .isInstanceOf(MovieNotFoundException.class)
                 .hasNoCause();
     }
@@ -246,17 +713,16 @@ class MovieServiceTest {
     @Test
     public void testUpdateMovieSetUnseen()
     {
-        Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        String movieImdbId = "tt10872600";
+        Movie updatedMovie = new Movie(1L, movieImdbId, "Spider-Man: No Way Home", false, 0);
 
-        when(movieRepository.findOneByImdbId(movie.getImdbId())).thenReturn(movie);
-        when(movieRepository.save(isA(Movie.class))).thenReturn(movie);
+        when(movieRepository.updateUnseen(OWNER, movieImdbId)).thenReturn(Optional.of(updatedMovie));
 
-        movieService.setMovieUnseen(movie.getImdbId());
+        movieService.setMovieUnseen(OWNER, movieImdbId);
 
-        assertFalse(movie.isSeen());
-        assertEquals(movie.getRating(), 0);
-        verify(movieRepository, times(1)).findOneByImdbId(eq(movie.getImdbId()));
-        verify(movieRepository, times(1)).save(movie);
+        verify(movieRepository, times(1)).updateUnseen(eq(OWNER), eq(movieImdbId));
+        verify(movieRepository, never()).findOneByOwnerAndImdbId(any(), any());
+        verify(movieRepository, never()).save(any());
     }
 
     @Test
@@ -264,9 +730,9 @@ class MovieServiceTest {
     {
         String movieImdbId = "tt10872600";
 
-        when(movieRepository.findOneByImdbId(movieImdbId)).thenReturn(null);
+        when(movieRepository.updateUnseen(OWNER, movieImdbId)).thenReturn(Optional.empty());
 
-        assertThatThrownBy(() -> movieService.setMovieUnseen(movieImdbId))
+        assertThatThrownBy(() -> movieService.setMovieUnseen(OWNER, movieImdbId))
                 .isInstanceOf(MovieNotFoundException.class)
                 .hasNoCause();
     }
@@ -274,15 +740,19 @@ class MovieServiceTest {
     @Test
     public void testDeleteMovie()
     {
-        Movie movie = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+        Movie movie = new Movie(1L, OWNER, "tt10872600", "Spider-Man: No Way Home", true, 10, 0);
+
+        when(movieRepository.delete(OWNER, movie.getImdbId())).thenReturn(Optional.of(movie));
 
-        when(movieRepository.findOneByImdbId(movie.getImdbId())).thenReturn(movie);
-        doNothing().when(movieRepository).deleteById(eq(movie.getId()));
+        movieService.deleteMovie(OWNER, movie.getImdbId());
 
-        movieService.deleteMovie(movie.getImdbId());
+        verify(movieRepository, times(1)).delete(eq(OWNER), eq(movie.getImdbId()));
+        verify(movieRepository, never()).findOneByOwnerAndImdbId(any(), any());
 
-        verify(movieRepository, times(1)).findOneByImdbId(eq(movie.getImdbId()));
-        verify(movieRepository, times(1)).deleteById(movie.getId());
+        ArgumentCaptor<MovieChangeEvent> eventCaptor = ArgumentCaptor.forClass(MovieChangeEvent.class);
+        verify(eventPublisher, times(1)).publishEvent(eventCaptor.capture());
+        assertEquals(MovieChangeEvent.Type.DELETED, eventCaptor.getValue().getType());
+        assertEquals(movie.getImdbId(), eventCaptor.getValue().getImdbId());
     }
 
     @Test
@@ -290,9 +760,9 @@ class MovieServiceTest {
     {
         String movieImdbId = "tt10872600";
 
-        when(movieRepository.findOneByImdbId(movieImdbId)).thenReturn(null);
+        when(movieRepository.delete(OWNER, movieImdbId)).thenReturn(Optional.empty());
 
-        assertThatThrownBy(() -> movieService.deleteMovie(movieImdbId))
+        assertThatThrownBy(() -> movieService.deleteMovie(OWNER, movieImdbId))
                 .isInstanceOf(MovieNotFoundException.class)
                 .hasNoCause();
     }
@@ -0,0 +1,89 @@
+package se.martenb.mymoviesback.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.transaction.PlatformTransactionManager;
+import se.martenb.mymoviesback.config.CacheConfig;
+import se.martenb.mymoviesback.dao.MovieRepository;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class MovieStatsReconcilerTest {
+    MovieStatsReconciler reconciler;
+
+    @Mock
+    MovieRepository movieRepository;
+
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    CacheManager cacheManager = new ConcurrentMapCacheManager(CacheConfig.MOVIE_STATS);
+
+    @BeforeEach
+    public void setUp() {
+        reconciler = new MovieStatsReconciler(movieRepository, transactionManager, cacheManager);
+    }
+
+    @Test
+    public void testMatchingCountsAreKept() {
+        when(movieRepository.findAllOwners()).thenReturn(List.of("alice", "default"));
+        when(movieRepository.countByRatingOfMovies("default")).thenReturn(new long[] {1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 2});
+        when(movieRepository.countByRating("default")).thenReturn(new long[] {1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 2});
+        when(movieRepository.countByRatingOfMovies("alice")).thenReturn(new long[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 0});
+        when(movieRepository.countByRating("alice")).thenReturn(new long[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 0});
+
+        assertFalse(reconciler.reconcile());
+        verify(movieRepository, never()).addRatingCounts(any(), any());
+    }
+
+    @Test
+    public void testDriftedCountsAreCorrected() {
+        when(movieRepository.findAllOwners()).thenReturn(List.of("alice", "default"));
+        when(movieRepository.countByRatingOfMovies("default")).thenReturn(new long[] {1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 2});
+        when(movieRepository.countByRating("default")).thenReturn(new long[] {1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 2});
+        when(movieRepository.countByRatingOfMovies("alice")).thenReturn(new long[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 0});
+        when(movieRepository.countByRating("alice")).thenReturn(new long[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 1});
+        cacheManager.getCache(CacheConfig.MOVIE_STATS).put("version", "stale");
+
+        assertTrue(reconciler.reconcile());
+        verify(movieRepository, times(1)).addRatingCounts("alice", new long[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, -1});
+        verify(movieRepository, never()).addRatingCounts(eq("default"), any());
+        assertNull(cacheManager.getCache(CacheConfig.MOVIE_STATS).get("version"));
+    }
+
+    @Test
+    public void testCountsOfOwnerWithoutMoviesAreCorrected() {
+        when(movieRepository.findAllOwners()).thenReturn(List.of("alice"));
+        when(movieRepository.countByRatingOfMovies("alice")).thenReturn(new long[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+        when(movieRepository.countByRating("alice")).thenReturn(new long[] {1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+
+        assertTrue(reconciler.reconcile());
+        verify(movieRepository, times(1)).addRatingCounts("alice", new long[] {-1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+    }
+
+    @Test
+    public void testOwnerCorrectedConcurrentlyIsSkipped() {
+        when(movieRepository.findAllOwners()).thenReturn(List.of("alice", "default"));
+        when(movieRepository.countByRatingOfMovies("alice")).thenReturn(new long[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 0});
+        when(movieRepository.countByRating("alice")).thenReturn(new long[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 1});
+        doThrow(new CannotAcquireLockException("could not serialize access due to concurrent update"))
+                .when(movieRepository).addRatingCounts(eq("alice"), any());
+        when(movieRepository.countByRatingOfMovies("default")).thenReturn(new long[] {1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 2});
+        when(movieRepository.countByRating("default")).thenReturn(new long[] {1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1});
+
+        assertTrue(reconciler.reconcile());
+        verify(movieRepository, times(1)).addRatingCounts("default", new long[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1});
+    }
+}
@@ -0,0 +1,45 @@
+package se.martenb.mymoviesback.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import se.martenb.mymoviesback.dao.MovieRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class MovieTombstonePrunerTest {
+    MovieTombstonePruner pruner;
+
+    @Mock
+    MovieRepository movieRepository;
+
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    public void setUp() {
+        pruner = new MovieTombstonePruner(movieRepository, transactionManager, Duration.ofDays(7));
+    }
+
+    @Test
+    public void testTombstonesOlderThanRetentionArePruned() {
+        ArgumentCaptor<Instant> deletedBefore = ArgumentCaptor.forClass(Instant.class);
+        when(movieRepository.pruneTombstones(deletedBefore.capture())).thenReturn(3L);
+
+        Instant earliest = Instant.now().minus(Duration.ofDays(7));
+        assertEquals(3, pruner.prune());
+        Instant latest = Instant.now().minus(Duration.ofDays(7));
+
+        assertFalse(deletedBefore.getValue().isBefore(earliest));
+        assertFalse(deletedBefore.getValue().isAfter(latest));
+    }
+}
@@ -0,0 +1,156 @@
+package se.martenb.mymoviesback.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import se.martenb.mymoviesback.dao.MovieRepository;
+import se.martenb.mymoviesback.model.Movie;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class NgramMovieSearchTest {
+    static final String OWNER = Movie.DEFAULT_OWNER;
+
+    NgramMovieSearch movieSearch;
+
+    @Mock
+    MovieRepository movieRepository;
+
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    public void setUp() {
+        when(movieRepository.streamAllByOrderByIdAsc()).thenReturn(Stream.of(
+                new Movie(1L, "tt10872600", "Spider-Man: No Way Home", true, 10),
+                new Movie(2L, "tt6320628", "Spider-Man: Far from Home", true, 9),
+                new Movie(3L, "tt2250912", "Spider-Man: Homecoming", true, 8),
+                new Movie(4L, "tt0211915", "Le Fabuleux Destin d'Amélie Poulain", false, 0)));
+
+        movieSearch = new NgramMovieSearch(movieRepository, transactionManager);
+        movieSearch.buildIndex();
+    }
+
+    @Test
+    public void testSearch()
+    {
+        assertEquals(List.of("tt10872600", "tt6320628", "tt2250912"), imdbIds(movieSearch.search(OWNER, "home")));
+        assertEquals(List.of("tt10872600"), imdbIds(movieSearch.search(OWNER, "No Way")));
+        assertEquals(List.of(), imdbIds(movieSearch.search(OWNER, "Way No")));
+        assertEquals(List.of(), imdbIds(movieSearch.search(OWNER, "Batman")));
+    }
+
+    @Test
+    public void testSearchIgnoresAccents()
+    {
+        assertEquals(List.of("tt0211915"), imdbIds(movieSearch.search(OWNER, "AMELIE")));
+        assertEquals(List.of("tt0211915"), imdbIds(movieSearch.search(OWNER, "amélie")));
+    }
+
+    @Test
+    public void testSearchShorterThanGram()
+    {
+        assertEquals(List.of("tt10872600", "tt6320628", "tt2250912"), imdbIds(movieSearch.search(OWNER, "-m")));
+        assertEquals(4, movieSearch.search(OWNER, "").size());
+    }
+
+    @Test
+    public void testSearchReturnsCopies()
+    {
+        movieSearch.search(OWNER, "Homecoming").get(0).setName("Changed");
+
+        assertEquals("Spider-Man: Homecoming", movieSearch.search(OWNER, "Homecoming").get(0).getName());
+    }
+
+    @Test
+    public void testMovieChanges()
+    {
+        Movie movieEndgame = new Movie(5L, "tt4154796", "Avengers: Endgame", true, 10);
+        movieSearch.onMovieChange(MovieChangeEvent.added(movieEndgame));
+        assertEquals(List.of("tt4154796"), imdbIds(movieSearch.search(OWNER, "endgame")));
+
+        Movie movieHome = new Movie(3L, "tt9999999", "Spider-Man: Homecoming", true, 8, 1);
+        movieSearch.onMovieChange(MovieChangeEvent.updated("tt2250912", movieHome));
+        assertEquals(List.of("tt9999999"), imdbIds(movieSearch.search(OWNER, "coming")));
+
+        movieHome = new Movie(3L, "tt9999999", "Spider-Man: Homeward", true, 8, 2);
+        movieSearch.onMovieChange(MovieChangeEvent.updated("tt9999999", movieHome));
+        assertEquals(List.of(), imdbIds(movieSearch.search(OWNER, "coming")));
+        assertEquals(List.of("tt9999999"), imdbIds(movieSearch.search(OWNER, "homeward")));
+
+        movieSearch.onMovieChange(MovieChangeEvent.deleted(movieHome));
+        movieSearch.onMovieChange(MovieChangeEvent.deleted(movieEndgame));
+        assertEquals(List.of("tt10872600", "tt6320628"), imdbIds(movieSearch.search(OWNER, "spider")));
+        assertEquals(List.of(), imdbIds(movieSearch.search(OWNER, "endgame")));
+
+        Movie movieInfinity = new Movie(6L, "tt4154756", "Avengers: Infinity War", false, 0);
+        movieSearch.onMovieChange(MovieChangeEvent.added(movieInfinity));
+        assertEquals(List.of("tt4154756"), imdbIds(movieSearch.search(OWNER, "avengers")));
+    }
+
+    @Test
+    public void testChangesAppliedOutOfOrder()
+    {
+        Movie movieHome = new Movie(3L, "tt2250912", "Spider-Man: Homecoming", true, 8, 0);
+        Movie movieRenamed = new Movie(3L, "tt9999999", "Spider-Man: Homeward", true, 8, 1);
+        Movie movieRerated = new Movie(3L, "tt8888888", "Spider-Man: Homeward", true, 9, 2);
+
+        // The second change is committed right after the first one and is applied before it
+        movieSearch.onMovieChange(MovieChangeEvent.updated("tt9999999", movieRerated));
+        movieSearch.onMovieChange(MovieChangeEvent.updated("tt2250912", movieRenamed));
+        movieSearch.onMovieChange(MovieChangeEvent.updated("tt2250912", movieHome));
+        assertEquals(List.of("tt8888888"), imdbIds(movieSearch.search(OWNER, "homeward")));
+        assertEquals(List.of(), imdbIds(movieSearch.search(OWNER, "coming")));
+
+        // A change that is applied after the movie has been deleted does not add it back
+        movieSearch.onMovieChange(MovieChangeEvent.deleted(movieRerated));
+        movieSearch.onMovieChange(MovieChangeEvent.updated("tt2250912", movieRenamed));
+        assertEquals(List.of(), imdbIds(movieSearch.search(OWNER, "homeward")));
+    }
+
+    @Test
+    public void testOwnersAreIndexedSeparately()
+    {
+        Movie movieEndgame = new Movie(5L, "alice", "tt4154796", "Avengers: Endgame", true, 10, 0);
+        movieSearch.onMovieChange(MovieChangeEvent.added(movieEndgame));
+        Movie movieHome = new Movie(6L, "alice", "tt2250912", "Spider-Man: Homecoming", true, 7, 0);
+        movieSearch.onMovieChange(MovieChangeEvent.added(movieHome));
+
+        assertEquals(List.of(), imdbIds(movieSearch.search(OWNER, "endgame")));
+        assertEquals(List.of("tt4154796"), imdbIds(movieSearch.search("alice", "endgame")));
+        assertEquals(List.of("tt2250912"), imdbIds(movieSearch.search("alice", "home")));
+        assertEquals(List.of(), imdbIds(movieSearch.search("bob", "home")));
+
+        movieSearch.onMovieChange(MovieChangeEvent.deleted(movieHome));
+        assertEquals(List.of("tt10872600", "tt6320628", "tt2250912"), imdbIds(movieSearch.search(OWNER, "home")));
+        assertEquals(List.of(), imdbIds(movieSearch.search("alice", "home")));
+    }
+
+    @Test
+    public void testPostingList()
+    {
+        NgramMovieSearch.PostingList postingList = new NgramMovieSearch.PostingList();
+        for (int docId : new int[] {7, 3, 11, 5, 3, 1, 9})
+            postingList.add(docId);
+
+        assertTrue(postingList.contains(3));
+        assertTrue(postingList.remove(3));
+        assertEquals(false, postingList.contains(3));
+        assertEquals(false, postingList.remove(3));
+        assertTrue(postingList.contains(1) && postingList.contains(11));
+    }
+
+    private static List<String> imdbIds(List<Movie> movies) {
+        return movies.stream().map(Movie::getImdbId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,44 @@
+package se.martenb.mymoviesback.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import se.martenb.mymoviesback.dao.MovieRepository;
+import se.martenb.mymoviesback.model.Movie;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TrigramMovieSearchTest {
+    @InjectMocks
+    TrigramMovieSearch movieSearch;
+
+    @Mock
+    MovieRepository movieRepository;
+
+    @Test
+    public void testSearch()
+    {
+        Movie movieSpiderNo = new Movie("tt10872600", "Spider-Man: No Way Home", true, 10);
+
+        when(movieRepository.searchByNormalizedName("alice", "way", "way")).thenReturn(List.of(movieSpiderNo));
+
+        List<Movie> movieList = movieSearch.search("alice", "way");
+
+        assertEquals(List.of(movieSpiderNo), movieList);
+        verify(movieRepository, times(1)).searchByNormalizedName(eq("alice"), eq("way"), eq("way"));
+    }
+
+    @Test
+    public void testSearchEscapesLikePattern()
+    {
+        movieSearch.search("alice", "100%_\\");
+
+        verify(movieRepository, times(1)).searchByNormalizedName(eq("alice"), eq("100%_\\"), eq("100\\%\\_\\\\"));
+    }
+}
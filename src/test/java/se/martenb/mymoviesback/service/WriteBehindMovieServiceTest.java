@@ -0,0 +1,220 @@
+package se.martenb.mymoviesback.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+import se.martenb.mymoviesback.controller.MovieNotFoundException;
+import se.martenb.mymoviesback.dao.MovieRepository;
+import se.martenb.mymoviesback.model.Movie;
+import se.martenb.mymoviesback.model.MovieLookup;
+
+import javax.validation.ConstraintViolationException;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class WriteBehindMovieServiceTest {
+    static final String OWNER = "alice";
+
+    WriteBehindMovieService movieService;
+
+    @Mock
+    MovieService delegate;
+
+    @Mock
+    MovieRepository movieRepository;
+
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    @Mock
+    ApplicationEventPublisher eventPublisher;
+
+    Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+
+    MovieChangeCounter changeCounter;
+
+    Movie movieSpiderHome = new Movie(1, OWNER, "tt2250912", "Spider-Man: Homecoming", true, 8, 3);
+
+    @BeforeEach
+    public void setUp() {
+        changeCounter = new MovieChangeCounter(movieRepository);
+        movieService = new WriteBehindMovieService(delegate, movieRepository, transactionManager, validator,
+                eventPublisher, changeCounter, new SimpleMeterRegistry(), Duration.ofMillis(200), 2);
+    }
+
+    @Test
+    public void testLookupHasPendingChanges() {
+        when(delegate.getMovieByImdbId(OWNER, "tt2250912")).thenReturn(movieSpiderHome);
+        when(delegate.getMoviesByImdbIds(OWNER, List.of("tt2250912", "tt99999999")))
+                .thenReturn(new MovieLookup(List.of(movieSpiderHome), List.of("tt99999999")));
+
+        movieService.updateRating(OWNER, "tt2250912", 5);
+        MovieLookup lookup = movieService.getMoviesByImdbIds(OWNER, List.of("tt2250912", "tt99999999"));
+
+        assertEquals(5, lookup.getMovies().get(0).getRating());
+        assertEquals(List.of("tt99999999"), lookup.getMissing());
+    }
+
+    @Test
+    public void testPendingChangesChangeCollectionVersion() {
+        when(delegate.getMovieByImdbId(OWNER, "tt2250912")).thenReturn(movieSpiderHome);
+        when(movieRepository.findCollectionVersion(OWNER)).thenReturn(7L);
+
+        String version = changeCounter.getVersion(OWNER);
+        movieService.updateRating(OWNER, "tt2250912", 5);
+
+        // The change is not in the database yet, so the collection has a new version before it is written
+        assertNotEquals(version, changeCounter.getVersion(OWNER));
+    }
+
+    @Test
+    public void testChangesAreCoalesced() {
+        when(delegate.getMovieByImdbId(OWNER, "tt2250912")).thenReturn(movieSpiderHome);
+        when(movieRepository.updateSeenAndRating(any())).thenAnswer(invocation -> Optional.of(invocation.getArgument(0)));
+
+        movieService.updateRating(OWNER, "tt2250912", 5);
+        movieService.setMovieUnseen(OWNER, "tt2250912");
+        movieService.setMovieSeen(OWNER, "tt2250912", 9);
+
+        verify(movieRepository, never()).updateSeenAndRating(any());
+        assertEquals(1, movieService.getPendingCount());
+
+        movieService.flush();
+
+        ArgumentCaptor<Movie> written = ArgumentCaptor.forClass(Movie.class);
+        verify(movieRepository, times(1)).updateSeenAndRating(written.capture());
+        assertEquals(OWNER, written.getValue().getOwner());
+        assertEquals(true, written.getValue().isSeen());
+        assertEquals(9, written.getValue().getRating());
+        assertEquals(6, written.getValue().getVersion());
+        assertEquals(0, movieService.getPendingCount());
+        verify(eventPublisher, times(4)).publishEvent(any(MovieChangeEvent.class));
+    }
+
+    @Test
+    public void testMovieDeletedBeforeWriteIsPublishedAsDeleted() {
+        when(delegate.getMovieByImdbId(OWNER, "tt2250912")).thenReturn(movieSpiderHome);
+        when(movieRepository.updateSeenAndRating(any())).thenReturn(Optional.empty());
+
+        movieService.updateRating(OWNER, "tt2250912", 5);
+        movieService.flush();
+
+        ArgumentCaptor<MovieChangeEvent> events = ArgumentCaptor.forClass(MovieChangeEvent.class);
+        verify(eventPublisher, times(2)).publishEvent(events.capture());
+        assertEquals(MovieChangeEvent.Type.UPDATED, events.getAllValues().get(0).getType());
+        assertEquals(MovieChangeEvent.Type.DELETED, events.getAllValues().get(1).getType());
+        assertEquals("tt2250912", events.getAllValues().get(1).getImdbId());
+        assertEquals(0, movieService.getPendingCount());
+    }
+
+    @Test
+    public void testChangesToOtherMoviesDoNotWait() throws Exception {
+        Movie movieSpiderFar = new Movie(2, OWNER, "tt6320628", "Spider-Man: Far from Home", true, 9, 0);
+        CountDownLatch lookupStarted = new CountDownLatch(1);
+        CountDownLatch lookupDone = new CountDownLatch(1);
+        when(delegate.getMovieByImdbId(OWNER, "tt2250912")).thenAnswer(invocation -> {
+            lookupStarted.countDown();
+            assertTrue(lookupDone.await(10, TimeUnit.SECONDS));
+            return movieSpiderHome;
+        });
+        when(delegate.getMovieByImdbId(OWNER, "tt6320628")).thenReturn(movieSpiderFar);
+
+        // The first change waits for its movie to be read while the second one is accepted
+        Thread first = new Thread(() -> movieService.updateRating(OWNER, "tt2250912", 5));
+        first.start();
+        assertTrue(lookupStarted.await(10, TimeUnit.SECONDS));
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> movieService.updateRating(OWNER, "tt6320628", 5));
+        lookupDone.countDown();
+        first.join();
+
+        assertEquals(2, movieService.getPendingCount());
+    }
+
+    @Test
+    public void testReadYourWrites() {
+        when(delegate.getMovieByImdbId(OWNER, "tt2250912")).thenReturn(movieSpiderHome);
+        when(delegate.getAllMovies(OWNER, null)).thenReturn(List.of(movieSpiderHome));
+
+        movieService.updateRating(OWNER, "tt2250912", 5);
+
+        Movie movie = movieService.getMovieByImdbId(OWNER, "tt2250912");
+        assertEquals(5, movie.getRating());
+        assertEquals(4, movie.getVersion());
+        assertEquals(5, movieService.getAllMovies(OWNER, null).get(0).getRating());
+        assertEquals(8, movieSpiderHome.getRating());
+    }
+
+    @Test
+    public void testPendingChangesAreKeptPerOwner() {
+        Movie otherMovie = new Movie(2, "bob", "tt2250912", "Spider-Man: Homecoming", true, 7, 0);
+        when(delegate.getMovieByImdbId(OWNER, "tt2250912")).thenReturn(movieSpiderHome);
+        when(delegate.getMovieByImdbId("bob", "tt2250912")).thenReturn(otherMovie);
+
+        movieService.updateRating(OWNER, "tt2250912", 5);
+
+        assertEquals(5, movieService.getMovieByImdbId(OWNER, "tt2250912").getRating());
+        assertEquals(7, movieService.getMovieByImdbId("bob", "tt2250912").getRating());
+        assertEquals(1, movieService.getPendingCount());
+    }
+
+    @Test
+    public void testInvalidChangesAreRejected() {
+        when(delegate.getMovieByImdbId(OWNER, "tt2250912")).thenReturn(movieSpiderHome);
+
+        assertThatThrownBy(() -> movieService.updateRating(OWNER, "tt2250912", 11))
+                .isInstanceOf(ConstraintViolationException.class);
+        assertThatThrownBy(() -> movieService.updateRating(OWNER, "tt99999999", 5))
+                .isInstanceOf(MovieNotFoundException.class);
+
+        movieService.setMovieUnseen(OWNER, "tt2250912");
+        assertThatThrownBy(() -> movieService.updateRating(OWNER, "tt2250912", 5))
+                .isInstanceOf(ConstraintViolationException.class);
+        assertEquals(1, movieService.getPendingCount());
+    }
+
+    @Test
+    public void testOtherChangesWritePendingChangeFirst() {
+        when(delegate.getMovieByImdbId(OWNER, "tt2250912")).thenReturn(movieSpiderHome);
+        when(movieRepository.updateSeenAndRating(any())).thenAnswer(invocation -> Optional.of(invocation.getArgument(0)));
+
+        movieService.updateRating(OWNER, "tt2250912", 5);
+        movieService.updateName(OWNER, "tt2250912", "Homecoming");
+
+        var order = inOrder(movieRepository, delegate);
+        order.verify(movieRepository).updateSeenAndRating(any());
+        order.verify(delegate).updateName(OWNER, "tt2250912", "Homecoming");
+        assertEquals(0, movieService.getPendingCount());
+    }
+
+    @Test
+    public void testPendingChangesAreWrittenOnStop() throws InterruptedException {
+        when(delegate.getMovieByImdbId(OWNER, "tt2250912")).thenReturn(movieSpiderHome);
+        when(movieRepository.updateSeenAndRating(any())).thenAnswer(invocation -> Optional.of(invocation.getArgument(0)));
+
+        movieService = new WriteBehindMovieService(delegate, movieRepository, transactionManager, validator,
+                eventPublisher, changeCounter, new SimpleMeterRegistry(), Duration.ofMinutes(10), 100);
+        movieService.start();
+        movieService.updateRating(OWNER, "tt2250912", 5);
+        movieService.stop();
+
+        verify(movieRepository, times(1)).updateSeenAndRating(any());
+        assertEquals(0, movieService.getPendingCount());
+    }
+}